@@ -133,6 +133,24 @@ public abstract class AbstractConnectionPool implements ConnectionPool, Dumpable
 
     protected abstract void onCreated(Connection connection);
 
+    /**
+     * @param connection the connection
+     * @param maxMultiplex the max multiplex value of the pool
+     * @return the max multiplex value specific to the connection, if known,
+     * or the given max multiplex value of the pool
+     * @see ConnectionPool.Multiplexable
+     */
+    protected static int getMaxMultiplex(Connection connection, int maxMultiplex)
+    {
+        if (connection instanceof ConnectionPool.Multiplexable)
+        {
+            int connectionMaxMultiplex = ((ConnectionPool.Multiplexable)connection).getMaxMultiplex();
+            if (connectionMaxMultiplex > 0)
+                return connectionMaxMultiplex;
+        }
+        return maxMultiplex;
+    }
+
     protected void proceed()
     {
         requester.succeeded();
@@ -69,6 +69,11 @@ public abstract class AbstractConnectorHttpClientTransport extends AbstractHttpC
         removeBean(selectorManager);
     }
 
+    protected SelectorManager getSelectorManager()
+    {
+        return selectorManager;
+    }
+
     @Override
     public void connect(InetSocketAddress address, Map<String, Object> context)
     {
@@ -21,6 +21,7 @@ package org.eclipse.jetty.client;
 import java.io.Closeable;
 
 import org.eclipse.jetty.client.api.Connection;
+import org.eclipse.jetty.client.api.Request;
 
 /**
  * <p>Client-side connection pool abstraction.</p>
@@ -78,6 +79,48 @@ public interface ConnectionPool extends Closeable
     @Override
     void close();
 
+    /**
+     * <p>Marks a connection as being able to carry multiple concurrent requests.</p>
+     * <p>Connection pools that multiplex requests use the value returned by
+     * {@link #getMaxMultiplex()}, when positive, in preference to their
+     * own configuration, so that each connection can be saturated up
+     * to the limit negotiated with the server.</p>
+     */
+    interface Multiplexable
+    {
+        /**
+         * @return the max number of concurrent requests on this connection,
+         * or a non-positive value if it is not known
+         */
+        int getMaxMultiplex();
+    }
+
+    /**
+     * <p>Marks a connection pool that tracks the requests sent over its connections,
+     * for example to measure their latency.</p>
+     * <p>Requests may complete in a different order than they have been sent,
+     * for example on connections that carry multiple concurrent requests.</p>
+     */
+    interface RequestListener
+    {
+        /**
+         * <p>Callback method invoked when the given request is about to be sent
+         * over the given connection, previously obtained via {@link #acquire()}.</p>
+         *
+         * @param connection the connection the request is sent over
+         * @param request the request
+         */
+        void onSend(Connection connection, Request request);
+
+        /**
+         * <p>Callback method invoked when the exchange of the given request,
+         * previously notified to {@link #onSend(Connection, Request)}, is terminated.</p>
+         *
+         * @param request the request
+         */
+        void onComplete(Request request);
+    }
+
     /**
      * Factory for ConnectionPool instances.
      */
@@ -91,4 +134,34 @@ public interface ConnectionPool extends Closeable
          */
         ConnectionPool newConnectionPool(HttpDestination destination);
     }
+
+    /**
+     * <p>Factory for ConnectionPool instances with a given max number of connections.</p>
+     * <p>Factories of this type allow wrapping factories to change the max number
+     * of connections for specific destinations, while keeping the ConnectionPool type.</p>
+     */
+    interface MaxConnectionsFactory extends Factory
+    {
+        /**
+         * Creates a new ConnectionPool for the given destination, with
+         * {@link HttpClient#getMaxConnectionsPerDestination()} max connections.
+         *
+         * @param destination the destination to create the ConnectionPool for
+         * @return the newly created ConnectionPool
+         */
+        @Override
+        default ConnectionPool newConnectionPool(HttpDestination destination)
+        {
+            return newConnectionPool(destination, destination.getHttpClient().getMaxConnectionsPerDestination());
+        }
+
+        /**
+         * Creates a new ConnectionPool for the given destination.
+         *
+         * @param destination the destination to create the ConnectionPool for
+         * @param maxConnections the max number of connections of the ConnectionPool
+         * @return the newly created ConnectionPool
+         */
+        ConnectionPool newConnectionPool(HttpDestination destination, int maxConnections);
+    }
 }
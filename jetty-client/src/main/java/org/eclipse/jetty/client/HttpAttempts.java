@@ -0,0 +1,384 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2017 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.client;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jetty.client.api.Response;
+import org.eclipse.jetty.client.api.Result;
+import org.eclipse.jetty.http.HttpField;
+import org.eclipse.jetty.http.HttpHeader;
+import org.eclipse.jetty.util.Callback;
+import org.eclipse.jetty.util.log.Log;
+import org.eclipse.jetty.util.log.Logger;
+import org.eclipse.jetty.util.thread.Scheduler;
+
+/**
+ * <p>Sends a request applying a {@link RetryPolicy}.</p>
+ * <p>The original request is sent as the first attempt; retries and hedges are
+ * copies of the original request, each sent in its own conversation.
+ * The first attempt that receives a response wins and its response events are
+ * forwarded to the response listeners of the original request, while the other
+ * attempts are aborted.</p>
+ * <p>Request listeners are only notified for the original request.</p>
+ */
+class HttpAttempts
+{
+    private static final Logger LOG = Log.getLogger(HttpAttempts.class);
+
+    private final List<Attempt> attempts = new ArrayList<>(2);
+    private final HttpDestination destination;
+    private final RetryPolicy policy;
+    private final HttpRequest request;
+    private final List<Response.ResponseListener> listeners;
+    private final Throwable lost = new CancellationException("Hedged request lost");
+    private Attempt winner;
+    private Throwable aborted;
+    private boolean complete;
+    private int retries;
+    private int hedges;
+    private Scheduler.Task hedgeTask;
+    private long begin;
+
+    HttpAttempts(HttpDestination destination, RetryPolicy policy, HttpRequest request, List<Response.ResponseListener> listeners)
+    {
+        this.destination = destination;
+        this.policy = policy;
+        this.request = request;
+        this.listeners = listeners;
+    }
+
+    void send()
+    {
+        begin = System.nanoTime();
+        request.setHttpAttempts(this);
+        Attempt attempt = new Attempt(request, false);
+        synchronized (this)
+        {
+            attempts.add(attempt);
+        }
+        scheduleHedge();
+        attempt.send();
+    }
+
+    /**
+     * <p>Aborts the attempts that are still in progress.</p>
+     * <p>This method is called when the original request is aborted, either by
+     * the application, by its total timeout, or because {@link HttpClient} is
+     * stopping; in all these cases the request must not be retried, so all the
+     * attempts are aborted.</p>
+     *
+     * @param cause the abort cause
+     * @return whether any attempt was aborted
+     */
+    boolean abort(Throwable cause)
+    {
+        List<Attempt> toAbort;
+        synchronized (this)
+        {
+            if (complete || aborted != null)
+                return false;
+            aborted = cause;
+            toAbort = new ArrayList<>(attempts);
+            cancelHedge();
+        }
+        boolean result = false;
+        for (Attempt attempt : toAbort)
+            result |= attempt.abort(cause);
+        return result;
+    }
+
+    private void scheduleHedge()
+    {
+        if (policy.getMaxHedges() <= 0)
+            return;
+        long delay = policy.getHedgeDelay();
+        if (delay < 0)
+            return;
+        synchronized (this)
+        {
+            if (complete || winner != null || aborted != null || hedges >= policy.getMaxHedges())
+                return;
+            cancelHedge();
+            hedgeTask = destination.getHttpClient().getScheduler().schedule(this::hedge, delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void cancelHedge()
+    {
+        Scheduler.Task task = hedgeTask;
+        hedgeTask = null;
+        if (task != null)
+            task.cancel();
+    }
+
+    private void hedge()
+    {
+        Attempt attempt;
+        synchronized (this)
+        {
+            hedgeTask = null;
+            if (complete || winner != null || aborted != null || hedges >= policy.getMaxHedges())
+                return;
+            ++hedges;
+            attempt = new Attempt(copyRequest(), true);
+            attempts.add(attempt);
+        }
+        if (LOG.isDebugEnabled())
+            LOG.debug("Hedging {} with {}", request, attempt.request);
+        policy.onHedge(request);
+        scheduleHedge();
+        attempt.send();
+    }
+
+    private HttpRequest copyRequest()
+    {
+        HttpClient client = destination.getHttpClient();
+        HttpRequest copy = client.newHttpRequest(new HttpConversation(), request.getURI());
+        copy.method(request.getMethod())
+                .version(request.getVersion())
+                .content(request.getContent())
+                .idleTimeout(request.getIdleTimeout(), TimeUnit.MILLISECONDS)
+                .followRedirects(request.isFollowRedirects());
+        long timeout = request.getTimeout();
+        if (timeout > 0)
+        {
+            // Copies are bound by what is left of the total timeout.
+            long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin);
+            copy.timeout(Math.max(1, timeout - elapsed), TimeUnit.MILLISECONDS);
+        }
+        for (HttpField field : request.getHeaders())
+        {
+            // Cookies are added again when the copy is sent.
+            if (field.getHeader() == HttpHeader.COOKIE)
+                continue;
+            String name = field.getName();
+            String value = field.getValue();
+            if (!copy.getHeaders().contains(name, value))
+                copy.header(name, value);
+        }
+        request.getCookies().forEach(copy::cookie);
+        for (Map.Entry<String, Object> entry : request.getAttributes().entrySet())
+            copy.attribute(entry.getKey(), entry.getValue());
+        return copy;
+    }
+
+    private boolean onBegin(Attempt attempt)
+    {
+        List<Attempt> losers;
+        synchronized (this)
+        {
+            if (winner == null && !complete && aborted == null)
+            {
+                winner = attempt;
+                cancelHedge();
+                losers = new ArrayList<>(attempts);
+                losers.remove(attempt);
+            }
+            else
+            {
+                return winner == attempt;
+            }
+        }
+        if (attempt.hedge)
+            policy.onHedgeWon(request);
+        for (Attempt loser : losers)
+            loser.abort(lost);
+        return true;
+    }
+
+    private void onComplete(Attempt attempt, Result result)
+    {
+        Throwable failure = result.getFailure();
+        Attempt retry = null;
+        boolean notify = false;
+        List<Attempt> losers = Collections.emptyList();
+        synchronized (this)
+        {
+            attempts.remove(attempt);
+            if (winner != null || complete)
+            {
+                if (winner == attempt)
+                    notify = complete = true;
+            }
+            else if (aborted != null)
+            {
+                notify = complete = attempts.isEmpty();
+            }
+            else if (retries < policy.getMaxRetries() && policy.isRetryable(attempt.request, failure))
+            {
+                ++retries;
+                retry = new Attempt(copyRequest(), attempt.hedge);
+                attempts.add(retry);
+            }
+            else if (attempt.request == request || attempts.isEmpty())
+            {
+                // The original request failed in a way that cannot be
+                // retried, or there is no other attempt in progress.
+                notify = complete = true;
+                cancelHedge();
+                losers = new ArrayList<>(attempts);
+            }
+        }
+
+        if (result.isSucceeded())
+            policy.onLatency(System.nanoTime() - attempt.start);
+
+        if (retry != null)
+        {
+            if (LOG.isDebugEnabled())
+                LOG.debug("Retrying {} with {} after {}", request, retry.request, failure);
+            policy.onRetry(request);
+            retry.send();
+        }
+        else if (notify)
+        {
+            for (Attempt loser : losers)
+                loser.abort(lost);
+            ResponseNotifier notifier = destination.getResponseNotifier();
+            if (winner != attempt)
+                notifier.notifyFailure(listeners, result.getResponse(), failure);
+            notifier.notifyComplete(listeners, new Result(request, result.getRequestFailure(), result.getResponse(), result.getResponseFailure()));
+        }
+        else
+        {
+            if (LOG.isDebugEnabled())
+                LOG.debug("Discarded {} for {}", result, request);
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        synchronized (this)
+        {
+            return String.format("%s@%x[%s,attempts=%d,retries=%d,hedges=%d]",
+                    getClass().getSimpleName(),
+                    hashCode(),
+                    request,
+                    attempts.size(),
+                    retries,
+                    hedges);
+        }
+    }
+
+    private class Attempt extends Response.Listener.Adapter
+    {
+        private final HttpRequest request;
+        private final boolean hedge;
+        private long start;
+
+        private Attempt(HttpRequest request, boolean hedge)
+        {
+            this.request = request;
+            this.hedge = hedge;
+        }
+
+        private void send()
+        {
+            start = System.nanoTime();
+            List<Response.ResponseListener> listeners = new ArrayList<>(2);
+            listeners.add(this);
+            // The total timeout of the original request is already scheduled.
+            if (request != HttpAttempts.this.request && request.getTimeout() > 0)
+            {
+                TimeoutCompleteListener timeoutListener = new TimeoutCompleteListener(request);
+                timeoutListener.schedule(destination.getHttpClient().getScheduler());
+                listeners.add(timeoutListener);
+            }
+            destination.send(request, listeners);
+        }
+
+        private boolean abort(Throwable cause)
+        {
+            return request.abortAttempt(cause);
+        }
+
+        private boolean isWinner()
+        {
+            synchronized (HttpAttempts.this)
+            {
+                return winner == this;
+            }
+        }
+
+        @Override
+        public void onBegin(Response response)
+        {
+            if (HttpAttempts.this.onBegin(this))
+                destination.getResponseNotifier().notifyBegin(listeners, response);
+        }
+
+        @Override
+        public boolean onHeader(Response response, HttpField field)
+        {
+            if (isWinner())
+                return destination.getResponseNotifier().notifyHeader(listeners, response, field);
+            return true;
+        }
+
+        @Override
+        public void onHeaders(Response response)
+        {
+            if (isWinner())
+                destination.getResponseNotifier().notifyHeaders(listeners, response);
+        }
+
+        @Override
+        public void onContent(Response response, ByteBuffer content, Callback callback)
+        {
+            if (isWinner())
+                destination.getResponseNotifier().notifyContent(listeners, response, content, callback);
+            else
+                callback.succeeded();
+        }
+
+        @Override
+        public void onSuccess(Response response)
+        {
+            if (isWinner())
+                destination.getResponseNotifier().notifySuccess(listeners, response);
+        }
+
+        @Override
+        public void onFailure(Response response, Throwable failure)
+        {
+            if (isWinner())
+                destination.getResponseNotifier().notifyFailure(listeners, response, failure);
+        }
+
+        @Override
+        public void onComplete(Result result)
+        {
+            HttpAttempts.this.onComplete(this, result);
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format("%s[%s,hedge=%b]", getClass().getSimpleName(), request, hedge);
+        }
+    }
+}
@@ -0,0 +1,1159 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2017 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.client;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.eclipse.jetty.client.HttpCacheRules.CacheControl;
+import org.eclipse.jetty.client.HttpCacheRules.Resource;
+import org.eclipse.jetty.client.api.Response;
+import org.eclipse.jetty.client.api.Result;
+import org.eclipse.jetty.http.HttpField;
+import org.eclipse.jetty.http.HttpFields;
+import org.eclipse.jetty.http.HttpHeader;
+import org.eclipse.jetty.http.HttpMethod;
+import org.eclipse.jetty.http.HttpStatus;
+import org.eclipse.jetty.http.HttpVersion;
+import org.eclipse.jetty.util.BufferUtil;
+import org.eclipse.jetty.util.ByteArrayOutputStream2;
+import org.eclipse.jetty.util.Callback;
+import org.eclipse.jetty.util.annotation.ManagedAttribute;
+import org.eclipse.jetty.util.annotation.ManagedObject;
+import org.eclipse.jetty.util.annotation.ManagedOperation;
+import org.eclipse.jetty.util.component.ContainerLifeCycle;
+import org.eclipse.jetty.util.log.Log;
+import org.eclipse.jetty.util.log.Logger;
+
+/**
+ * <p>A cache of HTTP responses, as specified by RFC 7234.</p>
+ * <p>An {@code HttpCache} is installed with {@link HttpClient#setHttpCache(HttpCache)}.
+ * {@code GET} requests that find a fresh response in the cache are not sent: the cached
+ * response is notified to the response listeners of the request, without notifying the
+ * request listeners.
+ * Stale responses that have a validator ({@code ETag} or {@code Last-Modified}) are
+ * revalidated with a conditional request; when the server replies {@code 304 Not Modified}
+ * the cached response is refreshed and notified to the response listeners.
+ * Stale responses within their {@code stale-while-revalidate} window are notified
+ * immediately, while they are revalidated in the background.</p>
+ * <p>Responses are cached according to their {@code Cache-Control}, {@code Expires}
+ * and {@code Vary} headers; responses without explicit freshness information that have
+ * a {@code Last-Modified} header get a heuristic freshness lifetime, a fraction of the
+ * time since their last modification.
+ * Unsafe requests such as {@code POST} invalidate the cached responses for their URI.</p>
+ * <p>Cached responses are stored in memory up to {@link #getMaxMemorySize()} bytes.
+ * When this size is exceeded, the least recently used responses are evicted, and moved to
+ * the {@link #getDiskDirectory() disk directory}, if configured, up to {@link #getMaxDiskSize()}
+ * bytes, by the {@link HttpClient#getExecutor() executor}. Responses moved to disk are read
+ * back, also by the executor, and moved back to memory when they are used.
+ * The disk directory is not persistent: its files are deleted when the cache is stopped.</p>
+ * <p>By default this is a private cache, for example storing responses with
+ * {@code Cache-Control: private}; use {@link #setShared(boolean)} when the
+ * {@link HttpClient} sends requests on behalf of different users.</p>
+ * <p>The cached response content is the content notified to response listeners, that is
+ * after it has been decoded by a {@link ContentDecoder}; such responses are cached without
+ * their {@code Content-Encoding} header, and with the {@code Content-Length} of the decoded
+ * content.</p>
+ */
+@ManagedObject("The HTTP response cache")
+public class HttpCache extends ContainerLifeCycle
+{
+    private static final Logger LOG = Log.getLogger(HttpCache.class);
+    private static final HttpField STALE_WARNING = new HttpField(HttpHeader.WARNING, "110 - \"Response is Stale\"");
+
+    private final Map<String, Resource> resources = new HashMap<>();
+    private final Map<String, Entry> memory = new LinkedHashMap<>(64, 0.75F, true);
+    private final Map<String, DiskEntry> disk = new LinkedHashMap<>(64, 0.75F, true);
+    private final Set<String> revalidating = ConcurrentHashMap.newKeySet();
+    private final AtomicLong diskIds = new AtomicLong();
+    private final ResponseNotifier notifier = new ResponseNotifier();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder staleHits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder revalidations = new LongAdder();
+    private final LongAdder unmodified = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final HttpClient client;
+    private long memorySize;
+    private long diskSize;
+    private long maxMemorySize = 32 * 1024 * 1024;
+    private int maxEntrySize = 1024 * 1024;
+    private Path diskDirectory;
+    private long maxDiskSize = 256 * 1024 * 1024;
+    private boolean shared;
+    private double heuristicRatio = 0.1;
+    private long maxHeuristicLifetime = TimeUnit.DAYS.toMillis(1);
+
+    public HttpCache(HttpClient client)
+    {
+        this.client = client;
+    }
+
+    public HttpClient getHttpClient()
+    {
+        return client;
+    }
+
+    @ManagedAttribute("The max number of bytes of the responses cached in memory")
+    public long getMaxMemorySize()
+    {
+        return maxMemorySize;
+    }
+
+    public void setMaxMemorySize(long maxMemorySize)
+    {
+        this.maxMemorySize = maxMemorySize;
+    }
+
+    @ManagedAttribute("The max number of bytes of a cached response")
+    public int getMaxEntrySize()
+    {
+        return maxEntrySize;
+    }
+
+    /**
+     * @param maxEntrySize the max size, in bytes, of the content of a response,
+     * above which the response is not cached
+     */
+    public void setMaxEntrySize(int maxEntrySize)
+    {
+        this.maxEntrySize = maxEntrySize;
+    }
+
+    /**
+     * @return the directory where the responses evicted from memory are stored, or null
+     */
+    public Path getDiskDirectory()
+    {
+        return diskDirectory;
+    }
+
+    /**
+     * @param diskDirectory the directory where the responses evicted from memory are stored,
+     * or null to discard the responses evicted from memory
+     */
+    public void setDiskDirectory(Path diskDirectory)
+    {
+        this.diskDirectory = diskDirectory;
+    }
+
+    @ManagedAttribute("The max number of bytes of the responses cached on disk")
+    public long getMaxDiskSize()
+    {
+        return maxDiskSize;
+    }
+
+    public void setMaxDiskSize(long maxDiskSize)
+    {
+        this.maxDiskSize = maxDiskSize;
+    }
+
+    @ManagedAttribute("Whether this cache is shared among users")
+    public boolean isShared()
+    {
+        return shared;
+    }
+
+    /**
+     * @param shared whether this cache is shared among different users, in which case
+     * responses with {@code Cache-Control: private} are not cached
+     */
+    public void setShared(boolean shared)
+    {
+        this.shared = shared;
+    }
+
+    @ManagedAttribute("The fraction of the time since the last modification used as heuristic freshness lifetime")
+    public double getHeuristicRatio()
+    {
+        return heuristicRatio;
+    }
+
+    /**
+     * @param heuristicRatio the fraction of the time since the last modification of a response
+     * used as freshness lifetime when the response has no explicit freshness information,
+     * or 0 to disable heuristic freshness
+     */
+    public void setHeuristicRatio(double heuristicRatio)
+    {
+        this.heuristicRatio = heuristicRatio;
+    }
+
+    @ManagedAttribute("The max heuristic freshness lifetime, in milliseconds")
+    public long getMaxHeuristicLifetime()
+    {
+        return maxHeuristicLifetime;
+    }
+
+    public void setMaxHeuristicLifetime(long maxHeuristicLifetime)
+    {
+        this.maxHeuristicLifetime = maxHeuristicLifetime;
+    }
+
+    @ManagedAttribute(value = "The number of requests served with a fresh cached response", readonly = true)
+    public long getHits()
+    {
+        return hits.sum();
+    }
+
+    @ManagedAttribute(value = "The number of requests served with a stale cached response while revalidating", readonly = true)
+    public long getStaleHits()
+    {
+        return staleHits.sum();
+    }
+
+    @ManagedAttribute(value = "The number of requests that found no cached response", readonly = true)
+    public long getMisses()
+    {
+        return misses.sum();
+    }
+
+    @ManagedAttribute(value = "The number of conditional requests sent to revalidate a cached response", readonly = true)
+    public long getRevalidations()
+    {
+        return revalidations.sum();
+    }
+
+    @ManagedAttribute(value = "The number of revalidations that did not modify the cached response", readonly = true)
+    public long getNotModified()
+    {
+        return unmodified.sum();
+    }
+
+    @ManagedAttribute(value = "The number of responses evicted from the cache", readonly = true)
+    public long getEvictions()
+    {
+        return evictions.sum();
+    }
+
+    @ManagedAttribute(value = "The number of responses cached in memory", readonly = true)
+    public int getMemoryEntries()
+    {
+        synchronized (this)
+        {
+            return memory.size();
+        }
+    }
+
+    @ManagedAttribute(value = "The number of bytes of the responses cached in memory", readonly = true)
+    public long getMemorySize()
+    {
+        synchronized (this)
+        {
+            return memorySize;
+        }
+    }
+
+    @ManagedAttribute(value = "The number of responses cached on disk", readonly = true)
+    public int getDiskEntries()
+    {
+        synchronized (this)
+        {
+            return disk.size();
+        }
+    }
+
+    @ManagedAttribute(value = "The number of bytes of the responses cached on disk", readonly = true)
+    public long getDiskSize()
+    {
+        synchronized (this)
+        {
+            return diskSize;
+        }
+    }
+
+    @ManagedOperation(value = "Resets the statistics", impact = "ACTION")
+    public void resetStatistics()
+    {
+        hits.reset();
+        staleHits.reset();
+        misses.reset();
+        revalidations.reset();
+        unmodified.reset();
+        evictions.reset();
+    }
+
+    @Override
+    protected void doStart() throws Exception
+    {
+        Path directory = getDiskDirectory();
+        if (directory != null)
+            Files.createDirectories(directory);
+        super.doStart();
+    }
+
+    @Override
+    protected void doStop() throws Exception
+    {
+        super.doStop();
+        clear();
+    }
+
+    /**
+     * <p>Removes all the cached responses.</p>
+     */
+    @ManagedOperation(value = "Removes all the cached responses", impact = "ACTION")
+    public void clear()
+    {
+        List<DiskEntry> files;
+        synchronized (this)
+        {
+            files = new ArrayList<>(disk.values());
+            resources.clear();
+            memory.clear();
+            disk.clear();
+            memorySize = 0;
+            diskSize = 0;
+        }
+        files.forEach(this::delete);
+    }
+
+    /**
+     * <p>Removes the cached responses for the given URI.</p>
+     *
+     * @param uri the URI of the responses to remove
+     */
+    public void invalidate(URI uri)
+    {
+        List<DiskEntry> files = new ArrayList<>();
+        synchronized (this)
+        {
+            Resource resource = resources.remove(uri.toString());
+            if (resource != null)
+            {
+                for (String key : resource.getKeys())
+                    remove(key, files);
+            }
+        }
+        offload(Collections.emptyList(), files);
+    }
+
+    void send(HttpRequest request, List<Response.ResponseListener> listeners)
+    {
+        String method = request.getMethod();
+        if (!HttpMethod.GET.is(method))
+        {
+            if (!isSafe(method))
+            {
+                listeners = new ArrayList<>(listeners);
+                listeners.add(new Invalidator(request));
+            }
+            client.transmit(request, listeners);
+            return;
+        }
+
+        HttpFields headers = request.getHeaders();
+        CacheControl control = new CacheControl(headers);
+        if (control.isNoStore() || HttpCacheRules.isConditional(headers) || !request.getConversation().getExchanges().isEmpty())
+        {
+            // Requests sent within an existing conversation, such as redirects,
+            // cannot be served from the cache because their listeners are not
+            // those that will be notified of the response events.
+            client.transmit(request, listeners);
+            return;
+        }
+
+        // Normalize the path like the connection does, so that
+        // the response is looked up with the URI it is stored with.
+        if (request.getPath().trim().length() == 0)
+            request.path("/");
+
+        String uri = request.getURI().toString();
+        String key;
+        Entry entry;
+        synchronized (this)
+        {
+            Resource resource = resources.get(uri);
+            key = resource == null ? null : HttpCacheRules.key(uri, resource.getVary(), request.getHeaders());
+            entry = key == null ? null : memory.get(key);
+            if (entry != null || !disk.containsKey(key))
+                key = null;
+        }
+
+        if (key != null)
+        {
+            // Do not block the thread that sends the request with disk I/O.
+            String diskKey = key;
+            List<Response.ResponseListener> responseListeners = listeners;
+            client.getExecutor().execute(() -> send(request, responseListeners, control, load(diskKey)));
+            return;
+        }
+
+        send(request, listeners, control, entry);
+    }
+
+    private void send(HttpRequest request, List<Response.ResponseListener> listeners, CacheControl control, Entry entry)
+    {
+        if (entry == null)
+        {
+            misses.increment();
+            transmit(request, listeners, null);
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        long age = entry.age(now);
+        boolean noCache = control.isNoCache() || entry.noCache;
+        if (!noCache && age < entry.lifetime && (control.getMaxAge() < 0 || age <= control.getMaxAge()))
+        {
+            hits.increment();
+            serve(entry, request, listeners, age, false);
+            return;
+        }
+
+        if (!noCache && !entry.mustRevalidate && control.getMaxAge() < 0 && age < entry.lifetime + entry.staleWhileRevalidate)
+        {
+            staleHits.increment();
+            serve(entry, request, listeners, age, true);
+            if (entry.hasValidators())
+                revalidate(entry, request);
+            return;
+        }
+
+        if (entry.hasValidators())
+        {
+            revalidations.increment();
+            addConditionalHeaders(request, entry);
+            transmit(request, listeners, entry);
+        }
+        else
+        {
+            misses.increment();
+            transmit(request, listeners, null);
+        }
+    }
+
+    private boolean isSafe(String method)
+    {
+        return HttpMethod.HEAD.is(method) ||
+                HttpMethod.OPTIONS.is(method) ||
+                HttpMethod.TRACE.is(method);
+    }
+
+    private void addConditionalHeaders(HttpRequest request, Entry entry)
+    {
+        if (entry.etag != null)
+            request.header(HttpHeader.IF_NONE_MATCH, entry.etag);
+        if (entry.lastModified != null)
+            request.header(HttpHeader.IF_MODIFIED_SINCE, entry.lastModified);
+    }
+
+    private void transmit(HttpRequest request, List<Response.ResponseListener> listeners, Entry entry)
+    {
+        Exchange exchange = new Exchange(request, listeners, entry, false);
+        client.transmit(request, Collections.singletonList(exchange));
+    }
+
+    private void revalidate(Entry entry, HttpRequest request)
+    {
+        if (!revalidating.add(entry.key))
+            return;
+
+        revalidations.increment();
+        HttpRequest revalidation = client.newHttpRequest(new HttpConversation(), request.getURI());
+        revalidation.idleTimeout(request.getIdleTimeout(), TimeUnit.MILLISECONDS);
+        for (HttpField field : request.getHeaders())
+        {
+            // Cookies are added again when the request is sent.
+            if (field.getHeader() == HttpHeader.COOKIE)
+                continue;
+            String name = field.getName();
+            String value = field.getValue();
+            if (!revalidation.getHeaders().contains(name, value))
+                revalidation.header(name, value);
+        }
+        request.getCookies().forEach(revalidation::cookie);
+        addConditionalHeaders(revalidation, entry);
+        if (LOG.isDebugEnabled())
+            LOG.debug("Revalidating {} with {}", entry, revalidation);
+        Exchange exchange = new Exchange(revalidation, Collections.emptyList(), entry, true);
+        client.transmit(revalidation, Collections.singletonList(exchange));
+    }
+
+    private void serve(Entry entry, HttpRequest request, List<Response.ResponseListener> listeners, long age, boolean stale)
+    {
+        if (LOG.isDebugEnabled())
+            LOG.debug("Serving {} for {}", entry, request);
+        client.getExecutor().execute(() ->
+        {
+            HttpResponse response = new HttpResponse(request, listeners);
+            response.version(entry.version).status(entry.status).reason(entry.reason);
+            notifier.notifyBegin(listeners, response);
+            for (HttpField field : entry.headers)
+            {
+                if (field.getHeader() == HttpHeader.AGE)
+                    continue;
+                if (notifier.notifyHeader(listeners, response, field))
+                    response.getHeaders().add(field);
+            }
+            HttpField ageField = new HttpField(HttpHeader.AGE, String.valueOf(TimeUnit.MILLISECONDS.toSeconds(age)));
+            if (notifier.notifyHeader(listeners, response, ageField))
+                response.getHeaders().add(ageField);
+            if (stale && notifier.notifyHeader(listeners, response, STALE_WARNING))
+                response.getHeaders().add(STALE_WARNING);
+            notifier.notifyHeaders(listeners, response);
+            notifier.notifyContent(listeners, response, ByteBuffer.wrap(entry.content), new Callback()
+            {
+                @Override
+                public void succeeded()
+                {
+                    notifier.notifySuccess(listeners, response);
+                    notifier.notifyComplete(listeners, new Result(request, response));
+                }
+
+                @Override
+                public void failed(Throwable x)
+                {
+                    notifier.notifyFailure(listeners, response, x);
+                    notifier.notifyComplete(listeners, new Result(request, null, response, x));
+                }
+            });
+        });
+    }
+
+    private void store(HttpRequest request, Response response, byte[] content, long requestTime, long responseTime)
+    {
+        HttpFields headers = response.getHeaders();
+        int status = response.getStatus();
+        if (!HttpCacheRules.isStorable(request.getHeaders(), headers, status, isShared()))
+            return;
+        List<String> vary = HttpCacheRules.getVary(headers);
+
+        // The content has been decoded if the client has a decoder for its encoding.
+        boolean decoded = isDecoded(headers);
+        HttpFields stored = new HttpFields(headers.size());
+        for (HttpField field : headers)
+        {
+            if (!isStorable(field))
+                continue;
+            HttpHeader header = field.getHeader();
+            if (decoded && header == HttpHeader.CONTENT_ENCODING)
+                continue;
+            if (header == HttpHeader.CONTENT_LENGTH)
+                stored.add(HttpHeader.CONTENT_LENGTH, String.valueOf(content.length));
+            else
+                stored.add(field);
+        }
+
+        String uri = request.getURI().toString();
+        String key = HttpCacheRules.key(uri, vary, request.getHeaders());
+        Entry entry = new Entry(uri, vary, key, response.getVersion(), status, response.getReason(), stored, content, requestTime, responseTime);
+        if (entry.lifetime <= 0 && entry.staleWhileRevalidate <= 0 && !entry.hasValidators())
+            return;
+
+        if (LOG.isDebugEnabled())
+            LOG.debug("Storing {}", entry);
+        put(entry);
+    }
+
+    private boolean isDecoded(HttpFields headers)
+    {
+        for (String encoding : headers.getCSV(HttpHeader.CONTENT_ENCODING, false))
+        {
+            for (ContentDecoder.Factory factory : client.getContentDecoderFactories())
+            {
+                if (factory.getEncoding().equalsIgnoreCase(encoding))
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean isStorable(HttpField field)
+    {
+        HttpHeader header = field.getHeader();
+        if (header == null)
+            return true;
+        switch (header)
+        {
+            case SET_COOKIE:
+            case SET_COOKIE2:
+            case CONNECTION:
+            case KEEP_ALIVE:
+            case TRANSFER_ENCODING:
+            case PROXY_AUTHENTICATE:
+                return false;
+            default:
+                return true;
+        }
+    }
+
+    private Entry update(Entry entry, Response response, long requestTime, long responseTime)
+    {
+        HttpFields headers = new HttpFields(entry.headers);
+        Set<String> names = new HashSet<>();
+        for (HttpField field : response.getHeaders())
+        {
+            // The cached content is not replaced, so neither is its representation metadata.
+            HttpHeader header = field.getHeader();
+            if (isStorable(field) && header != HttpHeader.CONTENT_LENGTH && header != HttpHeader.CONTENT_ENCODING)
+                names.add(field.getName());
+        }
+        names.forEach(headers::remove);
+        for (HttpField field : response.getHeaders())
+        {
+            if (names.contains(field.getName()))
+                headers.add(field);
+        }
+        Entry updated = new Entry(entry.uri, entry.vary, entry.key, entry.version, entry.status, entry.reason, headers, entry.content, requestTime, responseTime);
+        put(updated);
+        return updated;
+    }
+
+    private void put(Entry entry)
+    {
+        List<Entry> evicted = new ArrayList<>();
+        List<DiskEntry> files = new ArrayList<>();
+        synchronized (this)
+        {
+            Resource resource = resources.get(entry.uri);
+            if (resource == null)
+            {
+                resource = new Resource(entry.vary);
+                resources.put(entry.uri, resource);
+            }
+            else if (!resource.getVary().equals(entry.vary))
+            {
+                // The response varies on different headers, the other variants are stale.
+                for (String key : resource.getKeys())
+                    remove(key, files);
+                resource = new Resource(entry.vary);
+                resources.put(entry.uri, resource);
+            }
+            remove(entry.key, files);
+            resource.getKeys().add(entry.key);
+            memory.put(entry.key, entry);
+            memorySize += entry.weight;
+
+            Iterator<Entry> iterator = memory.values().iterator();
+            while (memorySize > getMaxMemorySize() && iterator.hasNext())
+            {
+                Entry eldest = iterator.next();
+                iterator.remove();
+                memorySize -= eldest.weight;
+                if (getDiskDirectory() != null && isRunning())
+                {
+                    evicted.add(eldest);
+                }
+                else
+                {
+                    evictions.increment();
+                    removeKey(eldest.uri, eldest.key);
+                }
+            }
+        }
+        offload(evicted, files);
+    }
+
+    private void offload(List<Entry> evicted, List<DiskEntry> files)
+    {
+        if (evicted.isEmpty() && files.isEmpty())
+            return;
+        // Do not block the thread that stored the response with disk I/O.
+        client.getExecutor().execute(() ->
+        {
+            files.forEach(this::delete);
+            evicted.forEach(this::spill);
+        });
+    }
+
+    private void remove(String key, List<DiskEntry> files)
+    {
+        Entry entry = memory.remove(key);
+        if (entry != null)
+            memorySize -= entry.weight;
+        DiskEntry file = disk.remove(key);
+        if (file != null)
+        {
+            diskSize -= file.size;
+            files.add(file);
+        }
+    }
+
+    private void removeKey(String uri, String key)
+    {
+        Resource resource = resources.get(uri);
+        if (resource != null)
+        {
+            resource.getKeys().remove(key);
+            if (resource.getKeys().isEmpty())
+                resources.remove(uri);
+        }
+    }
+
+    private void spill(Entry entry)
+    {
+        Path path = getDiskDirectory().resolve("entry-" + diskIds.incrementAndGet());
+        try
+        {
+            write(path, entry);
+            DiskEntry file = new DiskEntry(path, Files.size(path));
+            List<DiskEntry> files = new ArrayList<>();
+            synchronized (this)
+            {
+                Resource resource = resources.get(entry.uri);
+                if (resource == null || !resource.getKeys().contains(entry.key) || memory.containsKey(entry.key))
+                {
+                    // Removed or stored again while it was written.
+                    files.add(file);
+                }
+                else
+                {
+                    DiskEntry existing = disk.put(entry.key, file);
+                    if (existing != null)
+                    {
+                        diskSize -= existing.size;
+                        files.add(existing);
+                    }
+                    diskSize += file.size;
+                    Iterator<Map.Entry<String, DiskEntry>> iterator = disk.entrySet().iterator();
+                    while (diskSize > getMaxDiskSize() && iterator.hasNext())
+                    {
+                        Map.Entry<String, DiskEntry> eldest = iterator.next();
+                        iterator.remove();
+                        diskSize -= eldest.getValue().size;
+                        files.add(eldest.getValue());
+                        evictions.increment();
+                        String key = eldest.getKey();
+                        int newLine = key.indexOf('\n');
+                        removeKey(newLine < 0 ? key : key.substring(0, newLine), key);
+                    }
+                }
+            }
+            files.forEach(this::delete);
+        }
+        catch (Throwable x)
+        {
+            LOG.debug(x);
+            evictions.increment();
+            synchronized (this)
+            {
+                if (!memory.containsKey(entry.key))
+                    removeKey(entry.uri, entry.key);
+            }
+            delete(new DiskEntry(path, 0));
+        }
+    }
+
+    /**
+     * <p>Reads the entry with the given key from disk, and moves it back to memory.</p>
+     *
+     * @param key the entry key
+     * @return the entry, or null if it is not on disk or cannot be read
+     */
+    private Entry load(String key)
+    {
+        DiskEntry file;
+        synchronized (this)
+        {
+            file = disk.get(key);
+        }
+        if (file == null)
+            return null;
+        try
+        {
+            Entry entry = read(file.path, key);
+            put(entry);
+            return entry;
+        }
+        catch (Throwable x)
+        {
+            LOG.debug(x);
+            return null;
+        }
+    }
+
+    private void delete(DiskEntry file)
+    {
+        try
+        {
+            Files.deleteIfExists(file.path);
+        }
+        catch (Throwable x)
+        {
+            LOG.debug(x);
+        }
+    }
+
+    private void write(Path path, Entry entry) throws IOException
+    {
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path))))
+        {
+            writeString(output, entry.uri);
+            output.writeInt(entry.vary.size());
+            for (String name : entry.vary)
+                writeString(output, name);
+            writeString(output, entry.version.asString());
+            output.writeInt(entry.status);
+            writeString(output, entry.reason == null ? "" : entry.reason);
+            output.writeLong(entry.requestTime);
+            output.writeLong(entry.responseTime);
+            output.writeInt(entry.headers.size());
+            for (HttpField field : entry.headers)
+            {
+                writeString(output, field.getName());
+                writeString(output, field.getValue());
+            }
+            output.writeInt(entry.content.length);
+            output.write(entry.content);
+        }
+    }
+
+    private Entry read(Path path, String key) throws IOException
+    {
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(path))))
+        {
+            String uri = readString(input);
+            int count = input.readInt();
+            List<String> vary = new ArrayList<>(count);
+            for (int i = 0; i < count; ++i)
+                vary.add(readString(input));
+            HttpVersion version = HttpVersion.fromString(readString(input));
+            int status = input.readInt();
+            String reason = readString(input);
+            long requestTime = input.readLong();
+            long responseTime = input.readLong();
+            count = input.readInt();
+            HttpFields headers = new HttpFields(count);
+            for (int i = 0; i < count; ++i)
+                headers.add(readString(input), readString(input));
+            byte[] content = new byte[input.readInt()];
+            input.readFully(content);
+            return new Entry(uri, vary, key, version, status, reason.isEmpty() ? null : reason, headers, content, requestTime, responseTime);
+        }
+    }
+
+    private void writeString(DataOutputStream output, String value) throws IOException
+    {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        output.writeInt(bytes.length);
+        output.write(bytes);
+    }
+
+    private String readString(DataInputStream input) throws IOException
+    {
+        byte[] bytes = new byte[input.readInt()];
+        input.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s@%x[hits=%d,stale=%d,misses=%d,revalidations=%d/%d,memory=%d/%d,disk=%d/%d]",
+                getClass().getSimpleName(),
+                hashCode(),
+                getHits(),
+                getStaleHits(),
+                getMisses(),
+                getNotModified(),
+                getRevalidations(),
+                getMemorySize(),
+                getMaxMemorySize(),
+                getDiskSize(),
+                getMaxDiskSize());
+    }
+
+    private static class DiskEntry
+    {
+        private final Path path;
+        private final long size;
+
+        private DiskEntry(Path path, long size)
+        {
+            this.path = path;
+            this.size = size;
+        }
+    }
+
+    private class Entry
+    {
+        private final String uri;
+        private final List<String> vary;
+        private final String key;
+        private final HttpVersion version;
+        private final int status;
+        private final String reason;
+        private final HttpFields headers;
+        private final byte[] content;
+        private final long requestTime;
+        private final long responseTime;
+        private final long correctedInitialAge;
+        private final long lifetime;
+        private final long staleWhileRevalidate;
+        private final boolean noCache;
+        private final boolean mustRevalidate;
+        private final String etag;
+        private final String lastModified;
+        private final long weight;
+
+        private Entry(String uri, List<String> vary, String key, HttpVersion version, int status, String reason, HttpFields headers, byte[] content, long requestTime, long responseTime)
+        {
+            this.uri = uri;
+            this.vary = vary;
+            this.key = key;
+            this.version = version;
+            this.status = status;
+            this.reason = reason;
+            this.headers = headers;
+            this.content = content;
+            this.requestTime = requestTime;
+            this.responseTime = responseTime;
+
+            this.correctedInitialAge = HttpCacheRules.getCorrectedInitialAge(headers, requestTime, responseTime);
+
+            long lifetime = HttpCacheRules.getFreshnessLifetime(headers, responseTime, isShared());
+            long lastModifiedValue = HttpCacheRules.parseDate(headers, HttpHeader.LAST_MODIFIED);
+            if (lifetime < 0 && lastModifiedValue >= 0 && HttpCacheRules.isCacheableByDefault(status))
+            {
+                // RFC 7234, section 4.2.2.
+                long dateValue = HttpCacheRules.getDate(headers, responseTime);
+                long heuristic = (long)((dateValue - lastModifiedValue) * getHeuristicRatio());
+                lifetime = Math.max(0, Math.min(getMaxHeuristicLifetime(), heuristic));
+            }
+            this.lifetime = Math.max(0, lifetime);
+
+            CacheControl control = new CacheControl(headers);
+            this.staleWhileRevalidate = Math.max(0, control.getStaleWhileRevalidate());
+            this.noCache = control.isNoCache();
+            this.mustRevalidate = control.isMustRevalidate();
+            this.etag = headers.get(HttpHeader.ETAG);
+            this.lastModified = headers.get(HttpHeader.LAST_MODIFIED);
+
+            long weight = 2 * (uri.length() + key.length()) + content.length;
+            for (HttpField field : headers)
+                weight += field.getName().length() + field.getValue().length() + 4;
+            this.weight = weight;
+        }
+
+        private long age(long now)
+        {
+            return correctedInitialAge + Math.max(0, now - responseTime);
+        }
+
+        private boolean hasValidators()
+        {
+            return etag != null || lastModified != null;
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format("%s@%x[%s,%d,lifetime=%dms,%d bytes]",
+                    getClass().getSimpleName(),
+                    hashCode(),
+                    key.replace('\n', ' '),
+                    status,
+                    lifetime,
+                    content.length);
+        }
+    }
+
+    /**
+     * <p>Forwards the response events to the response listeners, while
+     * collecting the response content to be stored in the cache.</p>
+     * <p>When a cached response is revalidated and the server replies
+     * {@code 304 Not Modified}, the cached response is notified instead.</p>
+     */
+    private class Exchange extends Response.Listener.Adapter
+    {
+        private final long requestTime = System.currentTimeMillis();
+        private final HttpRequest request;
+        private final List<Response.ResponseListener> listeners;
+        private final Entry entry;
+        private final boolean background;
+        private ByteArrayOutputStream2 content;
+        private boolean capture;
+        private boolean notModified;
+
+        private Exchange(HttpRequest request, List<Response.ResponseListener> listeners, Entry entry, boolean background)
+        {
+            this.request = request;
+            this.listeners = listeners;
+            this.entry = entry;
+            this.background = background;
+        }
+
+        @Override
+        public void onBegin(Response response)
+        {
+            // Responses to other requests of the conversation (for example
+            // redirects) are notified to the listeners, but not cached.
+            capture = request.getURI().equals(response.getRequest().getURI());
+            notModified = capture && entry != null && response.getStatus() == HttpStatus.NOT_MODIFIED_304;
+            if (capture)
+                content = new ByteArrayOutputStream2();
+            if (!notModified)
+                notifier.notifyBegin(listeners, response);
+        }
+
+        @Override
+        public boolean onHeader(Response response, HttpField field)
+        {
+            if (notModified)
+                return true;
+            return notifier.notifyHeader(listeners, response, field);
+        }
+
+        @Override
+        public void onHeaders(Response response)
+        {
+            if (!notModified)
+                notifier.notifyHeaders(listeners, response);
+        }
+
+        @Override
+        public void onContent(Response response, ByteBuffer buffer, Callback callback)
+        {
+            if (notModified)
+            {
+                callback.succeeded();
+                return;
+            }
+            ByteArrayOutputStream2 content = this.content;
+            if (content != null)
+            {
+                int length = buffer.remaining();
+                if (content.size() + length > getMaxEntrySize())
+                {
+                    this.content = null;
+                }
+                else
+                {
+                    try
+                    {
+                        BufferUtil.writeTo(buffer.slice(), content);
+                    }
+                    catch (IOException x)
+                    {
+                        this.content = null;
+                    }
+                }
+            }
+            notifier.notifyContent(listeners, response, buffer, callback);
+        }
+
+        @Override
+        public void onSuccess(Response response)
+        {
+            if (!notModified)
+                notifier.notifySuccess(listeners, response);
+        }
+
+        @Override
+        public void onFailure(Response response, Throwable failure)
+        {
+            if (!notModified)
+                notifier.notifyFailure(listeners, response, failure);
+        }
+
+        @Override
+        public void onComplete(Result result)
+        {
+            if (background)
+                revalidating.remove(entry.key);
+
+            long responseTime = System.currentTimeMillis();
+            if (notModified)
+            {
+                if (result.isSucceeded())
+                {
+                    unmodified.increment();
+                    Entry updated = update(entry, result.getResponse(), requestTime, responseTime);
+                    if (!background)
+                        serve(updated, request, listeners, updated.age(responseTime), false);
+                }
+                else
+                {
+                    notifier.notifyFailure(listeners, result.getResponse(), result.getFailure());
+                    notifier.notifyComplete(listeners, result);
+                }
+                return;
+            }
+
+            if (capture && result.isSucceeded() && content != null)
+                store(request, result.getResponse(), content.toByteArray(), requestTime, responseTime);
+            notifier.notifyComplete(listeners, result);
+        }
+    }
+
+    /**
+     * <p>Invalidates the cached responses for the URIs affected by an unsafe request.</p>
+     */
+    private class Invalidator implements Response.CompleteListener
+    {
+        private final HttpRequest request;
+
+        private Invalidator(HttpRequest request)
+        {
+            this.request = request;
+        }
+
+        @Override
+        public void onComplete(Result result)
+        {
+            Response response = result.getResponse();
+            if (response == null || response.getStatus() < 200 || response.getStatus() >= 400)
+                return;
+
+            // RFC 7234, section 4.4.
+            URI uri = request.getURI();
+            HttpCache.this.invalidate(uri);
+            invalidate(uri, response.getHeaders().get(HttpHeader.LOCATION));
+            invalidate(uri, response.getHeaders().get(HttpHeader.CONTENT_LOCATION));
+        }
+
+        private void invalidate(URI uri, String location)
+        {
+            if (location == null)
+                return;
+            try
+            {
+                URI target = uri.resolve(location);
+                if (uri.getHost() != null && uri.getHost().equalsIgnoreCase(target.getHost()))
+                    HttpCache.this.invalidate(target);
+            }
+            catch (IllegalArgumentException x)
+            {
+                LOG.ignore(x);
+            }
+        }
+    }
+}
@@ -0,0 +1,391 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2017 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.client;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jetty.http.DateParser;
+import org.eclipse.jetty.http.HttpFields;
+import org.eclipse.jetty.http.HttpHeader;
+import org.eclipse.jetty.http.HttpStatus;
+
+/**
+ * <p>The rules of RFC 7234 shared by HTTP response caches, such as
+ * {@link HttpCache} and the response cache of proxy servlets.</p>
+ * <p>Times, durations and ages are expressed in milliseconds.</p>
+ */
+public final class HttpCacheRules
+{
+    private HttpCacheRules()
+    {
+    }
+
+    /**
+     * <p>Returns whether a response may be stored, as specified by RFC 7234, section 3,
+     * for the response headers and status code; the request method is not checked.</p>
+     *
+     * @param requestHeaders the request headers
+     * @param responseHeaders the response headers
+     * @param status the response status code
+     * @param shared whether the cache is a shared cache
+     * @return whether the response may be stored
+     */
+    public static boolean isStorable(HttpFields requestHeaders, HttpFields responseHeaders, int status, boolean shared)
+    {
+        // Partial and not modified responses are not complete representations.
+        if (status == HttpStatus.PARTIAL_CONTENT_206 || status == HttpStatus.NOT_MODIFIED_304)
+            return false;
+        CacheControl control = new CacheControl(responseHeaders);
+        if (control.isNoStore())
+            return false;
+        if (shared && control.isPrivate())
+            return false;
+        if (shared && requestHeaders.contains(HttpHeader.AUTHORIZATION) &&
+                !(control.isMustRevalidate() || control.isPublic() || control.getSMaxAge() >= 0))
+            return false;
+        if (getVary(responseHeaders) == null)
+            return false;
+        boolean explicit = control.getMaxAge() >= 0 ||
+                (shared && control.getSMaxAge() >= 0) ||
+                responseHeaders.contains(HttpHeader.EXPIRES) ||
+                control.isPublic();
+        return explicit || isCacheableByDefault(status);
+    }
+
+    /**
+     * @param requestHeaders the request headers
+     * @return whether the request is conditional or asks for a range, so that its
+     * response may not be a complete representation of the resource
+     */
+    public static boolean isConditional(HttpFields requestHeaders)
+    {
+        return requestHeaders.contains(HttpHeader.IF_NONE_MATCH) ||
+                requestHeaders.contains(HttpHeader.IF_MODIFIED_SINCE) ||
+                requestHeaders.contains(HttpHeader.IF_MATCH) ||
+                requestHeaders.contains(HttpHeader.IF_UNMODIFIED_SINCE) ||
+                requestHeaders.contains(HttpHeader.IF_RANGE) ||
+                requestHeaders.contains(HttpHeader.RANGE);
+    }
+
+    /**
+     * @param status the response status code
+     * @return whether responses with the given status code are cacheable by default,
+     * as specified by RFC 7231, section 6.1, and RFC 7538
+     */
+    public static boolean isCacheableByDefault(int status)
+    {
+        switch (status)
+        {
+            case HttpStatus.OK_200:
+            case HttpStatus.NON_AUTHORITATIVE_INFORMATION_203:
+            case HttpStatus.NO_CONTENT_204:
+            case HttpStatus.MULTIPLE_CHOICES_300:
+            case HttpStatus.MOVED_PERMANENTLY_301:
+            case HttpStatus.PERMANENT_REDIRECT_308:
+            case HttpStatus.NOT_FOUND_404:
+            case HttpStatus.METHOD_NOT_ALLOWED_405:
+            case HttpStatus.GONE_410:
+            case HttpStatus.URI_TOO_LONG_414:
+            case HttpStatus.NOT_IMPLEMENTED_501:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * @param responseHeaders the response headers
+     * @return the lower case names of the request headers listed by the {@code Vary}
+     * response header, or null if the response varies on {@code *}
+     */
+    public static List<String> getVary(HttpFields responseHeaders)
+    {
+        List<String> vary = new ArrayList<>();
+        for (String name : responseHeaders.getCSV(HttpHeader.VARY, false))
+        {
+            if ("*".equals(name))
+                return null;
+            vary.add(name.toLowerCase(Locale.ENGLISH));
+        }
+        return vary;
+    }
+
+    /**
+     * <p>Returns the key of a cached response, made of the URI and of the values
+     * of the request headers the response varies on, as specified by RFC 7234,
+     * section 4.1.</p>
+     *
+     * @param uri the request URI
+     * @param vary the names of the request headers the response varies on
+     * @param requestHeaders the request headers
+     * @return the key of the cached response
+     */
+    public static String key(String uri, List<String> vary, HttpFields requestHeaders)
+    {
+        if (vary.isEmpty())
+            return uri;
+        StringBuilder builder = new StringBuilder(uri);
+        for (String name : vary)
+        {
+            builder.append('\n').append(name).append(':');
+            List<String> values = requestHeaders.getValuesList(name);
+            for (int i = 0; i < values.size(); ++i)
+            {
+                if (i > 0)
+                    builder.append(',');
+                builder.append(values.get(i).trim());
+            }
+        }
+        return builder.toString();
+    }
+
+    /**
+     * <p>Returns the corrected initial age of a response, as specified by
+     * RFC 7234, section 4.2.3; the current age of the response is this value
+     * plus the time elapsed since the response has been received.</p>
+     *
+     * @param responseHeaders the response headers
+     * @param requestTime the time the request was sent
+     * @param responseTime the time the response was received
+     * @return the corrected initial age of the response
+     */
+    public static long getCorrectedInitialAge(HttpFields responseHeaders, long requestTime, long responseTime)
+    {
+        long date = parseDate(responseHeaders, HttpHeader.DATE);
+        long apparentAge = date < 0 ? 0 : Math.max(0, responseTime - date);
+        long ageValue = Math.max(0, parseSeconds(responseHeaders.get(HttpHeader.AGE)));
+        long correctedAgeValue = ageValue + (responseTime - requestTime);
+        return Math.max(apparentAge, correctedAgeValue);
+    }
+
+    /**
+     * <p>Returns the freshness lifetime of a response given by its {@code Cache-Control}
+     * and {@code Expires} headers, as specified by RFC 7234, section 4.2.1.</p>
+     *
+     * @param responseHeaders the response headers
+     * @param responseTime the time the response was received
+     * @param shared whether the cache is a shared cache
+     * @return the freshness lifetime of the response, or -1 if the response
+     * has no explicit freshness lifetime
+     */
+    public static long getFreshnessLifetime(HttpFields responseHeaders, long responseTime, boolean shared)
+    {
+        CacheControl control = new CacheControl(responseHeaders);
+        if (shared && control.getSMaxAge() >= 0)
+            return control.getSMaxAge();
+        if (control.getMaxAge() >= 0)
+            return control.getMaxAge();
+        if (responseHeaders.contains(HttpHeader.EXPIRES))
+        {
+            // Invalid dates represent a time in the past.
+            long expires = parseDate(responseHeaders, HttpHeader.EXPIRES);
+            return expires < 0 ? 0 : Math.max(0, expires - getDate(responseHeaders, responseTime));
+        }
+        return -1;
+    }
+
+    /**
+     * @param responseHeaders the response headers
+     * @param responseTime the time the response was received
+     * @return the value of the {@code Date} header, or the response time if it is missing or invalid
+     */
+    public static long getDate(HttpFields responseHeaders, long responseTime)
+    {
+        long date = parseDate(responseHeaders, HttpHeader.DATE);
+        return date < 0 ? responseTime : date;
+    }
+
+    /**
+     * @param headers the headers
+     * @param header the date header
+     * @return the value of the given date header, or -1 if it is missing or invalid
+     */
+    public static long parseDate(HttpFields headers, HttpHeader header)
+    {
+        String value = headers.get(header);
+        return value == null ? -1 : DateParser.parseDate(value);
+    }
+
+    /**
+     * @param value a number of seconds, such as the value of a {@code max-age} directive
+     * @return the number of seconds converted to milliseconds, or -1 if the value is missing or invalid
+     */
+    public static long parseSeconds(String value)
+    {
+        try
+        {
+            return value == null ? -1 : TimeUnit.SECONDS.toMillis(Long.parseLong(value.trim()));
+        }
+        catch (NumberFormatException x)
+        {
+            return -1;
+        }
+    }
+
+    /**
+     * <p>The caching directives of a request or of a response, from its
+     * {@code Cache-Control} header or its {@code Pragma} header.</p>
+     */
+    public static class CacheControl
+    {
+        private boolean noStore;
+        private boolean noCache;
+        private boolean mustRevalidate;
+        private boolean isPublic;
+        private boolean isPrivate;
+        private long maxAge = -1;
+        private long sMaxAge = -1;
+        private long staleWhileRevalidate = -1;
+
+        public CacheControl(HttpFields headers)
+        {
+            List<String> directives = headers.getCSV(HttpHeader.CACHE_CONTROL, false);
+            if (directives.isEmpty() && headers.contains(HttpHeader.PRAGMA, "no-cache"))
+                noCache = true;
+            for (String directive : directives)
+            {
+                String name = directive;
+                String value = null;
+                int equals = directive.indexOf('=');
+                if (equals > 0)
+                {
+                    name = directive.substring(0, equals).trim();
+                    value = directive.substring(equals + 1).trim();
+                }
+                switch (name.toLowerCase(Locale.ENGLISH))
+                {
+                    case "no-store":
+                        noStore = true;
+                        break;
+                    case "no-cache":
+                        noCache = true;
+                        break;
+                    case "must-revalidate":
+                    case "proxy-revalidate":
+                        mustRevalidate = true;
+                        break;
+                    case "public":
+                        isPublic = true;
+                        break;
+                    case "private":
+                        isPrivate = true;
+                        break;
+                    case "max-age":
+                        maxAge = parseSeconds(value);
+                        break;
+                    case "s-maxage":
+                        sMaxAge = parseSeconds(value);
+                        break;
+                    case "stale-while-revalidate":
+                        staleWhileRevalidate = parseSeconds(value);
+                        break;
+                    default:
+                        break;
+                }
+            }
+        }
+
+        public boolean isNoStore()
+        {
+            return noStore;
+        }
+
+        public boolean isNoCache()
+        {
+            return noCache;
+        }
+
+        /**
+         * @return whether {@code must-revalidate} or {@code proxy-revalidate} is present
+         */
+        public boolean isMustRevalidate()
+        {
+            return mustRevalidate;
+        }
+
+        public boolean isPublic()
+        {
+            return isPublic;
+        }
+
+        public boolean isPrivate()
+        {
+            return isPrivate;
+        }
+
+        /**
+         * @return the {@code max-age} value, or -1 if absent or invalid
+         */
+        public long getMaxAge()
+        {
+            return maxAge;
+        }
+
+        /**
+         * @return the {@code s-maxage} value, or -1 if absent or invalid
+         */
+        public long getSMaxAge()
+        {
+            return sMaxAge;
+        }
+
+        /**
+         * @return the {@code stale-while-revalidate} value, or -1 if absent or invalid
+         */
+        public long getStaleWhileRevalidate()
+        {
+            return staleWhileRevalidate;
+        }
+    }
+
+    /**
+     * <p>The cached variants of a URI: the request headers they vary on, and their keys.</p>
+     */
+    public static class Resource
+    {
+        private final Set<String> keys = new HashSet<>();
+        private final List<String> vary;
+
+        public Resource(List<String> vary)
+        {
+            this.vary = vary;
+        }
+
+        /**
+         * @return the names of the request headers the variants vary on
+         */
+        public List<String> getVary()
+        {
+            return vary;
+        }
+
+        /**
+         * @return the mutable set of the keys of the variants
+         */
+        public Set<String> getKeys()
+        {
+            return keys;
+        }
+    }
+}
@@ -90,6 +90,32 @@ public abstract class HttpChannel
         return result;
     }
 
+    /**
+     * <p>Detaches the given {@code exchange} from this channel, without terminating it,
+     * so that the exchange can be sent again over another connection.</p>
+     * <p>The request of the exchange must have been either not sent at all, or
+     * completely sent, and the response of the exchange must not have begun.</p>
+     *
+     * @param exchange the exchange to detach
+     * @return true if the exchange has been detached and can be sent again, false otherwise
+     * @see HttpDestination#resend(HttpExchange, Throwable)
+     */
+    public boolean detach(HttpExchange exchange)
+    {
+        boolean result = false;
+        synchronized (this)
+        {
+            if (_exchange == exchange && exchange.detach(this))
+            {
+                _exchange = null;
+                result = true;
+            }
+        }
+        if (LOG.isDebugEnabled())
+            LOG.debug("{} detached {} from {}", exchange, result, this);
+        return result;
+    }
+
     public HttpExchange getHttpExchange()
     {
         synchronized (this)
@@ -136,6 +162,9 @@ public abstract class HttpChannel
 
     public void exchangeTerminated(HttpExchange exchange, Result result)
     {
+        ConnectionPool connectionPool = getHttpDestination().getConnectionPool();
+        if (connectionPool instanceof ConnectionPool.RequestListener)
+            ((ConnectionPool.RequestListener)connectionPool).onComplete(exchange.getRequest());
         disassociate(exchange);
     }
 
@@ -21,6 +21,7 @@ package org.eclipse.jetty.client;
 import java.net.CookieManager;
 import java.net.CookiePolicy;
 import java.net.CookieStore;
+import java.net.Inet6Address;
 import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.net.SocketAddress;
@@ -139,6 +140,9 @@ public class HttpClient extends ContainerLifeCycle
     private int maxRedirects = 8;
     private SocketAddress bindAddress;
     private long connectTimeout = 15000;
+    private long connectAttemptDelay = 250;
+    private RetryPolicy.Factory retryPolicyFactory;
+    private HttpCache httpCache;
     private long addressResolutionTimeout = 15000;
     private long idleTimeout;
     private boolean tcpNoDelay = true;
@@ -563,9 +567,23 @@ public class HttpClient extends ContainerLifeCycle
     }
 
     protected void send(final HttpRequest request, List<Response.ResponseListener> listeners)
+    {
+        HttpCache httpCache = getHttpCache();
+        if (httpCache != null)
+            httpCache.send(request, listeners);
+        else
+            transmit(request, listeners);
+    }
+
+    void transmit(HttpRequest request, List<Response.ResponseListener> listeners)
     {
         HttpDestination destination = destinationFor(request.getScheme(), request.getHost(), request.getPort());
-        destination.send(request, listeners);
+        RetryPolicy retryPolicy = destination.getRetryPolicy();
+        // Requests sent within an existing conversation, such as redirects, are not retried.
+        if (retryPolicy != null && request.getConversation().getExchanges().isEmpty() && retryPolicy.isApplicable(request))
+            new HttpAttempts(destination, retryPolicy, request, listeners).send();
+        else
+            destination.send(request, listeners);
     }
 
     protected void newConnection(final HttpDestination destination, final Promise<Connection> promise)
@@ -579,7 +597,7 @@ public class HttpClient extends ContainerLifeCycle
                 Map<String, Object> context = new HashMap<>();
                 context.put(ClientConnectionFactory.CONNECTOR_CONTEXT_KEY, HttpClient.this);
                 context.put(HttpClientTransport.HTTP_DESTINATION_CONTEXT_KEY, destination);
-                connect(socketAddresses, 0, context);
+                new ConnectAttempts(interleave(socketAddresses), context, promise).connect();
             }
 
             @Override
@@ -587,26 +605,39 @@ public class HttpClient extends ContainerLifeCycle
             {
                 promise.failed(x);
             }
-
-            private void connect(List<InetSocketAddress> socketAddresses, int index, Map<String, Object> context)
-            {
-                context.put(HttpClientTransport.HTTP_CONNECTION_PROMISE_CONTEXT_KEY, new Promise.Wrapper<Connection>(promise)
-                {
-                    @Override
-                    public void failed(Throwable x)
-                    {
-                        int nextIndex = index + 1;
-                        if (nextIndex == socketAddresses.size())
-                            super.failed(x);
-                        else
-                            connect(socketAddresses, nextIndex, context);
-                    }
-                });
-                transport.connect(socketAddresses.get(index), context);
-            }
         });
     }
 
+    /**
+     * <p>Sorts the given addresses alternating address families, starting with the family
+     * of the first address, as recommended by RFC 8305, section 4.</p>
+     *
+     * @param socketAddresses the resolved addresses
+     * @return the addresses in the order they should be connected to
+     */
+    static List<InetSocketAddress> interleave(List<InetSocketAddress> socketAddresses)
+    {
+        if (socketAddresses.size() < 2)
+            return socketAddresses;
+        boolean firstIPv6 = socketAddresses.get(0).getAddress() instanceof Inet6Address;
+        List<InetSocketAddress> first = new ArrayList<>();
+        List<InetSocketAddress> second = new ArrayList<>();
+        for (InetSocketAddress socketAddress : socketAddresses)
+        {
+            boolean ipv6 = socketAddress.getAddress() instanceof Inet6Address;
+            (ipv6 == firstIPv6 ? first : second).add(socketAddress);
+        }
+        List<InetSocketAddress> result = new ArrayList<>(socketAddresses.size());
+        for (int i = 0; i < Math.max(first.size(), second.size()); ++i)
+        {
+            if (i < first.size())
+                result.add(first.get(i));
+            if (i < second.size())
+                result.add(second.get(i));
+        }
+        return result;
+    }
+
     private HttpConversation newConversation()
     {
         return new HttpConversation();
@@ -677,6 +708,75 @@ public class HttpClient extends ContainerLifeCycle
         this.connectTimeout = connectTimeout;
     }
 
+    /**
+     * @return the delay, in milliseconds, before attempting to connect to the next address of a destination
+     * @see #setConnectAttemptDelay(long)
+     */
+    @ManagedAttribute("The delay, in milliseconds, between connect() attempts to the addresses of a destination")
+    public long getConnectAttemptDelay()
+    {
+        return connectAttemptDelay;
+    }
+
+    /**
+     * <p>Sets the delay before attempting to connect to the next address of a destination
+     * that resolves to multiple addresses, while the previous attempts are still in progress.</p>
+     * <p>Connection attempts are staggered over the addresses, alternating IPv6 and IPv4
+     * addresses, and the first attempt that succeeds wins, as specified by RFC 8305
+     * (Happy Eyeballs); a failed attempt immediately starts the next one.</p>
+     * <p>A non-positive value disables parallel attempts, so that an address is tried
+     * only after the attempt to the previous address failed.</p>
+     *
+     * @param connectAttemptDelay the delay, in milliseconds, between connect() attempts
+     */
+    public void setConnectAttemptDelay(long connectAttemptDelay)
+    {
+        this.connectAttemptDelay = connectAttemptDelay;
+    }
+
+    /**
+     * @return the factory of the {@link RetryPolicy} of destinations
+     * @see #setRetryPolicyFactory(RetryPolicy.Factory)
+     */
+    public RetryPolicy.Factory getRetryPolicyFactory()
+    {
+        return retryPolicyFactory;
+    }
+
+    /**
+     * <p>Sets the factory of the {@link RetryPolicy} of destinations, used to retry idempotent
+     * requests that failed before receiving a response, and to hedge slow idempotent requests.</p>
+     * <p>The factory is used when destinations are created, so it should be set before
+     * requests are sent. By default, requests are neither retried nor hedged.</p>
+     *
+     * @param retryPolicyFactory the factory of the {@link RetryPolicy} of destinations, or null
+     */
+    public void setRetryPolicyFactory(RetryPolicy.Factory retryPolicyFactory)
+    {
+        this.retryPolicyFactory = retryPolicyFactory;
+    }
+
+    /**
+     * @return the cache of HTTP responses, or null if responses are not cached
+     * @see #setHttpCache(HttpCache)
+     */
+    public HttpCache getHttpCache()
+    {
+        return httpCache;
+    }
+
+    /**
+     * <p>Sets the cache of HTTP responses, used to avoid sending requests
+     * for which a fresh response is cached. By default, responses are not cached.</p>
+     *
+     * @param httpCache the cache of HTTP responses, or null
+     */
+    public void setHttpCache(HttpCache httpCache)
+    {
+        updateBean(this.httpCache, httpCache);
+        this.httpCache = httpCache;
+    }
+
     /**
      * @return the timeout, in milliseconds, for the default {@link SocketAddressResolver} created at startup
      * @see #getSocketAddressResolver()
@@ -814,6 +914,11 @@ public class HttpClient extends ContainerLifeCycle
     }
 
     /**
+     * <p>Sets the {@link SocketAddressResolver} used to resolve the addresses of destinations.</p>
+     * <p>Applications that open many connections to the same hosts may wrap the resolver
+     * in a {@link org.eclipse.jetty.util.CachingSocketAddressResolver}, so that new
+     * connections do not wait for DNS resolutions.</p>
+     *
      * @param resolver the {@link SocketAddressResolver} of this {@link HttpClient}
      */
     public void setSocketAddressResolver(SocketAddressResolver resolver)
@@ -1112,6 +1217,136 @@ public class HttpClient extends ContainerLifeCycle
         return new SslClientConnectionFactory(getSslContextFactory(), getByteBufferPool(), getExecutor(), connectionFactory);
     }
 
+    /**
+     * <p>Staggered connection attempts to the addresses of a destination.</p>
+     * <p>The first attempt that succeeds completes the promise; connections
+     * established by the other attempts after that are closed.</p>
+     */
+    private class ConnectAttempts implements Runnable
+    {
+        private final List<InetSocketAddress> socketAddresses;
+        private final Map<String, Object> context;
+        private final Promise<Connection> promise;
+        private int index;
+        private int pending;
+        private boolean complete;
+        private Throwable failure;
+        private Scheduler.Task task;
+
+        private ConnectAttempts(List<InetSocketAddress> socketAddresses, Map<String, Object> context, Promise<Connection> promise)
+        {
+            this.socketAddresses = socketAddresses;
+            this.context = context;
+            this.promise = promise;
+        }
+
+        @Override
+        public void run()
+        {
+            // The connect attempt delay expired.
+            connect();
+        }
+
+        private void connect()
+        {
+            InetSocketAddress socketAddress;
+            synchronized (this)
+            {
+                task = null;
+                if (complete || index == socketAddresses.size())
+                    return;
+                socketAddress = socketAddresses.get(index++);
+                ++pending;
+                long delay = getConnectAttemptDelay();
+                if (delay > 0 && index < socketAddresses.size())
+                    task = getScheduler().schedule(this, delay, TimeUnit.MILLISECONDS);
+            }
+
+            if (LOG.isDebugEnabled())
+                LOG.debug("Connecting to {} for {}", socketAddress, context.get(HttpClientTransport.HTTP_DESTINATION_CONTEXT_KEY));
+
+            Map<String, Object> attemptContext = new HashMap<>(context);
+            // Wrap the promise, as connection factories may need to unwrap it.
+            attemptContext.put(HttpClientTransport.HTTP_CONNECTION_PROMISE_CONTEXT_KEY, new Promise.Wrapper<Connection>(promise)
+            {
+                @Override
+                public void succeeded(Connection connection)
+                {
+                    onConnectSucceeded(socketAddress, connection);
+                }
+
+                @Override
+                public void failed(Throwable x)
+                {
+                    onConnectFailed(socketAddress, x);
+                }
+            });
+            transport.connect(socketAddress, attemptContext);
+        }
+
+        private void onConnectSucceeded(InetSocketAddress socketAddress, Connection connection)
+        {
+            boolean winner;
+            synchronized (this)
+            {
+                --pending;
+                winner = !complete;
+                complete = true;
+                cancel();
+            }
+            if (winner)
+            {
+                promise.succeeded(connection);
+            }
+            else
+            {
+                if (LOG.isDebugEnabled())
+                    LOG.debug("Closing redundant connection to {}", socketAddress);
+                connection.close();
+            }
+        }
+
+        private void onConnectFailed(InetSocketAddress socketAddress, Throwable x)
+        {
+            if (LOG.isDebugEnabled())
+                LOG.debug("Could not connect to " + socketAddress, x);
+            boolean next = false;
+            Throwable fail = null;
+            synchronized (this)
+            {
+                --pending;
+                if (complete)
+                    return;
+                if (failure == null)
+                    failure = x;
+                else if (failure != x)
+                    failure.addSuppressed(x);
+                if (index < socketAddresses.size())
+                {
+                    // Do not wait for the delay to try the next address.
+                    cancel();
+                    next = true;
+                }
+                else if (pending == 0)
+                {
+                    complete = true;
+                    fail = failure;
+                }
+            }
+            if (next)
+                connect();
+            else if (fail != null)
+                promise.failed(fail);
+        }
+
+        private void cancel()
+        {
+            if (task != null)
+                task.cancel();
+            task = null;
+        }
+    }
+
     private class ContentDecoderFactorySet implements Set<ContentDecoder.Factory>
     {
         private final Set<ContentDecoder.Factory> set = new HashSet<>();
@@ -61,6 +61,7 @@ public abstract class HttpDestination extends ContainerLifeCycle implements Dest
     private final ClientConnectionFactory connectionFactory;
     private final HttpField hostField;
     private ConnectionPool connectionPool;
+    private RetryPolicy retryPolicy;
 
     public HttpDestination(HttpClient client, Origin origin)
     {
@@ -92,6 +93,10 @@ public abstract class HttpDestination extends ContainerLifeCycle implements Dest
         if (!client.isDefaultPort(getScheme(), getPort()))
             host += ":" + getPort();
         hostField = new HttpField(HttpHeader.HOST, host);
+
+        RetryPolicy.Factory retryPolicyFactory = client.getRetryPolicyFactory();
+        if (retryPolicyFactory != null)
+            setRetryPolicy(retryPolicyFactory.newRetryPolicy(this));
     }
 
     @Override
@@ -160,6 +165,20 @@ public abstract class HttpDestination extends ContainerLifeCycle implements Dest
         return responseNotifier;
     }
 
+    /**
+     * @return the policy to retry and hedge the requests sent to this destination, or null
+     */
+    public RetryPolicy getRetryPolicy()
+    {
+        return retryPolicy;
+    }
+
+    public void setRetryPolicy(RetryPolicy retryPolicy)
+    {
+        updateBean(this.retryPolicy, retryPolicy);
+        this.retryPolicy = retryPolicy;
+    }
+
     public ProxyConfiguration.Proxy getProxy()
     {
         return proxy;
@@ -273,6 +292,27 @@ public abstract class HttpDestination extends ContainerLifeCycle implements Dest
         return queue.offer(exchange);
     }
 
+    /**
+     * <p>Queues again an exchange that has been {@link HttpChannel#detach(HttpExchange) detached}
+     * from a connection that closed before its response was received, to send it over another connection.</p>
+     *
+     * @param exchange the exchange to send again
+     * @param failure the failure to abort the exchange with, if it cannot be queued again
+     */
+    public void resend(HttpExchange exchange, Throwable failure)
+    {
+        if (client.isRunning() && enqueue(exchanges, exchange))
+        {
+            if (LOG.isDebugEnabled())
+                LOG.debug("Requeued {} for {}", exchange, this);
+            send();
+        }
+        else
+        {
+            exchange.getRequest().abort(failure);
+        }
+    }
+
     public void send()
     {
         if (getHttpExchanges().isEmpty())
@@ -329,6 +369,8 @@ public abstract class HttpDestination extends ContainerLifeCycle implements Dest
             }
             else
             {
+                if (connectionPool instanceof ConnectionPool.RequestListener)
+                    ((ConnectionPool.RequestListener)connectionPool).onSend(connection, request);
                 SendFailure result = send(connection, exchange);
                 if (result != null)
                 {
@@ -132,6 +132,30 @@ public class HttpExchange
             request.abort(new IllegalStateException(toString()));
     }
 
+    /**
+     * <p>Detaches the given {@code channel} from this exchange, without terminating it,
+     * so that this exchange can be sent again over another connection.</p>
+     * <p>Works in strict collaboration with {@link HttpChannel#detach(HttpExchange)}.</p>
+     *
+     * <p>A request that completed successfully may still be terminating: the
+     * sender then leaves the termination to the channel this exchange is sent
+     * again on, see {@link #terminateRequest(HttpChannel)}.</p>
+     *
+     * @param channel the channel to detach from this exchange
+     * @return true if the request has not failed and no response has been received, false otherwise
+     */
+    boolean detach(HttpChannel channel)
+    {
+        synchronized (this)
+        {
+            if (_channel != channel || requestFailure != null || responseState != State.PENDING)
+                return false;
+            requestState = State.PENDING;
+            _channel = null;
+            return true;
+        }
+    }
+
     private HttpChannel getHttpChannel()
     {
         synchronized (this)
@@ -180,13 +204,10 @@ public class HttpExchange
 
     public Result terminateRequest()
     {
-        Result result = null;
+        Result result;
         synchronized (this)
         {
-            if (requestState == State.COMPLETED)
-                requestState = State.TERMINATED;
-            if (requestState == State.TERMINATED && responseState == State.TERMINATED)
-                result = new Result(getRequest(), requestFailure, getResponse(), responseFailure);
+            result = completeTerminateRequest();
         }
 
         if (LOG.isDebugEnabled())
@@ -195,6 +216,41 @@ public class HttpExchange
         return result;
     }
 
+    /**
+     * <p>Terminates the request of this exchange, unless this exchange
+     * has been {@link #detach(HttpChannel) detached} from the given channel
+     * to be sent again, in which case the request is terminated by the channel
+     * this exchange is sent again on.</p>
+     *
+     * @param channel the channel that sent the request
+     * @return the result of this exchange, or null if this exchange is not terminated
+     */
+    Result terminateRequest(HttpChannel channel)
+    {
+        Result result = null;
+        boolean detached;
+        synchronized (this)
+        {
+            detached = _channel != channel;
+            if (!detached)
+                result = completeTerminateRequest();
+        }
+
+        if (LOG.isDebugEnabled())
+            LOG.debug("Terminated request for {}, detached: {}, result: {}", this, detached, result);
+
+        return result;
+    }
+
+    private Result completeTerminateRequest()
+    {
+        if (requestState == State.COMPLETED)
+            requestState = State.TERMINATED;
+        if (requestState == State.TERMINATED && responseState == State.TERMINATED)
+            return new Result(getRequest(), requestFailure, getResponse(), responseFailure);
+        return null;
+    }
+
     public Result terminateResponse()
     {
         Result result = null;
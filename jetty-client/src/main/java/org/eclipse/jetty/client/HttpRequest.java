@@ -85,6 +85,7 @@ public class HttpRequest implements Request
     private List<RequestListener> requestListeners;
     private BiFunction<Request, Request, Response.CompleteListener> pushListener;
     private Supplier<HttpFields> trailers;
+    private volatile HttpAttempts attempts;
 
     protected HttpRequest(HttpClient client, HttpConversation conversation, URI uri)
     {
@@ -112,6 +113,11 @@ public class HttpRequest implements Request
         return conversation;
     }
 
+    void setHttpAttempts(HttpAttempts attempts)
+    {
+        this.attempts = attempts;
+    }
+
     @Override
     public String getScheme()
     {
@@ -740,6 +746,23 @@ public class HttpRequest implements Request
 
     @Override
     public boolean abort(Throwable cause)
+    {
+        // This request may have already failed and been retried,
+        // or be racing against hedged requests: abort them all.
+        HttpAttempts attempts = this.attempts;
+        if (attempts != null)
+            return attempts.abort(cause);
+        return abortAttempt(cause);
+    }
+
+    /**
+     * <p>Aborts the exchange of this request only, not the other attempts
+     * of this request sent because of a {@link RetryPolicy}.</p>
+     *
+     * @param cause the abort cause
+     * @return whether the abort succeeded
+     */
+    boolean abortAttempt(Throwable cause)
     {
         if (aborted.compareAndSet(null, Objects.requireNonNull(cause)))
         {
@@ -322,7 +322,8 @@ public abstract class HttpSender implements AsyncContentProvider.Listener
 
                 // Mark atomically the request as terminated, with
                 // respect to concurrency between request and response.
-                Result result = exchange.terminateRequest();
+                // The exchange may have been detached to be sent again.
+                Result result = exchange.terminateRequest(getHttpChannel());
                 terminateRequest(exchange, null, result);
                 return true;
             }
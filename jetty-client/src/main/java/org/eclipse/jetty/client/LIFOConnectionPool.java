@@ -0,0 +1,319 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2017 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.client;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+import org.eclipse.jetty.client.api.Connection;
+import org.eclipse.jetty.client.api.Destination;
+import org.eclipse.jetty.util.Callback;
+import org.eclipse.jetty.util.annotation.ManagedAttribute;
+import org.eclipse.jetty.util.annotation.ManagedObject;
+import org.eclipse.jetty.util.annotation.ManagedOperation;
+import org.eclipse.jetty.util.component.ContainerLifeCycle;
+import org.eclipse.jetty.util.log.Log;
+import org.eclipse.jetty.util.log.Logger;
+import org.eclipse.jetty.util.statistic.SampleStatistic;
+import org.eclipse.jetty.util.thread.Sweeper;
+
+/**
+ * <p>A {@link ConnectionPool} for duplex connections that does not use locks.</p>
+ * <p>Idle connections are kept in a lock-free stack, so that the most recently used
+ * idle connection is always acquired first: it is the most likely to have warm TCP
+ * and TLS state, while the least recently used connections stay idle and are
+ * eventually closed by their idle timeout when the load decreases.</p>
+ * <p>The pool counts the acquisitions that found no idle connection, and records
+ * the time they waited for a connection to become available.
+ * There are never more such waiters than requests queued in the destination:
+ * when queued requests are aborted or time out, the oldest waiters are discarded.</p>
+ */
+@ManagedObject
+public class LIFOConnectionPool extends AbstractConnectionPool implements Sweeper.Sweepable
+{
+    private static final Logger LOG = Log.getLogger(LIFOConnectionPool.class);
+
+    private final Deque<Connection> idleConnections = new ConcurrentLinkedDeque<>();
+    private final Set<Connection> activeConnections = ConcurrentHashMap.newKeySet();
+    private final Queue<Long> waiters = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger waiterCount = new AtomicInteger();
+    private final LongAdder acquires = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final SampleStatistic waitTimes = new SampleStatistic();
+
+    private final Destination destination;
+
+    public LIFOConnectionPool(Destination destination, int maxConnections, Callback requester)
+    {
+        super(destination, maxConnections, requester);
+        this.destination = destination;
+    }
+
+    @ManagedAttribute(value = "The number of idle connections", readonly = true)
+    public int getIdleConnectionCount()
+    {
+        return idleConnections.size();
+    }
+
+    @ManagedAttribute(value = "The number of active connections", readonly = true)
+    public int getActiveConnectionCount()
+    {
+        return activeConnections.size();
+    }
+
+    public Queue<Connection> getIdleConnections()
+    {
+        return idleConnections;
+    }
+
+    public Collection<Connection> getActiveConnections()
+    {
+        return activeConnections;
+    }
+
+    @ManagedAttribute(value = "The number of connection acquisitions", readonly = true)
+    public long getAcquireCount()
+    {
+        return acquires.sum();
+    }
+
+    @ManagedAttribute(value = "The number of connection acquisitions that found no idle connection", readonly = true)
+    public long getMissCount()
+    {
+        return misses.sum();
+    }
+
+    @ManagedAttribute(value = "The max time, in milliseconds, acquisitions waited for a connection", readonly = true)
+    public long getAcquireWaitTimeMax()
+    {
+        return TimeUnit.NANOSECONDS.toMillis(waitTimes.getMax());
+    }
+
+    @ManagedAttribute(value = "The mean time, in milliseconds, acquisitions waited for a connection", readonly = true)
+    public double getAcquireWaitTimeMean()
+    {
+        return waitTimes.getMean() / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    @ManagedAttribute(value = "The total time, in milliseconds, acquisitions waited for a connection", readonly = true)
+    public long getAcquireWaitTimeTotal()
+    {
+        return TimeUnit.NANOSECONDS.toMillis(waitTimes.getTotal());
+    }
+
+    @ManagedOperation(value = "Resets the statistics", impact = "ACTION")
+    public void resetStatistics()
+    {
+        acquires.reset();
+        misses.reset();
+        waitTimes.reset();
+    }
+
+    @Override
+    public boolean isActive(Connection connection)
+    {
+        return activeConnections.contains(connection);
+    }
+
+    @Override
+    public Connection acquire()
+    {
+        acquires.increment();
+        Connection connection = super.acquire();
+        if (connection == null)
+        {
+            misses.increment();
+            waiters.offer(System.nanoTime());
+            waiterCount.incrementAndGet();
+            expireWaiters();
+        }
+        return connection;
+    }
+
+    @Override
+    protected void onCreated(Connection connection)
+    {
+        // Use "cold" new connections as last.
+        idleConnections.offerLast(connection);
+        available();
+        idle(connection, false);
+    }
+
+    @Override
+    protected Connection activate()
+    {
+        while (true)
+        {
+            Connection connection = idleConnections.pollFirst();
+            if (connection == null)
+                return null;
+            activeConnections.add(connection);
+            // A concurrent remove() may have missed the connection while it
+            // was moved from the idle to the active connections.
+            if (connection.isClosed())
+            {
+                if (activeConnections.remove(connection))
+                    removed(connection);
+                continue;
+            }
+            return active(connection);
+        }
+    }
+
+    @Override
+    public boolean release(Connection connection)
+    {
+        if (!activeConnections.remove(connection))
+            return false;
+
+        boolean closed = isClosed();
+        if (!closed)
+        {
+            // Make sure we use "hot" connections first.
+            idleConnections.offerFirst(connection);
+            available();
+        }
+
+        released(connection);
+        return idle(connection, closed);
+    }
+
+    private void available()
+    {
+        expireWaiters();
+        Long start = waiters.poll();
+        if (start != null)
+        {
+            waiterCount.decrementAndGet();
+            waitTimes.set(System.nanoTime() - start);
+        }
+    }
+
+    private void expireWaiters()
+    {
+        int queued = destination instanceof HttpDestination ? ((HttpDestination)destination).getQueuedRequestCount() : 0;
+        while (waiterCount.get() > queued)
+        {
+            if (waiters.poll() == null)
+                break;
+            waiterCount.decrementAndGet();
+        }
+    }
+
+    @Override
+    public boolean remove(Connection connection)
+    {
+        return remove(connection, false);
+    }
+
+    protected boolean remove(Connection connection, boolean force)
+    {
+        boolean activeRemoved = activeConnections.remove(connection);
+        boolean idleRemoved = idleConnections.remove(connection);
+
+        if (activeRemoved || force)
+            released(connection);
+        boolean removed = activeRemoved || idleRemoved || force;
+        if (removed)
+            removed(connection);
+        return removed;
+    }
+
+    @Override
+    public void close()
+    {
+        super.close();
+
+        List<Connection> connections = new ArrayList<>();
+        drain(idleConnections, connections);
+        drain(activeConnections, connections);
+        while (waiters.poll() != null)
+            waiterCount.decrementAndGet();
+
+        close(connections);
+    }
+
+    private void drain(Collection<Connection> from, List<Connection> to)
+    {
+        for (Connection connection : from)
+        {
+            if (from.remove(connection))
+                to.add(connection);
+        }
+    }
+
+    @Override
+    public void dump(Appendable out, String indent) throws IOException
+    {
+        List<Connection> connections = new ArrayList<>(activeConnections);
+        connections.addAll(idleConnections);
+        ContainerLifeCycle.dumpObject(out, this);
+        ContainerLifeCycle.dump(out, indent, connections);
+    }
+
+    @Override
+    public boolean sweep()
+    {
+        List<Connection> toSweep = activeConnections.stream()
+                .filter(connection -> connection instanceof Sweeper.Sweepable)
+                .collect(Collectors.toList());
+
+        for (Connection connection : toSweep)
+        {
+            if (((Sweeper.Sweepable)connection).sweep())
+            {
+                boolean removed = remove(connection, true);
+                LOG.warn("Connection swept: {}{}{} from active connections{}{}",
+                        connection,
+                        System.lineSeparator(),
+                        removed ? "Removed" : "Not removed",
+                        System.lineSeparator(),
+                        dump());
+            }
+        }
+
+        return false;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s@%x[c=%d/%d,a=%d,i=%d,m=%d/%d]",
+                getClass().getSimpleName(),
+                hashCode(),
+                getConnectionCount(),
+                getMaxConnectionCount(),
+                getActiveConnectionCount(),
+                getIdleConnectionCount(),
+                getMissCount(),
+                getAcquireCount());
+    }
+}
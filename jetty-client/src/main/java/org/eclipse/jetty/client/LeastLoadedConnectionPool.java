@@ -0,0 +1,449 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2017 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.client;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.eclipse.jetty.client.api.Connection;
+import org.eclipse.jetty.client.api.Destination;
+import org.eclipse.jetty.client.api.Request;
+import org.eclipse.jetty.util.Callback;
+import org.eclipse.jetty.util.annotation.ManagedAttribute;
+import org.eclipse.jetty.util.annotation.ManagedObject;
+import org.eclipse.jetty.util.component.ContainerLifeCycle;
+import org.eclipse.jetty.util.log.Log;
+import org.eclipse.jetty.util.log.Logger;
+import org.eclipse.jetty.util.thread.Sweeper;
+
+/**
+ * <p>A {@link ConnectionPool} that selects the least loaded connection.</p>
+ * <p>For each connection, the pool tracks the number of in-flight requests and an
+ * exponentially weighted moving average (EWMA) of the latency of the requests sent
+ * on it, that is the time between the send of each request and the termination of
+ * its exchange, recorded in a request attribute.
+ * The load of a connection is its latency multiplied by the number of in-flight
+ * requests, including the new one.</p>
+ * <p>To select a connection, two connections that can take a request are picked at
+ * random, and the least loaded of the two is used ("power of two choices").
+ * This avoids that all requests go to the same connection, while routing most
+ * requests away from slow connections.</p>
+ * <p>The latency of a connection decays towards zero while the connection does not
+ * complete requests, so that a connection that was slow is eventually tried again.
+ * Connections without latency samples, such as new connections, are assumed to be as
+ * fast as the median connection, otherwise their zero latency would attract all the
+ * requests.</p>
+ * <p>Connections carry up to {@link #getMaxMultiplex()} concurrent requests, or the value
+ * of {@link ConnectionPool.Multiplexable#getMaxMultiplex()} if known.
+ * New connections are opened only when all the existing connections are saturated.</p>
+ */
+@ManagedObject
+public class LeastLoadedConnectionPool extends AbstractConnectionPool implements ConnectionPool.RequestListener, Sweeper.Sweepable
+{
+    private static final Logger LOG = Log.getLogger(LeastLoadedConnectionPool.class);
+    private static final String START_ATTRIBUTE = LeastLoadedConnectionPool.class.getName() + ".start";
+
+    private final List<Entry> entries;
+    private int maxMultiplex;
+    private double latencyWeight = 0.3;
+    private long latencyDecayTime = 10000;
+
+    public LeastLoadedConnectionPool(Destination destination, int maxConnections, Callback requester)
+    {
+        this(destination, maxConnections, requester, 1);
+    }
+
+    public LeastLoadedConnectionPool(Destination destination, int maxConnections, Callback requester, int maxMultiplex)
+    {
+        super(destination, maxConnections, requester);
+        this.entries = new ArrayList<>(maxConnections);
+        this.maxMultiplex = maxMultiplex;
+    }
+
+    @ManagedAttribute(value = "The max number of concurrent requests per connection")
+    public int getMaxMultiplex()
+    {
+        synchronized (this)
+        {
+            return maxMultiplex;
+        }
+    }
+
+    public void setMaxMultiplex(int maxMultiplex)
+    {
+        synchronized (this)
+        {
+            this.maxMultiplex = maxMultiplex;
+        }
+    }
+
+    @ManagedAttribute(value = "The weight of a new latency sample in the latency average")
+    public double getLatencyWeight()
+    {
+        return latencyWeight;
+    }
+
+    /**
+     * @param latencyWeight the weight, between 0 (excluded) and 1 (included), of a new latency
+     * sample in the exponentially weighted moving average of the latency of a connection
+     */
+    public void setLatencyWeight(double latencyWeight)
+    {
+        if (latencyWeight <= 0 || latencyWeight > 1)
+            throw new IllegalArgumentException("Invalid latency weight " + latencyWeight);
+        this.latencyWeight = latencyWeight;
+    }
+
+    @ManagedAttribute(value = "The time, in milliseconds, for the latency of a connection to decay")
+    public long getLatencyDecayTime()
+    {
+        return latencyDecayTime;
+    }
+
+    /**
+     * @param latencyDecayTime the time, in milliseconds, after which the latency of a connection
+     * that did not complete requests is reduced by a factor e
+     */
+    public void setLatencyDecayTime(long latencyDecayTime)
+    {
+        this.latencyDecayTime = latencyDecayTime;
+    }
+
+    @Override
+    public boolean isActive(Connection connection)
+    {
+        synchronized (this)
+        {
+            Entry entry = find(connection);
+            return entry != null && entry.inFlight > 0;
+        }
+    }
+
+    @Override
+    protected void onCreated(Connection connection)
+    {
+        synchronized (this)
+        {
+            entries.add(new Entry(connection));
+        }
+        idle(connection, false);
+    }
+
+    @Override
+    protected Connection activate()
+    {
+        Entry entry;
+        synchronized (this)
+        {
+            int available = 0;
+            for (Entry e : entries)
+            {
+                if (e.isAvailable())
+                    ++available;
+            }
+            if (available == 0)
+                return null;
+
+            long now = System.nanoTime();
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            int index = random.nextInt(available);
+            entry = select(index);
+            if (available > 1)
+            {
+                // Pick another connection, different from the first.
+                int otherIndex = random.nextInt(available - 1);
+                Entry other = select(otherIndex < index ? otherIndex : otherIndex + 1);
+                double median = entry.samples == 0 || other.samples == 0 ? medianLatency(now) : 0;
+                if (other.load(now, median) < entry.load(now, median))
+                    entry = other;
+            }
+
+            ++entry.inFlight;
+            ++entry.used;
+        }
+        return active(entry.connection);
+    }
+
+    private Entry select(int availableIndex)
+    {
+        for (Entry entry : entries)
+        {
+            if (entry.isAvailable() && availableIndex-- == 0)
+                return entry;
+        }
+        throw new IllegalStateException();
+    }
+
+    /**
+     * @param now the current time
+     * @return the median latency of the connections with latency samples, or 1 if there are none
+     */
+    private double medianLatency(long now)
+    {
+        double[] known = entries.stream()
+                .filter(entry -> entry.samples > 0)
+                .mapToDouble(entry -> entry.latency(now))
+                .toArray();
+        int length = known.length;
+        if (length == 0)
+            return 1;
+        Arrays.sort(known);
+        if (length % 2 == 1)
+            return known[length / 2];
+        return (known[length / 2 - 1] + known[length / 2]) / 2;
+    }
+
+    private Entry find(Connection connection)
+    {
+        for (Entry entry : entries)
+        {
+            if (entry.connection == connection)
+                return entry;
+        }
+        return null;
+    }
+
+    @Override
+    public boolean release(Connection connection)
+    {
+        boolean closed = isClosed();
+        boolean idle;
+        synchronized (this)
+        {
+            Entry entry = find(connection);
+            if (entry == null || entry.inFlight == 0)
+                return false;
+            idle = --entry.inFlight == 0;
+        }
+
+        released(connection);
+        if (idle || closed)
+            return idle(connection, closed);
+        return true;
+    }
+
+    @Override
+    public void onSend(Connection connection, Request request)
+    {
+        Entry entry;
+        synchronized (this)
+        {
+            entry = find(connection);
+        }
+        if (entry != null)
+            request.attribute(START_ATTRIBUTE, new Start(entry, System.nanoTime()));
+    }
+
+    @Override
+    public void onComplete(Request request)
+    {
+        Object value = request.getAttributes().get(START_ATTRIBUTE);
+        if (value instanceof Start)
+        {
+            Start start = (Start)value;
+            request.attribute(START_ATTRIBUTE, null);
+            synchronized (this)
+            {
+                start.entry.sample(System.nanoTime(), start.time);
+            }
+        }
+    }
+
+    @Override
+    public boolean remove(Connection connection)
+    {
+        return remove(connection, false);
+    }
+
+    protected boolean remove(Connection connection, boolean force)
+    {
+        boolean active = false;
+        boolean removed = false;
+        synchronized (this)
+        {
+            Entry entry = find(connection);
+            if (entry != null)
+            {
+                active = entry.inFlight > 0;
+                entries.remove(entry);
+                removed = true;
+            }
+        }
+
+        if (active || force)
+            released(connection);
+        removed |= force;
+        if (removed)
+            removed(connection);
+        return removed;
+    }
+
+    @Override
+    public void close()
+    {
+        super.close();
+
+        List<Connection> connections;
+        synchronized (this)
+        {
+            connections = entries.stream().map(entry -> entry.connection).collect(Collectors.toList());
+            entries.clear();
+        }
+
+        close(connections);
+    }
+
+    @Override
+    public void dump(Appendable out, String indent) throws IOException
+    {
+        List<Entry> connections;
+        synchronized (this)
+        {
+            connections = new ArrayList<>(entries);
+        }
+        ContainerLifeCycle.dumpObject(out, this);
+        ContainerLifeCycle.dump(out, indent, connections);
+    }
+
+    @Override
+    public boolean sweep()
+    {
+        List<Connection> toSweep;
+        synchronized (this)
+        {
+            toSweep = entries.stream()
+                    .filter(entry -> entry.inFlight > 0)
+                    .map(entry -> entry.connection)
+                    .filter(connection -> connection instanceof Sweeper.Sweepable)
+                    .collect(Collectors.toList());
+        }
+
+        for (Connection connection : toSweep)
+        {
+            if (((Sweeper.Sweepable)connection).sweep())
+            {
+                boolean removed = remove(connection, true);
+                LOG.warn("Connection swept: {}{}{} from active connections{}{}",
+                        connection,
+                        System.lineSeparator(),
+                        removed ? "Removed" : "Not removed",
+                        System.lineSeparator(),
+                        dump());
+            }
+        }
+
+        return false;
+    }
+
+    @Override
+    public String toString()
+    {
+        int present;
+        int active = 0;
+        synchronized (this)
+        {
+            present = entries.size();
+            for (Entry entry : entries)
+            {
+                if (entry.inFlight > 0)
+                    ++active;
+            }
+        }
+        return String.format("%s@%x[c=%d/%d,a=%d]",
+                getClass().getSimpleName(),
+                hashCode(),
+                present,
+                getMaxConnectionCount(),
+                active);
+    }
+
+    private static class Start
+    {
+        private final Entry entry;
+        private final long time;
+
+        private Start(Entry entry, long time)
+        {
+            this.entry = entry;
+            this.time = time;
+        }
+    }
+
+    private class Entry
+    {
+        private final Connection connection;
+        private int inFlight;
+        private long used;
+        private long samples;
+        private double latency;
+        private long sampleTime;
+
+        private Entry(Connection connection)
+        {
+            this.connection = connection;
+        }
+
+        private boolean isAvailable()
+        {
+            return inFlight < getMaxMultiplex(connection, maxMultiplex);
+        }
+
+        private void sample(long now, long start)
+        {
+            double sample = now - start;
+            double current = latency(now);
+            latency = samples++ == 0 ? sample : current + getLatencyWeight() * (sample - current);
+            sampleTime = now;
+        }
+
+        private double latency(long now)
+        {
+            long decayTime = TimeUnit.MILLISECONDS.toNanos(getLatencyDecayTime());
+            if (decayTime <= 0)
+                return latency;
+            return latency * Math.exp(-(double)(now - sampleTime) / decayTime);
+        }
+
+        /**
+         * @param now the current time
+         * @param median the latency assumed for a connection without samples
+         * @return the load of this connection with one more request
+         */
+        private double load(long now, double median)
+        {
+            double latency = samples == 0 ? median : latency(now);
+            return (inFlight + 1) * Math.max(1, latency);
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format("{u=%d,f=%d,l=%dus,c=%s}",
+                    used,
+                    inFlight,
+                    TimeUnit.NANOSECONDS.toMicros((long)latency(System.nanoTime())),
+                    connection);
+        }
+    }
+}
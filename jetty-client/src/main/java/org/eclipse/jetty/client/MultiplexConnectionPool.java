@@ -91,6 +91,21 @@ public class MultiplexConnectionPool extends AbstractConnectionPool implements S
         }
     }
 
+    /**
+     * <p>Returns the max number of concurrent requests for the given connection.</p>
+     * <p>Additional connections are opened only when all the existing connections
+     * are saturated up to this value.</p>
+     *
+     * @param connection the connection
+     * @return the max multiplex value specific to the connection, if known,
+     * or the max multiplex value of this pool
+     * @see ConnectionPool.Multiplexable
+     */
+    protected int getMaxMultiplex(Connection connection)
+    {
+        return getMaxMultiplex(connection, maxMultiplex);
+    }
+
     @Override
     public boolean isActive(Connection connection)
     {
@@ -147,7 +162,7 @@ public class MultiplexConnectionPool extends AbstractConnectionPool implements S
                     holder = muxedConnections.values().iterator().next();
                 }
 
-                if (holder.count < maxMultiplex)
+                if (holder.count < getMaxMultiplex(holder.connection))
                 {
                     ++holder.count;
                     break;
@@ -0,0 +1,321 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2017 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.client;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.eclipse.jetty.client.api.ContentProvider;
+import org.eclipse.jetty.client.api.Request;
+import org.eclipse.jetty.client.util.ByteBufferContentProvider;
+import org.eclipse.jetty.client.util.BytesContentProvider;
+import org.eclipse.jetty.http.HttpMethod;
+import org.eclipse.jetty.util.annotation.ManagedAttribute;
+import org.eclipse.jetty.util.annotation.ManagedObject;
+import org.eclipse.jetty.util.annotation.ManagedOperation;
+
+/**
+ * <p>The policy that {@link HttpClient} applies to retry and hedge the requests sent to a destination.</p>
+ * <p>Idempotent requests that fail with an I/O error before a response is received, typically
+ * because the server closed a pooled connection while the request was being sent on it, are
+ * sent again up to {@link #getMaxRetries()} times; aborted requests are never retried.</p>
+ * <p>When {@link #getMaxHedges()} is greater than zero, idempotent requests for which no response
+ * has been received after the {@link #getHedgeQuantile() hedge quantile} of the latencies observed
+ * for the destination are sent again, without aborting the original request.
+ * The first request that receives a response wins: its response is notified to the response
+ * listeners of the original request, and the other requests are aborted.
+ * Hedging trades a small amount of additional load for a shorter tail latency.</p>
+ * <p>Only requests with an idempotent method, and without content or with content that can be
+ * sent more than once (see {@link #isReproducible(ContentProvider)}) are retried or hedged.</p>
+ * <p>A {@code RetryPolicy} is created for each destination by the {@link Factory} configured with
+ * {@link HttpClient#setRetryPolicyFactory(Factory)}.</p>
+ */
+@ManagedObject
+public class RetryPolicy
+{
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder hedges = new LongAdder();
+    private final LongAdder hedgesWon = new LongAdder();
+    private final HttpDestination destination;
+    private final long[] latencies;
+    private int maxRetries = 1;
+    private int maxHedges;
+    private double hedgeQuantile = 0.95;
+    private long minHedgeDelay = 10;
+    private int minLatencySamples = 20;
+    private long samples;
+    private volatile long hedgeDelay = -1;
+
+    public RetryPolicy(HttpDestination destination)
+    {
+        this(destination, 256);
+    }
+
+    /**
+     * @param destination the destination this policy applies to
+     * @param latencySamples the number of recent latencies used to compute the hedge delay
+     */
+    public RetryPolicy(HttpDestination destination, int latencySamples)
+    {
+        this.destination = destination;
+        this.latencies = new long[latencySamples];
+    }
+
+    public HttpDestination getHttpDestination()
+    {
+        return destination;
+    }
+
+    @ManagedAttribute(value = "The max number of times a failed request is retried")
+    public int getMaxRetries()
+    {
+        return maxRetries;
+    }
+
+    public void setMaxRetries(int maxRetries)
+    {
+        this.maxRetries = maxRetries;
+    }
+
+    @ManagedAttribute(value = "The max number of hedged requests sent for a request")
+    public int getMaxHedges()
+    {
+        return maxHedges;
+    }
+
+    /**
+     * @param maxHedges the max number of hedged requests sent for a request, or 0 to disable hedging
+     */
+    public void setMaxHedges(int maxHedges)
+    {
+        this.maxHedges = maxHedges;
+    }
+
+    @ManagedAttribute(value = "The latency quantile after which a request is hedged")
+    public double getHedgeQuantile()
+    {
+        return hedgeQuantile;
+    }
+
+    /**
+     * @param hedgeQuantile the quantile, between 0 and 1, of the observed latencies after which
+     * a hedged request is sent
+     */
+    public void setHedgeQuantile(double hedgeQuantile)
+    {
+        if (hedgeQuantile <= 0 || hedgeQuantile > 1)
+            throw new IllegalArgumentException("Invalid hedge quantile " + hedgeQuantile);
+        this.hedgeQuantile = hedgeQuantile;
+        synchronized (this)
+        {
+            updateHedgeDelay();
+        }
+    }
+
+    @ManagedAttribute(value = "The min delay, in milliseconds, before a request is hedged")
+    public long getMinHedgeDelay()
+    {
+        return minHedgeDelay;
+    }
+
+    public void setMinHedgeDelay(long minHedgeDelay)
+    {
+        this.minHedgeDelay = minHedgeDelay;
+    }
+
+    @ManagedAttribute(value = "The min number of latency samples needed to hedge requests")
+    public int getMinLatencySamples()
+    {
+        return minLatencySamples;
+    }
+
+    /**
+     * @param minLatencySamples the number of latencies that must be observed
+     * before requests are hedged
+     */
+    public void setMinLatencySamples(int minLatencySamples)
+    {
+        this.minLatencySamples = minLatencySamples;
+    }
+
+    @ManagedAttribute(value = "The number of retried requests", readonly = true)
+    public long getRetries()
+    {
+        return retries.sum();
+    }
+
+    @ManagedAttribute(value = "The number of hedged requests", readonly = true)
+    public long getHedges()
+    {
+        return hedges.sum();
+    }
+
+    @ManagedAttribute(value = "The number of hedged requests that received the response first", readonly = true)
+    public long getHedgesWon()
+    {
+        return hedgesWon.sum();
+    }
+
+    @ManagedOperation(value = "Resets the statistics", impact = "ACTION")
+    public void resetStatistics()
+    {
+        retries.reset();
+        hedges.reset();
+        hedgesWon.reset();
+    }
+
+    /**
+     * @param request the request to test
+     * @return whether the given request may be retried or hedged
+     */
+    public boolean isApplicable(Request request)
+    {
+        if (getMaxRetries() <= 0 && getMaxHedges() <= 0)
+            return false;
+        return isIdempotent(request.getMethod()) && isReproducible(request.getContent());
+    }
+
+    protected boolean isIdempotent(String method)
+    {
+        return HttpMethod.GET.is(method) ||
+                HttpMethod.HEAD.is(method) ||
+                HttpMethod.OPTIONS.is(method) ||
+                HttpMethod.TRACE.is(method) ||
+                HttpMethod.PUT.is(method) ||
+                HttpMethod.DELETE.is(method);
+    }
+
+    /**
+     * @param content the request content
+     * @return whether the given content can be sent more than once
+     */
+    protected boolean isReproducible(ContentProvider content)
+    {
+        return content == null ||
+                content instanceof BytesContentProvider ||
+                content instanceof ByteBufferContentProvider;
+    }
+
+    /**
+     * <p>Requests aborted, by the application or by their total timeout, and requests
+     * that failed because {@link HttpClient} is stopping are not retried, whatever
+     * their failure, as an abort cause may also be an {@link IOException}, for
+     * example the {@link java.nio.channels.AsynchronousCloseException} of the
+     * connections closed by {@link HttpClient#stop()}.</p>
+     *
+     * @param request the request that did not receive a response
+     * @param failure the failure of the request
+     * @return whether the request may be retried
+     */
+    public boolean isRetryable(Request request, Throwable failure)
+    {
+        if (request.getAbortCause() != null)
+            return false;
+        if (!destination.getHttpClient().isRunning())
+            return false;
+        return failure instanceof IOException && !(failure instanceof InterruptedIOException);
+    }
+
+    /**
+     * @return the delay, in milliseconds, after which a request is hedged,
+     * or a negative value if not enough latencies have been observed
+     */
+    @ManagedAttribute(value = "The delay, in milliseconds, after which a request is hedged", readonly = true)
+    public long getHedgeDelay()
+    {
+        long delay = hedgeDelay;
+        if (delay < 0)
+            return delay;
+        return Math.max(getMinHedgeDelay(), TimeUnit.NANOSECONDS.toMillis(delay));
+    }
+
+    /**
+     * <p>Records the latency of a request that completed successfully.</p>
+     *
+     * @param latency the latency of the request, in nanoseconds
+     */
+    public void onLatency(long latency)
+    {
+        synchronized (this)
+        {
+            latencies[(int)(samples++ % latencies.length)] = latency;
+            // Amortize the cost of sorting the samples.
+            if (samples <= latencies.length || samples % Math.max(1, latencies.length / 16) == 0)
+                updateHedgeDelay();
+        }
+    }
+
+    private void updateHedgeDelay()
+    {
+        int count = (int)Math.min(samples, latencies.length);
+        if (count == 0 || count < getMinLatencySamples())
+        {
+            hedgeDelay = -1;
+            return;
+        }
+        long[] sorted = Arrays.copyOf(latencies, count);
+        Arrays.sort(sorted);
+        int index = (int)Math.ceil(getHedgeQuantile() * count) - 1;
+        hedgeDelay = sorted[Math.max(0, index)];
+    }
+
+    protected void onRetry(Request request)
+    {
+        retries.increment();
+    }
+
+    protected void onHedge(Request request)
+    {
+        hedges.increment();
+    }
+
+    protected void onHedgeWon(Request request)
+    {
+        hedgesWon.increment();
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s@%x[retries=%d/%d,hedges=%d/%d,won=%d,delay=%dms]",
+                getClass().getSimpleName(),
+                hashCode(),
+                getRetries(),
+                getMaxRetries(),
+                getHedges(),
+                getMaxHedges(),
+                getHedgesWon(),
+                getHedgeDelay());
+    }
+
+    /**
+     * <p>Creates the {@link RetryPolicy} of a destination.</p>
+     */
+    public interface Factory
+    {
+        /**
+         * @param destination the destination
+         * @return a new retry policy for the given destination, or null to not retry requests
+         */
+        public RetryPolicy newRetryPolicy(HttpDestination destination);
+    }
+}
@@ -18,6 +18,7 @@
 
 package org.eclipse.jetty.client.http;
 
+import java.nio.ByteBuffer;
 import java.util.Locale;
 import java.util.concurrent.atomic.LongAdder;
 
@@ -80,6 +81,14 @@ public class HttpChannelOverHTTP extends HttpChannel
 
     @Override
     public void send()
+    {
+        if (connection.isPipelining())
+            connection.send(this);
+        else
+            sendRequest();
+    }
+
+    protected void sendRequest()
     {
         HttpExchange exchange = getHttpExchange();
         if (exchange != null)
@@ -92,7 +101,7 @@ public class HttpChannelOverHTTP extends HttpChannel
     @Override
     public void release()
     {
-        connection.release();
+        connection.release(this);
     }
 
     @Override
@@ -137,6 +146,20 @@ public class HttpChannelOverHTTP extends HttpChannel
         receiver.receive();
     }
 
+    /**
+     * <p>Prepares the receiver of this channel to parse a pipelined response,
+     * starting with the bytes left in the given buffer by the previous response.</p>
+     *
+     * @param buffer the buffer to parse the response from
+     * @return the receiver that continues parsing
+     */
+    protected HttpReceiverOverHTTP receive(ByteBuffer buffer)
+    {
+        inMessages.increment();
+        receiver.receive(buffer);
+        return receiver;
+    }
+
     @Override
     public void exchangeTerminated(HttpExchange exchange, Result result)
     {
@@ -22,17 +22,22 @@ import java.io.IOException;
 import java.util.Map;
 
 import org.eclipse.jetty.client.AbstractConnectorHttpClientTransport;
+import org.eclipse.jetty.client.ConnectionPool;
 import org.eclipse.jetty.client.DuplexConnectionPool;
 import org.eclipse.jetty.client.HttpDestination;
+import org.eclipse.jetty.client.MultiplexConnectionPool;
 import org.eclipse.jetty.client.Origin;
 import org.eclipse.jetty.client.api.Connection;
 import org.eclipse.jetty.io.EndPoint;
 import org.eclipse.jetty.util.Promise;
+import org.eclipse.jetty.util.annotation.ManagedAttribute;
 import org.eclipse.jetty.util.annotation.ManagedObject;
 
 @ManagedObject("The HTTP/1.1 client transport")
 public class HttpClientTransportOverHTTP extends AbstractConnectorHttpClientTransport
 {
+    private int maxPipelineDepth = 1;
+
     public HttpClientTransportOverHTTP()
     {
         this(Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
@@ -41,7 +46,37 @@ public class HttpClientTransportOverHTTP extends AbstractConnectorHttpClientTran
     public HttpClientTransportOverHTTP(int selectors)
     {
         super(selectors);
-        setConnectionPoolFactory(destination -> new DuplexConnectionPool(destination, getHttpClient().getMaxConnectionsPerDestination(), destination));
+        setConnectionPoolFactory((ConnectionPool.MaxConnectionsFactory)(destination, maxConnections) ->
+        {
+            int maxPipelineDepth = getMaxPipelineDepth();
+            if (maxPipelineDepth > 1)
+                return new MultiplexConnectionPool(destination, maxConnections, destination, maxPipelineDepth);
+            return new DuplexConnectionPool(destination, maxConnections, destination);
+        });
+    }
+
+    @ManagedAttribute("The max number of pipelined requests per connection")
+    public int getMaxPipelineDepth()
+    {
+        return maxPipelineDepth;
+    }
+
+    /**
+     * <p>Sets the max number of requests sent on a connection before their responses are received.</p>
+     * <p>A value greater than 1 enables HTTP/1.1 pipelining: connections are shared by up to
+     * this number of requests, and new connections are opened only when all the existing
+     * connections are saturated.
+     * Pipelining should only be enabled for servers that are known to support it.</p>
+     * <p>Only idempotent requests are pipelined; other requests wait for the outstanding
+     * responses, and are sent alone.
+     * The failure of a pipelined request closes the connection, failing the other requests
+     * pipelined on the same connection.</p>
+     *
+     * @param maxPipelineDepth the max number of pipelined requests per connection
+     */
+    public void setMaxPipelineDepth(int maxPipelineDepth)
+    {
+        this.maxPipelineDepth = maxPipelineDepth;
     }
 
     @Override
@@ -57,6 +92,7 @@ public class HttpClientTransportOverHTTP extends AbstractConnectorHttpClientTran
         @SuppressWarnings("unchecked")
         Promise<Connection> promise = (Promise<Connection>)context.get(HTTP_CONNECTION_PROMISE_CONTEXT_KEY);
         HttpConnectionOverHTTP connection = newHttpConnection(endPoint, destination, promise);
+        connection.setMaxPipelineDepth(getMaxPipelineDepth());
         if (LOG.isDebugEnabled())
             LOG.debug("Created {}", connection);
         return customize(connection, context);
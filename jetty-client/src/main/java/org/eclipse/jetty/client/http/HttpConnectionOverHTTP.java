@@ -20,6 +20,12 @@ package org.eclipse.jetty.client.http;
 
 import java.nio.ByteBuffer;
 import java.nio.channels.AsynchronousCloseException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Queue;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -32,8 +38,14 @@ import org.eclipse.jetty.client.SendFailure;
 import org.eclipse.jetty.client.api.Connection;
 import org.eclipse.jetty.client.api.Request;
 import org.eclipse.jetty.client.api.Response;
+import org.eclipse.jetty.http.HttpHeader;
+import org.eclipse.jetty.http.HttpHeaderValue;
+import org.eclipse.jetty.http.HttpMethod;
+import org.eclipse.jetty.http.HttpVersion;
 import org.eclipse.jetty.io.AbstractConnection;
+import org.eclipse.jetty.io.ByteBufferPool;
 import org.eclipse.jetty.io.EndPoint;
+import org.eclipse.jetty.util.BufferUtil;
 import org.eclipse.jetty.util.Promise;
 import org.eclipse.jetty.util.log.Log;
 import org.eclipse.jetty.util.log.Logger;
@@ -48,6 +60,14 @@ public class HttpConnectionOverHTTP extends AbstractConnection implements Connec
     private final Promise<Connection> promise;
     private final Delegate delegate;
     private final HttpChannelOverHTTP channel;
+    private final List<HttpChannelOverHTTP> channels = new ArrayList<>();
+    private final Queue<HttpChannelOverHTTP> idleChannels = new ArrayDeque<>();
+    private final Queue<HttpChannelOverHTTP> requests = new ArrayDeque<>();
+    private final Deque<HttpChannelOverHTTP> responses = new ArrayDeque<>();
+    private HttpChannelOverHTTP sending;
+    private HttpChannelOverHTTP exclusive;
+    private int pipelined;
+    private int maxPipelineDepth = 1;
     private long idleTimeout;
 
     private final LongAdder bytesIn = new LongAdder();
@@ -59,6 +79,8 @@ public class HttpConnectionOverHTTP extends AbstractConnection implements Connec
         this.promise = promise;
         this.delegate = new Delegate(destination);
         this.channel = newHttpChannel();
+        this.channels.add(channel);
+        this.idleChannels.offer(channel);
     }
 
     protected HttpChannelOverHTTP newHttpChannel()
@@ -71,6 +93,34 @@ public class HttpConnectionOverHTTP extends AbstractConnection implements Connec
         return channel;
     }
 
+    /**
+     * @return the max number of requests sent on this connection before their responses are received
+     */
+    public int getMaxPipelineDepth()
+    {
+        return maxPipelineDepth;
+    }
+
+    /**
+     * <p>Sets the max number of requests sent on this connection before their responses are received.</p>
+     * <p>A value greater than 1 enables HTTP/1.1 pipelining on this connection.</p>
+     *
+     * @param maxPipelineDepth the max number of pipelined requests
+     * @see HttpClientTransportOverHTTP#setMaxPipelineDepth(int)
+     */
+    public void setMaxPipelineDepth(int maxPipelineDepth)
+    {
+        this.maxPipelineDepth = maxPipelineDepth;
+    }
+
+    /**
+     * @return whether HTTP/1.1 pipelining is enabled on this connection
+     */
+    public boolean isPipelining()
+    {
+        return getMaxPipelineDepth() > 1;
+    }
+
     public HttpDestinationOverHTTP getHttpDestination()
     {
         return (HttpDestinationOverHTTP)delegate.getHttpDestination();
@@ -102,13 +152,19 @@ public class HttpConnectionOverHTTP extends AbstractConnection implements Connec
     @Override
     public long getMessagesIn()
     {
-        return getHttpChannel().getMessagesIn();
+        synchronized (this)
+        {
+            return channels.stream().mapToLong(HttpChannelOverHTTP::getMessagesIn).sum();
+        }
     }
 
     @Override
     public long getMessagesOut()
     {
-        return getHttpChannel().getMessagesOut();
+        synchronized (this)
+        {
+            return channels.stream().mapToLong(HttpChannelOverHTTP::getMessagesOut).sum();
+        }
     }
 
     @Override
@@ -149,7 +205,8 @@ public class HttpConnectionOverHTTP extends AbstractConnection implements Connec
     @Override
     public void onFillable()
     {
-        HttpExchange exchange = channel.getHttpExchange();
+        HttpChannelOverHTTP channel = getReceivingChannel();
+        HttpExchange exchange = channel == null ? null : channel.getHttpExchange();
         if (exchange != null)
         {
             channel.receive();
@@ -162,10 +219,20 @@ public class HttpConnectionOverHTTP extends AbstractConnection implements Connec
         }
     }
 
+    private HttpChannelOverHTTP getReceivingChannel()
+    {
+        if (!isPipelining())
+            return channel;
+        synchronized (this)
+        {
+            return responses.peek();
+        }
+    }
+
     @Override
     public ByteBuffer onUpgradeFrom()
     {
-        HttpReceiverOverHTTP receiver = channel.getHttpReceiver();
+        HttpReceiverOverHTTP receiver = getReceivingChannel().getHttpReceiver();
         return receiver.onUpgradeFrom();
     }
 
@@ -176,6 +243,147 @@ public class HttpConnectionOverHTTP extends AbstractConnection implements Connec
         getHttpDestination().release(this);
     }
 
+    protected void release(HttpChannelOverHTTP channel)
+    {
+        if (!isPipelining())
+        {
+            release();
+            return;
+        }
+
+        boolean last;
+        synchronized (this)
+        {
+            idleChannels.offer(channel);
+            last = --pipelined == 0;
+        }
+        if (last)
+            getEndPoint().setIdleTimeout(idleTimeout);
+        getHttpDestination().release(this);
+    }
+
+    /**
+     * <p>Sends the request of the given channel when the requests pipelined
+     * before it have been sent.</p>
+     * <p>Requests that are not idempotent, that expect 100 Continue, or that
+     * may change the protocol of the connection are sent only when no other
+     * request is outstanding, and no other request is sent until their
+     * response is received.</p>
+     *
+     * @param channel the channel with the request to send
+     */
+    protected void send(HttpChannelOverHTTP channel)
+    {
+        synchronized (this)
+        {
+            requests.offer(channel);
+        }
+        sendNext();
+    }
+
+    private void sendNext()
+    {
+        HttpChannelOverHTTP next;
+        synchronized (this)
+        {
+            if (sending != null || exclusive != null)
+                return;
+            next = requests.peek();
+            if (next == null)
+                return;
+            HttpExchange exchange = next.getHttpExchange();
+            boolean pipelineable = exchange != null && isPipelineable(exchange.getRequest());
+            if (!pipelineable)
+            {
+                if (!responses.isEmpty())
+                    return;
+                exclusive = next;
+            }
+            requests.poll();
+            sending = next;
+            responses.offer(next);
+        }
+        if (LOG.isDebugEnabled())
+            LOG.debug("Sending pipelined {} on {}", next, this);
+        next.sendRequest();
+    }
+
+    protected boolean isPipelineable(Request request)
+    {
+        if (request.getVersion() != HttpVersion.HTTP_1_1)
+            return false;
+        String method = request.getMethod();
+        if (!HttpMethod.GET.is(method) &&
+                !HttpMethod.HEAD.is(method) &&
+                !HttpMethod.OPTIONS.is(method) &&
+                !HttpMethod.TRACE.is(method) &&
+                !HttpMethod.PUT.is(method) &&
+                !HttpMethod.DELETE.is(method))
+            return false;
+        if (request.getHeaders().contains(HttpHeader.EXPECT, HttpHeaderValue.CONTINUE.asString()))
+            return false;
+        return !request.getHeaders().containsKey(HttpHeader.UPGRADE.asString());
+    }
+
+    /**
+     * <p>Called when the request of the given pipelined channel has been sent.</p>
+     *
+     * @param channel the channel whose request has been sent
+     */
+    protected void requestSent(HttpChannelOverHTTP channel)
+    {
+        if (!isPipelining())
+            return;
+        synchronized (this)
+        {
+            if (sending == channel)
+                sending = null;
+        }
+        sendNext();
+    }
+
+    /**
+     * <p>Called when the response of the given pipelined channel has been received.</p>
+     *
+     * @param channel the channel whose response has been received
+     */
+    protected void responseReceived(HttpChannelOverHTTP channel)
+    {
+        synchronized (this)
+        {
+            if (responses.peek() == channel)
+                responses.poll();
+            if (exclusive == channel)
+                exclusive = null;
+        }
+        sendNext();
+    }
+
+    /**
+     * <p>Returns the channel of the next pipelined response, to which the caller
+     * hands the bytes that follow the previous response, or releases the buffer
+     * and waits for more bytes if there is no next response.</p>
+     *
+     * @param buffer the buffer with the bytes that follow the response
+     * @return the channel of the next response, or null if there is none
+     */
+    protected HttpChannelOverHTTP receiveNext(ByteBuffer buffer)
+    {
+        HttpChannelOverHTTP next = getReceivingChannel();
+        if (next != null)
+            return next;
+
+        boolean garbage = BufferUtil.hasContent(buffer);
+        BufferUtil.clear(buffer);
+        ByteBufferPool bufferPool = getHttpDestination().getHttpClient().getByteBufferPool();
+        bufferPool.release(buffer);
+        if (garbage)
+            close();
+        else
+            fillInterested();
+        return null;
+    }
+
     @Override
     public void close()
     {
@@ -188,6 +396,7 @@ public class HttpConnectionOverHTTP extends AbstractConnection implements Connec
         {
             getHttpDestination().close(this);
 
+            List<HttpExchange> unanswered = detachUnanswered(failure);
             abort(failure);
 
             getEndPoint().shutdownOutput();
@@ -196,13 +405,89 @@ public class HttpConnectionOverHTTP extends AbstractConnection implements Connec
             getEndPoint().close();
             if (LOG.isDebugEnabled())
                 LOG.debug("Closed {}", this);
+
+            for (HttpExchange exchange : unanswered)
+                getHttpDestination().resend(exchange, failure);
+        }
+    }
+
+    /**
+     * <p>Detaches from their channels the pipelined exchanges that can be sent again
+     * over another connection: those whose request has not been sent yet, and those
+     * whose request has been sent, is {@link #isResendable(Request) resendable},
+     * and has not received any response byte, unless the connection idle timed out
+     * waiting for them.</p>
+     *
+     * @param failure the reason of the close
+     * @return the exchanges to send again
+     */
+    private List<HttpExchange> detachUnanswered(Throwable failure)
+    {
+        if (!isPipelining())
+            return Collections.emptyList();
+
+        List<HttpChannelOverHTTP> unsent;
+        List<HttpChannelOverHTTP> unanswered;
+        synchronized (this)
+        {
+            unsent = new ArrayList<>(requests);
+            requests.clear();
+            unanswered = new ArrayList<>();
+            // Requests that idle timed out would likely time out again.
+            if (!(failure instanceof TimeoutException))
+            {
+                unanswered.addAll(responses);
+                // The request being sent may be half written.
+                unanswered.remove(sending);
+            }
+        }
+
+        List<HttpExchange> result = new ArrayList<>();
+        for (HttpChannelOverHTTP channel : unsent)
+        {
+            HttpExchange exchange = channel.getHttpExchange();
+            if (exchange != null && channel.detach(exchange))
+                result.add(exchange);
         }
+        for (HttpChannelOverHTTP channel : unanswered)
+        {
+            HttpExchange exchange = channel.getHttpExchange();
+            if (exchange == null || exchange.getResponse().getStatus() > 0)
+                continue;
+            if (isResendable(exchange.getRequest()) && channel.detach(exchange))
+                result.add(exchange);
+        }
+        if (LOG.isDebugEnabled())
+            LOG.debug("Resending {} unanswered requests of {}", result.size(), this);
+        return result;
+    }
+
+    /**
+     * @param request the request, already sent, to test
+     * @return whether the given request can be sent again when the connection
+     * it was pipelined on closes before its response is received
+     */
+    protected boolean isResendable(Request request)
+    {
+        // Idempotent requests without content only, as content may not be reproducible.
+        return isPipelineable(request) && request.getContent() == null;
     }
 
     protected boolean abort(Throwable failure)
     {
-        HttpExchange exchange = channel.getHttpExchange();
-        return exchange != null && exchange.getRequest().abort(failure);
+        List<HttpChannelOverHTTP> toAbort;
+        synchronized (this)
+        {
+            toAbort = new ArrayList<>(channels);
+        }
+        boolean aborted = false;
+        for (HttpChannelOverHTTP channel : toAbort)
+        {
+            HttpExchange exchange = channel.getHttpExchange();
+            if (exchange != null && exchange.getRequest().abort(failure))
+                aborted = true;
+        }
+        return aborted;
     }
 
     @Override
@@ -245,6 +530,9 @@ public class HttpConnectionOverHTTP extends AbstractConnection implements Connec
             Request request = exchange.getRequest();
             normalizeRequest(request);
 
+            if (isPipelining())
+                return sendPipelined(exchange);
+
             // Save the old idle timeout to restore it.
             EndPoint endPoint = getEndPoint();
             idleTimeout = endPoint.getIdleTimeout();
@@ -254,6 +542,39 @@ public class HttpConnectionOverHTTP extends AbstractConnection implements Connec
             return send(channel, exchange);
         }
 
+        private SendFailure sendPipelined(HttpExchange exchange)
+        {
+            EndPoint endPoint = getEndPoint();
+            HttpChannelOverHTTP channel;
+            boolean first;
+            synchronized (HttpConnectionOverHTTP.this)
+            {
+                first = pipelined++ == 0;
+                channel = idleChannels.poll();
+                if (channel == null)
+                {
+                    // One channel per pipelined request.
+                    channel = newHttpChannel();
+                    channels.add(channel);
+                }
+            }
+
+            long requestIdleTimeout = exchange.getRequest().getIdleTimeout();
+            if (first)
+            {
+                // Save the old idle timeout to restore it.
+                idleTimeout = endPoint.getIdleTimeout();
+                endPoint.setIdleTimeout(requestIdleTimeout);
+            }
+            else
+            {
+                // Use the longest idle timeout of the pipelined requests.
+                endPoint.setIdleTimeout(Math.max(endPoint.getIdleTimeout(), requestIdleTimeout));
+            }
+
+            return send(channel, exchange);
+        }
+
         @Override
         public void close()
         {
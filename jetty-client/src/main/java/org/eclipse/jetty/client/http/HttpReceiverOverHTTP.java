@@ -41,6 +41,7 @@ public class HttpReceiverOverHTTP extends HttpReceiver implements HttpParser.Res
     private final HttpParser parser = new HttpParser(this);
     private ByteBuffer buffer;
     private boolean shutdown;
+    private boolean complete;
 
     public HttpReceiverOverHTTP(HttpChannelOverHTTP channel)
     {
@@ -70,6 +71,20 @@ public class HttpReceiverOverHTTP extends HttpReceiver implements HttpParser.Res
         process();
     }
 
+    /**
+     * <p>Sets the buffer to parse a pipelined response from, with the bytes
+     * left by the previous response; parsing is continued by the receiver
+     * of the previous response, see {@link #process()}.</p>
+     *
+     * @param buffer the buffer to parse the response from
+     */
+    protected void receive(ByteBuffer buffer)
+    {
+        if (this.buffer != null)
+            throw new IllegalStateException();
+        this.buffer = buffer;
+    }
+
     private void acquireBuffer()
     {
         HttpClient client = getHttpDestination().getHttpClient();
@@ -100,7 +115,23 @@ public class HttpReceiverOverHTTP extends HttpReceiver implements HttpParser.Res
         return null;
     }
 
+    /**
+     * <p>Parses responses until more bytes must be read from the network.</p>
+     * <p>When a pipelined response is complete, the bytes that follow are parsed
+     * by the receiver of the next response in this same loop, rather than by a
+     * nested call, so that many pipelined responses in a buffer do not grow the stack.</p>
+     */
     private void process()
+    {
+        HttpReceiverOverHTTP receiver = this;
+        while (receiver != null)
+            receiver = receiver.parseAndFill();
+    }
+
+    /**
+     * @return the receiver of the next pipelined response to continue parsing with, or null to stop parsing
+     */
+    private HttpReceiverOverHTTP parseAndFill()
     {
         try
         {
@@ -116,11 +147,11 @@ public class HttpReceiverOverHTTP extends HttpReceiver implements HttpParser.Res
                     if (LOG.isDebugEnabled())
                         LOG.debug("{} {}", connection, upgraded ? "upgraded" : "closed");
                     releaseBuffer();
-                    return;
+                    return null;
                 }
 
                 if (parse())
-                    return;
+                    return receiveNext();
 
                 int read = endPoint.fill(buffer);
                 if (LOG.isDebugEnabled())
@@ -130,19 +161,19 @@ public class HttpReceiverOverHTTP extends HttpReceiver implements HttpParser.Res
                 {
                     connection.addBytesIn(read);
                     if (parse())
-                        return;
+                        return receiveNext();
                 }
                 else if (read == 0)
                 {
                     releaseBuffer();
                     fillInterested();
-                    return;
+                    return null;
                 }
                 else
                 {
                     releaseBuffer();
                     shutdown();
-                    return;
+                    return null;
                 }
             }
         }
@@ -154,9 +185,23 @@ public class HttpReceiverOverHTTP extends HttpReceiver implements HttpParser.Res
             if (buffer != null)
                 releaseBuffer();
             failAndClose(x);
+            return null;
         }
     }
 
+    private HttpReceiverOverHTTP receiveNext()
+    {
+        if (!complete)
+            return null;
+        // The pipelined response is complete, the bytes
+        // that follow belong to the next pipelined response.
+        complete = false;
+        ByteBuffer next = buffer;
+        buffer = null;
+        HttpChannelOverHTTP channel = getHttpConnection().receiveNext(next);
+        return channel == null ? null : channel.receive(next);
+    }
+
     /**
      * Parses a HTTP response in the receivers buffer.
      *
@@ -295,19 +340,24 @@ public class HttpReceiverOverHTTP extends HttpReceiver implements HttpParser.Res
         if (exchange == null)
             return false;
 
-        boolean proceed = responseSuccess(exchange);
-        if (!proceed)
-            return true;
-
         int status = exchange.getResponse().getStatus();
-        if (status == HttpStatus.SWITCHING_PROTOCOLS_101)
-            return true;
+        boolean tunnel = status == HttpStatus.SWITCHING_PROTOCOLS_101 ||
+                (HttpMethod.CONNECT.is(exchange.getRequest().getMethod()) && status == HttpStatus.OK_200);
 
-        if (HttpMethod.CONNECT.is(exchange.getRequest().getMethod()) &&
-                status == HttpStatus.OK_200)
+        HttpConnectionOverHTTP connection = getHttpConnection();
+        if (!tunnel && connection.isPipelining())
+        {
+            // Stop parsing, the next pipelined response
+            // is parsed by the receiver of its channel.
+            complete = true;
+            connection.responseReceived(getHttpChannel());
+        }
+
+        boolean proceed = responseSuccess(exchange);
+        if (!proceed)
             return true;
 
-        return false;
+        return tunnel || complete;
     }
 
     @Override
@@ -317,6 +367,10 @@ public class HttpReceiverOverHTTP extends HttpReceiver implements HttpParser.Res
         HttpConnectionOverHTTP connection = getHttpConnection();
         if (exchange == null)
             connection.close();
+        else if (connection.isPipelining() && exchange.getResponse().getStatus() == 0)
+            // No response bytes for this pipelined exchange, let
+            // the connection close send it again if it can.
+            connection.close(new EOFException(String.valueOf(connection)));
         else
             failAndClose(new EOFException(String.valueOf(connection)));
     }
@@ -158,6 +158,8 @@ public class HttpSenderOverHTTP extends HttpSender
     {
         generator.reset();
         super.reset();
+        HttpChannelOverHTTP channel = getHttpChannel();
+        channel.getHttpConnection().requestSent(channel);
     }
 
     @Override
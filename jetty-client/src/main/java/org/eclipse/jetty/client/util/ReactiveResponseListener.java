@@ -0,0 +1,278 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2017 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.client.util;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CancellationException;
+
+import org.eclipse.jetty.client.api.Response;
+import org.eclipse.jetty.client.api.Result;
+import org.eclipse.jetty.util.Callback;
+import org.eclipse.jetty.util.log.Log;
+import org.eclipse.jetty.util.log.Logger;
+
+/**
+ * <p>Implementation of {@link Response.Listener} that delivers the response content
+ * to a {@link Subscriber} only when the subscriber demands it.</p>
+ * <p>The response content chunks are not copied: the {@link ByteBuffer}s passed to
+ * {@link Subscriber#onNext(Response, ByteBuffer, Callback)} are those produced by
+ * {@link org.eclipse.jetty.client.HttpClient}, typically slices of its pooled network
+ * buffers, and are only valid until the callback is completed.
+ * Until the callback is completed, {@link org.eclipse.jetty.client.HttpClient} stops
+ * reading from the network, so that the memory used by the response content is bounded
+ * and the server is slowed down to the pace of the subscriber.
+ * Decoded content, for example gzip, may yield several chunks for a single network
+ * read: they are queued until they are demanded.</p>
+ * <p>Typical usage is:</p>
+ * <pre>
+ * client.newRequest(...).send(new ReactiveResponseListener(new ReactiveResponseListener.Subscriber()
+ * {
+ *     &#64;Override
+ *     public void onSubscribe(Response response, ReactiveResponseListener.Subscription subscription)
+ *     {
+ *         this.subscription = subscription;
+ *         subscription.request(1);
+ *     }
+ *
+ *     &#64;Override
+ *     public void onNext(Response response, ByteBuffer chunk, Callback callback)
+ *     {
+ *         // Consume the chunk, then release it and demand more.
+ *         process(chunk);
+ *         callback.succeeded();
+ *         subscription.request(1);
+ *     }
+ *
+ *     &#64;Override
+ *     public void onComplete(Result result)
+ *     {
+ *     }
+ * }));
+ * </pre>
+ */
+public class ReactiveResponseListener extends Response.Listener.Adapter
+{
+    private static final Logger LOG = Log.getLogger(ReactiveResponseListener.class);
+
+    private final Object lock = this;
+    private final Subscriber subscriber;
+    private final Subscription subscription = new ResponseSubscription();
+    private final Queue<Chunk> chunks = new ArrayDeque<>();
+    private Response response;
+    private long demand;
+    private boolean delivering;
+    private boolean cancelled;
+
+    public ReactiveResponseListener(Subscriber subscriber)
+    {
+        this.subscriber = subscriber;
+    }
+
+    @Override
+    public void onHeaders(Response response)
+    {
+        synchronized (lock)
+        {
+            this.response = response;
+        }
+        subscriber.onSubscribe(response, subscription);
+    }
+
+    @Override
+    public void onContent(Response response, ByteBuffer content, Callback callback)
+    {
+        if (!content.hasRemaining())
+        {
+            callback.succeeded();
+            return;
+        }
+
+        // Decoded content (for example gzip) may produce several chunks
+        // for the same network buffer, all notified before any of their
+        // callbacks is completed, so they must be queued.
+        boolean cancelled;
+        synchronized (lock)
+        {
+            cancelled = this.cancelled;
+            if (!cancelled)
+                chunks.offer(new Chunk(content, callback));
+        }
+
+        if (cancelled)
+            callback.failed(new CancellationException());
+        else
+            deliver();
+    }
+
+    @Override
+    public void onComplete(Result result)
+    {
+        subscriber.onComplete(result);
+    }
+
+    private void request(long n)
+    {
+        if (n <= 0)
+        {
+            cancel(new IllegalArgumentException("Invalid demand " + n));
+            return;
+        }
+
+        synchronized (lock)
+        {
+            if (cancelled)
+                return;
+            demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+        }
+        deliver();
+    }
+
+    private void deliver()
+    {
+        // Only one thread delivers, so that the chunks are delivered in
+        // order even if the subscriber demands more from within onNext().
+        synchronized (lock)
+        {
+            if (delivering)
+                return;
+            delivering = true;
+        }
+
+        while (true)
+        {
+            Response response;
+            Chunk chunk;
+            synchronized (lock)
+            {
+                if (cancelled || demand == 0 || chunks.isEmpty())
+                {
+                    delivering = false;
+                    return;
+                }
+                --demand;
+                response = this.response;
+                chunk = chunks.poll();
+            }
+            subscriber.onNext(response, chunk.content, chunk.callback);
+        }
+    }
+
+    private void cancel(Throwable failure)
+    {
+        Response response;
+        List<Chunk> pending;
+        synchronized (lock)
+        {
+            if (cancelled)
+                return;
+            cancelled = true;
+            response = this.response;
+            pending = new ArrayList<>(chunks);
+            chunks.clear();
+        }
+
+        if (LOG.isDebugEnabled())
+            LOG.debug("Cancelled {} with {} pending chunks", response, pending.size());
+        for (Chunk chunk : pending)
+            chunk.callback.failed(failure);
+        if (response != null)
+            response.abort(failure);
+    }
+
+    /**
+     * <p>The consumer of the response content.</p>
+     */
+    public interface Subscriber
+    {
+        /**
+         * <p>Callback method invoked when the response headers have been received.</p>
+         * <p>No content is delivered until {@link Subscription#request(long)} is called.</p>
+         *
+         * @param response the response, with its status and headers
+         * @param subscription the subscription to demand content or to cancel the response
+         */
+        public void onSubscribe(Response response, Subscription subscription);
+
+        /**
+         * <p>Callback method invoked when a demanded content chunk has been received.</p>
+         * <p>The callback must be completed when the chunk has been consumed; the chunk
+         * must not be used after the callback has been completed.</p>
+         *
+         * @param response the response
+         * @param chunk the content chunk
+         * @param callback the callback to complete to release the chunk
+         */
+        public void onNext(Response response, ByteBuffer chunk, Callback callback);
+
+        /**
+         * <p>Callback method invoked when the response has been completed, either
+         * successfully or not, regardless of the demand.</p>
+         *
+         * @param result the request/response result
+         */
+        public void onComplete(Result result);
+    }
+
+    /**
+     * <p>Allows a {@link Subscriber} to demand content, or to stop receiving it.</p>
+     */
+    public interface Subscription
+    {
+        /**
+         * @param n the number of additional content chunks to deliver, must be positive
+         */
+        public void request(long n);
+
+        /**
+         * <p>Aborts the response, releasing any content chunk not yet delivered.</p>
+         */
+        public void cancel();
+    }
+
+    private class ResponseSubscription implements Subscription
+    {
+        @Override
+        public void request(long n)
+        {
+            ReactiveResponseListener.this.request(n);
+        }
+
+        @Override
+        public void cancel()
+        {
+            ReactiveResponseListener.this.cancel(new CancellationException());
+        }
+    }
+
+    private static class Chunk
+    {
+        private final ByteBuffer content;
+        private final Callback callback;
+
+        private Chunk(ByteBuffer content, Callback callback)
+        {
+            this.content = content;
+            this.callback = callback;
+        }
+    }
+}
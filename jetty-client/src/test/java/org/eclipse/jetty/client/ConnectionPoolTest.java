@@ -61,7 +61,9 @@ public class ConnectionPoolTest
         return new ConnectionPool.Factory[]
                 {
                         destination -> new DuplexConnectionPool(destination, 8, destination),
-                        destination -> new RoundRobinConnectionPool(destination, 8, destination)
+                        destination -> new RoundRobinConnectionPool(destination, 8, destination),
+                        destination -> new LIFOConnectionPool(destination, 8, destination),
+                        destination -> new LeastLoadedConnectionPool(destination, 8, destination)
                 };
     }
 
@@ -0,0 +1,289 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2017 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.client;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.client.api.ContentResponse;
+import org.eclipse.jetty.client.util.FutureResponseListener;
+import org.eclipse.jetty.http.HttpHeader;
+import org.eclipse.jetty.http.HttpMethod;
+import org.eclipse.jetty.http.HttpStatus;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.toolchain.test.MavenTestingUtils;
+import org.eclipse.jetty.util.ssl.SslContextFactory;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class HttpCacheTest extends AbstractHttpClientServerTest
+{
+    private final AtomicInteger requests = new AtomicInteger();
+    private HttpCache cache;
+
+    public HttpCacheTest(SslContextFactory sslContextFactory)
+    {
+        super(sslContextFactory);
+    }
+
+    private void start(String cacheControl, String etag) throws Exception
+    {
+        start(new EmptyServerHandler()
+        {
+            @Override
+            protected void service(String target, Request jettyRequest, HttpServletRequest request, HttpServletResponse response) throws IOException, ServletException
+            {
+                int count = requests.incrementAndGet();
+                if (HttpMethod.POST.is(request.getMethod()))
+                    return;
+                response.setHeader(HttpHeader.CACHE_CONTROL.asString(), cacheControl);
+                if (etag != null)
+                {
+                    response.setHeader(HttpHeader.ETAG.asString(), etag);
+                    if (etag.equals(request.getHeader(HttpHeader.IF_NONE_MATCH.asString())))
+                    {
+                        response.setStatus(HttpStatus.NOT_MODIFIED_304);
+                        return;
+                    }
+                }
+                response.setHeader(HttpHeader.VARY.asString(), HttpHeader.ACCEPT_LANGUAGE.asString());
+                response.getWriter().print(request.getHeader(HttpHeader.ACCEPT_LANGUAGE.asString()) + count);
+            }
+        });
+        cache = new HttpCache(client);
+        client.setHttpCache(cache);
+    }
+
+    private ContentResponse send(String language) throws Exception
+    {
+        return client.newRequest("localhost", connector.getLocalPort())
+                .scheme(scheme)
+                .header(HttpHeader.ACCEPT_LANGUAGE, language)
+                .timeout(5, TimeUnit.SECONDS)
+                .send();
+    }
+
+    @Test
+    public void testFreshResponseIsServedFromCache() throws Exception
+    {
+        start("max-age=60", null);
+
+        for (int i = 0; i < 3; ++i)
+        {
+            ContentResponse response = send("en");
+            Assert.assertEquals(HttpStatus.OK_200, response.getStatus());
+            Assert.assertEquals("en1", response.getContentAsString());
+        }
+
+        Assert.assertEquals(1, requests.get());
+        Assert.assertEquals(2, cache.getHits());
+    }
+
+    @Test
+    public void testStaleResponseIsRevalidated() throws Exception
+    {
+        start("max-age=0", "\"v1\"");
+
+        Assert.assertEquals("en1", send("en").getContentAsString());
+        ContentResponse response = send("en");
+
+        Assert.assertEquals(HttpStatus.OK_200, response.getStatus());
+        Assert.assertEquals("en1", response.getContentAsString());
+        Assert.assertEquals(2, requests.get());
+        Assert.assertEquals(1, cache.getRevalidations());
+        Assert.assertEquals(1, cache.getNotModified());
+    }
+
+    @Test
+    public void testNoStoreResponseIsNotCached() throws Exception
+    {
+        start("no-store", null);
+
+        Assert.assertEquals("en1", send("en").getContentAsString());
+        Assert.assertEquals("en2", send("en").getContentAsString());
+        Assert.assertEquals(0, cache.getMemoryEntries());
+    }
+
+    @Test
+    public void testVariantsAreCachedSeparately() throws Exception
+    {
+        start("max-age=60", null);
+
+        Assert.assertEquals("en1", send("en").getContentAsString());
+        Assert.assertEquals("fr2", send("fr").getContentAsString());
+        Assert.assertEquals("en1", send("en").getContentAsString());
+        Assert.assertEquals("fr2", send("fr").getContentAsString());
+        Assert.assertEquals(2, requests.get());
+    }
+
+    @Test
+    public void testUnsafeRequestInvalidatesCachedResponse() throws Exception
+    {
+        start("max-age=60", null);
+
+        Assert.assertEquals("en1", send("en").getContentAsString());
+        client.newRequest("localhost", connector.getLocalPort())
+                .scheme(scheme)
+                .method(HttpMethod.POST)
+                .timeout(5, TimeUnit.SECONDS)
+                .send();
+        Assert.assertEquals("en3", send("en").getContentAsString());
+    }
+
+    @Test
+    public void testEvictedResponseIsServedFromDisk() throws Exception
+    {
+        start("max-age=60", null);
+        Path directory = MavenTestingUtils.getTargetTestingPath(getClass().getSimpleName());
+        cache.setDiskDirectory(directory);
+        cache.stop();
+        cache.start();
+        cache.setMaxMemorySize(1);
+
+        Assert.assertEquals("en1", send("en").getContentAsString());
+        Assert.assertEquals("fr2", send("fr").getContentAsString());
+        // Responses are written to disk asynchronously.
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (cache.getDiskEntries() < 2 && System.nanoTime() < deadline)
+            Thread.sleep(10);
+        Assert.assertEquals(2, cache.getDiskEntries());
+
+        Assert.assertEquals("en1", send("en").getContentAsString());
+        Assert.assertEquals(2, requests.get());
+
+        cache.stop();
+        try (Stream<Path> files = Files.list(directory))
+        {
+            Assert.assertEquals(0, files.count());
+        }
+    }
+
+    @Test
+    public void testResponseIsLoadedFromDiskByExecutor() throws Exception
+    {
+        start("max-age=60", null);
+        Path directory = MavenTestingUtils.getTargetTestingPath(getClass().getSimpleName());
+        cache.setDiskDirectory(directory);
+        cache.stop();
+        cache.start();
+        cache.setMaxMemorySize(1);
+
+        Assert.assertEquals("en1", send("en").getContentAsString());
+        Assert.assertEquals("fr2", send("fr").getContentAsString());
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (cache.getDiskEntries() < 2 && System.nanoTime() < deadline)
+            Thread.sleep(10);
+        Assert.assertEquals(2, cache.getDiskEntries());
+
+        // Hold the tasks submitted to the executor.
+        Executor executor = client.getExecutor();
+        AtomicBoolean hold = new AtomicBoolean(true);
+        List<Runnable> tasks = new ArrayList<>();
+        client.setExecutor(task ->
+        {
+            synchronized (tasks)
+            {
+                if (hold.get())
+                {
+                    tasks.add(task);
+                    return;
+                }
+            }
+            executor.execute(task);
+        });
+
+        org.eclipse.jetty.client.api.Request request = client.newRequest("localhost", connector.getLocalPort())
+                .scheme(scheme)
+                .header(HttpHeader.ACCEPT_LANGUAGE, "en")
+                .timeout(5, TimeUnit.SECONDS);
+        FutureResponseListener listener = new FutureResponseListener(request);
+        request.send(listener);
+
+        // The response has not been read from disk by the sending thread.
+        Assert.assertEquals(2, cache.getDiskEntries());
+
+        List<Runnable> held;
+        synchronized (tasks)
+        {
+            hold.set(false);
+            held = new ArrayList<>(tasks);
+        }
+        held.forEach(executor::execute);
+
+        Assert.assertEquals("en1", listener.get(5, TimeUnit.SECONDS).getContentAsString());
+        Assert.assertEquals(2, requests.get());
+        Assert.assertEquals(1, cache.getHits());
+    }
+
+    @Test
+    public void testDecodedResponseIsServedWithoutContentEncoding() throws Exception
+    {
+        byte[] data = "0123456789".getBytes(StandardCharsets.UTF_8);
+        start(new EmptyServerHandler()
+        {
+            @Override
+            protected void service(String target, Request jettyRequest, HttpServletRequest request, HttpServletResponse response) throws IOException, ServletException
+            {
+                requests.incrementAndGet();
+                ByteArrayOutputStream gzipped = new ByteArrayOutputStream();
+                try (GZIPOutputStream gzipOutput = new GZIPOutputStream(gzipped))
+                {
+                    gzipOutput.write(data);
+                }
+                response.setHeader(HttpHeader.CACHE_CONTROL.asString(), "max-age=60");
+                response.setHeader(HttpHeader.CONTENT_ENCODING.asString(), "gzip");
+                response.setContentLength(gzipped.size());
+                response.getOutputStream().write(gzipped.toByteArray());
+            }
+        });
+        cache = new HttpCache(client);
+        client.setHttpCache(cache);
+
+        ContentResponse response = client.newRequest("localhost", connector.getLocalPort())
+                .scheme(scheme)
+                .timeout(5, TimeUnit.SECONDS)
+                .send();
+        Assert.assertArrayEquals(data, response.getContent());
+
+        response = client.newRequest("localhost", connector.getLocalPort())
+                .scheme(scheme)
+                .timeout(5, TimeUnit.SECONDS)
+                .send();
+        Assert.assertEquals(1, requests.get());
+        Assert.assertEquals(1, cache.getHits());
+        Assert.assertArrayEquals(data, response.getContent());
+        Assert.assertFalse(response.getHeaders().containsKey(HttpHeader.CONTENT_ENCODING.asString()));
+        Assert.assertEquals(data.length, response.getHeaders().getLongField(HttpHeader.CONTENT_LENGTH.asString()));
+    }
+}
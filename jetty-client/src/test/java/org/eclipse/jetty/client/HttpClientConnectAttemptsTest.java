@@ -0,0 +1,219 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2017 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.client;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.jetty.client.api.ContentResponse;
+import org.eclipse.jetty.client.http.HttpClientTransportOverHTTP;
+import org.eclipse.jetty.http.HttpStatus;
+import org.eclipse.jetty.io.Connection;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.util.Promise;
+import org.eclipse.jetty.util.SocketAddressResolver;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class HttpClientConnectAttemptsTest
+{
+    private final AtomicInteger serverOpened = new AtomicInteger();
+    private final AtomicInteger serverClosed = new AtomicInteger();
+    private Server server;
+    private ServerConnector connector;
+    private HttpClient client;
+
+    @Before
+    public void prepare() throws Exception
+    {
+        server = new Server();
+        connector = new ServerConnector(server);
+        connector.addBean(new Connection.Listener()
+        {
+            @Override
+            public void onOpened(Connection connection)
+            {
+                serverOpened.incrementAndGet();
+            }
+
+            @Override
+            public void onClosed(Connection connection)
+            {
+                serverClosed.incrementAndGet();
+            }
+        });
+        server.addConnector(connector);
+        server.setHandler(new EmptyServerHandler());
+        server.start();
+    }
+
+    @After
+    public void dispose() throws Exception
+    {
+        if (client != null)
+            client.stop();
+        server.stop();
+    }
+
+    private void startClient(HttpClientTransport transport, InetSocketAddress... socketAddresses) throws Exception
+    {
+        client = new HttpClient(transport, null);
+        client.setSocketAddressResolver(new SocketAddressResolver()
+        {
+            @Override
+            public void resolve(String host, int port, Promise<List<InetSocketAddress>> promise)
+            {
+                promise.succeeded(Arrays.asList(socketAddresses));
+            }
+        });
+        client.start();
+    }
+
+    @Test
+    public void testInterleaveAddressFamilies() throws Exception
+    {
+        InetSocketAddress ipv6a = new InetSocketAddress(InetAddress.getByName("::1"), 80);
+        InetSocketAddress ipv6b = new InetSocketAddress(InetAddress.getByName("::2"), 80);
+        InetSocketAddress ipv6c = new InetSocketAddress(InetAddress.getByName("::3"), 80);
+        InetSocketAddress ipv4a = new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 80);
+        InetSocketAddress ipv4b = new InetSocketAddress(InetAddress.getByName("127.0.0.2"), 80);
+
+        List<InetSocketAddress> result = HttpClient.interleave(Arrays.asList(ipv6a, ipv6b, ipv6c, ipv4a, ipv4b));
+        Assert.assertEquals(Arrays.asList(ipv6a, ipv4a, ipv6b, ipv4b, ipv6c), result);
+
+        result = HttpClient.interleave(Arrays.asList(ipv4a, ipv4b, ipv6a));
+        Assert.assertEquals(Arrays.asList(ipv4a, ipv6a, ipv4b), result);
+    }
+
+    @Test
+    public void testUnresponsiveAddressDoesNotDelayConnect() throws Exception
+    {
+        InetSocketAddress unresponsive = new InetSocketAddress("127.0.0.2", 1);
+        InetSocketAddress good = new InetSocketAddress("127.0.0.1", connector.getLocalPort());
+        startClient(new HttpClientTransportOverHTTP(1)
+        {
+            @Override
+            public void connect(InetSocketAddress address, Map<String, Object> context)
+            {
+                // Simulate a connect() that never completes.
+                if (!address.equals(unresponsive))
+                    super.connect(address, context);
+            }
+        }, unresponsive, good);
+        client.setConnectTimeout(30000);
+        client.setConnectAttemptDelay(100);
+
+        long start = System.nanoTime();
+        ContentResponse response = client.newRequest("localhost", connector.getLocalPort())
+                .timeout(5, TimeUnit.SECONDS)
+                .send();
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        Assert.assertEquals(HttpStatus.OK_200, response.getStatus());
+        Assert.assertTrue(elapsed < client.getConnectTimeout() / 2);
+    }
+
+    @Test
+    public void testFailedAddressStartsNextAttemptImmediately() throws Exception
+    {
+        // Nothing listens on this port: the connect fails fast.
+        InetSocketAddress refused = new InetSocketAddress("127.0.0.1", 1);
+        InetSocketAddress good = new InetSocketAddress("127.0.0.1", connector.getLocalPort());
+        startClient(new HttpClientTransportOverHTTP(1), refused, good);
+        // The delay is longer than the request timeout.
+        client.setConnectAttemptDelay(30000);
+
+        ContentResponse response = client.newRequest("localhost", connector.getLocalPort())
+                .timeout(5, TimeUnit.SECONDS)
+                .send();
+
+        Assert.assertEquals(HttpStatus.OK_200, response.getStatus());
+    }
+
+    @Test
+    public void testLosingConnectionIsClosed() throws Exception
+    {
+        InetSocketAddress slow = new InetSocketAddress("127.0.0.1", connector.getLocalPort());
+        InetSocketAddress fast = new InetSocketAddress("127.0.0.2", connector.getLocalPort());
+        CountDownLatch slowLatch = new CountDownLatch(1);
+        startClient(new HttpClientTransportOverHTTP(1)
+        {
+            @Override
+            public void connect(InetSocketAddress address, Map<String, Object> context)
+            {
+                if (address.equals(slow))
+                {
+                    // Connect after the other attempt succeeded.
+                    getHttpClient().getScheduler().schedule(() ->
+                    {
+                        super.connect(address, context);
+                        slowLatch.countDown();
+                    }, 1, TimeUnit.SECONDS);
+                }
+                else
+                {
+                    super.connect(address, context);
+                }
+            }
+        }, slow, fast);
+        client.setConnectAttemptDelay(50);
+
+        ContentResponse response = client.newRequest("localhost", connector.getLocalPort())
+                .timeout(5, TimeUnit.SECONDS)
+                .send();
+        Assert.assertEquals(HttpStatus.OK_200, response.getStatus());
+
+        Assert.assertTrue(slowLatch.await(5, TimeUnit.SECONDS));
+        long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (serverClosed.get() < 1 && System.nanoTime() < end)
+            Thread.sleep(10);
+        Assert.assertEquals(2, serverOpened.get());
+        Assert.assertEquals(1, serverClosed.get());
+    }
+
+    @Test
+    public void testAllAttemptsFail() throws Exception
+    {
+        InetSocketAddress refused1 = new InetSocketAddress("127.0.0.1", 1);
+        InetSocketAddress refused2 = new InetSocketAddress("127.0.0.2", 1);
+        startClient(new HttpClientTransportOverHTTP(1), refused1, refused2);
+
+        try
+        {
+            client.newRequest("localhost", connector.getLocalPort())
+                    .timeout(5, TimeUnit.SECONDS)
+                    .send();
+            Assert.fail();
+        }
+        catch (ExecutionException x)
+        {
+            Assert.assertEquals(1, x.getCause().getSuppressed().length);
+        }
+    }
+}
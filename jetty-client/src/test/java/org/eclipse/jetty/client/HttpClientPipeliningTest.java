@@ -0,0 +1,210 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2017 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.client;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.client.api.Request;
+import org.eclipse.jetty.client.http.HttpClientTransportOverHTTP;
+import org.eclipse.jetty.client.util.BufferingResponseListener;
+import org.eclipse.jetty.client.util.StringContentProvider;
+import org.eclipse.jetty.http.HttpHeader;
+import org.eclipse.jetty.http.HttpHeaderValue;
+import org.eclipse.jetty.http.HttpMethod;
+import org.eclipse.jetty.http.HttpStatus;
+import org.eclipse.jetty.util.IO;
+import org.eclipse.jetty.util.ssl.SslContextFactory;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class HttpClientPipeliningTest extends AbstractHttpClientServerTest
+{
+    public HttpClientPipeliningTest(SslContextFactory sslContextFactory)
+    {
+        super(sslContextFactory);
+    }
+
+    private void startPipelining(int maxConnections, int maxPipelineDepth, Set<Integer> remotePorts) throws Exception
+    {
+        startServer(new EmptyServerHandler()
+        {
+            @Override
+            protected void service(String target, org.eclipse.jetty.server.Request jettyRequest, HttpServletRequest request, HttpServletResponse response) throws IOException, ServletException
+            {
+                remotePorts.add(request.getRemotePort());
+                String content = IO.toString(request.getInputStream());
+                response.getOutputStream().print(target + content);
+            }
+        });
+        HttpClientTransportOverHTTP transport = new HttpClientTransportOverHTTP(1);
+        transport.setMaxPipelineDepth(maxPipelineDepth);
+        startClient(transport);
+        client.setMaxConnectionsPerDestination(maxConnections);
+    }
+
+    @Test
+    public void testPipelinedRequests() throws Exception
+    {
+        Set<Integer> remotePorts = ConcurrentHashMap.newKeySet();
+        int maxConnections = 2;
+        startPipelining(maxConnections, 8, remotePorts);
+
+        int count = 100;
+        CountDownLatch latch = new CountDownLatch(count);
+        AtomicInteger successes = new AtomicInteger();
+        for (int i = 0; i < count; ++i)
+        {
+            String path = "/" + i;
+            Request request = client.newRequest("localhost", connector.getLocalPort())
+                    .scheme(scheme)
+                    .path(path)
+                    .timeout(5, TimeUnit.SECONDS);
+            // Interleave non-idempotent requests, that are not pipelined.
+            String content = "";
+            if (i % 10 == 5)
+            {
+                content = "_" + i;
+                request.method(HttpMethod.POST).content(new StringContentProvider(content));
+            }
+            String expected = path + content;
+            request.send(new BufferingResponseListener()
+            {
+                @Override
+                public void onComplete(org.eclipse.jetty.client.api.Result result)
+                {
+                    if (result.isSucceeded() &&
+                            result.getResponse().getStatus() == HttpStatus.OK_200 &&
+                            expected.equals(getContentAsString(StandardCharsets.UTF_8)))
+                        successes.incrementAndGet();
+                    latch.countDown();
+                }
+            });
+        }
+
+        Assert.assertTrue(latch.await(10, TimeUnit.SECONDS));
+        Assert.assertEquals(count, successes.get());
+        Assert.assertTrue(remotePorts.size() <= maxConnections);
+    }
+
+    @Test
+    public void testPipelineDepthOfOneDoesNotPipeline() throws Exception
+    {
+        Set<Integer> remotePorts = ConcurrentHashMap.newKeySet();
+        int maxConnections = 2;
+        startPipelining(maxConnections, 1, remotePorts);
+
+        HttpDestination destination = (HttpDestination)client.getDestination(scheme, "localhost", connector.getLocalPort());
+        Assert.assertTrue(destination.getConnectionPool() instanceof DuplexConnectionPool);
+
+        int count = 10;
+        CountDownLatch latch = new CountDownLatch(count);
+        for (int i = 0; i < count; ++i)
+        {
+            client.newRequest("localhost", connector.getLocalPort())
+                    .scheme(scheme)
+                    .path("/" + i)
+                    .timeout(5, TimeUnit.SECONDS)
+                    .send(result ->
+                    {
+                        if (result.isSucceeded())
+                            latch.countDown();
+                    });
+        }
+
+        Assert.assertTrue(latch.await(10, TimeUnit.SECONDS));
+        Assert.assertEquals(maxConnections, remotePorts.size());
+    }
+
+    @Test
+    public void testUnansweredPipelinedRequestsAreResentWhenConnectionCloses() throws Exception
+    {
+        int count = 8;
+        CountDownLatch sentLatch = new CountDownLatch(count);
+        Set<Integer> remotePorts = ConcurrentHashMap.newKeySet();
+        AtomicInteger handled = new AtomicInteger();
+        startServer(new EmptyServerHandler()
+        {
+            @Override
+            protected void service(String target, org.eclipse.jetty.server.Request jettyRequest, HttpServletRequest request, HttpServletResponse response) throws IOException, ServletException
+            {
+                remotePorts.add(request.getRemotePort());
+                handled.incrementAndGet();
+                if ("/close".equals(target))
+                {
+                    try
+                    {
+                        // Wait for all the requests to be pipelined
+                        // behind this one before closing the connection.
+                        Assert.assertTrue(sentLatch.await(5, TimeUnit.SECONDS));
+                    }
+                    catch (InterruptedException x)
+                    {
+                        throw new ServletException(x);
+                    }
+                    response.setHeader(HttpHeader.CONNECTION.asString(), HttpHeaderValue.CLOSE.asString());
+                }
+                response.getOutputStream().print(target);
+            }
+        });
+        HttpClientTransportOverHTTP transport = new HttpClientTransportOverHTTP(1);
+        transport.setMaxPipelineDepth(count);
+        startClient(transport);
+        client.setMaxConnectionsPerDestination(1);
+
+        CountDownLatch latch = new CountDownLatch(count);
+        AtomicInteger successes = new AtomicInteger();
+        for (int i = 0; i < count; ++i)
+        {
+            String path = i == 1 ? "/close" : "/" + i;
+            client.newRequest("localhost", connector.getLocalPort())
+                    .scheme(scheme)
+                    .path(path)
+                    .onRequestSuccess(request -> sentLatch.countDown())
+                    .timeout(5, TimeUnit.SECONDS)
+                    .send(new BufferingResponseListener()
+                    {
+                        @Override
+                        public void onComplete(org.eclipse.jetty.client.api.Result result)
+                        {
+                            if (result.isSucceeded() &&
+                                    result.getResponse().getStatus() == HttpStatus.OK_200 &&
+                                    path.equals(getContentAsString(StandardCharsets.UTF_8)))
+                                successes.incrementAndGet();
+                            latch.countDown();
+                        }
+                    });
+        }
+
+        Assert.assertTrue(latch.await(10, TimeUnit.SECONDS));
+        Assert.assertEquals(count, successes.get());
+        // The requests after /close are handled once, on another connection.
+        Assert.assertEquals(count, handled.get());
+        Assert.assertEquals(2, remotePorts.size());
+    }
+}
@@ -0,0 +1,350 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2017 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.client;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.client.api.ContentResponse;
+import org.eclipse.jetty.client.api.Request;
+import org.eclipse.jetty.client.util.BytesContentProvider;
+import org.eclipse.jetty.http.HttpMethod;
+import org.eclipse.jetty.http.HttpStatus;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.eclipse.jetty.util.log.StacklessLogging;
+import org.eclipse.jetty.util.ssl.SslContextFactory;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class HttpClientRetryPolicyTest extends AbstractHttpClientServerTest
+{
+    public HttpClientRetryPolicyTest(SslContextFactory sslContextFactory)
+    {
+        super(sslContextFactory);
+    }
+
+    private RetryPolicy retryPolicy()
+    {
+        HttpDestination destination = (HttpDestination)client.getDestination(scheme, "localhost", connector.getLocalPort());
+        return destination.getRetryPolicy();
+    }
+
+    @Test
+    public void testIdempotentRequestIsRetriedAfterConnectionClosed() throws Exception
+    {
+        AtomicInteger requests = new AtomicInteger();
+        start(new AbstractHandler()
+        {
+            @Override
+            public void handle(String target, org.eclipse.jetty.server.Request baseRequest, HttpServletRequest request, HttpServletResponse response) throws IOException, ServletException
+            {
+                if (requests.incrementAndGet() == 1)
+                    baseRequest.getHttpChannel().getEndPoint().close();
+                else
+                    baseRequest.setHandled(true);
+            }
+        });
+        client.setRetryPolicyFactory(RetryPolicy::new);
+
+        try (StacklessLogging stackless = new StacklessLogging(org.eclipse.jetty.server.HttpChannel.class))
+        {
+            ContentResponse response = client.newRequest("localhost", connector.getLocalPort())
+                    .scheme(scheme)
+                    .method(HttpMethod.PUT)
+                    .content(new BytesContentProvider(new byte[]{'x'}))
+                    .timeout(5, TimeUnit.SECONDS)
+                    .send();
+
+            Assert.assertEquals(HttpStatus.OK_200, response.getStatus());
+            Assert.assertEquals(2, requests.get());
+            Assert.assertEquals(1, retryPolicy().getRetries());
+        }
+    }
+
+    @Test
+    public void testTimeoutAbortsStalledRetry() throws Exception
+    {
+        AtomicInteger requests = new AtomicInteger();
+        CountDownLatch latch = new CountDownLatch(1);
+        start(new AbstractHandler()
+        {
+            @Override
+            public void handle(String target, org.eclipse.jetty.server.Request baseRequest, HttpServletRequest request, HttpServletResponse response) throws IOException, ServletException
+            {
+                baseRequest.setHandled(true);
+                if (requests.incrementAndGet() == 1)
+                {
+                    baseRequest.getHttpChannel().getEndPoint().close();
+                }
+                else
+                {
+                    try
+                    {
+                        // Stall the retry.
+                        latch.await(5, TimeUnit.SECONDS);
+                    }
+                    catch (InterruptedException x)
+                    {
+                        throw new InterruptedIOException();
+                    }
+                }
+            }
+        });
+        client.setRetryPolicyFactory(RetryPolicy::new);
+
+        try (StacklessLogging stackless = new StacklessLogging(org.eclipse.jetty.server.HttpChannel.class))
+        {
+            CountDownLatch resultLatch = new CountDownLatch(1);
+            client.newRequest("localhost", connector.getLocalPort())
+                    .scheme(scheme)
+                    .timeout(1, TimeUnit.SECONDS)
+                    .send(result ->
+                    {
+                        if (result.getFailure() instanceof TimeoutException)
+                            resultLatch.countDown();
+                    });
+
+            // The total timeout must abort the retry before the server unstalls it.
+            Assert.assertTrue(resultLatch.await(3, TimeUnit.SECONDS));
+            Assert.assertEquals(2, requests.get());
+            Assert.assertEquals(1, retryPolicy().getRetries());
+        }
+        finally
+        {
+            latch.countDown();
+        }
+    }
+
+    @Test
+    public void testNonIdempotentRequestIsNotRetried() throws Exception
+    {
+        AtomicInteger requests = new AtomicInteger();
+        start(new AbstractHandler()
+        {
+            @Override
+            public void handle(String target, org.eclipse.jetty.server.Request baseRequest, HttpServletRequest request, HttpServletResponse response) throws IOException, ServletException
+            {
+                requests.incrementAndGet();
+                baseRequest.getHttpChannel().getEndPoint().close();
+            }
+        });
+        client.setRetryPolicyFactory(RetryPolicy::new);
+
+        try (StacklessLogging stackless = new StacklessLogging(org.eclipse.jetty.server.HttpChannel.class))
+        {
+            client.newRequest("localhost", connector.getLocalPort())
+                    .scheme(scheme)
+                    .method(HttpMethod.POST)
+                    .timeout(5, TimeUnit.SECONDS)
+                    .send();
+            Assert.fail();
+        }
+        catch (ExecutionException x)
+        {
+            Assert.assertEquals(1, requests.get());
+            Assert.assertEquals(0, retryPolicy().getRetries());
+        }
+    }
+
+    @Test
+    public void testSlowRequestIsHedged() throws Exception
+    {
+        AtomicInteger requests = new AtomicInteger();
+        AtomicInteger slow = new AtomicInteger(-1);
+        start(new AbstractHandler()
+        {
+            @Override
+            public void handle(String target, org.eclipse.jetty.server.Request baseRequest, HttpServletRequest request, HttpServletResponse response) throws IOException, ServletException
+            {
+                baseRequest.setHandled(true);
+                if (requests.incrementAndGet() == slow.get())
+                    sleep(5000);
+            }
+        });
+        client.setRetryPolicyFactory(destination ->
+        {
+            RetryPolicy policy = new RetryPolicy(destination);
+            policy.setMaxHedges(1);
+            policy.setMinLatencySamples(5);
+            return policy;
+        });
+
+        for (int i = 0; i < 5; ++i)
+        {
+            ContentResponse response = client.newRequest("localhost", connector.getLocalPort())
+                    .scheme(scheme)
+                    .timeout(5, TimeUnit.SECONDS)
+                    .send();
+            Assert.assertEquals(HttpStatus.OK_200, response.getStatus());
+        }
+        Assert.assertTrue(retryPolicy().getHedgeDelay() >= 0);
+
+        slow.set(requests.get() + 1);
+        long begin = System.nanoTime();
+        ContentResponse response = client.newRequest("localhost", connector.getLocalPort())
+                .scheme(scheme)
+                .timeout(5, TimeUnit.SECONDS)
+                .send();
+
+        Assert.assertEquals(HttpStatus.OK_200, response.getStatus());
+        Assert.assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin) < 2500);
+        Assert.assertEquals(1, retryPolicy().getHedges());
+        Assert.assertEquals(1, retryPolicy().getHedgesWon());
+    }
+
+    @Test
+    public void testTimeoutAbortsHedgedRequests() throws Exception
+    {
+        start(new AbstractHandler()
+        {
+            @Override
+            public void handle(String target, org.eclipse.jetty.server.Request baseRequest, HttpServletRequest request, HttpServletResponse response) throws IOException, ServletException
+            {
+                baseRequest.setHandled(true);
+                if (target.endsWith("/slow"))
+                    sleep(2000);
+            }
+        });
+        client.setRetryPolicyFactory(destination ->
+        {
+            RetryPolicy policy = new RetryPolicy(destination);
+            policy.setMaxHedges(2);
+            policy.setMinLatencySamples(1);
+            return policy;
+        });
+
+        client.newRequest("localhost", connector.getLocalPort())
+                .scheme(scheme)
+                .timeout(5, TimeUnit.SECONDS)
+                .send();
+
+        try
+        {
+            client.newRequest("localhost", connector.getLocalPort())
+                    .scheme(scheme)
+                    .path("/slow")
+                    .timeout(1, TimeUnit.SECONDS)
+                    .send();
+            Assert.fail();
+        }
+        catch (TimeoutException x)
+        {
+            Assert.assertEquals(2, retryPolicy().getHedges());
+            Assert.assertEquals(0, retryPolicy().getHedgesWon());
+        }
+    }
+
+    @Test
+    public void testRequestAbortedWithIOExceptionIsNotRetried() throws Exception
+    {
+        AtomicInteger requests = new AtomicInteger();
+        CountDownLatch serverLatch = new CountDownLatch(1);
+        start(new AbstractHandler()
+        {
+            @Override
+            public void handle(String target, org.eclipse.jetty.server.Request baseRequest, HttpServletRequest request, HttpServletResponse response) throws IOException, ServletException
+            {
+                baseRequest.setHandled(true);
+                requests.incrementAndGet();
+                serverLatch.countDown();
+                sleep(2000);
+            }
+        });
+        client.setRetryPolicyFactory(RetryPolicy::new);
+
+        IOException cause = new IOException("aborted");
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        CountDownLatch resultLatch = new CountDownLatch(1);
+        Request request = client.newRequest("localhost", connector.getLocalPort())
+                .scheme(scheme)
+                .timeout(5, TimeUnit.SECONDS);
+        request.send(result ->
+        {
+            failure.set(result.getFailure());
+            resultLatch.countDown();
+        });
+
+        Assert.assertTrue(serverLatch.await(5, TimeUnit.SECONDS));
+        Assert.assertTrue(request.abort(cause));
+
+        Assert.assertTrue(resultLatch.await(5, TimeUnit.SECONDS));
+        Assert.assertSame(cause, failure.get());
+        Assert.assertEquals(1, requests.get());
+        Assert.assertEquals(0, retryPolicy().getRetries());
+    }
+
+    @Test
+    public void testRequestFailedByClientStopIsNotRetried() throws Exception
+    {
+        AtomicInteger requests = new AtomicInteger();
+        CountDownLatch serverLatch = new CountDownLatch(1);
+        start(new AbstractHandler()
+        {
+            @Override
+            public void handle(String target, org.eclipse.jetty.server.Request baseRequest, HttpServletRequest request, HttpServletResponse response) throws IOException, ServletException
+            {
+                baseRequest.setHandled(true);
+                requests.incrementAndGet();
+                serverLatch.countDown();
+                sleep(2000);
+            }
+        });
+        client.setRetryPolicyFactory(RetryPolicy::new);
+
+        CountDownLatch resultLatch = new CountDownLatch(1);
+        client.newRequest("localhost", connector.getLocalPort())
+                .scheme(scheme)
+                .timeout(5, TimeUnit.SECONDS)
+                .send(result ->
+                {
+                    if (result.isFailed())
+                        resultLatch.countDown();
+                });
+
+        Assert.assertTrue(serverLatch.await(5, TimeUnit.SECONDS));
+        RetryPolicy retryPolicy = retryPolicy();
+        client.stop();
+
+        Assert.assertTrue(resultLatch.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(1, requests.get());
+        Assert.assertEquals(0, retryPolicy.getRetries());
+    }
+
+    private static void sleep(long time) throws IOException
+    {
+        try
+        {
+            Thread.sleep(time);
+        }
+        catch (InterruptedException x)
+        {
+            throw new InterruptedIOException();
+        }
+    }
+}
@@ -0,0 +1,182 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2017 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.client;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.eclipse.jetty.client.api.Connection;
+import org.eclipse.jetty.client.api.Request;
+import org.eclipse.jetty.client.api.Response;
+import org.eclipse.jetty.util.Callback;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LeastLoadedConnectionPoolTest
+{
+    private final HttpClient client = new HttpClient();
+
+    private Request send(LeastLoadedConnectionPool pool, Connection connection)
+    {
+        Request request = client.newRequest("http://localhost");
+        pool.onSend(connection, request);
+        return request;
+    }
+
+    @Test
+    public void testRequestsAreSpreadOverConnections() throws Exception
+    {
+        LeastLoadedConnectionPool pool = new LeastLoadedConnectionPool(null, 2, Callback.NOOP, 4);
+        Connection connection1 = new TestConnection();
+        Connection connection2 = new TestConnection();
+        pool.onCreated(connection1);
+        pool.onCreated(connection2);
+
+        Map<Connection, Integer> counts = new HashMap<>();
+        for (int i = 0; i < 4; ++i)
+            counts.merge(pool.acquire(), 1, Integer::sum);
+
+        Assert.assertEquals(2, (int)counts.get(connection1));
+        Assert.assertEquals(2, (int)counts.get(connection2));
+    }
+
+    @Test
+    public void testSlowConnectionIsAvoided() throws Exception
+    {
+        LeastLoadedConnectionPool pool = new LeastLoadedConnectionPool(null, 2, Callback.NOOP);
+        pool.onCreated(new TestConnection());
+        pool.onCreated(new TestConnection());
+
+        Connection slow = pool.acquire();
+        Request slowRequest = send(pool, slow);
+        Connection fast = pool.acquire();
+        Request fastRequest = send(pool, fast);
+        Assert.assertNotSame(slow, fast);
+        pool.onComplete(fastRequest);
+        Assert.assertTrue(pool.release(fast));
+        Thread.sleep(100);
+        pool.onComplete(slowRequest);
+        Assert.assertTrue(pool.release(slow));
+
+        for (int i = 0; i < 10; ++i)
+        {
+            Connection connection = pool.acquire();
+            Assert.assertSame(fast, connection);
+            Assert.assertTrue(pool.release(connection));
+        }
+    }
+
+    @Test
+    public void testSlowConnectionIsUsedWhenFastConnectionIsSaturated() throws Exception
+    {
+        LeastLoadedConnectionPool pool = new LeastLoadedConnectionPool(null, 2, Callback.NOOP);
+        pool.onCreated(new TestConnection());
+        pool.onCreated(new TestConnection());
+
+        Connection slow = pool.acquire();
+        Request slowRequest = send(pool, slow);
+        Connection fast = pool.acquire();
+        Request fastRequest = send(pool, fast);
+        pool.onComplete(fastRequest);
+        pool.release(fast);
+        Thread.sleep(100);
+        pool.onComplete(slowRequest);
+        pool.release(slow);
+
+        Assert.assertSame(fast, pool.acquire());
+        Assert.assertSame(slow, pool.acquire());
+        Assert.assertTrue(pool.isActive(slow));
+        Assert.assertTrue(pool.isActive(fast));
+    }
+
+    @Test
+    public void testMultiplexedRequestsCompletingOutOfOrder() throws Exception
+    {
+        LeastLoadedConnectionPool pool = new LeastLoadedConnectionPool(null, 2, Callback.NOOP, 2);
+        // Only the last latency sample counts.
+        pool.setLatencyWeight(1);
+        Connection multiplexed = new TestConnection();
+        pool.onCreated(multiplexed);
+        Connection other = new TestConnection();
+        pool.onCreated(other);
+
+        // Both connections complete a fast request.
+        pool.onComplete(send(pool, multiplexed));
+        pool.onComplete(send(pool, other));
+
+        Request slowRequest = send(pool, multiplexed);
+        Thread.sleep(100);
+        Request fastRequest = send(pool, multiplexed);
+        // The request sent last completes first.
+        pool.onComplete(fastRequest);
+        pool.onComplete(slowRequest);
+
+        // The latency of the multiplexed connection is the one of the slow request.
+        for (int i = 0; i < 10; ++i)
+        {
+            Connection connection = pool.acquire();
+            Assert.assertSame(other, connection);
+            Assert.assertTrue(pool.release(connection));
+        }
+    }
+
+    @Test
+    public void testNewConnectionHasMedianLatency() throws Exception
+    {
+        LeastLoadedConnectionPool pool = new LeastLoadedConnectionPool(null, 2, Callback.NOOP, 4);
+        Connection sampled = new TestConnection();
+        pool.onCreated(sampled);
+        Request request = send(pool, sampled);
+        Thread.sleep(10);
+        pool.onComplete(request);
+
+        // If its latency were zero, the new connection would
+        // take the requests until it reached its max multiplex.
+        Connection created = new TestConnection();
+        pool.onCreated(created);
+        Map<Connection, Integer> counts = new HashMap<>();
+        for (int i = 0; i < 2; ++i)
+            counts.merge(pool.acquire(), 1, Integer::sum);
+
+        Assert.assertEquals(1, (int)counts.get(sampled));
+        Assert.assertEquals(1, (int)counts.get(created));
+    }
+
+    private static class TestConnection implements Connection
+    {
+        private boolean closed;
+
+        @Override
+        public void send(Request request, Response.CompleteListener listener)
+        {
+        }
+
+        @Override
+        public void close()
+        {
+            closed = true;
+        }
+
+        @Override
+        public boolean isClosed()
+        {
+            return closed;
+        }
+    }
+}
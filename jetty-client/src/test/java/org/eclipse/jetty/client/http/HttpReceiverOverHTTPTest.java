@@ -24,6 +24,7 @@ import java.util.Collections;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.eclipse.jetty.client.HttpClient;
 import org.eclipse.jetty.client.HttpExchange;
@@ -254,4 +255,38 @@ public class HttpReceiverOverHTTPTest
         Assert.assertNotNull(response);
         Assert.assertEquals(200, response.getStatus());
     }
+
+    @Test
+    public void test_Receive_ManyPipelinedResponses() throws Exception
+    {
+        endPoint.setGrowOutput(true);
+        connection.setMaxPipelineDepth(Integer.MAX_VALUE);
+
+        int count = 20000;
+        AtomicInteger successes = new AtomicInteger();
+        for (int i = 0; i < count; ++i)
+        {
+            connection.send(client.newRequest("http://localhost"), result ->
+            {
+                if (result.isSucceeded() && result.getResponse().getStatus() == 200)
+                    successes.incrementAndGet();
+            });
+        }
+
+        // All the responses arrive together, so that each one
+        // is followed in the buffer by the next pipelined response.
+        StringBuilder responses = new StringBuilder();
+        for (int i = 0; i < count; ++i)
+        {
+            responses.append("" +
+                    "HTTP/1.1 200 OK\r\n" +
+                    "Content-Length: 0\r\n" +
+                    "\r\n");
+        }
+        endPoint.addInput(responses.toString());
+        connection.onFillable();
+
+        Assert.assertEquals(count, successes.get());
+        Assert.assertFalse(connection.isClosed());
+    }
 }
@@ -0,0 +1,266 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2017 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.client.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.GZIPOutputStream;
+
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.client.AbstractHttpClientServerTest;
+import org.eclipse.jetty.client.ContentDecoder;
+import org.eclipse.jetty.client.EmptyServerHandler;
+import org.eclipse.jetty.client.GZIPContentDecoder;
+import org.eclipse.jetty.client.api.Response;
+import org.eclipse.jetty.client.api.Result;
+import org.eclipse.jetty.http.HttpHeader;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.util.Callback;
+import org.eclipse.jetty.util.ssl.SslContextFactory;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ReactiveResponseListenerTest extends AbstractHttpClientServerTest
+{
+    public ReactiveResponseListenerTest(SslContextFactory sslContextFactory)
+    {
+        super(sslContextFactory);
+    }
+
+    private void start(int chunks, int chunkSize) throws Exception
+    {
+        start(new EmptyServerHandler()
+        {
+            @Override
+            protected void service(String target, Request jettyRequest, HttpServletRequest request, HttpServletResponse response) throws IOException, ServletException
+            {
+                response.setContentLength(chunks * chunkSize);
+                ServletOutputStream output = response.getOutputStream();
+                for (int i = 0; i < chunks; ++i)
+                {
+                    output.write(new byte[chunkSize]);
+                    output.flush();
+                }
+            }
+        });
+    }
+
+    @Test
+    public void testContentIsDeliveredOnlyWhenDemanded() throws Exception
+    {
+        int chunks = 16;
+        int chunkSize = 1024;
+        start(chunks, chunkSize);
+
+        AtomicReference<ReactiveResponseListener.Subscription> subscriptionRef = new AtomicReference<>();
+        BlockingQueue<Callback> callbacks = new LinkedBlockingQueue<>();
+        CountDownLatch completeLatch = new CountDownLatch(1);
+        AtomicReference<Result> resultRef = new AtomicReference<>();
+        long[] received = new long[1];
+        client.newRequest("localhost", connector.getLocalPort())
+                .scheme(scheme)
+                .send(new ReactiveResponseListener(new ReactiveResponseListener.Subscriber()
+                {
+                    @Override
+                    public void onSubscribe(Response response, ReactiveResponseListener.Subscription subscription)
+                    {
+                        subscriptionRef.set(subscription);
+                    }
+
+                    @Override
+                    public void onNext(Response response, ByteBuffer chunk, Callback callback)
+                    {
+                        received[0] += chunk.remaining();
+                        callbacks.offer(callback);
+                    }
+
+                    @Override
+                    public void onComplete(Result result)
+                    {
+                        resultRef.set(result);
+                        completeLatch.countDown();
+                    }
+                }));
+
+        // No content without demand.
+        Assert.assertNull(callbacks.poll(1, TimeUnit.SECONDS));
+        ReactiveResponseListener.Subscription subscription = subscriptionRef.get();
+        Assert.assertNotNull(subscription);
+
+        while (received[0] < chunks * chunkSize)
+        {
+            subscription.request(1);
+            Callback callback = callbacks.poll(5, TimeUnit.SECONDS);
+            Assert.assertNotNull(callback);
+            // Only one chunk is delivered for each demand.
+            Assert.assertNull(callbacks.poll(10, TimeUnit.MILLISECONDS));
+            callback.succeeded();
+        }
+
+        Assert.assertTrue(completeLatch.await(5, TimeUnit.SECONDS));
+        Assert.assertTrue(resultRef.get().isSucceeded());
+        Assert.assertEquals(chunks * chunkSize, received[0]);
+    }
+
+    @Test
+    public void testCancelAbortsResponse() throws Exception
+    {
+        start(16, 1024);
+
+        CountDownLatch completeLatch = new CountDownLatch(1);
+        AtomicReference<Result> resultRef = new AtomicReference<>();
+        client.newRequest("localhost", connector.getLocalPort())
+                .scheme(scheme)
+                .send(new ReactiveResponseListener(new ReactiveResponseListener.Subscriber()
+                {
+                    @Override
+                    public void onSubscribe(Response response, ReactiveResponseListener.Subscription subscription)
+                    {
+                        subscription.request(1);
+                        subscription.cancel();
+                    }
+
+                    @Override
+                    public void onNext(Response response, ByteBuffer chunk, Callback callback)
+                    {
+                        callback.succeeded();
+                    }
+
+                    @Override
+                    public void onComplete(Result result)
+                    {
+                        resultRef.set(result);
+                        completeLatch.countDown();
+                    }
+                }));
+
+        Assert.assertTrue(completeLatch.await(5, TimeUnit.SECONDS));
+        Assert.assertTrue(resultRef.get().isFailed());
+    }
+
+    @Test
+    public void testDecodedChunksAreQueuedUntilDemanded() throws Exception
+    {
+        byte[] data = new byte[64 * 1024];
+        for (int i = 0; i < data.length; ++i)
+            data[i] = (byte)('a' + i % 26);
+        ByteArrayOutputStream gzipped = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(gzipped))
+        {
+            gzip.write(data);
+        }
+        byte[] compressed = gzipped.toByteArray();
+        start(new EmptyServerHandler()
+        {
+            @Override
+            protected void service(String target, Request jettyRequest, HttpServletRequest request, HttpServletResponse response) throws IOException, ServletException
+            {
+                response.setHeader(HttpHeader.CONTENT_ENCODING.asString(), "gzip");
+                response.setContentLength(compressed.length);
+                response.getOutputStream().write(compressed);
+            }
+        });
+        // Decode a few compressed bytes at a time, so that a single
+        // network buffer is notified to the listener as several chunks.
+        client.getContentDecoderFactories().clear();
+        client.getContentDecoderFactories().add(new ContentDecoder.Factory("gzip")
+        {
+            @Override
+            public ContentDecoder newContentDecoder()
+            {
+                return new GZIPContentDecoder()
+                {
+                    @Override
+                    public ByteBuffer decode(ByteBuffer compressed)
+                    {
+                        ByteBuffer slice = compressed.slice();
+                        int length = Math.min(slice.remaining(), 16);
+                        slice.limit(length);
+                        ByteBuffer decoded = super.decode(slice);
+                        compressed.position(compressed.position() + length - slice.remaining());
+                        return decoded;
+                    }
+                };
+            }
+        });
+
+        AtomicReference<ReactiveResponseListener.Subscription> subscriptionRef = new AtomicReference<>();
+        BlockingQueue<Callback> callbacks = new LinkedBlockingQueue<>();
+        ByteArrayOutputStream received = new ByteArrayOutputStream();
+        CountDownLatch completeLatch = new CountDownLatch(1);
+        AtomicReference<Result> resultRef = new AtomicReference<>();
+        client.newRequest("localhost", connector.getLocalPort())
+                .scheme(scheme)
+                .send(new ReactiveResponseListener(new ReactiveResponseListener.Subscriber()
+                {
+                    @Override
+                    public void onSubscribe(Response response, ReactiveResponseListener.Subscription subscription)
+                    {
+                        subscriptionRef.set(subscription);
+                    }
+
+                    @Override
+                    public void onNext(Response response, ByteBuffer chunk, Callback callback)
+                    {
+                        synchronized (received)
+                        {
+                            received.write(chunk.array(), chunk.arrayOffset() + chunk.position(), chunk.remaining());
+                        }
+                        callbacks.offer(callback);
+                    }
+
+                    @Override
+                    public void onComplete(Result result)
+                    {
+                        resultRef.set(result);
+                        completeLatch.countDown();
+                    }
+                }));
+
+        // Let the decoded chunks pile up without demand.
+        Assert.assertNull(callbacks.poll(1, TimeUnit.SECONDS));
+        ReactiveResponseListener.Subscription subscription = subscriptionRef.get();
+        Assert.assertNotNull(subscription);
+
+        while (completeLatch.getCount() > 0)
+        {
+            subscription.request(1);
+            Callback callback = callbacks.poll(5, TimeUnit.SECONDS);
+            Assert.assertNotNull(callback);
+            callback.succeeded();
+            completeLatch.await(10, TimeUnit.MILLISECONDS);
+        }
+
+        Assert.assertTrue(resultRef.get().isSucceeded());
+        synchronized (received)
+        {
+            Assert.assertArrayEquals(data, received.toByteArray());
+        }
+    }
+}
@@ -62,7 +62,8 @@ public class FCGI
         STDERR(7),
         DATA(8),
         GET_VALUES(9),
-        GET_VALUES_RESULT(10);
+        GET_VALUES_RESULT(10),
+        UNKNOWN_TYPE(11);
 
         public static FrameType from(int code)
         {
@@ -88,6 +89,8 @@ public class FCGI
                     return GET_VALUES;
                 case 10:
                     return GET_VALUES_RESULT;
+                case 11:
+                    return UNKNOWN_TYPE;
                 default:
                     throw new IllegalArgumentException();
             }
@@ -133,4 +136,19 @@ public class FCGI
         {
         }
     }
+
+    /**
+     * <p>The names of the values exchanged by {@link FrameType#GET_VALUES}
+     * and {@link FrameType#GET_VALUES_RESULT} management records.</p>
+     */
+    public static class Values
+    {
+        public static final String MAX_CONNS = "FCGI_MAX_CONNS";
+        public static final String MAX_REQS = "FCGI_MAX_REQS";
+        public static final String MPXS_CONNS = "FCGI_MPXS_CONNS";
+
+        private Values()
+        {
+        }
+    }
 }
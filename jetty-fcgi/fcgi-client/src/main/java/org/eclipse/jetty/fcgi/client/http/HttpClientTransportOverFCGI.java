@@ -22,8 +22,8 @@ import java.io.IOException;
 import java.util.Map;
 
 import org.eclipse.jetty.client.AbstractConnectorHttpClientTransport;
+import org.eclipse.jetty.client.ConnectionPool;
 import org.eclipse.jetty.client.DuplexConnectionPool;
-import org.eclipse.jetty.client.HttpClient;
 import org.eclipse.jetty.client.HttpDestination;
 import org.eclipse.jetty.client.MultiplexConnectionPool;
 import org.eclipse.jetty.client.Origin;
@@ -52,14 +52,9 @@ public class HttpClientTransportOverFCGI extends AbstractConnectorHttpClientTran
         super(selectors);
         this.multiplexed = multiplexed;
         this.scriptRoot = scriptRoot;
-        setConnectionPoolFactory(destination ->
-        {
-            HttpClient httpClient = getHttpClient();
-            int maxConnections = httpClient.getMaxConnectionsPerDestination();
-            return isMultiplexed() ?
-                    new MultiplexConnectionPool(destination, maxConnections, destination, httpClient.getMaxRequestsQueuedPerDestination()) :
-                    new DuplexConnectionPool(destination, maxConnections, destination);
-        });
+        setConnectionPoolFactory((ConnectionPool.MaxConnectionsFactory)(destination, maxConnections) -> isMultiplexed() ?
+                new MultiplexConnectionPool(destination, maxConnections, destination, getHttpClient().getMaxRequestsQueuedPerDestination()) :
+                new DuplexConnectionPool(destination, maxConnections, destination));
     }
 
     public boolean isMultiplexed()
@@ -21,12 +21,15 @@ package org.eclipse.jetty.fcgi.client.http;
 import java.io.EOFException;
 import java.nio.ByteBuffer;
 import java.nio.channels.AsynchronousCloseException;
-import java.util.LinkedList;
+import java.util.BitSet;
+import java.util.Collections;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
 
+import org.eclipse.jetty.client.ConnectionPool;
 import org.eclipse.jetty.client.HttpClient;
 import org.eclipse.jetty.client.HttpConnection;
 import org.eclipse.jetty.client.HttpDestination;
@@ -36,6 +39,7 @@ import org.eclipse.jetty.client.api.Connection;
 import org.eclipse.jetty.client.api.Request;
 import org.eclipse.jetty.client.api.Response;
 import org.eclipse.jetty.fcgi.FCGI;
+import org.eclipse.jetty.fcgi.generator.ClientGenerator;
 import org.eclipse.jetty.fcgi.generator.Flusher;
 import org.eclipse.jetty.fcgi.parser.ClientParser;
 import org.eclipse.jetty.http.HttpField;
@@ -46,18 +50,35 @@ import org.eclipse.jetty.io.AbstractConnection;
 import org.eclipse.jetty.io.ByteBufferPool;
 import org.eclipse.jetty.io.EndPoint;
 import org.eclipse.jetty.util.BufferUtil;
+import org.eclipse.jetty.util.Callback;
 import org.eclipse.jetty.util.CompletableCallback;
 import org.eclipse.jetty.util.Promise;
 import org.eclipse.jetty.util.log.Log;
 import org.eclipse.jetty.util.log.Logger;
-
-public class HttpConnectionOverFCGI extends AbstractConnection implements Connection
+import org.eclipse.jetty.util.thread.Scheduler;
+
+/**
+ * <p>A FastCGI connection, that may carry multiple concurrent requests
+ * if the transport is configured to be multiplexed.</p>
+ * <p>Multiplexed connections ask the server, with a FCGI_GET_VALUES management
+ * record, whether it supports multiplexing ({@link FCGI.Values#MPXS_CONNS})
+ * and how many concurrent requests it supports ({@link FCGI.Values#MAX_REQS}),
+ * and are made available to the connection pool only after the reply.
+ * Servers that reply with FCGI_UNKNOWN_TYPE, or that do not reply within the
+ * {@link HttpClient#getConnectTimeout() connect timeout}, are assumed not to
+ * support multiplexing.
+ * If the server does not support multiplexing, the connection carries one request
+ * at a time; otherwise the request ids are reused as soon as the requests
+ * complete, so that they never exceed the 16 bits allowed by the protocol.</p>
+ */
+public class HttpConnectionOverFCGI extends AbstractConnection implements Connection, ConnectionPool.Multiplexable
 {
     private static final Logger LOG = Log.getLogger(HttpConnectionOverFCGI.class);
 
-    private final LinkedList<Integer> requests = new LinkedList<>();
+    private final BitSet requests = new BitSet();
     private final Map<Integer, HttpChannelOverFCGI> channels = new ConcurrentHashMap<>();
     private final AtomicBoolean closed = new AtomicBoolean();
+    private final AtomicBoolean probing = new AtomicBoolean();
     private final HttpDestination destination;
     private final Promise<Connection> promise;
     private final boolean multiplexed;
@@ -65,6 +86,8 @@ public class HttpConnectionOverFCGI extends AbstractConnection implements Connec
     private final Delegate delegate;
     private final ClientParser parser;
     private ByteBuffer buffer;
+    private volatile int maxMultiplex;
+    private volatile Scheduler.Task probeTimeout;
 
     public HttpConnectionOverFCGI(EndPoint endPoint, HttpDestination destination, Promise<Connection> promise, boolean multiplexed)
     {
@@ -75,7 +98,6 @@ public class HttpConnectionOverFCGI extends AbstractConnection implements Connec
         this.flusher = new Flusher(endPoint);
         this.delegate = new Delegate(destination);
         this.parser = new ClientParser(new ResponseListener());
-        requests.addLast(0);
     }
 
     public HttpDestination getHttpDestination()
@@ -88,6 +110,21 @@ public class HttpConnectionOverFCGI extends AbstractConnection implements Connec
         return flusher;
     }
 
+    public boolean isMultiplexed()
+    {
+        return multiplexed;
+    }
+
+    /**
+     * @return the max number of concurrent requests on this connection as advertised
+     * by the server, 1 if the server does not support multiplexing, or 0 if not known
+     */
+    @Override
+    public int getMaxMultiplex()
+    {
+        return maxMultiplex;
+    }
+
     @Override
     public void send(Request request, Response.CompleteListener listener)
     {
@@ -104,6 +141,61 @@ public class HttpConnectionOverFCGI extends AbstractConnection implements Connec
     {
         super.onOpen();
         fillInterested();
+        if (multiplexed)
+        {
+            // Succeed the promise when the server tells whether it supports multiplexing.
+            probing.set(true);
+            HttpClient client = destination.getHttpClient();
+            long timeout = client.getConnectTimeout();
+            if (timeout > 0)
+                probeTimeout = client.getScheduler().schedule(this::onProbeTimeout, timeout, TimeUnit.MILLISECONDS);
+            ClientGenerator generator = new ClientGenerator(client.getByteBufferPool());
+            flusher.flush(generator.generateGetValues(Callback.NOOP, FCGI.Values.MPXS_CONNS, FCGI.Values.MAX_REQS));
+        }
+        else
+        {
+            promise.succeeded(this);
+        }
+    }
+
+    private void onProbeTimeout()
+    {
+        if (LOG.isDebugEnabled())
+            LOG.debug("No FCGI_GET_VALUES_RESULT for {}", this);
+        // Servers that ignore management records do not multiplex.
+        onValues(Collections.emptyMap());
+    }
+
+    private void onValues(Map<String, String> values)
+    {
+        if (!probing.compareAndSet(true, false))
+            return;
+
+        Scheduler.Task task = probeTimeout;
+        if (task != null)
+            task.cancel();
+
+        int maxMultiplex = 1;
+        if ("1".equals(values.get(FCGI.Values.MPXS_CONNS)))
+        {
+            maxMultiplex = 0;
+            String maxRequests = values.get(FCGI.Values.MAX_REQS);
+            if (maxRequests != null)
+            {
+                try
+                {
+                    maxMultiplex = Math.max(0, Integer.parseInt(maxRequests.trim()));
+                }
+                catch (NumberFormatException x)
+                {
+                    if (LOG.isDebugEnabled())
+                        LOG.debug("Invalid {}={}", FCGI.Values.MAX_REQS, maxRequests);
+                }
+            }
+        }
+        this.maxMultiplex = maxMultiplex;
+        if (LOG.isDebugEnabled())
+            LOG.debug("Max multiplex {} for {} from {}", maxMultiplex, this, values);
         promise.succeeded(this);
     }
 
@@ -218,6 +310,14 @@ public class HttpConnectionOverFCGI extends AbstractConnection implements Connec
     {
         if (closed.compareAndSet(false, true))
         {
+            if (probing.compareAndSet(true, false))
+            {
+                Scheduler.Task task = probeTimeout;
+                if (task != null)
+                    task.cancel();
+                promise.failed(failure);
+            }
+
             getHttpDestination().close(this);
 
             abort(failure);
@@ -239,7 +339,9 @@ public class HttpConnectionOverFCGI extends AbstractConnection implements Connec
 
     protected boolean closeByHTTP(HttpFields fields)
     {
-        if (multiplexed)
+        // Connections to servers that do not support
+        // multiplexing behave as non-multiplexed ones.
+        if (multiplexed && maxMultiplex != 1)
             return false;
         if (!fields.contains(HttpHeader.CONNECTION, HttpHeaderValue.CLOSE.asString()))
             return false;
@@ -271,9 +373,11 @@ public class HttpConnectionOverFCGI extends AbstractConnection implements Connec
     {
         synchronized (requests)
         {
-            int last = requests.getLast();
-            int request = last + 1;
-            requests.addLast(request);
+            // Request id 0 is reserved for management records.
+            int request = requests.nextClearBit(1);
+            if (request > 0xFF_FF)
+                throw new IllegalStateException("No request ids available on " + this);
+            requests.set(request);
             return request;
         }
     }
@@ -282,7 +386,7 @@ public class HttpConnectionOverFCGI extends AbstractConnection implements Connec
     {
         synchronized (requests)
         {
-            requests.removeFirstOccurrence(request);
+            requests.clear(request);
         }
     }
 
@@ -458,6 +562,20 @@ public class HttpConnectionOverFCGI extends AbstractConnection implements Connec
             }
         }
 
+        @Override
+        public void onValues(Map<String, String> values)
+        {
+            HttpConnectionOverFCGI.this.onValues(values);
+        }
+
+        @Override
+        public void onUnknownType(int type)
+        {
+            // Servers that do not know management records do not multiplex.
+            if (type == FCGI.FrameType.GET_VALUES.code)
+                HttpConnectionOverFCGI.this.onValues(Collections.emptyMap());
+        }
+
         private void noChannel(int request)
         {
             if (LOG.isDebugEnabled())
@@ -22,7 +22,9 @@ import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.eclipse.jetty.fcgi.FCGI;
 import org.eclipse.jetty.http.HttpField;
@@ -77,6 +79,41 @@ public class ClientGenerator extends Generator
         // Worst case FCGI_PARAMS frame: long name + long value - both of MAX_PARAM_LENGTH
         int maxCapacity = 4 + 4 + 2 * MAX_PARAM_LENGTH;
 
+        // Most often the params fit in one FCGI_PARAMS frame: generate
+        // FCGI_BEGIN_REQUEST + FCGI_PARAMS + last FCGI_PARAMS in one buffer.
+        if (fieldsLength <= maxCapacity)
+        {
+            ByteBuffer buffer = byteBufferPool.acquire(16 + 8 + fieldsLength + 8, true);
+            BufferUtil.clearToFill(buffer);
+            Result result = new Result(byteBufferPool, callback);
+            result = result.append(buffer, true);
+
+            putBeginRequest(buffer, request);
+
+            if (fieldsLength > 0)
+            {
+                buffer.putInt(0x01_04_00_00 + request);
+                buffer.putShort((short)fieldsLength);
+                buffer.putShort((short)0);
+                for (int i = 0; i < bytes.size(); i += 2)
+                {
+                    byte[] nameBytes = bytes.get(i);
+                    byte[] valueBytes = bytes.get(i + 1);
+                    putParamLength(buffer, nameBytes.length);
+                    putParamLength(buffer, valueBytes.length);
+                    buffer.put(nameBytes);
+                    buffer.put(valueBytes);
+                }
+            }
+
+            // Generate the last FCGI_PARAMS frame
+            buffer.putInt(0x01_04_00_00 + request);
+            buffer.putInt(0x00_00_00_00);
+            BufferUtil.flipToFlush(buffer, 0);
+
+            return result;
+        }
+
         // One FCGI_BEGIN_REQUEST + N FCGI_PARAMS + one last FCGI_PARAMS
 
         ByteBuffer beginRequestBuffer = byteBufferPool.acquire(16, false);
@@ -84,11 +121,7 @@ public class ClientGenerator extends Generator
         Result result = new Result(byteBufferPool, callback);
         result = result.append(beginRequestBuffer, true);
 
-        // Generate the FCGI_BEGIN_REQUEST frame
-        beginRequestBuffer.putInt(0x01_01_00_00 + request);
-        beginRequestBuffer.putInt(0x00_08_00_00);
-        // Hardcode RESPONDER role and KEEP_ALIVE flag
-        beginRequestBuffer.putLong(0x00_01_01_00_00_00_00_00L);
+        putBeginRequest(beginRequestBuffer, request);
         BufferUtil.flipToFlush(beginRequestBuffer, 0);
 
         int index = 0;
@@ -145,19 +178,29 @@ public class ClientGenerator extends Generator
         return result;
     }
 
-    private int putParamLength(ByteBuffer buffer, int length)
+    private void putBeginRequest(ByteBuffer buffer, int request)
     {
-        int result = bytesForLength(length);
-        if (result == 4)
-            buffer.putInt(length | 0x80_00_00_00);
-        else
-            buffer.put((byte)length);
-        return result;
+        // Generate the FCGI_BEGIN_REQUEST frame
+        buffer.putInt(0x01_01_00_00 + request);
+        buffer.putInt(0x00_08_00_00);
+        // Hardcode RESPONDER role and KEEP_ALIVE flag
+        buffer.putLong(0x00_01_01_00_00_00_00_00L);
     }
 
-    private int bytesForLength(int length)
+    /**
+     * <p>Generates a FCGI_GET_VALUES management record, asking the server the values of
+     * the given variables, for example {@link FCGI.Values#MPXS_CONNS}.</p>
+     *
+     * @param callback the callback to notify when the record has been written
+     * @param names the names of the variables
+     * @return the generation result
+     */
+    public Result generateGetValues(Callback callback, String... names)
     {
-        return length > 127 ? 4 : 1;
+        Map<String, String> values = new LinkedHashMap<>();
+        for (String name : names)
+            values.put(name, "");
+        return generateValues(FCGI.FrameType.GET_VALUES, values, callback);
     }
 
     public Result generateRequestContent(int request, ByteBuffer content, boolean lastContent, Callback callback)
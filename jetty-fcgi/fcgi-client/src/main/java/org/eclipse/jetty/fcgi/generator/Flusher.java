@@ -63,6 +63,18 @@ public class Flusher
         }
     }
 
+    private Generator.Result pollJoinable()
+    {
+        synchronized (this)
+        {
+            // A shutdown must be performed after the previous
+            // results have been written, so it cannot be joined.
+            if (queue.peek() instanceof ShutdownResult)
+                return null;
+            return queue.poll();
+        }
+    }
+
     public void shutdown()
     {
         flush(new ShutdownResult());
@@ -83,13 +95,20 @@ public class Flusher
                 return Action.IDLE;
             }
 
-            // Attempt to gather another result.
-            // Most often there is another result in the
+            // Attempt to gather the other queued results.
+            // Most often there are other results in the
             // queue so this is a real optimization because
-            // it sends both results in just one TCP packet.
-            Generator.Result other = poll();
-            if (other != null)
-                result = result.join(other);
+            // it sends them all with just one gathering write.
+            if (!(result instanceof ShutdownResult))
+            {
+                while (true)
+                {
+                    Generator.Result other = pollJoinable();
+                    if (other == null)
+                        break;
+                    result = result.join(other);
+                }
+            }
 
             active = result;
             ByteBuffer[] buffers = result.getByteBuffers();
@@ -19,8 +19,10 @@
 package org.eclipse.jetty.fcgi.generator;
 
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 import org.eclipse.jetty.fcgi.FCGI;
 import org.eclipse.jetty.io.ByteBufferPool;
@@ -80,6 +82,65 @@ public class Generator
         return result;
     }
 
+    /**
+     * <p>Generates a management record, with request id 0, carrying the given name-value pairs.</p>
+     *
+     * @param frameType either {@link FCGI.FrameType#GET_VALUES} or {@link FCGI.FrameType#GET_VALUES_RESULT}
+     * @param values the name-value pairs
+     * @param callback the callback to notify when the record has been written
+     * @return the generation result
+     */
+    protected Result generateValues(FCGI.FrameType frameType, Map<String, String> values, Callback callback)
+    {
+        List<byte[]> bytes = new ArrayList<>(values.size() * 2);
+        int length = 0;
+        for (Map.Entry<String, String> entry : values.entrySet())
+        {
+            byte[] nameBytes = entry.getKey().getBytes(StandardCharsets.UTF_8);
+            byte[] valueBytes = entry.getValue().getBytes(StandardCharsets.UTF_8);
+            bytes.add(nameBytes);
+            bytes.add(valueBytes);
+            length += bytesForLength(nameBytes.length) + bytesForLength(valueBytes.length) + nameBytes.length + valueBytes.length;
+        }
+        if (length > MAX_CONTENT_LENGTH)
+            throw new IllegalArgumentException("Values exceed max length " + MAX_CONTENT_LENGTH);
+
+        ByteBuffer buffer = byteBufferPool.acquire(8 + length, true);
+        BufferUtil.clearToFill(buffer);
+        buffer.put((byte)0x01);
+        buffer.put((byte)frameType.code);
+        buffer.putShort((short)0);
+        buffer.putShort((short)length);
+        buffer.putShort((short)0);
+        for (int i = 0; i < bytes.size(); i += 2)
+        {
+            byte[] nameBytes = bytes.get(i);
+            byte[] valueBytes = bytes.get(i + 1);
+            putParamLength(buffer, nameBytes.length);
+            putParamLength(buffer, valueBytes.length);
+            buffer.put(nameBytes);
+            buffer.put(valueBytes);
+        }
+        BufferUtil.flipToFlush(buffer, 0);
+
+        return new Result(byteBufferPool, callback).append(buffer, true);
+    }
+
+    protected int putParamLength(ByteBuffer buffer, int length)
+    {
+        int result = bytesForLength(length);
+        if (result == 4)
+            buffer.putInt(length | 0x80_00_00_00);
+        else
+            buffer.put((byte)length);
+        return result;
+    }
+
+    protected int bytesForLength(int length)
+    {
+        return length > 127 ? 4 : 1;
+    }
+
     // TODO: rewrite this class in light of ByteBufferPool.Lease.
     public static class Result implements Callback
     {
@@ -23,6 +23,7 @@ import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 import org.eclipse.jetty.fcgi.FCGI;
 import org.eclipse.jetty.http.HttpField;
@@ -132,4 +133,16 @@ public class ServerGenerator extends Generator
         BufferUtil.flipToFlush(endRequestBuffer, 0);
         return endRequestBuffer;
     }
+
+    /**
+     * <p>Generates a FCGI_GET_VALUES_RESULT management record, replying to a FCGI_GET_VALUES.</p>
+     *
+     * @param values the values of the variables known to the server
+     * @param callback the callback to notify when the record has been written
+     * @return the generation result
+     */
+    public Result generateGetValuesResult(Map<String, String> values, Callback callback)
+    {
+        return generateValues(FCGI.FrameType.GET_VALUES_RESULT, values, callback);
+    }
 }
@@ -20,6 +20,7 @@ package org.eclipse.jetty.fcgi.parser;
 
 import java.nio.ByteBuffer;
 import java.util.EnumMap;
+import java.util.Map;
 
 import org.eclipse.jetty.fcgi.FCGI;
 import org.eclipse.jetty.http.HttpField;
@@ -35,6 +36,8 @@ public class ClientParser extends Parser
         StreamContentParser stdErrParser = new StreamContentParser(headerParser, FCGI.StreamType.STD_ERR, listener);
         contentParsers.put(FCGI.FrameType.STDERR, stdErrParser);
         contentParsers.put(FCGI.FrameType.END_REQUEST, new EndRequestContentParser(headerParser, new EndRequestListener(listener, stdOutParser, stdErrParser)));
+        contentParsers.put(FCGI.FrameType.GET_VALUES_RESULT, new ValuesContentParser(headerParser, listener));
+        contentParsers.put(FCGI.FrameType.UNKNOWN_TYPE, new UnknownTypeContentParser(headerParser, listener));
     }
 
     @Override
@@ -106,5 +109,17 @@ public class ClientParser extends Parser
             for (StreamContentParser streamParser : streamParsers)
                 streamParser.end(request);
         }
+
+        @Override
+        public void onValues(Map<String, String> values)
+        {
+            listener.onValues(values);
+        }
+
+        @Override
+        public void onUnknownType(int type)
+        {
+            listener.onUnknownType(type);
+        }
     }
 }
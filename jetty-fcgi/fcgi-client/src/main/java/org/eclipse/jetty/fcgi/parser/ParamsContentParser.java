@@ -80,7 +80,8 @@ public class ParamsContentParser extends ContentParser
     @Override
     public Result parse(ByteBuffer buffer)
     {
-        while (buffer.hasRemaining() || state == State.PARAM)
+        // An empty value may be the last bytes of the frame, and still needs to be processed.
+        while (buffer.hasRemaining() || state == State.PARAM || (state == State.VALUE && valueLength == 0))
         {
             switch (state)
             {
@@ -19,6 +19,7 @@
 package org.eclipse.jetty.fcgi.parser;
 
 import java.nio.ByteBuffer;
+import java.util.Map;
 
 import org.eclipse.jetty.fcgi.FCGI;
 import org.eclipse.jetty.http.HttpField;
@@ -150,6 +151,27 @@ public abstract class Parser
 
         public void onFailure(int request, Throwable failure);
 
+        /**
+         * <p>Invoked when a FCGI_GET_VALUES or a FCGI_GET_VALUES_RESULT management record has been parsed.</p>
+         * <p>For FCGI_GET_VALUES the values are empty, and only the names are meaningful.</p>
+         *
+         * @param values the name-value pairs carried by the record
+         * @see org.eclipse.jetty.fcgi.FCGI.Values
+         */
+        public default void onValues(Map<String, String> values)
+        {
+        }
+
+        /**
+         * <p>Invoked when a FCGI_UNKNOWN_TYPE management record has been parsed,
+         * in reply to a management record that the other peer does not understand.</p>
+         *
+         * @param type the type of the management record not understood
+         */
+        public default void onUnknownType(int type)
+        {
+        }
+
         public static class Adapter implements Listener
         {
             @Override
@@ -31,6 +31,7 @@ public class ServerParser extends Parser
         contentParsers.put(FCGI.FrameType.BEGIN_REQUEST, new BeginRequestContentParser(headerParser, listener));
         contentParsers.put(FCGI.FrameType.PARAMS, new ParamsContentParser(headerParser, listener));
         contentParsers.put(FCGI.FrameType.STDIN, new StreamContentParser(headerParser, FCGI.StreamType.STD_IN, listener));
+        contentParsers.put(FCGI.FrameType.GET_VALUES, new ValuesContentParser(headerParser, listener));
     }
 
     @Override
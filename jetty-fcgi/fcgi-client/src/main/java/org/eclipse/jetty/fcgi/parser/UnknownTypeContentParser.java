@@ -0,0 +1,88 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2017 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+
+package org.eclipse.jetty.fcgi.parser;
+
+import java.nio.ByteBuffer;
+
+import org.eclipse.jetty.util.log.Log;
+import org.eclipse.jetty.util.log.Logger;
+
+/**
+ * <p>Parser for the UNKNOWN_TYPE frame body.</p>
+ * <pre>
+ * struct unknown_type_body {
+ *     ubyte type;
+ *     ubyte[7] reserved;
+ * }
+ * </pre>
+ */
+public class UnknownTypeContentParser extends ContentParser
+{
+    private static final Logger LOG = Log.getLogger(UnknownTypeContentParser.class);
+
+    private final Parser.Listener listener;
+    private int cursor;
+    private int type;
+
+    public UnknownTypeContentParser(HeaderParser headerParser, Parser.Listener listener)
+    {
+        super(headerParser);
+        this.listener = listener;
+    }
+
+    @Override
+    public Result parse(ByteBuffer buffer)
+    {
+        while (buffer.hasRemaining())
+        {
+            int octet = buffer.get() & 0xFF;
+            if (cursor == 0)
+                type = octet;
+            // Skip the reserved bytes.
+            if (++cursor == 8)
+            {
+                int type = this.type;
+                reset();
+                onUnknownType(type);
+                return Result.COMPLETE;
+            }
+        }
+        return Result.PENDING;
+    }
+
+    private void onUnknownType(int type)
+    {
+        try
+        {
+            listener.onUnknownType(type);
+        }
+        catch (Throwable x)
+        {
+            if (LOG.isDebugEnabled())
+                LOG.debug("Exception while invoking listener " + listener, x);
+        }
+    }
+
+    private void reset()
+    {
+        cursor = 0;
+        type = 0;
+    }
+}
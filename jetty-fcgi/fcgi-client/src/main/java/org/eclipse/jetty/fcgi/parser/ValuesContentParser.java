@@ -0,0 +1,86 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2017 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.fcgi.parser;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.eclipse.jetty.util.log.Log;
+import org.eclipse.jetty.util.log.Logger;
+
+/**
+ * <p>Parser for the GET_VALUES and GET_VALUES_RESULT frame bodies,
+ * that have the same format of the PARAMS frame body.</p>
+ * <p>Differently from PARAMS, the name-value pairs are carried by a single
+ * frame with request id 0, and are notified all at once to
+ * {@link Parser.Listener#onValues(Map)}.</p>
+ */
+public class ValuesContentParser extends ParamsContentParser
+{
+    private static final Logger LOG = Log.getLogger(ValuesContentParser.class);
+
+    private final Parser.Listener listener;
+    private Map<String, String> values = new LinkedHashMap<>();
+
+    public ValuesContentParser(HeaderParser headerParser, Parser.Listener listener)
+    {
+        super(headerParser, null);
+        this.listener = listener;
+    }
+
+    @Override
+    public Result parse(ByteBuffer buffer)
+    {
+        Result result = super.parse(buffer);
+        if (result == Result.COMPLETE)
+        {
+            Map<String, String> values = this.values;
+            this.values = new LinkedHashMap<>();
+            onValues(values);
+        }
+        return result;
+    }
+
+    @Override
+    public void noContent()
+    {
+        onValues(Collections.emptyMap());
+    }
+
+    @Override
+    protected void onParam(String name, String value)
+    {
+        values.put(name, value);
+    }
+
+    protected void onValues(Map<String, String> values)
+    {
+        try
+        {
+            listener.onValues(values);
+        }
+        catch (Throwable x)
+        {
+            if (LOG.isDebugEnabled())
+                LOG.debug("Exception while invoking listener " + listener, x);
+        }
+    }
+}
@@ -20,7 +20,9 @@ package org.eclipse.jetty.fcgi.generator;
 
 import java.nio.ByteBuffer;
 import java.util.Arrays;
+import java.util.Map;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.eclipse.jetty.fcgi.FCGI;
 import org.eclipse.jetty.fcgi.parser.ServerParser;
@@ -188,4 +190,46 @@ public class ClientGeneratorTest
             Assert.assertFalse(buffer.hasRemaining());
         }
     }
+
+    @Test
+    public void testGenerateGetValues() throws Exception
+    {
+        ByteBufferPool byteBufferPool = new MappedByteBufferPool();
+        ClientGenerator generator = new ClientGenerator(byteBufferPool);
+        Generator.Result result = generator.generateGetValues(null, FCGI.Values.MPXS_CONNS, FCGI.Values.MAX_REQS);
+
+        final AtomicReference<Map<String, String>> values = new AtomicReference<>();
+        ServerParser parser = new ServerParser(new ServerParser.Listener.Adapter()
+        {
+            @Override
+            public void onValues(Map<String, String> result)
+            {
+                values.set(result);
+            }
+        });
+
+        for (ByteBuffer buffer : result.getByteBuffers())
+        {
+            parser.parse(buffer);
+            Assert.assertFalse(buffer.hasRemaining());
+        }
+
+        Assert.assertNotNull(values.get());
+        Assert.assertEquals(2, values.get().size());
+        Assert.assertEquals("", values.get().get(FCGI.Values.MPXS_CONNS));
+        Assert.assertEquals("", values.get().get(FCGI.Values.MAX_REQS));
+
+        // Parse again one byte at a time
+        values.set(null);
+        for (ByteBuffer buffer : result.getByteBuffers())
+        {
+            buffer.flip();
+            while (buffer.hasRemaining())
+                parser.parse(ByteBuffer.wrap(new byte[]{buffer.get()}));
+            Assert.assertFalse(buffer.hasRemaining());
+        }
+
+        Assert.assertNotNull(values.get());
+        Assert.assertEquals(2, values.get().size());
+    }
 }
@@ -19,8 +19,11 @@
 package org.eclipse.jetty.fcgi.parser;
 
 import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.eclipse.jetty.fcgi.FCGI;
 import org.eclipse.jetty.fcgi.generator.Generator;
@@ -252,4 +255,62 @@ public class ClientParserTest
 
         Assert.assertTrue(verifier.get());
     }
+
+    @Test
+    public void testParseGetValuesResult() throws Exception
+    {
+        Map<String, String> expected = new LinkedHashMap<>();
+        expected.put(FCGI.Values.MPXS_CONNS, "1");
+        expected.put(FCGI.Values.MAX_REQS, "100");
+
+        ByteBufferPool byteBufferPool = new MappedByteBufferPool();
+        ServerGenerator generator = new ServerGenerator(byteBufferPool);
+        Generator.Result result = generator.generateGetValuesResult(expected, null);
+
+        final AtomicReference<Map<String, String>> values = new AtomicReference<>();
+        ClientParser parser = new ClientParser(new ClientParser.Listener.Adapter()
+        {
+            @Override
+            public void onValues(Map<String, String> result)
+            {
+                values.set(result);
+            }
+        });
+
+        for (ByteBuffer buffer : result.getByteBuffers())
+        {
+            parser.parse(buffer);
+            Assert.assertFalse(buffer.hasRemaining());
+        }
+
+        Assert.assertEquals(expected, values.get());
+    }
+
+    @Test
+    public void testParseUnknownType() throws Exception
+    {
+        byte[] bytes = new byte[]{1, (byte)FCGI.FrameType.UNKNOWN_TYPE.code, 0, 0, 0, 8, 0, 0,
+                (byte)FCGI.FrameType.GET_VALUES.code, 0, 0, 0, 0, 0, 0, 0};
+
+        final AtomicInteger type = new AtomicInteger();
+        ClientParser parser = new ClientParser(new ClientParser.Listener.Adapter()
+        {
+            @Override
+            public void onUnknownType(int unknownType)
+            {
+                type.set(unknownType);
+            }
+        });
+
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        parser.parse(buffer);
+        Assert.assertFalse(buffer.hasRemaining());
+        Assert.assertEquals(FCGI.FrameType.GET_VALUES.code, type.get());
+
+        // Parse again one byte at a time
+        type.set(0);
+        for (byte b : bytes)
+            parser.parse(ByteBuffer.wrap(new byte[]{b}));
+        Assert.assertEquals(FCGI.FrameType.GET_VALUES.code, type.get());
+    }
 }
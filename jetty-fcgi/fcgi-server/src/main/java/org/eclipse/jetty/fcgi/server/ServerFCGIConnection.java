@@ -19,11 +19,14 @@
 package org.eclipse.jetty.fcgi.server;
 
 import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 
 import org.eclipse.jetty.fcgi.FCGI;
 import org.eclipse.jetty.fcgi.generator.Flusher;
+import org.eclipse.jetty.fcgi.generator.ServerGenerator;
 import org.eclipse.jetty.fcgi.parser.ServerParser;
 import org.eclipse.jetty.http.HttpField;
 import org.eclipse.jetty.io.AbstractConnection;
@@ -32,6 +35,7 @@ import org.eclipse.jetty.io.EndPoint;
 import org.eclipse.jetty.server.Connector;
 import org.eclipse.jetty.server.HttpConfiguration;
 import org.eclipse.jetty.server.HttpInput;
+import org.eclipse.jetty.util.Callback;
 import org.eclipse.jetty.util.log.Log;
 import org.eclipse.jetty.util.log.Logger;
 
@@ -191,5 +195,22 @@ public class ServerFCGIConnection extends AbstractConnection
                 channel.onBadMessage(400, failure.toString());
             }
         }
+
+        @Override
+        public void onValues(Map<String, String> values)
+        {
+            // Reply only with the values that are known, as required by the specification.
+            Map<String, String> result = new LinkedHashMap<>();
+            for (String name : values.keySet())
+            {
+                // Requests are multiplexed on the same connection.
+                if (FCGI.Values.MPXS_CONNS.equals(name))
+                    result.put(name, "1");
+            }
+            if (LOG.isDebugEnabled())
+                LOG.debug("Values {} for {} on {}", result, values.keySet(), ServerFCGIConnection.this);
+            ServerGenerator generator = new ServerGenerator(connector.getByteBufferPool());
+            flusher.flush(generator.generateGetValuesResult(result, Callback.NOOP));
+        }
     }
 }
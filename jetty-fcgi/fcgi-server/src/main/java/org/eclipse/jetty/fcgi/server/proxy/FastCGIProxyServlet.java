@@ -62,7 +62,15 @@ import org.eclipse.jetty.proxy.AsyncProxyServlet;
  *     </ul></li>
  *     <li>{@code fastCGI.HTTPS}, optional, defaults to false, that specifies whether
  *     to force the FastCGI {@code HTTPS} parameter to the value {@code on}</li>
+ *     <li>{@code multiplexed}, optional, defaults to false, that specifies whether
+ *     to send concurrent requests over the same connection; the FastCGI server is asked
+ *     whether it supports multiplexing (many do not, for example PHP-FPM), and if it does
+ *     not each connection carries one request at a time</li>
  * </ul>
+ * <p>
+ * Connections to the FastCGI server are kept alive and pooled; the pool can be
+ * tuned with the {@code maxConnections}, {@code maxConnectionsPerBackend} and
+ * {@code idleTimeout} init-params of {@link org.eclipse.jetty.proxy.AbstractProxyServlet}.
  *
  * @see TryFilesFilter
  */
@@ -73,6 +81,7 @@ public class FastCGIProxyServlet extends AsyncProxyServlet.Transparent
     public static final String ORIGINAL_URI_ATTRIBUTE_INIT_PARAM = "originalURIAttribute";
     public static final String ORIGINAL_QUERY_ATTRIBUTE_INIT_PARAM = "originalQueryAttribute";
     public static final String FASTCGI_HTTPS_INIT_PARAM = "fastCGI.HTTPS";
+    public static final String MULTIPLEXED_INIT_PARAM = "multiplexed";
 
     private static final String REMOTE_ADDR_ATTRIBUTE = FastCGIProxyServlet.class.getName() + ".remoteAddr";
     private static final String REMOTE_PORT_ATTRIBUTE = FastCGIProxyServlet.class.getName() + ".remotePort";
@@ -115,7 +124,8 @@ public class FastCGIProxyServlet extends AsyncProxyServlet.Transparent
         String value = config.getInitParameter("selectors");
         if (value != null)
             selectors = Integer.parseInt(value);
-        return new HttpClient(new ProxyHttpClientTransportOverFCGI(selectors, scriptRoot), null);
+        boolean multiplexed = Boolean.parseBoolean(config.getInitParameter(MULTIPLEXED_INIT_PARAM));
+        return new HttpClient(new ProxyHttpClientTransportOverFCGI(selectors, multiplexed, scriptRoot), null);
     }
 
     @Override
@@ -242,9 +252,9 @@ public class FastCGIProxyServlet extends AsyncProxyServlet.Transparent
 
     private class ProxyHttpClientTransportOverFCGI extends HttpClientTransportOverFCGI
     {
-        private ProxyHttpClientTransportOverFCGI(int selectors, String scriptRoot)
+        private ProxyHttpClientTransportOverFCGI(int selectors, boolean multiplexed, String scriptRoot)
         {
-            super(selectors, false, scriptRoot);
+            super(selectors, multiplexed, scriptRoot);
         }
 
         @Override
@@ -23,6 +23,7 @@ import java.util.concurrent.atomic.AtomicLong;
 import org.eclipse.jetty.client.HttpClient;
 import org.eclipse.jetty.client.HttpClientTransport;
 import org.eclipse.jetty.client.LeakTrackingConnectionPool;
+import org.eclipse.jetty.client.MultiplexConnectionPool;
 import org.eclipse.jetty.fcgi.client.http.HttpClientTransportOverFCGI;
 import org.eclipse.jetty.http.HttpScheme;
 import org.eclipse.jetty.io.ByteBufferPool;
@@ -52,6 +53,7 @@ public abstract class AbstractHttpClientServerTest
     protected ServerConnector connector;
     protected HttpClient client;
     protected String scheme = HttpScheme.HTTP.asString();
+    protected boolean multiplexed;
 
     public void start(Handler handler) throws Exception
     {
@@ -70,15 +72,22 @@ public abstract class AbstractHttpClientServerTest
         QueuedThreadPool executor = new QueuedThreadPool();
         executor.setName(executor.getName() + "-client");
 
-        HttpClientTransport transport = new HttpClientTransportOverFCGI(1, false, "");
-        transport.setConnectionPoolFactory(destination -> new LeakTrackingConnectionPool(destination, client.getMaxConnectionsPerDestination(), destination)
+        HttpClientTransport transport = new HttpClientTransportOverFCGI(1, multiplexed, "");
+        if (multiplexed)
         {
-            @Override
-            protected void leaked(LeakDetector.LeakInfo leakInfo)
+            transport.setConnectionPoolFactory(destination -> new MultiplexConnectionPool(destination, client.getMaxConnectionsPerDestination(), destination, client.getMaxRequestsQueuedPerDestination()));
+        }
+        else
+        {
+            transport.setConnectionPoolFactory(destination -> new LeakTrackingConnectionPool(destination, client.getMaxConnectionsPerDestination(), destination)
             {
-                connectionLeaks.incrementAndGet();
-            }
-        });
+                @Override
+                protected void leaked(LeakDetector.LeakInfo leakInfo)
+                {
+                    connectionLeaks.incrementAndGet();
+                }
+            });
+        }
         client = new HttpClient(transport, null);
         client.setExecutor(executor);
         if (clientBufferPool == null)
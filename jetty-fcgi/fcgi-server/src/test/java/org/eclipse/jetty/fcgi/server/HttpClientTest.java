@@ -18,8 +18,12 @@
 
 package org.eclipse.jetty.fcgi.server;
 
+import java.io.DataInputStream;
 import java.io.EOFException;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
 import java.net.URI;
 import java.net.URLEncoder;
 import java.nio.ByteBuffer;
@@ -38,6 +42,8 @@ import javax.servlet.ServletOutputStream;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import org.eclipse.jetty.client.HttpDestination;
+import org.eclipse.jetty.client.MultiplexConnectionPool;
 import org.eclipse.jetty.client.api.ContentResponse;
 import org.eclipse.jetty.client.api.Request;
 import org.eclipse.jetty.client.api.Response;
@@ -45,6 +51,7 @@ import org.eclipse.jetty.client.api.Result;
 import org.eclipse.jetty.client.util.BytesContentProvider;
 import org.eclipse.jetty.client.util.DeferredContentProvider;
 import org.eclipse.jetty.client.util.FutureResponseListener;
+import org.eclipse.jetty.fcgi.FCGI;
 import org.eclipse.jetty.http.HttpMethod;
 import org.eclipse.jetty.io.MappedByteBufferPool;
 import org.eclipse.jetty.server.handler.AbstractHandler;
@@ -70,6 +77,85 @@ public class HttpClientTest extends AbstractHttpClientServerTest
         }
     }
 
+    @Test
+    public void testMultiplexedConcurrentRequests() throws Exception
+    {
+        multiplexed = true;
+        start(new EmptyServerHandler());
+        client.setMaxConnectionsPerDestination(1);
+
+        int count = 16;
+        CountDownLatch latch = new CountDownLatch(count);
+        for (int i = 0; i < count; ++i)
+        {
+            client.newRequest("localhost", connector.getLocalPort())
+                    .scheme(scheme)
+                    .send(result ->
+                    {
+                        if (result.isSucceeded() && result.getResponse().getStatus() == 200)
+                            latch.countDown();
+                    });
+        }
+
+        Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+        HttpDestination destination = (HttpDestination)client.getDestination(scheme, "localhost", connector.getLocalPort());
+        MultiplexConnectionPool connectionPool = (MultiplexConnectionPool)destination.getConnectionPool();
+        Assert.assertEquals(1, connectionPool.getConnectionCount());
+    }
+
+    @Test
+    public void testMultiplexedProbeUnknownType() throws Exception
+    {
+        testMultiplexedProbeFallback(true);
+    }
+
+    @Test
+    public void testMultiplexedProbeTimeout() throws Exception
+    {
+        testMultiplexedProbeFallback(false);
+    }
+
+    private void testMultiplexedProbeFallback(boolean unknownType) throws Exception
+    {
+        multiplexed = true;
+        start(new EmptyServerHandler());
+        client.setConnectTimeout(1000);
+
+        try (ServerSocket backend = new ServerSocket(0))
+        {
+            client.newRequest("localhost", backend.getLocalPort())
+                    .scheme(scheme)
+                    .timeout(5, TimeUnit.SECONDS)
+                    .send(result -> {});
+
+            try (Socket socket = backend.accept())
+            {
+                socket.setSoTimeout(5000);
+                DataInputStream input = new DataInputStream(socket.getInputStream());
+
+                // Read the FCGI_GET_VALUES record.
+                byte[] header = new byte[8];
+                input.readFully(header);
+                Assert.assertEquals(FCGI.FrameType.GET_VALUES.code, header[1]);
+                int length = ((header[4] & 0xFF) << 8) + (header[5] & 0xFF) + (header[6] & 0xFF);
+                input.readFully(new byte[length]);
+
+                if (unknownType)
+                {
+                    OutputStream output = socket.getOutputStream();
+                    output.write(new byte[]{1, (byte)FCGI.FrameType.UNKNOWN_TYPE.code, 0, 0, 0, 8, 0, 0,
+                            (byte)FCGI.FrameType.GET_VALUES.code, 0, 0, 0, 0, 0, 0, 0});
+                    output.flush();
+                }
+
+                // Without a FCGI_GET_VALUES_RESULT, the connection
+                // falls back to one request at a time and is used.
+                input.readFully(header);
+                Assert.assertEquals(FCGI.FrameType.BEGIN_REQUEST.code, header[1]);
+            }
+        }
+    }
+
     @Test
     public void testGETResponseWithContent() throws Exception
     {
@@ -171,6 +171,11 @@ public class HTTP2Client extends ContainerLifeCycle
         return new ClientSelectorManager(getExecutor(), getScheduler(), getSelectors());
     }
 
+    protected SelectorManager getSelectorManager()
+    {
+        return selector;
+    }
+
     protected ClientConnectionFactory newSslClientConnectionFactory(SslContextFactory sslContextFactory, ClientConnectionFactory connectionFactory)
     {
         return new SslClientConnectionFactory(sslContextFactory, getByteBufferPool(), getExecutor(), connectionFactory);
@@ -355,7 +360,7 @@ public class HTTP2Client extends ContainerLifeCycle
         }
     }
 
-    private Map<String, Object> contextFrom(SslContextFactory sslContextFactory, InetSocketAddress address, Session.Listener listener, Promise<Session> promise, Map<String, Object> context)
+    protected Map<String, Object> contextFrom(SslContextFactory sslContextFactory, InetSocketAddress address, Session.Listener listener, Promise<Session> promise, Map<String, Object> context)
     {
         if (context == null)
             context = new HashMap<>();
@@ -375,9 +380,9 @@ public class HTTP2Client extends ContainerLifeCycle
         channel.socket().setTcpNoDelay(true);
     }
 
-    private class ClientSelectorManager extends SelectorManager
+    protected class ClientSelectorManager extends SelectorManager
     {
-        private ClientSelectorManager(Executor executor, Scheduler scheduler, int selectors)
+        protected ClientSelectorManager(Executor executor, Scheduler scheduler, int selectors)
         {
             super(executor, scheduler, selectors);
         }
@@ -0,0 +1,277 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2017 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.http2.client;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.http.HttpFields;
+import org.eclipse.jetty.http.HttpStatus;
+import org.eclipse.jetty.http.MetaData;
+import org.eclipse.jetty.http2.ErrorCode;
+import org.eclipse.jetty.http2.FlowControlStrategy;
+import org.eclipse.jetty.http2.HTTP2Session;
+import org.eclipse.jetty.http2.SimpleFlowControlStrategy;
+import org.eclipse.jetty.http2.api.Session;
+import org.eclipse.jetty.http2.api.Stream;
+import org.eclipse.jetty.http2.frames.DataFrame;
+import org.eclipse.jetty.http2.frames.HeadersFrame;
+import org.eclipse.jetty.http2.frames.ResetFrame;
+import org.eclipse.jetty.http2.server.MessageHTTP2ServerConnectionFactory;
+import org.eclipse.jetty.http2.server.MessageStream;
+import org.eclipse.jetty.http2.server.MessageStreamHandler;
+import org.eclipse.jetty.server.HttpConfiguration;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.eclipse.jetty.util.BufferUtil;
+import org.eclipse.jetty.util.Callback;
+import org.eclipse.jetty.util.FutureCallback;
+import org.eclipse.jetty.util.FuturePromise;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class MessageStreamTest extends AbstractTest
+{
+    private void start(MessageStreamHandler handler) throws Exception
+    {
+        MessageHTTP2ServerConnectionFactory connectionFactory = new MessageHTTP2ServerConnectionFactory(new HttpConfiguration());
+        connectionFactory.setInitialSessionRecvWindow(FlowControlStrategy.DEFAULT_WINDOW_SIZE);
+        connectionFactory.setInitialStreamRecvWindow(FlowControlStrategy.DEFAULT_WINDOW_SIZE);
+        connectionFactory.setMaxMessageSize(1024);
+        // Return the credit of every DATA frame immediately, so that tests can verify it.
+        connectionFactory.setFlowControlStrategyFactory(SimpleFlowControlStrategy::new);
+        connectionFactory.addHandler("/test.Echo/", handler);
+        prepareServer(connectionFactory);
+        ServletContextHandler context = new ServletContextHandler(server, "/", true, false);
+        context.addServlet(new ServletHolder(new HttpServlet()
+        {
+            @Override
+            protected void service(HttpServletRequest request, HttpServletResponse response)
+            {
+                response.setStatus(HttpStatus.NO_CONTENT_204);
+            }
+        }), "/*");
+        server.start();
+
+        prepareClient();
+        client.start();
+    }
+
+    private MetaData.Request newMessageRequest(String path)
+    {
+        servletPath = path;
+        HttpFields fields = new HttpFields();
+        fields.put("Content-Type", MessageStream.CONTENT_TYPE);
+        return newRequest("POST", fields);
+    }
+
+    private static ByteBuffer frame(String message)
+    {
+        byte[] bytes = message.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buffer = ByteBuffer.allocate(5 + bytes.length);
+        buffer.put((byte)0).putInt(bytes.length).put(bytes).flip();
+        return buffer;
+    }
+
+    @Test
+    public void testMessagesEchoedWithTrailers() throws Exception
+    {
+        start(new MessageStreamHandler.Adapter()
+        {
+            @Override
+            public void onMessage(MessageStream stream, boolean compressed, ByteBuffer message, Callback callback)
+            {
+                stream.send(BufferUtil.toBuffer(BufferUtil.toArray(message)), callback);
+            }
+
+            @Override
+            public void onHalfClose(MessageStream stream)
+            {
+                stream.finish(MessageStream.STATUS_OK, null, null, Callback.NOOP);
+            }
+        });
+
+        Session session = newClient(new Session.Listener.Adapter());
+        ByteArrayOutputStream received = new ByteArrayOutputStream();
+        AtomicReference<HttpFields> trailers = new AtomicReference<>();
+        CountDownLatch latch = new CountDownLatch(1);
+        HeadersFrame requestFrame = new HeadersFrame(newMessageRequest("/test.Echo/Echo"), null, false);
+        FuturePromise<Stream> promise = new FuturePromise<>();
+        session.newStream(requestFrame, promise, new Stream.Listener.Adapter()
+        {
+            @Override
+            public void onHeaders(Stream stream, HeadersFrame frame)
+            {
+                if (frame.isEndStream())
+                {
+                    trailers.set(frame.getMetaData().getFields());
+                    latch.countDown();
+                }
+                else
+                {
+                    MetaData.Response response = (MetaData.Response)frame.getMetaData();
+                    Assert.assertEquals(HttpStatus.OK_200, response.getStatus());
+                }
+            }
+
+            @Override
+            public void onData(Stream stream, DataFrame frame, Callback callback)
+            {
+                byte[] bytes = BufferUtil.toArray(frame.getData());
+                received.write(bytes, 0, bytes.length);
+                callback.succeeded();
+            }
+        });
+        Stream stream = promise.get(5, TimeUnit.SECONDS);
+
+        // The second message is split across two frames, in the middle of the prefix.
+        ByteBuffer first = frame("hello");
+        ByteBuffer second = frame("world");
+        ByteBuffer split = ByteBuffer.allocate(first.remaining() + 3);
+        split.put(first).put(second.array(), 0, 3).flip();
+        second.position(3);
+
+        FutureCallback callback = new FutureCallback();
+        stream.data(new DataFrame(stream.getId(), split, false), callback);
+        callback.get(5, TimeUnit.SECONDS);
+        stream.data(new DataFrame(stream.getId(), second, true), Callback.NOOP);
+
+        Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(String.valueOf(MessageStream.STATUS_OK), trailers.get().get(MessageStream.STATUS_HEADER));
+        ByteBuffer expected = BufferUtil.allocate(32);
+        BufferUtil.append(expected, frame("hello"));
+        BufferUtil.append(expected, frame("world"));
+        Assert.assertArrayEquals(BufferUtil.toArray(expected), received.toByteArray());
+    }
+
+    @Test
+    public void testMessageTooLarge() throws Exception
+    {
+        CountDownLatch failureLatch = new CountDownLatch(1);
+        start(new MessageStreamHandler.Adapter()
+        {
+            @Override
+            public void onFailure(MessageStream stream, Throwable failure)
+            {
+                Assert.assertTrue(failure instanceof IOException);
+                failureLatch.countDown();
+            }
+        });
+
+        Session session = newClient(new Session.Listener.Adapter());
+        AtomicReference<HttpFields> trailers = new AtomicReference<>();
+        CountDownLatch latch = new CountDownLatch(1);
+        HeadersFrame requestFrame = new HeadersFrame(newMessageRequest("/test.Echo/Echo"), null, false);
+        FuturePromise<Stream> promise = new FuturePromise<>();
+        session.newStream(requestFrame, promise, new Stream.Listener.Adapter()
+        {
+            @Override
+            public void onHeaders(Stream stream, HeadersFrame frame)
+            {
+                // Trailers-only response.
+                Assert.assertTrue(frame.isEndStream());
+                trailers.set(frame.getMetaData().getFields());
+                latch.countDown();
+            }
+        });
+        Stream stream = promise.get(5, TimeUnit.SECONDS);
+
+        ByteBuffer prefix = ByteBuffer.allocate(5);
+        prefix.put((byte)0).putInt(2048).flip();
+        stream.data(new DataFrame(stream.getId(), prefix, false), Callback.NOOP);
+
+        Assert.assertTrue(failureLatch.await(5, TimeUnit.SECONDS));
+        Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(String.valueOf(MessageStream.STATUS_RESOURCE_EXHAUSTED), trailers.get().get(MessageStream.STATUS_HEADER));
+    }
+
+    @Test
+    public void testMessageTooLargeResetsStreamAndReturnsFlowControlCredit() throws Exception
+    {
+        start(new MessageStreamHandler.Adapter());
+
+        HTTP2Session session = (HTTP2Session)newClient(new Session.Listener.Adapter());
+        AtomicReference<HttpFields> trailers = new AtomicReference<>();
+        CountDownLatch resetLatch = new CountDownLatch(1);
+        HeadersFrame requestFrame = new HeadersFrame(newMessageRequest("/test.Echo/Echo"), null, false);
+        FuturePromise<Stream> promise = new FuturePromise<>();
+        session.newStream(requestFrame, promise, new Stream.Listener.Adapter()
+        {
+            @Override
+            public void onHeaders(Stream stream, HeadersFrame frame)
+            {
+                trailers.set(frame.getMetaData().getFields());
+            }
+
+            @Override
+            public void onReset(Stream stream, ResetFrame frame)
+            {
+                Assert.assertEquals(ErrorCode.CANCEL_STREAM_ERROR.code, frame.getError());
+                resetLatch.countDown();
+            }
+        });
+        Stream stream = promise.get(5, TimeUnit.SECONDS);
+
+        // The oversized message fills the whole session window, so the
+        // client cannot send anything else until the server returns it.
+        int length = FlowControlStrategy.DEFAULT_WINDOW_SIZE - 5;
+        ByteBuffer data = ByteBuffer.allocate(5 + length);
+        data.put((byte)0).putInt(length).clear();
+        stream.data(new DataFrame(stream.getId(), data, false), Callback.NOOP);
+
+        Assert.assertTrue(resetLatch.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(String.valueOf(MessageStream.STATUS_RESOURCE_EXHAUSTED), trailers.get().get(MessageStream.STATUS_HEADER));
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (session.getSendWindow() < FlowControlStrategy.DEFAULT_WINDOW_SIZE && System.nanoTime() < deadline)
+            Thread.sleep(10);
+        Assert.assertEquals(FlowControlStrategy.DEFAULT_WINDOW_SIZE, session.getSendWindow());
+    }
+
+    @Test
+    public void testUnknownPathHandledByServlet() throws Exception
+    {
+        start(new MessageStreamHandler.Adapter());
+
+        Session session = newClient(new Session.Listener.Adapter());
+        CountDownLatch latch = new CountDownLatch(1);
+        HeadersFrame requestFrame = new HeadersFrame(newMessageRequest("/other.Service/Method"), null, true);
+        session.newStream(requestFrame, new FuturePromise<>(), new Stream.Listener.Adapter()
+        {
+            @Override
+            public void onHeaders(Stream stream, HeadersFrame frame)
+            {
+                MetaData.Response response = (MetaData.Response)frame.getMetaData();
+                Assert.assertEquals(HttpStatus.NO_CONTENT_204, response.getStatus());
+                latch.countDown();
+            }
+        });
+
+        Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+    }
+}
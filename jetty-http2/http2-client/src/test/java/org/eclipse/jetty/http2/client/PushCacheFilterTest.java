@@ -25,6 +25,8 @@ import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.servlet.DispatcherType;
 import javax.servlet.ServletException;
@@ -48,7 +50,9 @@ import org.eclipse.jetty.http2.frames.HeadersFrame;
 import org.eclipse.jetty.http2.frames.PushPromiseFrame;
 import org.eclipse.jetty.http2.frames.ResetFrame;
 import org.eclipse.jetty.http2.frames.SettingsFrame;
+import org.eclipse.jetty.servlet.FilterHolder;
 import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlets.CacheDigest;
 import org.eclipse.jetty.servlets.PushCacheFilter;
 import org.eclipse.jetty.util.Callback;
 import org.eclipse.jetty.util.Promise;
@@ -58,12 +62,15 @@ import org.junit.Test;
 public class PushCacheFilterTest extends AbstractTest
 {
     private String contextPath = "/push";
+    private final Map<String, String> filterParams = new HashMap<>();
+    private FilterHolder filterHolder;
 
     @Override
     protected void customizeContext(ServletContextHandler context)
     {
         context.setContextPath(contextPath);
-        context.addFilter(PushCacheFilter.class, "/*", EnumSet.of(DispatcherType.REQUEST));
+        filterHolder = context.addFilter(PushCacheFilter.class, "/*", EnumSet.of(DispatcherType.REQUEST));
+        filterHolder.setInitParameters(filterParams);
     }
 
     @Override
@@ -77,6 +84,53 @@ public class PushCacheFilterTest extends AbstractTest
         return "http://localhost:" + connector.getLocalPort() + contextPath + servletPath + pathInfo;
     }
 
+    private MetaData.Response request(Session session, String pathInfo, HttpFields fields, AtomicInteger pushes) throws Exception
+    {
+        AtomicReference<MetaData.Response> responseRef = new AtomicReference<>();
+        CountDownLatch latch = new CountDownLatch(1);
+        session.newStream(new HeadersFrame(newRequest("GET", pathInfo, fields), null, true), new Promise.Adapter<>(), new Stream.Listener.Adapter()
+        {
+            @Override
+            public void onHeaders(Stream stream, HeadersFrame frame)
+            {
+                responseRef.set((MetaData.Response)frame.getMetaData());
+                if (frame.isEndStream())
+                    latch.countDown();
+            }
+
+            @Override
+            public void onData(Stream stream, DataFrame frame, Callback callback)
+            {
+                callback.succeeded();
+                if (frame.isEndStream())
+                    latch.countDown();
+            }
+
+            @Override
+            public Stream.Listener onPush(Stream stream, PushPromiseFrame frame)
+            {
+                pushes.incrementAndGet();
+                return new Adapter()
+                {
+                    @Override
+                    public void onData(Stream stream, DataFrame frame, Callback callback)
+                    {
+                        callback.succeeded();
+                    }
+                };
+            }
+        });
+        Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+        return responseRef.get();
+    }
+
+    private HttpFields referrerFields(String primaryResource)
+    {
+        HttpFields fields = new HttpFields();
+        fields.put(HttpHeader.REFERER, newURI(primaryResource));
+        return fields;
+    }
+
     @Test
     public void testPush() throws Exception
     {
@@ -1008,4 +1062,221 @@ public class PushCacheFilterTest extends AbstractTest
         Assert.assertFalse(pushLatch.await(1, TimeUnit.SECONDS));
         Assert.assertTrue(primaryResponseLatch.await(5, TimeUnit.SECONDS));
     }
+
+    @Test
+    public void testPushSkippedWhenInCacheDigest() throws Exception
+    {
+        final String primaryResource = "/primary.html";
+        final String secondaryResource = "/secondary.png";
+        final byte[] secondaryData = "SECONDARY".getBytes("UTF-8");
+        start(new HttpServlet()
+        {
+            @Override
+            protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException
+            {
+                String requestURI = req.getRequestURI();
+                ServletOutputStream output = resp.getOutputStream();
+                if (requestURI.endsWith(primaryResource))
+                    output.print("<html><head></head><body>PRIMARY</body></html>");
+                else if (requestURI.endsWith(secondaryResource))
+                    output.write(secondaryData);
+            }
+        });
+
+        final Session session = newClient(new Session.Listener.Adapter());
+
+        // Request for the primary and secondary resource to build the cache.
+        final String referrerURI = newURI(primaryResource);
+        HttpFields primaryFields = new HttpFields();
+        MetaData.Request primaryRequest = newRequest("GET", primaryResource, primaryFields);
+        final CountDownLatch warmupLatch = new CountDownLatch(1);
+        session.newStream(new HeadersFrame(primaryRequest, null, true), new Promise.Adapter<>(), new Stream.Listener.Adapter()
+        {
+            @Override
+            public void onData(Stream stream, DataFrame frame, Callback callback)
+            {
+                callback.succeeded();
+                if (frame.isEndStream())
+                {
+                    // Request for the secondary resource.
+                    HttpFields secondaryFields = new HttpFields();
+                    secondaryFields.put(HttpHeader.REFERER, referrerURI);
+                    MetaData.Request secondaryRequest = newRequest("GET", secondaryResource, secondaryFields);
+                    session.newStream(new HeadersFrame(secondaryRequest, null, true), new Promise.Adapter<>(), new Stream.Listener.Adapter()
+                    {
+                        @Override
+                        public void onData(Stream stream, DataFrame frame, Callback callback)
+                        {
+                            callback.succeeded();
+                            warmupLatch.countDown();
+                        }
+                    });
+                }
+            }
+        });
+        Assert.assertTrue(warmupLatch.await(5, TimeUnit.SECONDS));
+
+        // Request again the primary resource with a cache digest
+        // that contains the secondary resource, it must not be pushed.
+        CacheDigest digest = new CacheDigest(0, 7);
+        digest.add(newURI(secondaryResource));
+        HttpFields digestFields = new HttpFields();
+        digestFields.put("Cache-Digest", digest.encode() + "; complete");
+        primaryRequest = newRequest("GET", primaryResource, digestFields);
+        final CountDownLatch primaryResponseLatch = new CountDownLatch(1);
+        final CountDownLatch pushLatch = new CountDownLatch(1);
+        session.newStream(new HeadersFrame(primaryRequest, null, true), new Promise.Adapter<>(), new Stream.Listener.Adapter()
+        {
+            @Override
+            public Stream.Listener onPush(Stream stream, PushPromiseFrame frame)
+            {
+                pushLatch.countDown();
+                return null;
+            }
+
+            @Override
+            public void onData(Stream stream, DataFrame frame, Callback callback)
+            {
+                callback.succeeded();
+                if (frame.isEndStream())
+                    primaryResponseLatch.countDown();
+            }
+        });
+        Assert.assertFalse(pushLatch.await(1, TimeUnit.SECONDS));
+        Assert.assertTrue(primaryResponseLatch.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testMaxPushBytes() throws Exception
+    {
+        final String primaryResource = "/primary.html";
+        final String secondaryResource1 = "/secondary1.png";
+        final String secondaryResource2 = "/secondary2.png";
+        final String notModifiedResource = "/not_modified.png";
+        filterParams.put("maxPushBytes", "15");
+        start(new HttpServlet()
+        {
+            @Override
+            protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException
+            {
+                String requestURI = req.getRequestURI();
+                if (requestURI.endsWith(notModifiedResource) && req.getHeader("If-None-Match") != null)
+                {
+                    resp.setStatus(HttpStatus.NOT_MODIFIED_304);
+                    return;
+                }
+                ServletOutputStream output = resp.getOutputStream();
+                if (requestURI.endsWith(primaryResource))
+                    output.print("<html><head></head><body>PRIMARY</body></html>");
+                else
+                    output.write(new byte[10]);
+            }
+        });
+
+        Session session = newClient(new Session.Listener.Adapter());
+
+        // Build the cache: the size of the resources is only known from 200 responses.
+        AtomicInteger pushes = new AtomicInteger();
+        request(session, primaryResource, new HttpFields(), pushes);
+        // The conditional header comes before the Referer, which must still be parsed.
+        HttpFields conditionalFields = new HttpFields();
+        conditionalFields.put(HttpHeader.IF_NONE_MATCH, "\"tag\"");
+        conditionalFields.put(HttpHeader.REFERER, newURI(primaryResource));
+        Assert.assertEquals(HttpStatus.NOT_MODIFIED_304, request(session, notModifiedResource, conditionalFields, pushes).getStatus());
+        request(session, secondaryResource1, referrerFields(primaryResource), pushes);
+        request(session, secondaryResource2, referrerFields(primaryResource), pushes);
+        Assert.assertEquals(0, pushes.get());
+
+        PushCacheFilter filter = (PushCacheFilter)filterHolder.getFilter();
+        String primaryPath = contextPath + servletPath + primaryResource;
+        Assert.assertTrue(filter.getPushCache().get(primaryPath).contains(notModifiedResource));
+
+        // The resource of unknown size is not pushed,
+        // and only the first secondary resource fits the budget.
+        request(session, primaryResource, new HttpFields(), pushes);
+        Assert.assertEquals(1, pushes.get());
+        Assert.assertEquals(1, filter.getPushedCount());
+        Assert.assertEquals(2, filter.getSkippedBudgetCount());
+    }
+
+    @Test
+    public void testLearnFromTiming() throws Exception
+    {
+        final String primaryResource = "/primary.html";
+        final String secondaryResource = "/secondary.png";
+        filterParams.put("learnFromTiming", "true");
+        start(new HttpServlet()
+        {
+            @Override
+            protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException
+            {
+                String requestURI = req.getRequestURI();
+                ServletOutputStream output = resp.getOutputStream();
+                if (requestURI.endsWith(primaryResource))
+                    output.print("<html><head></head><body>PRIMARY</body></html>");
+                else
+                    output.write("SECONDARY".getBytes(StandardCharsets.UTF_8));
+            }
+        });
+
+        Session session = newClient(new Session.Listener.Adapter());
+
+        // The conditional header comes before the Accept header, which must still be parsed.
+        AtomicInteger pushes = new AtomicInteger();
+        HttpFields primaryFields = new HttpFields();
+        primaryFields.put(HttpHeader.IF_MODIFIED_SINCE, "Thu, 01 Jan 1970 00:00:00 GMT");
+        primaryFields.put(HttpHeader.ACCEPT, "text/html");
+        request(session, primaryResource, primaryFields, pushes);
+        // The secondary resource has no Referer, it is associated by timing.
+        request(session, secondaryResource, new HttpFields(), pushes);
+        Assert.assertEquals(0, pushes.get());
+
+        HttpFields htmlFields = new HttpFields();
+        htmlFields.put(HttpHeader.ACCEPT, "text/html");
+        request(session, primaryResource, htmlFields, pushes);
+        Assert.assertEquals(1, pushes.get());
+    }
+
+    @Test
+    public void testCacheDigestCookie() throws Exception
+    {
+        final String primaryResource = "/primary.html";
+        final String secondaryResource = "/secondary.png";
+        filterParams.put("cacheDigestCookie", "pushed");
+        start(new HttpServlet()
+        {
+            @Override
+            protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException
+            {
+                String requestURI = req.getRequestURI();
+                ServletOutputStream output = resp.getOutputStream();
+                if (requestURI.endsWith(primaryResource))
+                    output.print("<html><head></head><body>PRIMARY</body></html>");
+                else
+                    output.write("SECONDARY".getBytes(StandardCharsets.UTF_8));
+            }
+        });
+
+        Session session = newClient(new Session.Listener.Adapter());
+
+        AtomicInteger pushes = new AtomicInteger();
+        request(session, primaryResource, new HttpFields(), pushes);
+        request(session, secondaryResource, referrerFields(primaryResource), pushes);
+
+        // The pushed resource is recorded in the cookie.
+        MetaData.Response response = request(session, primaryResource, new HttpFields(), pushes);
+        Assert.assertEquals(1, pushes.get());
+        String setCookie = response.getFields().getValuesList(HttpHeader.SET_COOKIE).stream()
+                .filter(value -> value.startsWith("pushed="))
+                .findFirst()
+                .orElse(null);
+        Assert.assertNotNull(setCookie);
+
+        // The cookie prevents pushing the resource again.
+        HttpFields cookieFields = new HttpFields();
+        cookieFields.put(HttpHeader.COOKIE, setCookie.split(";")[0]);
+        request(session, primaryResource, cookieFields, pushes);
+        Assert.assertEquals(1, pushes.get());
+        Assert.assertEquals(1, ((PushCacheFilter)filterHolder.getFilter()).getSkippedCachedCount());
+    }
 }
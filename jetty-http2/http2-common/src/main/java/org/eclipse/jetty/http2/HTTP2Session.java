@@ -24,10 +24,7 @@ import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -52,7 +49,6 @@ import org.eclipse.jetty.http2.generator.Generator;
 import org.eclipse.jetty.http2.parser.Parser;
 import org.eclipse.jetty.io.ByteBufferPool;
 import org.eclipse.jetty.io.EndPoint;
-import org.eclipse.jetty.util.Atomics;
 import org.eclipse.jetty.util.Callback;
 import org.eclipse.jetty.util.CountingCallback;
 import org.eclipse.jetty.util.Promise;
@@ -69,11 +65,8 @@ public abstract class HTTP2Session extends ContainerLifeCycle implements ISessio
 {
     private static final Logger LOG = Log.getLogger(HTTP2Session.class);
 
-    private final ConcurrentMap<Integer, IStream> streams = new ConcurrentHashMap<>();
+    private final StreamMap streams = new StreamMap();
     private final AtomicInteger streamIds = new AtomicInteger();
-    private final AtomicInteger lastStreamId = new AtomicInteger();
-    private final AtomicInteger localStreamCount = new AtomicInteger();
-    private final AtomicInteger remoteStreamCount = new AtomicInteger();
     private final AtomicInteger sendWindow = new AtomicInteger();
     private final AtomicInteger recvWindow = new AtomicInteger();
     private final AtomicReference<CloseState> closed = new AtomicReference<>(CloseState.NOT_CLOSED);
@@ -605,7 +598,7 @@ public abstract class HTTP2Session extends ContainerLifeCycle implements ISessio
                             reason = reason.substring(0, Math.min(reason.length(), 32));
                             payload = reason.getBytes(StandardCharsets.UTF_8);
                         }
-                        GoAwayFrame frame = new GoAwayFrame(lastStreamId.get(), error, payload);
+                        GoAwayFrame frame = new GoAwayFrame(streams.getLastRemoteStreamId(), error, payload);
                         control(null, callback, frame);
                         return true;
                     }
@@ -678,67 +671,71 @@ public abstract class HTTP2Session extends ContainerLifeCycle implements ISessio
 
     protected IStream createLocalStream(int streamId, Promise<Stream> promise)
     {
-        while (true)
+        int maxCount = getMaxLocalStreams();
+        // Fail fast without allocating the stream; the
+        // count is checked again atomically when adding.
+        if (maxCount >= 0 && streams.getLocalCount() >= maxCount)
         {
-            int localCount = localStreamCount.get();
-            int maxCount = getMaxLocalStreams();
-            if (maxCount >= 0 && localCount >= maxCount)
-            {
-                promise.failed(new IllegalStateException("Max local stream count " + maxCount + " exceeded"));
-                return null;
-            }
-            if (localStreamCount.compareAndSet(localCount, localCount + 1))
-                break;
+            promise.failed(new IllegalStateException("Max local stream count " + maxCount + " exceeded"));
+            return null;
         }
 
         IStream stream = newStream(streamId, true);
-        if (streams.putIfAbsent(streamId, stream) == null)
+        switch (streams.add(stream, maxCount))
         {
-            stream.setIdleTimeout(getStreamIdleTimeout());
-            flowControl.onStreamCreated(stream);
-            if (LOG.isDebugEnabled())
-                LOG.debug("Created local {}", stream);
-            return stream;
-        }
-        else
-        {
-            promise.failed(new IllegalStateException("Duplicate stream " + streamId));
-            return null;
+            case ADDED:
+            {
+                stream.setIdleTimeout(getStreamIdleTimeout());
+                flowControl.onStreamCreated(stream);
+                if (LOG.isDebugEnabled())
+                    LOG.debug("Created local {}", stream);
+                return stream;
+            }
+            case REFUSED:
+            {
+                promise.failed(new IllegalStateException("Max local stream count " + maxCount + " exceeded"));
+                return null;
+            }
+            default:
+            {
+                promise.failed(new IllegalStateException("Duplicate stream " + streamId));
+                return null;
+            }
         }
     }
 
     protected IStream createRemoteStream(int streamId)
     {
         // SPEC: exceeding max concurrent streams is treated as stream error.
-        while (true)
+        int maxCount = getMaxRemoteStreams();
+        if (maxCount >= 0 && streams.getRemoteCount() >= maxCount)
         {
-            int remoteCount = remoteStreamCount.get();
-            int maxCount = getMaxRemoteStreams();
-            if (maxCount >= 0 && remoteCount >= maxCount)
-            {
-                reset(new ResetFrame(streamId, ErrorCode.REFUSED_STREAM_ERROR.code), Callback.NOOP);
-                return null;
-            }
-            if (remoteStreamCount.compareAndSet(remoteCount, remoteCount + 1))
-                break;
+            reset(new ResetFrame(streamId, ErrorCode.REFUSED_STREAM_ERROR.code), Callback.NOOP);
+            return null;
         }
 
         IStream stream = newStream(streamId, false);
-
-        // SPEC: duplicate stream is treated as connection error.
-        if (streams.putIfAbsent(streamId, stream) == null)
+        switch (streams.add(stream, maxCount))
         {
-            updateLastStreamId(streamId);
-            stream.setIdleTimeout(getStreamIdleTimeout());
-            flowControl.onStreamCreated(stream);
-            if (LOG.isDebugEnabled())
-                LOG.debug("Created remote {}", stream);
-            return stream;
-        }
-        else
-        {
-            close(ErrorCode.PROTOCOL_ERROR.code, "duplicate_stream", Callback.NOOP);
-            return null;
+            case ADDED:
+            {
+                stream.setIdleTimeout(getStreamIdleTimeout());
+                flowControl.onStreamCreated(stream);
+                if (LOG.isDebugEnabled())
+                    LOG.debug("Created remote {}", stream);
+                return stream;
+            }
+            case REFUSED:
+            {
+                reset(new ResetFrame(streamId, ErrorCode.REFUSED_STREAM_ERROR.code), Callback.NOOP);
+                return null;
+            }
+            default:
+            {
+                // SPEC: duplicate stream is treated as connection error.
+                close(ErrorCode.PROTOCOL_ERROR.code, "duplicate_stream", Callback.NOOP);
+                return null;
+            }
         }
     }
 
@@ -750,30 +747,21 @@ public abstract class HTTP2Session extends ContainerLifeCycle implements ISessio
     @Override
     public void removeStream(IStream stream)
     {
-        IStream removed = streams.remove(stream.getId());
-        if (removed != null)
+        if (streams.remove(stream))
         {
-            boolean local = stream.isLocal();
-            if (local)
-                localStreamCount.decrementAndGet();
-            else
-                remoteStreamCount.decrementAndGet();
-
             onStreamClosed(stream);
 
             flowControl.onStreamDestroyed(stream);
 
             if (LOG.isDebugEnabled())
-                LOG.debug("Removed {} {}", local ? "local" : "remote", stream);
+                LOG.debug("Removed {} {}", stream.isLocal() ? "local" : "remote", stream);
         }
     }
 
     @Override
     public Collection<Stream> getStreams()
     {
-        List<Stream> result = new ArrayList<>();
-        result.addAll(streams.values());
-        return result;
+        return new ArrayList<>(streams.values());
     }
 
     @ManagedAttribute("The number of active streams")
@@ -1002,11 +990,6 @@ public abstract class HTTP2Session extends ContainerLifeCycle implements ISessio
         return !endPoint.isOpen();
     }
 
-    private void updateLastStreamId(int streamId)
-    {
-        Atomics.updateMax(lastStreamId, streamId);
-    }
-
     protected Stream.Listener notifyNewStream(Stream stream, HeadersFrame frame)
     {
         try
@@ -0,0 +1,292 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2017 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.http2;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * <p>A concurrent table of the active streams of a session, keyed by primitive stream id.</p>
+ * <p>Lookups, performed for every frame that is dispatched to a stream, are lock-free and
+ * do not allocate; modifications are serialized and keep the local and remote stream counts
+ * and the last remote stream id in the same critical section, so that the max concurrent
+ * streams checks and the stream insertion happen atomically.</p>
+ * <p>Odd (client initiated) and even (server initiated) stream ids are kept in two separate
+ * open addressing tables indexed by {@code streamId >>> 1}: since stream ids grow by 2, the
+ * active streams of a table occupy mostly consecutive slots and lookups rarely need to probe.</p>
+ */
+class StreamMap
+{
+    /**
+     * The possible outcomes of {@link #add(IStream, int)}.
+     */
+    enum Result
+    {
+        ADDED, REFUSED, DUPLICATE
+    }
+
+    private final Table odd = new Table();
+    private final Table even = new Table();
+    private volatile int localCount;
+    private volatile int remoteCount;
+    private volatile int lastRemoteStreamId;
+
+    /**
+     * @param streamId the stream id
+     * @return the stream with the given id, or null if no such stream is active
+     */
+    IStream get(int streamId)
+    {
+        return table(streamId).get(streamId);
+    }
+
+    /**
+     * <p>Adds the given stream, unless the number of local or remote streams
+     * (depending on the stream being local or remote) is already {@code maxCount}.</p>
+     *
+     * @param stream the stream to add
+     * @param maxCount the max number of local or remote streams, or a negative number for no limit
+     * @return the outcome of the addition
+     */
+    synchronized Result add(IStream stream, int maxCount)
+    {
+        boolean local = stream.isLocal();
+        int count = local ? localCount : remoteCount;
+        if (maxCount >= 0 && count >= maxCount)
+            return Result.REFUSED;
+        int streamId = stream.getId();
+        if (!table(streamId).add(stream))
+            return Result.DUPLICATE;
+        if (local)
+        {
+            localCount = count + 1;
+        }
+        else
+        {
+            remoteCount = count + 1;
+            if (streamId > lastRemoteStreamId)
+                lastRemoteStreamId = streamId;
+        }
+        return Result.ADDED;
+    }
+
+    /**
+     * @param stream the stream to remove
+     * @return whether the stream was removed
+     */
+    synchronized boolean remove(IStream stream)
+    {
+        if (!table(stream.getId()).remove(stream))
+            return false;
+        if (stream.isLocal())
+            --localCount;
+        else
+            --remoteCount;
+        return true;
+    }
+
+    synchronized void clear()
+    {
+        odd.clear();
+        even.clear();
+        localCount = 0;
+        remoteCount = 0;
+    }
+
+    /**
+     * @return a snapshot of the active streams
+     */
+    List<IStream> values()
+    {
+        List<IStream> result = new ArrayList<>(size());
+        odd.collect(result);
+        even.collect(result);
+        return result;
+    }
+
+    int size()
+    {
+        return localCount + remoteCount;
+    }
+
+    int getLocalCount()
+    {
+        return localCount;
+    }
+
+    int getRemoteCount()
+    {
+        return remoteCount;
+    }
+
+    /**
+     * @return the highest id of the remote streams that have been added
+     */
+    int getLastRemoteStreamId()
+    {
+        return lastRemoteStreamId;
+    }
+
+    private Table table(int streamId)
+    {
+        return (streamId & 1) == 1 ? odd : even;
+    }
+
+    /**
+     * <p>Open addressing, linear probing table of streams.</p>
+     * <p>Removed streams leave a tombstone so that lock-free readers never miss
+     * a stream because of a concurrent removal; tombstones are purged when the
+     * table is rehashed. Rehashing publishes a new array, so readers that still
+     * see the old array see the streams as they were before the rehash.</p>
+     */
+    private static class Table
+    {
+        private static final int MIN_CAPACITY = 16;
+        private static final Object TOMBSTONE = new Object();
+
+        private volatile AtomicReferenceArray<Object> slots = new AtomicReferenceArray<>(MIN_CAPACITY);
+        // Guarded by the StreamMap lock.
+        private int size;
+        private int used;
+
+        private IStream get(int streamId)
+        {
+            AtomicReferenceArray<Object> slots = this.slots;
+            int mask = slots.length() - 1;
+            int index = (streamId >>> 1) & mask;
+            for (int i = 0; i <= mask; ++i)
+            {
+                Object slot = slots.get(index);
+                if (slot == null)
+                    return null;
+                if (slot != TOMBSTONE)
+                {
+                    IStream stream = (IStream)slot;
+                    if (stream.getId() == streamId)
+                        return stream;
+                }
+                index = (index + 1) & mask;
+            }
+            return null;
+        }
+
+        private boolean add(IStream stream)
+        {
+            // Keep the load, tombstones included, below 3/4.
+            if ((used + 1) * 4 > slots.length() * 3)
+                rehash(size + 1);
+
+            AtomicReferenceArray<Object> slots = this.slots;
+            int mask = slots.length() - 1;
+            int streamId = stream.getId();
+            int index = (streamId >>> 1) & mask;
+            int free = -1;
+            while (true)
+            {
+                Object slot = slots.get(index);
+                if (slot == null)
+                    break;
+                if (slot == TOMBSTONE)
+                {
+                    if (free < 0)
+                        free = index;
+                }
+                else if (((IStream)slot).getId() == streamId)
+                {
+                    return false;
+                }
+                index = (index + 1) & mask;
+            }
+
+            if (free < 0)
+            {
+                free = index;
+                ++used;
+            }
+            slots.set(free, stream);
+            ++size;
+            return true;
+        }
+
+        private boolean remove(IStream stream)
+        {
+            AtomicReferenceArray<Object> slots = this.slots;
+            int mask = slots.length() - 1;
+            int index = (stream.getId() >>> 1) & mask;
+            for (int i = 0; i <= mask; ++i)
+            {
+                Object slot = slots.get(index);
+                if (slot == null)
+                    return false;
+                if (slot == stream)
+                {
+                    slots.set(index, TOMBSTONE);
+                    --size;
+                    return true;
+                }
+                index = (index + 1) & mask;
+            }
+            return false;
+        }
+
+        private void rehash(int count)
+        {
+            // Size the new table for a load of at most 1/4,
+            // which also shrinks the table after a burst of streams.
+            int capacity = MIN_CAPACITY;
+            while (capacity < count * 4)
+                capacity <<= 1;
+
+            AtomicReferenceArray<Object> oldSlots = this.slots;
+            AtomicReferenceArray<Object> newSlots = new AtomicReferenceArray<>(capacity);
+            int mask = capacity - 1;
+            for (int i = 0; i < oldSlots.length(); ++i)
+            {
+                Object slot = oldSlots.get(i);
+                if (slot == null || slot == TOMBSTONE)
+                    continue;
+                int index = (((IStream)slot).getId() >>> 1) & mask;
+                while (newSlots.get(index) != null)
+                    index = (index + 1) & mask;
+                newSlots.set(index, slot);
+            }
+            this.used = size;
+            this.slots = newSlots;
+        }
+
+        private void clear()
+        {
+            slots = new AtomicReferenceArray<>(MIN_CAPACITY);
+            size = 0;
+            used = 0;
+        }
+
+        private void collect(List<IStream> result)
+        {
+            AtomicReferenceArray<Object> slots = this.slots;
+            for (int i = 0; i < slots.length(); ++i)
+            {
+                Object slot = slots.get(i);
+                if (slot != null && slot != TOMBSTONE)
+                    result.add((IStream)slot);
+            }
+        }
+    }
+}
@@ -19,6 +19,7 @@
 package org.eclipse.jetty.http2.parser;
 
 import java.nio.ByteBuffer;
+import java.util.Locale;
 
 import org.eclipse.jetty.http2.ErrorCode;
 import org.eclipse.jetty.http2.Flags;
@@ -50,6 +51,7 @@ public class Parser
     private final Listener listener;
     private final HeaderParser headerParser;
     private final BodyParser[] bodyParsers;
+    private RateControl rateControl = RateControl.NO_RATE_CONTROL;
     private boolean continuation;
     private State state = State.HEADER;
 
@@ -74,6 +76,16 @@ public class Parser
         bodyParsers[FrameType.CONTINUATION.getType()] = new ContinuationBodyParser(headerParser, listener, headerBlockParser, headerBlockFragments);
     }
 
+    public RateControl getRateControl()
+    {
+        return rateControl;
+    }
+
+    public void setRateControl(RateControl rateControl)
+    {
+        this.rateControl = rateControl == null ? RateControl.NO_RATE_CONTROL : rateControl;
+    }
+
     private void reset()
     {
         headerParser.reset();
@@ -136,6 +148,13 @@ public class Parser
         if (LOG.isDebugEnabled())
             LOG.debug("Parsed {} frame header from {}", frameType, buffer);
 
+        if (frameType != null && !rateControl.onFrame(frameType))
+        {
+            BufferUtil.clear(buffer);
+            notifyConnectionFailure(ErrorCode.ENHANCE_YOUR_CALM_ERROR.code, "excessive_" + frameType.name().toLowerCase(Locale.ENGLISH) + "_frame_rate");
+            return false;
+        }
+
         if (continuation)
         {
             if (frameType != FrameType.CONTINUATION)
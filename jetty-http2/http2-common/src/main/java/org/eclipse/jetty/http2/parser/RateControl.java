@@ -0,0 +1,41 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2017 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.http2.parser;
+
+import org.eclipse.jetty.http2.frames.FrameType;
+
+/**
+ * <p>Controls the rate of frames received by a {@link Parser}.</p>
+ * <p>Implementations are invoked by the parser thread for every frame header,
+ * before the frame body is parsed and notified, so they must be cheap and must not block.</p>
+ */
+public interface RateControl
+{
+    /**
+     * <p>A {@link RateControl} that accepts all frames.</p>
+     */
+    public static final RateControl NO_RATE_CONTROL = frameType -> true;
+
+    /**
+     * @param frameType the type of the frame just received
+     * @return true if the frame is within the allowed rate, false if the
+     * connection should be failed with {@code ENHANCE_YOUR_CALM_ERROR}
+     */
+    public boolean onFrame(FrameType frameType);
+}
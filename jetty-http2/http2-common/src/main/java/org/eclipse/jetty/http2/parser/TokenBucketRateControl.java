@@ -0,0 +1,224 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2017 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.http2.parser;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.jetty.http2.frames.FrameType;
+import org.eclipse.jetty.util.annotation.ManagedAttribute;
+import org.eclipse.jetty.util.annotation.ManagedObject;
+import org.eclipse.jetty.util.annotation.ManagedOperation;
+
+/**
+ * <p>Limits, per session, the rate of the control frames that are cheap to send
+ * but may be expensive to process, such as {@code RST_STREAM}, {@code PING},
+ * {@code SETTINGS} and {@code CONTINUATION} frames.</p>
+ * <p>Each session gets its own {@link RateControl} from {@link #newRateControl()},
+ * with one token bucket per frame type; the bucket of a frame type is refilled at
+ * the configured rate (frames per second) and holds at most one second worth of
+ * frames, so short bursts are tolerated.</p>
+ * <p>The per-session buckets are only accessed by the parser, that is by one thread
+ * at a time, so they are evaluated without locks or atomic operations; the limits
+ * and the counters of rejected frames are shared by all the sessions.</p>
+ */
+@ManagedObject("Rate control of HTTP/2 frames")
+public class TokenBucketRateControl
+{
+    private static final long PERIOD = TimeUnit.SECONDS.toNanos(1);
+    private static final int TYPES = FrameType.values().length;
+
+    private final AtomicLong[] rejected = new AtomicLong[TYPES];
+    private volatile int[] rates = new int[TYPES];
+
+    public TokenBucketRateControl()
+    {
+        for (int i = 0; i < TYPES; ++i)
+            rejected[i] = new AtomicLong();
+        setRate(FrameType.RST_STREAM, 500);
+        setRate(FrameType.PING, 100);
+        setRate(FrameType.SETTINGS, 100);
+        setRate(FrameType.CONTINUATION, 1000);
+    }
+
+    /**
+     * @param frameType the frame type
+     * @return the max number of frames of the given type per second per session,
+     * or a non-positive number if the frame type is not rate controlled
+     */
+    public int getRate(FrameType frameType)
+    {
+        return rates[frameType.getType()];
+    }
+
+    /**
+     * @param frameType the frame type
+     * @param rate the max number of frames of the given type per second per session,
+     * or a non-positive number to disable the rate control of the frame type
+     */
+    public void setRate(FrameType frameType, int rate)
+    {
+        synchronized (this)
+        {
+            int[] copy = rates.clone();
+            copy[frameType.getType()] = rate;
+            rates = copy;
+        }
+    }
+
+    @ManagedAttribute("The max number of RST_STREAM frames per second per session")
+    public int getResetRate()
+    {
+        return getRate(FrameType.RST_STREAM);
+    }
+
+    public void setResetRate(int rate)
+    {
+        setRate(FrameType.RST_STREAM, rate);
+    }
+
+    @ManagedAttribute("The max number of PING frames per second per session")
+    public int getPingRate()
+    {
+        return getRate(FrameType.PING);
+    }
+
+    public void setPingRate(int rate)
+    {
+        setRate(FrameType.PING, rate);
+    }
+
+    @ManagedAttribute("The max number of SETTINGS frames per second per session")
+    public int getSettingsRate()
+    {
+        return getRate(FrameType.SETTINGS);
+    }
+
+    public void setSettingsRate(int rate)
+    {
+        setRate(FrameType.SETTINGS, rate);
+    }
+
+    @ManagedAttribute("The max number of CONTINUATION frames per second per session")
+    public int getContinuationRate()
+    {
+        return getRate(FrameType.CONTINUATION);
+    }
+
+    public void setContinuationRate(int rate)
+    {
+        setRate(FrameType.CONTINUATION, rate);
+    }
+
+    /**
+     * @param frameType the frame type
+     * @return the number of frames of the given type that exceeded the rate
+     */
+    public long getRejectedCount(FrameType frameType)
+    {
+        return rejected[frameType.getType()].get();
+    }
+
+    @ManagedAttribute("The number of RST_STREAM frames that exceeded the rate")
+    public long getRejectedResetCount()
+    {
+        return getRejectedCount(FrameType.RST_STREAM);
+    }
+
+    @ManagedAttribute("The number of PING frames that exceeded the rate")
+    public long getRejectedPingCount()
+    {
+        return getRejectedCount(FrameType.PING);
+    }
+
+    @ManagedAttribute("The number of SETTINGS frames that exceeded the rate")
+    public long getRejectedSettingsCount()
+    {
+        return getRejectedCount(FrameType.SETTINGS);
+    }
+
+    @ManagedAttribute("The number of CONTINUATION frames that exceeded the rate")
+    public long getRejectedContinuationCount()
+    {
+        return getRejectedCount(FrameType.CONTINUATION);
+    }
+
+    @ManagedOperation(value = "Resets the statistics", impact = "ACTION")
+    public void reset()
+    {
+        for (AtomicLong counter : rejected)
+            counter.set(0);
+    }
+
+    /**
+     * @return a new {@link RateControl} for a session
+     */
+    public RateControl newRateControl()
+    {
+        return new Buckets();
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s@%x[rst=%d,ping=%d,settings=%d,continuation=%d]",
+                getClass().getSimpleName(),
+                hashCode(),
+                getResetRate(),
+                getPingRate(),
+                getSettingsRate(),
+                getContinuationRate());
+    }
+
+    private class Buckets implements RateControl
+    {
+        // For each frame type, the theoretical arrival time of the
+        // next frame: the bucket is empty when it is one period ahead.
+        private final long[] arrivals = new long[TYPES];
+
+        private Buckets()
+        {
+            long now = System.nanoTime();
+            for (int i = 0; i < TYPES; ++i)
+                arrivals[i] = now - PERIOD;
+        }
+
+        @Override
+        public boolean onFrame(FrameType frameType)
+        {
+            int type = frameType.getType();
+            int rate = rates[type];
+            if (rate <= 0)
+                return true;
+
+            long now = System.nanoTime();
+            long arrival = arrivals[type];
+            if (arrival - now < 0)
+                arrival = now;
+            arrival += PERIOD / rate;
+            if (arrival - now > PERIOD)
+            {
+                rejected[type].incrementAndGet();
+                return false;
+            }
+            arrivals[type] = arrival;
+            return true;
+        }
+    }
+}
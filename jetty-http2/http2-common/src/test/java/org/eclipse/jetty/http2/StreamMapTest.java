@@ -0,0 +1,97 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2017 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.http2;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class StreamMapTest
+{
+    @Test
+    public void testAddGetRemove() throws Exception
+    {
+        StreamMap streams = new StreamMap();
+        IStream local = new HTTP2Stream(null, null, 1, true);
+        IStream remote = new HTTP2Stream(null, null, 2, false);
+
+        Assert.assertEquals(StreamMap.Result.ADDED, streams.add(local, -1));
+        Assert.assertEquals(StreamMap.Result.ADDED, streams.add(remote, -1));
+        Assert.assertEquals(StreamMap.Result.DUPLICATE, streams.add(new HTTP2Stream(null, null, 1, true), -1));
+
+        Assert.assertSame(local, streams.get(1));
+        Assert.assertSame(remote, streams.get(2));
+        Assert.assertNull(streams.get(3));
+        Assert.assertEquals(1, streams.getLocalCount());
+        Assert.assertEquals(1, streams.getRemoteCount());
+        Assert.assertEquals(2, streams.getLastRemoteStreamId());
+
+        Assert.assertTrue(streams.remove(local));
+        Assert.assertFalse(streams.remove(local));
+        Assert.assertNull(streams.get(1));
+        Assert.assertEquals(0, streams.getLocalCount());
+        Assert.assertEquals(1, streams.size());
+    }
+
+    @Test
+    public void testMaxCount() throws Exception
+    {
+        StreamMap streams = new StreamMap();
+
+        Assert.assertEquals(StreamMap.Result.ADDED, streams.add(new HTTP2Stream(null, null, 1, false), 2));
+        Assert.assertEquals(StreamMap.Result.ADDED, streams.add(new HTTP2Stream(null, null, 3, false), 2));
+        Assert.assertEquals(StreamMap.Result.REFUSED, streams.add(new HTTP2Stream(null, null, 5, false), 2));
+        // Local streams are counted separately.
+        Assert.assertEquals(StreamMap.Result.ADDED, streams.add(new HTTP2Stream(null, null, 2, true), 2));
+
+        streams.remove(streams.get(1));
+        Assert.assertEquals(StreamMap.Result.ADDED, streams.add(new HTTP2Stream(null, null, 5, false), 2));
+        Assert.assertEquals(5, streams.getLastRemoteStreamId());
+    }
+
+    @Test
+    public void testManyStreamsWithChurn() throws Exception
+    {
+        StreamMap streams = new StreamMap();
+        List<IStream> active = new ArrayList<>();
+        int streamId = 1;
+        for (int i = 0; i < 10_000; ++i)
+        {
+            IStream stream = new HTTP2Stream(null, null, streamId, true);
+            streamId += 2;
+            Assert.assertEquals(StreamMap.Result.ADDED, streams.add(stream, -1));
+            active.add(stream);
+            // Keep a window of ~1000 concurrent streams, closing them out of order.
+            if (active.size() > 1000)
+                Assert.assertTrue(streams.remove(active.remove((i * 7) % active.size())));
+        }
+
+        Assert.assertEquals(active.size(), streams.size());
+        Assert.assertEquals(active.size(), streams.values().size());
+        for (IStream stream : active)
+            Assert.assertSame(stream, streams.get(stream.getId()));
+
+        for (IStream stream : active)
+            Assert.assertTrue(streams.remove(stream));
+        Assert.assertEquals(0, streams.size());
+        Assert.assertTrue(streams.values().isEmpty());
+    }
+}
@@ -0,0 +1,125 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2017 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.http2.frames;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.eclipse.jetty.http2.ErrorCode;
+import org.eclipse.jetty.http2.generator.HeaderGenerator;
+import org.eclipse.jetty.http2.generator.PingGenerator;
+import org.eclipse.jetty.http2.generator.ResetGenerator;
+import org.eclipse.jetty.http2.parser.Parser;
+import org.eclipse.jetty.http2.parser.TokenBucketRateControl;
+import org.eclipse.jetty.io.ByteBufferPool;
+import org.eclipse.jetty.io.MappedByteBufferPool;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class FrameRateControlTest
+{
+    private final ByteBufferPool byteBufferPool = new MappedByteBufferPool();
+
+    @Test
+    public void testExcessivePingRateFailsConnection() throws Exception
+    {
+        TokenBucketRateControl rateControl = new TokenBucketRateControl();
+        int rate = 10;
+        rateControl.setPingRate(rate);
+
+        AtomicInteger pings = new AtomicInteger();
+        AtomicReference<Integer> failure = new AtomicReference<>();
+        Parser parser = new Parser(byteBufferPool, new Parser.Listener.Adapter()
+        {
+            @Override
+            public void onPing(PingFrame frame)
+            {
+                pings.incrementAndGet();
+            }
+
+            @Override
+            public void onConnectionFailure(int error, String reason)
+            {
+                failure.set(error);
+            }
+        }, 4096, 8192);
+        parser.setRateControl(rateControl.newRateControl());
+
+        PingGenerator generator = new PingGenerator(new HeaderGenerator());
+        for (int i = 0; i < 2 * rate && failure.get() == null; ++i)
+        {
+            ByteBufferPool.Lease lease = new ByteBufferPool.Lease(byteBufferPool);
+            generator.generatePing(lease, new byte[8], false);
+            for (ByteBuffer buffer : lease.getByteBuffers())
+            {
+                while (buffer.hasRemaining())
+                    parser.parse(buffer);
+            }
+        }
+
+        // The burst allows one second worth of frames.
+        Assert.assertEquals(rate, pings.get());
+        Assert.assertEquals(ErrorCode.ENHANCE_YOUR_CALM_ERROR.code, (int)failure.get());
+        Assert.assertEquals(1, rateControl.getRejectedPingCount());
+    }
+
+    @Test
+    public void testFrameTypesAreRateControlledIndependently() throws Exception
+    {
+        TokenBucketRateControl rateControl = new TokenBucketRateControl();
+        rateControl.setPingRate(1);
+        rateControl.setResetRate(0);
+
+        AtomicInteger resets = new AtomicInteger();
+        AtomicReference<Integer> failure = new AtomicReference<>();
+        Parser parser = new Parser(byteBufferPool, new Parser.Listener.Adapter()
+        {
+            @Override
+            public void onReset(ResetFrame frame)
+            {
+                resets.incrementAndGet();
+            }
+
+            @Override
+            public void onConnectionFailure(int error, String reason)
+            {
+                failure.set(error);
+            }
+        }, 4096, 8192);
+        parser.setRateControl(rateControl.newRateControl());
+
+        ResetGenerator generator = new ResetGenerator(new HeaderGenerator());
+        int count = 1000;
+        for (int i = 0; i < count; ++i)
+        {
+            ByteBufferPool.Lease lease = new ByteBufferPool.Lease(byteBufferPool);
+            generator.generateReset(lease, 2 * i + 1, ErrorCode.CANCEL_STREAM_ERROR.code);
+            for (ByteBuffer buffer : lease.getByteBuffers())
+            {
+                while (buffer.hasRemaining())
+                    parser.parse(buffer);
+            }
+        }
+
+        Assert.assertEquals(count, resets.get());
+        Assert.assertNull(failure.get());
+        Assert.assertEquals(0, rateControl.getRejectedResetCount());
+    }
+}
@@ -20,11 +20,20 @@ package org.eclipse.jetty.http2.client.http;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.net.ssl.SSLPeerUnverifiedException;
 
 import org.eclipse.jetty.alpn.client.ALPNClientConnectionFactory;
 import org.eclipse.jetty.client.AbstractHttpClientTransport;
+import org.eclipse.jetty.client.ConnectionPool;
 import org.eclipse.jetty.client.HttpClient;
 import org.eclipse.jetty.client.HttpDestination;
 import org.eclipse.jetty.client.MultiplexConnectionPool;
@@ -40,26 +49,31 @@ import org.eclipse.jetty.http2.frames.GoAwayFrame;
 import org.eclipse.jetty.http2.frames.SettingsFrame;
 import org.eclipse.jetty.io.ClientConnectionFactory;
 import org.eclipse.jetty.io.EndPoint;
+import org.eclipse.jetty.io.ssl.SslConnection;
 import org.eclipse.jetty.util.Promise;
 import org.eclipse.jetty.util.annotation.ManagedAttribute;
 import org.eclipse.jetty.util.annotation.ManagedObject;
+import org.eclipse.jetty.util.log.Log;
+import org.eclipse.jetty.util.log.Logger;
 import org.eclipse.jetty.util.ssl.SslContextFactory;
+import org.eclipse.jetty.util.ssl.X509;
 
 @ManagedObject("The HTTP/2 client transport")
 public class HttpClientTransportOverHTTP2 extends AbstractHttpClientTransport
 {
+    private static final Logger LOG = Log.getLogger(HttpClientTransportOverHTTP2.class);
+
+    private final ConcurrentMap<InetSocketAddress, List<SessionListenerPromise>> coalescable = new ConcurrentHashMap<>();
     private final HTTP2Client client;
     private ClientConnectionFactory connectionFactory;
     private boolean useALPN = true;
+    private boolean connectionCoalescing;
 
     public HttpClientTransportOverHTTP2(HTTP2Client client)
     {
         this.client = client;
-        setConnectionPoolFactory(destination ->
-        {
-            HttpClient httpClient = getHttpClient();
-            return new MultiplexConnectionPool(destination, httpClient.getMaxConnectionsPerDestination(), destination, httpClient.getMaxRequestsQueuedPerDestination());
-        });
+        setConnectionPoolFactory((ConnectionPool.MaxConnectionsFactory)(destination, maxConnections) ->
+                new MultiplexConnectionPool(destination, maxConnections, destination, getHttpClient().getMaxRequestsQueuedPerDestination()));
     }
 
     @ManagedAttribute(value = "The number of selectors", readonly = true)
@@ -78,6 +92,36 @@ public class HttpClientTransportOverHTTP2 extends AbstractHttpClientTransport
         this.useALPN = useALPN;
     }
 
+    /**
+     * @return whether HTTPS connections are reused for different origins, as specified by RFC 7540, section 9.1.1
+     * @see #setConnectionCoalescing(boolean)
+     */
+    @ManagedAttribute("Whether connections are coalesced across origins")
+    public boolean isConnectionCoalescing()
+    {
+        return connectionCoalescing;
+    }
+
+    /**
+     * <p>Sets whether connections are coalesced across origins.</p>
+     * <p>When enabled, a new connection for an HTTPS origin is not opened if
+     * there already is a connection to the same IP address and port, and
+     * the certificate presented by the server on that connection is valid
+     * for the origin host; the existing connection is shared instead.</p>
+     *
+     * @param connectionCoalescing whether connections are coalesced across origins
+     */
+    public void setConnectionCoalescing(boolean connectionCoalescing)
+    {
+        this.connectionCoalescing = connectionCoalescing;
+    }
+
+    @ManagedAttribute(value = "The number of connections that can be coalesced", readonly = true)
+    public int getCoalescableConnections()
+    {
+        return coalescable.values().stream().mapToInt(List::size).sum();
+    }
+
     @Override
     protected void doStart() throws Exception
     {
@@ -120,9 +164,13 @@ public class HttpClientTransportOverHTTP2 extends AbstractHttpClientTransport
     {
         client.setConnectTimeout(getHttpClient().getConnectTimeout());
 
-        SessionListenerPromise listenerPromise = new SessionListenerPromise(context);
-
         HttpDestinationOverHTTP2 destination = (HttpDestinationOverHTTP2)context.get(HTTP_DESTINATION_CONTEXT_KEY);
+        boolean coalesce = isConnectionCoalescing() && HttpScheme.HTTPS.is(destination.getScheme()) && destination.getProxy() == null;
+        if (coalesce && coalesce(address, destination, context))
+            return;
+
+        SessionListenerPromise listenerPromise = new SessionListenerPromise(context, coalesce ? address : null);
+
         SslContextFactory sslContextFactory = null;
         if (HttpScheme.HTTPS.is(destination.getScheme()))
             sslContextFactory = getHttpClient().getSslContextFactory();
@@ -130,6 +178,37 @@ public class HttpClientTransportOverHTTP2 extends AbstractHttpClientTransport
         client.connect(sslContextFactory, address, listenerPromise, listenerPromise, context);
     }
 
+    private boolean coalesce(InetSocketAddress address, HttpDestination destination, Map<String, Object> context)
+    {
+        List<SessionListenerPromise> candidates = coalescable.get(address);
+        if (candidates == null)
+            return false;
+
+        String host = destination.getHost();
+        for (SessionListenerPromise candidate : candidates)
+        {
+            HttpConnectionOverHTTP2 connection = candidate.openConnection();
+            if (connection == null)
+            {
+                // The session is closed, or about to.
+                candidate.uncoalesce();
+                continue;
+            }
+            if (!candidate.x509.matches(host))
+                continue;
+
+            HttpConnectionOverHTTP2 coalesced = newHttpConnection(destination, connection);
+            candidate.connections.add(coalesced);
+            if (LOG.isDebugEnabled())
+                LOG.debug("Coalesced {} for {} on {}", coalesced, destination, address);
+            @SuppressWarnings("unchecked")
+            Promise<Connection> promise = (Promise<Connection>)context.get(HTTP_CONNECTION_PROMISE_CONTEXT_KEY);
+            promise.succeeded(coalesced);
+            return true;
+        }
+        return false;
+    }
+
     @Override
     public org.eclipse.jetty.io.Connection newConnection(EndPoint endPoint, Map<String, Object> context) throws IOException
     {
@@ -149,6 +228,17 @@ public class HttpClientTransportOverHTTP2 extends AbstractHttpClientTransport
         return new HttpConnectionOverHTTP2(destination, session);
     }
 
+    /**
+     * @param destination the destination of the new connection
+     * @param coalesced   the connection whose session is shared by the new connection
+     * @return a new connection for the given destination that shares the session of the given connection
+     * @see #setConnectionCoalescing(boolean)
+     */
+    protected HttpConnectionOverHTTP2 newHttpConnection(HttpDestination destination, HttpConnectionOverHTTP2 coalesced)
+    {
+        return new HttpConnectionOverHTTP2(destination, coalesced);
+    }
+
     protected void onClose(HttpConnectionOverHTTP2 connection, GoAwayFrame frame)
     {
         connection.close();
@@ -156,21 +246,80 @@ public class HttpClientTransportOverHTTP2 extends AbstractHttpClientTransport
 
     private class SessionListenerPromise extends Session.Listener.Adapter implements Promise<Session>
     {
+        private final List<HttpConnectionOverHTTP2> connections = new CopyOnWriteArrayList<>();
         private final Map<String, Object> context;
+        private final InetSocketAddress address;
         private HttpConnectionOverHTTP2 connection;
+        private X509 x509;
 
-        private SessionListenerPromise(Map<String, Object> context)
+        private SessionListenerPromise(Map<String, Object> context, InetSocketAddress address)
         {
             this.context = context;
+            this.address = address;
         }
 
         @Override
         public void succeeded(Session session)
         {
             connection = newHttpConnection(destination(), session);
+            connections.add(connection);
+            if (address != null)
+            {
+                x509 = peerCertificate(session);
+                if (x509 != null)
+                    coalescable.computeIfAbsent(address, k -> new CopyOnWriteArrayList<>()).add(this);
+            }
             promise().succeeded(connection);
         }
 
+        private X509 peerCertificate(Session session)
+        {
+            try
+            {
+                EndPoint endPoint = ((HTTP2Session)session).getEndPoint();
+                if (endPoint instanceof SslConnection.DecryptedEndPoint)
+                {
+                    SslConnection sslConnection = ((SslConnection.DecryptedEndPoint)endPoint).getSslConnection();
+                    Certificate[] certificates = sslConnection.getSSLEngine().getSession().getPeerCertificates();
+                    if (certificates.length > 0 && certificates[0] instanceof X509Certificate)
+                        return new X509(null, (X509Certificate)certificates[0]);
+                }
+            }
+            catch (SSLPeerUnverifiedException x)
+            {
+                if (LOG.isDebugEnabled())
+                    LOG.debug("Unverified peer, not coalescing " + session, x);
+            }
+            catch (Throwable x)
+            {
+                LOG.ignore(x);
+            }
+            return null;
+        }
+
+        private HttpConnectionOverHTTP2 openConnection()
+        {
+            connections.removeIf(HttpConnectionOverHTTP2::isClosed);
+            for (HttpConnectionOverHTTP2 c : connections)
+            {
+                if (!c.getSession().isClosed())
+                    return c;
+            }
+            return null;
+        }
+
+        private void uncoalesce()
+        {
+            if (address != null)
+            {
+                coalescable.computeIfPresent(address, (k, v) ->
+                {
+                    v.remove(this);
+                    return v.isEmpty() ? null : v;
+                });
+            }
+        }
+
         @Override
         public void failed(Throwable failure)
         {
@@ -207,20 +356,26 @@ public class HttpClientTransportOverHTTP2 extends AbstractHttpClientTransport
         @Override
         public void onClose(Session session, GoAwayFrame frame)
         {
-            HttpClientTransportOverHTTP2.this.onClose(connection, frame);
+            uncoalesce();
+            for (HttpConnectionOverHTTP2 c : connections)
+                HttpClientTransportOverHTTP2.this.onClose(c, frame);
         }
 
         @Override
         public boolean onIdleTimeout(Session session)
         {
-            return connection.onIdleTimeout(((HTTP2Session)session).getEndPoint().getIdleTimeout());
+            long idleTimeout = ((HTTP2Session)session).getEndPoint().getIdleTimeout();
+            boolean close = true;
+            for (HttpConnectionOverHTTP2 c : connections)
+                close &= c.onIdleTimeout(idleTimeout);
+            return close;
         }
 
         @Override
         public void onFailure(Session session, Throwable failure)
         {
-            HttpConnectionOverHTTP2 c = connection;
-            if (c != null)
+            uncoalesce();
+            for (HttpConnectionOverHTTP2 c : connections)
                 c.close(failure);
         }
     }
@@ -19,12 +19,18 @@
 package org.eclipse.jetty.http2.client.http;
 
 import java.nio.channels.AsynchronousCloseException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
+import org.eclipse.jetty.client.ConnectionPool;
 import org.eclipse.jetty.client.HttpChannel;
 import org.eclipse.jetty.client.HttpConnection;
 import org.eclipse.jetty.client.HttpDestination;
@@ -32,21 +38,43 @@ import org.eclipse.jetty.client.HttpExchange;
 import org.eclipse.jetty.client.SendFailure;
 import org.eclipse.jetty.http.HttpVersion;
 import org.eclipse.jetty.http2.ErrorCode;
+import org.eclipse.jetty.http2.HTTP2Session;
 import org.eclipse.jetty.http2.api.Session;
 import org.eclipse.jetty.util.Callback;
 import org.eclipse.jetty.util.thread.Sweeper;
 
-public class HttpConnectionOverHTTP2 extends HttpConnection implements Sweeper.Sweepable
+public class HttpConnectionOverHTTP2 extends HttpConnection implements ConnectionPool.Multiplexable, Sweeper.Sweepable
 {
     private final Set<HttpChannel> channels = ConcurrentHashMap.newKeySet();
     private final AtomicBoolean closed = new AtomicBoolean();
     private final AtomicInteger sweeps = new AtomicInteger();
     private final Session session;
+    private final StreamBudget budget;
 
     public HttpConnectionOverHTTP2(HttpDestination destination, Session session)
     {
         super(destination);
         this.session = session;
+        this.budget = new StreamBudget(session);
+    }
+
+    /**
+     * <p>Creates a connection for the given destination that shares the
+     * session of the given connection, as allowed by connection coalescing.</p>
+     * <p>The session is closed only when all the connections sharing it are closed.</p>
+     * <p>The connections sharing the session also share its max number of concurrent
+     * streams: requests sent when all the streams are in use wait for a stream to be
+     * released, possibly by a connection of another destination.</p>
+     *
+     * @param destination the destination of the new connection
+     * @param coalesced the connection whose session is shared
+     */
+    protected HttpConnectionOverHTTP2(HttpDestination destination, HttpConnectionOverHTTP2 coalesced)
+    {
+        super(destination);
+        this.session = coalesced.session;
+        this.budget = coalesced.budget;
+        budget.users.incrementAndGet();
     }
 
     public Session getSession()
@@ -54,12 +82,30 @@ public class HttpConnectionOverHTTP2 extends HttpConnection implements Sweeper.S
         return session;
     }
 
+    @Override
+    public int getMaxMultiplex()
+    {
+        if (session instanceof HTTP2Session)
+            return ((HTTP2Session)session).getMaxLocalStreams();
+        return -1;
+    }
+
     @Override
     protected SendFailure send(HttpExchange exchange)
     {
         exchange.getRequest().version(HttpVersion.HTTP_2);
         normalizeRequest(exchange.getRequest());
 
+        // The streams may be in use by the connections of other destinations
+        // sharing the same session; if so, the exchange is sent later.
+        if (!budget.acquire(this, exchange))
+            return null;
+
+        return sendOnNewChannel(exchange);
+    }
+
+    private SendFailure sendOnNewChannel(HttpExchange exchange)
+    {
         // One connection maps to N channels, so for each exchange we create a new channel.
         HttpChannel channel = newHttpChannel(false);
         channels.add(channel);
@@ -67,6 +113,13 @@ public class HttpConnectionOverHTTP2 extends HttpConnection implements Sweeper.S
         return send(channel, exchange);
     }
 
+    private void resume(HttpExchange exchange)
+    {
+        SendFailure result = sendOnNewChannel(exchange);
+        if (result != null)
+            exchange.getRequest().abort(result.failure);
+    }
+
     protected HttpChannelOverHTTP2 newHttpChannel(boolean push)
     {
         return new HttpChannelOverHTTP2(getHttpDestination(), this, getSession(), push);
@@ -75,6 +128,7 @@ public class HttpConnectionOverHTTP2 extends HttpConnection implements Sweeper.S
     protected void release(HttpChannel channel)
     {
         channels.remove(channel);
+        budget.release();
         getHttpDestination().release(this);
     }
 
@@ -100,8 +154,11 @@ public class HttpConnectionOverHTTP2 extends HttpConnection implements Sweeper.S
             getHttpDestination().close(this);
 
             abort(failure);
+            for (HttpExchange exchange : budget.remove(this))
+                exchange.getRequest().abort(failure);
 
-            session.close(ErrorCode.NO_ERROR.code, failure.getMessage(), Callback.NOOP);
+            if (budget.users.decrementAndGet() == 0)
+                session.close(ErrorCode.NO_ERROR.code, failure.getMessage(), Callback.NOOP);
         }
     }
 
@@ -141,4 +198,88 @@ public class HttpConnectionOverHTTP2 extends HttpConnection implements Sweeper.S
                 isClosed(),
                 session);
     }
+
+    /**
+     * <p>The streams of a session, shared by the connections of all the destinations coalesced on the session.</p>
+     */
+    private static class StreamBudget
+    {
+        private final AtomicInteger users = new AtomicInteger(1);
+        private final Queue<Waiter> waiters = new ArrayDeque<>();
+        private final Session session;
+        private int streams;
+
+        private StreamBudget(Session session)
+        {
+            this.session = session;
+        }
+
+        private int getMaxStreams()
+        {
+            if (session instanceof HTTP2Session)
+                return ((HTTP2Session)session).getMaxLocalStreams();
+            return -1;
+        }
+
+        private boolean acquire(HttpConnectionOverHTTP2 connection, HttpExchange exchange)
+        {
+            synchronized (this)
+            {
+                int maxStreams = getMaxStreams();
+                if (maxStreams < 0 || streams < maxStreams)
+                {
+                    ++streams;
+                    return true;
+                }
+                waiters.offer(new Waiter(connection, exchange));
+                return false;
+            }
+        }
+
+        private void release()
+        {
+            Waiter waiter;
+            synchronized (this)
+            {
+                // The stream is handed over to the first waiter, if any.
+                waiter = waiters.poll();
+                if (waiter == null)
+                {
+                    --streams;
+                    return;
+                }
+            }
+            waiter.connection.resume(waiter.exchange);
+        }
+
+        private List<HttpExchange> remove(HttpConnectionOverHTTP2 connection)
+        {
+            List<HttpExchange> result = new ArrayList<>();
+            synchronized (this)
+            {
+                for (Iterator<Waiter> iterator = waiters.iterator(); iterator.hasNext();)
+                {
+                    Waiter waiter = iterator.next();
+                    if (waiter.connection == connection)
+                    {
+                        iterator.remove();
+                        result.add(waiter.exchange);
+                    }
+                }
+            }
+            return result;
+        }
+    }
+
+    private static class Waiter
+    {
+        private final HttpConnectionOverHTTP2 connection;
+        private final HttpExchange exchange;
+
+        private Waiter(HttpConnectionOverHTTP2 connection, HttpExchange exchange)
+        {
+            this.connection = connection;
+            this.exchange = exchange;
+        }
+    }
 }
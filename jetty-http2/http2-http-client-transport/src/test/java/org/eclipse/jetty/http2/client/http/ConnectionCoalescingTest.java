@@ -0,0 +1,214 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2017 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.http2.client.http;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.client.api.ContentResponse;
+import org.eclipse.jetty.http.HttpScheme;
+import org.eclipse.jetty.http.HttpStatus;
+import org.eclipse.jetty.http2.HTTP2Cipher;
+import org.eclipse.jetty.http2.client.HTTP2Client;
+import org.eclipse.jetty.http2.server.HTTP2ServerConnectionFactory;
+import org.eclipse.jetty.server.ConnectionFactory;
+import org.eclipse.jetty.server.HttpConfiguration;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.SecureRequestCustomizer;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.server.SslConnectionFactory;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.eclipse.jetty.toolchain.test.TestTracker;
+import org.eclipse.jetty.util.ssl.SslContextFactory;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class ConnectionCoalescingTest
+{
+    @Rule
+    public TestTracker tracker = new TestTracker();
+    private Server server;
+    private ServerConnector connector;
+    private HttpClient client;
+    private final AtomicInteger concurrency = new AtomicInteger();
+    private final AtomicInteger maxConcurrency = new AtomicInteger();
+
+    private void start(boolean coalescing) throws Exception
+    {
+        start(coalescing, -1, 0);
+    }
+
+    private void start(boolean coalescing, int maxConcurrentStreams, long handleTime) throws Exception
+    {
+        QueuedThreadPool serverThreads = new QueuedThreadPool();
+        serverThreads.setName("server");
+        server = new Server(serverThreads);
+        HttpConfiguration httpsConfig = new HttpConfiguration();
+        httpsConfig.addCustomizer(new SecureRequestCustomizer());
+        HTTP2ServerConnectionFactory h2 = new HTTP2ServerConnectionFactory(httpsConfig);
+        if (maxConcurrentStreams > 0)
+            h2.setMaxConcurrentStreams(maxConcurrentStreams);
+        ConnectionFactory ssl = new SslConnectionFactory(newSslContextFactory(), h2.getProtocol());
+        connector = new ServerConnector(server, 1, 1, ssl, h2);
+        server.addConnector(connector);
+        server.setHandler(new AbstractHandler()
+        {
+            @Override
+            public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response) throws IOException, ServletException
+            {
+                baseRequest.setHandled(true);
+                int current = concurrency.incrementAndGet();
+                maxConcurrency.accumulateAndGet(current, Math::max);
+                try
+                {
+                    if (handleTime > 0)
+                        TimeUnit.MILLISECONDS.sleep(handleTime);
+                }
+                catch (InterruptedException x)
+                {
+                    throw new ServletException(x);
+                }
+                finally
+                {
+                    concurrency.decrementAndGet();
+                }
+            }
+        });
+        server.start();
+
+        QueuedThreadPool clientThreads = new QueuedThreadPool();
+        clientThreads.setName("client");
+        HttpClientTransportOverHTTP2 transport = new HttpClientTransportOverHTTP2(new HTTP2Client());
+        transport.setUseALPN(false);
+        transport.setConnectionCoalescing(coalescing);
+        client = new HttpClient(transport, newSslContextFactory());
+        client.setExecutor(clientThreads);
+        // All hosts resolve to the same address.
+        client.setSocketAddressResolver((host, port, promise) ->
+                promise.succeeded(Collections.singletonList(new InetSocketAddress("localhost", port))));
+        client.start();
+    }
+
+    @After
+    public void dispose() throws Exception
+    {
+        if (client != null)
+            client.stop();
+        if (server != null)
+            server.stop();
+    }
+
+    private SslContextFactory newSslContextFactory()
+    {
+        SslContextFactory sslContextFactory = new SslContextFactory();
+        sslContextFactory.setKeyStorePath("src/test/resources/coalescing.jks");
+        sslContextFactory.setKeyStorePassword("storepwd");
+        sslContextFactory.setUseCipherSuitesOrder(true);
+        sslContextFactory.setCipherComparator(HTTP2Cipher.COMPARATOR);
+        sslContextFactory.setIncludeProtocols("TLSv1.2");
+        return sslContextFactory;
+    }
+
+    private ContentResponse send(String host) throws Exception
+    {
+        return client.newRequest(host, connector.getLocalPort())
+                .scheme(HttpScheme.HTTPS.asString())
+                .timeout(5, TimeUnit.SECONDS)
+                .send();
+    }
+
+    @Test
+    public void testConnectionCoalescedForHostsCoveredByCertificate() throws Exception
+    {
+        start(true);
+
+        Assert.assertEquals(HttpStatus.OK_200, send("a.coalescing.test").getStatus());
+        Assert.assertEquals(HttpStatus.OK_200, send("b.coalescing.test").getStatus());
+
+        Assert.assertEquals(2, client.getDestinations().size());
+        Assert.assertEquals(1, connector.getConnectedEndPoints().size());
+    }
+
+    @Test
+    public void testConnectionNotCoalescedForHostNotCoveredByCertificate() throws Exception
+    {
+        start(true);
+
+        Assert.assertEquals(HttpStatus.OK_200, send("a.coalescing.test").getStatus());
+        Assert.assertEquals(HttpStatus.OK_200, send("localhost").getStatus());
+
+        Assert.assertEquals(2, connector.getConnectedEndPoints().size());
+    }
+
+    @Test
+    public void testConnectionNotCoalescedByDefault() throws Exception
+    {
+        start(false);
+
+        Assert.assertEquals(HttpStatus.OK_200, send("a.coalescing.test").getStatus());
+        Assert.assertEquals(HttpStatus.OK_200, send("b.coalescing.test").getStatus());
+
+        Assert.assertEquals(2, connector.getConnectedEndPoints().size());
+    }
+
+    @Test
+    public void testCoalescedConnectionsShareMaxConcurrentStreams() throws Exception
+    {
+        int maxConcurrentStreams = 2;
+        start(true, maxConcurrentStreams, 100);
+
+        // Establish the session and the coalesced connection.
+        Assert.assertEquals(HttpStatus.OK_200, send("a.coalescing.test").getStatus());
+        Assert.assertEquals(HttpStatus.OK_200, send("b.coalescing.test").getStatus());
+
+        int count = 4;
+        CountDownLatch latch = new CountDownLatch(2 * count);
+        for (int i = 0; i < count; ++i)
+        {
+            for (String host : new String[]{"a.coalescing.test", "b.coalescing.test"})
+            {
+                client.newRequest(host, connector.getLocalPort())
+                        .scheme(HttpScheme.HTTPS.asString())
+                        .timeout(5, TimeUnit.SECONDS)
+                        .send(result ->
+                        {
+                            if (result.isSucceeded() && result.getResponse().getStatus() == HttpStatus.OK_200)
+                                latch.countDown();
+                        });
+            }
+        }
+
+        Assert.assertTrue(latch.await(10, TimeUnit.SECONDS));
+        Assert.assertEquals(1, connector.getConnectedEndPoints().size());
+        Assert.assertTrue(maxConcurrency.get() <= maxConcurrentStreams);
+    }
+}
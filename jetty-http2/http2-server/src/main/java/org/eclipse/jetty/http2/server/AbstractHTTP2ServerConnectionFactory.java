@@ -26,6 +26,7 @@ import org.eclipse.jetty.http2.HTTP2Connection;
 import org.eclipse.jetty.http2.api.server.ServerSessionListener;
 import org.eclipse.jetty.http2.generator.Generator;
 import org.eclipse.jetty.http2.parser.ServerParser;
+import org.eclipse.jetty.http2.parser.TokenBucketRateControl;
 import org.eclipse.jetty.io.Connection;
 import org.eclipse.jetty.io.EndPoint;
 import org.eclipse.jetty.server.AbstractConnectionFactory;
@@ -50,6 +51,7 @@ public abstract class AbstractHTTP2ServerConnectionFactory extends AbstractConne
     private FlowControlStrategy.Factory flowControlStrategyFactory = () -> new BufferingFlowControlStrategy(0.5F);
     private long streamIdleTimeout;
     private int reservedThreads;
+    private TokenBucketRateControl rateControl = new TokenBucketRateControl();
 
     public AbstractHTTP2ServerConnectionFactory(@Name("config") HttpConfiguration httpConfiguration)
     {
@@ -64,6 +66,7 @@ public abstract class AbstractHTTP2ServerConnectionFactory extends AbstractConne
                 throw new IllegalArgumentException("Unsupported HTTP2 Protocol variant: "+p);
         this.httpConfiguration = Objects.requireNonNull(httpConfiguration);
         addBean(httpConfiguration);
+        addBean(rateControl);
     }
 
     @ManagedAttribute("The HPACK dynamic table maximum size")
@@ -159,6 +162,23 @@ public abstract class AbstractHTTP2ServerConnectionFactory extends AbstractConne
 //        this.reservedThreads = threads;
     }
 
+    /**
+     * @return the rate control of the frames received by sessions, or null if frames are not rate controlled
+     */
+    public TokenBucketRateControl getRateControl()
+    {
+        return rateControl;
+    }
+
+    /**
+     * @param rateControl the rate control of the frames received by sessions, or null to not rate control frames
+     */
+    public void setRateControl(TokenBucketRateControl rateControl)
+    {
+        updateBean(this.rateControl, rateControl);
+        this.rateControl = rateControl;
+    }
+
     public HttpConfiguration getHttpConfiguration()
     {
         return httpConfiguration;
@@ -187,6 +207,9 @@ public abstract class AbstractHTTP2ServerConnectionFactory extends AbstractConne
         ReservedThreadExecutor executor = provideReservedThreadExecutor(connector);
         
         ServerParser parser = newServerParser(connector, session);
+        TokenBucketRateControl rateControl = getRateControl();
+        if (rateControl != null)
+            parser.setRateControl(rateControl.newRateControl());
         HTTP2Connection connection = new HTTP2ServerConnection(connector.getByteBufferPool(), executor,
                         endPoint, httpConfiguration, parser, session, getInputBufferSize(), listener);
         connection.addListener(connectionListener);
@@ -0,0 +1,125 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2017 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.http2.server;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.eclipse.jetty.http.MetaData;
+import org.eclipse.jetty.http2.api.Stream;
+import org.eclipse.jetty.http2.api.server.ServerSessionListener;
+import org.eclipse.jetty.http2.frames.HeadersFrame;
+import org.eclipse.jetty.io.EndPoint;
+import org.eclipse.jetty.server.Connector;
+import org.eclipse.jetty.server.HttpConfiguration;
+import org.eclipse.jetty.util.annotation.ManagedAttribute;
+import org.eclipse.jetty.util.annotation.ManagedObject;
+import org.eclipse.jetty.util.annotation.Name;
+
+/**
+ * <p>A {@link HTTP2ServerConnectionFactory} that dispatches streams whose path
+ * matches a registered {@link MessageStreamHandler} directly to that handler,
+ * bypassing the servlet layer, while all other streams are handled as usual.</p>
+ * <p>Handlers are registered either for an exact path such as
+ * {@code /package.Service/Method}, or for all the methods of a service by
+ * registering the service path with a trailing slash, such as
+ * {@code /package.Service/}.</p>
+ */
+@ManagedObject
+public class MessageHTTP2ServerConnectionFactory extends HTTP2ServerConnectionFactory
+{
+    private final Map<String, MessageStreamHandler> handlers = new ConcurrentHashMap<>();
+    private int maxMessageSize = 4 * 1024 * 1024;
+
+    public MessageHTTP2ServerConnectionFactory(@Name("config") HttpConfiguration httpConfiguration)
+    {
+        super(httpConfiguration);
+    }
+
+    public MessageHTTP2ServerConnectionFactory(@Name("config") HttpConfiguration httpConfiguration, @Name("protocols") String... protocols)
+    {
+        super(httpConfiguration, protocols);
+    }
+
+    @ManagedAttribute("The max size in bytes of a received message")
+    public int getMaxMessageSize()
+    {
+        return maxMessageSize;
+    }
+
+    public void setMaxMessageSize(int maxMessageSize)
+    {
+        this.maxMessageSize = maxMessageSize;
+    }
+
+    public void addHandler(String path, MessageStreamHandler handler)
+    {
+        handlers.put(path, handler);
+    }
+
+    public MessageStreamHandler removeHandler(String path)
+    {
+        return handlers.remove(path);
+    }
+
+    protected MessageStreamHandler findHandler(String path)
+    {
+        if (path == null)
+            return null;
+        MessageStreamHandler handler = handlers.get(path);
+        if (handler != null)
+            return handler;
+        int slash = path.lastIndexOf('/');
+        if (slash > 0)
+            return handlers.get(path.substring(0, slash + 1));
+        return null;
+    }
+
+    @Override
+    protected ServerSessionListener newSessionListener(Connector connector, EndPoint endPoint)
+    {
+        return new MessageServerSessionListener(connector, endPoint);
+    }
+
+    protected class MessageServerSessionListener extends HTTPServerSessionListener
+    {
+        private final Connector connector;
+
+        public MessageServerSessionListener(Connector connector, EndPoint endPoint)
+        {
+            super(connector, endPoint);
+            this.connector = connector;
+        }
+
+        @Override
+        public Stream.Listener onNewStream(Stream stream, HeadersFrame frame)
+        {
+            MetaData.Request request = (MetaData.Request)frame.getMetaData();
+            MessageStreamHandler handler = findHandler(request.getURI().getPath());
+            if (handler == null)
+                return super.onNewStream(stream, frame);
+
+            MessageStream messageStream = new MessageStream(connector.getByteBufferPool(), stream, request, handler, getMaxMessageSize());
+            messageStream.onOpen();
+            if (frame.isEndStream())
+                messageStream.onHeaders(stream, frame);
+            return messageStream;
+        }
+    }
+}
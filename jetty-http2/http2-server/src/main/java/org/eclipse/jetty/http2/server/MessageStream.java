@@ -0,0 +1,656 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2017 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.http2.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.eclipse.jetty.http.HttpFields;
+import org.eclipse.jetty.http.HttpHeader;
+import org.eclipse.jetty.http.HttpStatus;
+import org.eclipse.jetty.http.HttpVersion;
+import org.eclipse.jetty.http.MetaData;
+import org.eclipse.jetty.http2.ErrorCode;
+import org.eclipse.jetty.http2.api.Stream;
+import org.eclipse.jetty.http2.frames.DataFrame;
+import org.eclipse.jetty.http2.frames.Frame;
+import org.eclipse.jetty.http2.frames.HeadersFrame;
+import org.eclipse.jetty.http2.frames.PushPromiseFrame;
+import org.eclipse.jetty.http2.frames.ResetFrame;
+import org.eclipse.jetty.io.ByteBufferPool;
+import org.eclipse.jetty.io.EofException;
+import org.eclipse.jetty.util.BufferUtil;
+import org.eclipse.jetty.util.Callback;
+import org.eclipse.jetty.util.IteratingCallback;
+import org.eclipse.jetty.util.log.Log;
+import org.eclipse.jetty.util.log.Logger;
+
+/**
+ * <p>A HTTP/2 stream that carries length-prefixed messages, as used by gRPC.</p>
+ * <p>Each message is framed with a 1 byte compression flag followed by a 4 bytes
+ * big endian length, followed by the message bytes. The response is terminated
+ * by a trailer that carries the {@value #STATUS_HEADER} and optionally the
+ * {@value #MESSAGE_HEADER} fields.</p>
+ * <p>Received messages that are entirely contained in a DATA frame are delivered
+ * as slices of the frame buffer, without copying; messages that span multiple
+ * DATA frames are aggregated into a buffer obtained from the {@link ByteBufferPool}.</p>
+ * <p>Writes are queued and performed one at a time, so applications may call
+ * {@link #send(ByteBuffer, Callback)} without waiting for previous sends to complete.</p>
+ *
+ * @see MessageStreamHandler
+ */
+public class MessageStream implements Stream.Listener
+{
+    private static final Logger LOG = Log.getLogger(MessageStream.class);
+
+    public static final String CONTENT_TYPE = "application/grpc";
+    public static final String STATUS_HEADER = "grpc-status";
+    public static final String MESSAGE_HEADER = "grpc-message";
+    public static final int STATUS_OK = 0;
+    public static final int STATUS_CANCELLED = 1;
+    public static final int STATUS_RESOURCE_EXHAUSTED = 8;
+    public static final int STATUS_UNIMPLEMENTED = 12;
+    public static final int STATUS_INTERNAL = 13;
+
+    private static final int PREFIX_LENGTH = 5;
+    // Messages smaller than this are copied together with their
+    // prefix into a single pooled buffer, and written as one frame.
+    private static final int AGGREGATE_LENGTH = 4096;
+
+    private final AtomicBoolean committed = new AtomicBoolean();
+    private final AtomicBoolean finished = new AtomicBoolean();
+    private final MessageParser parser = new MessageParser();
+    private final MessageWriter writer = new MessageWriter();
+    private final ByteBufferPool byteBufferPool;
+    private final Stream stream;
+    private final MetaData.Request request;
+    private final MessageStreamHandler handler;
+    private final int maxMessageSize;
+
+    public MessageStream(ByteBufferPool byteBufferPool, Stream stream, MetaData.Request request, MessageStreamHandler handler, int maxMessageSize)
+    {
+        this.byteBufferPool = byteBufferPool;
+        this.stream = stream;
+        this.request = request;
+        this.handler = handler;
+        this.maxMessageSize = maxMessageSize;
+    }
+
+    public Stream getStream()
+    {
+        return stream;
+    }
+
+    public MetaData.Request getRequest()
+    {
+        return request;
+    }
+
+    public int getMaxMessageSize()
+    {
+        return maxMessageSize;
+    }
+
+    /**
+     * <p>Sends the response headers.</p>
+     * <p>Calling this method is optional: if not called explicitly, default
+     * response headers are sent along with the first message or with the
+     * trailers.</p>
+     *
+     * @param fields   the response headers, or null
+     * @param callback the callback notified when the headers have been written
+     */
+    public void sendHeaders(HttpFields fields, Callback callback)
+    {
+        if (committed.compareAndSet(false, true))
+            writer.write(new HeadersFrame(stream.getId(), newResponse(fields), null, false), null, callback);
+        else
+            callback.failed(new IllegalStateException("committed"));
+    }
+
+    /**
+     * <p>Sends the given message, prefixed with its length.</p>
+     *
+     * @param message  the message bytes
+     * @param callback the callback notified when the message has been written
+     */
+    public void send(ByteBuffer message, Callback callback)
+    {
+        if (committed.compareAndSet(false, true))
+            writer.write(new HeadersFrame(stream.getId(), newResponse(null), null, false), null, Callback.NOOP);
+
+        int length = message.remaining();
+        if (length <= AGGREGATE_LENGTH)
+        {
+            ByteBuffer buffer = byteBufferPool.acquire(PREFIX_LENGTH + length, false);
+            int position = BufferUtil.flipToFill(buffer);
+            buffer.put((byte)0).putInt(length).put(message);
+            BufferUtil.flipToFlush(buffer, position);
+            writer.write(new DataFrame(stream.getId(), buffer, false), buffer, callback);
+        }
+        else
+        {
+            ByteBuffer prefix = ByteBuffer.allocate(PREFIX_LENGTH);
+            prefix.put((byte)0).putInt(length).flip();
+            writer.write(new DataFrame(stream.getId(), prefix, false), null, Callback.NOOP);
+            writer.write(new DataFrame(stream.getId(), message, false), null, callback);
+        }
+    }
+
+    /**
+     * <p>Terminates the response with the given status.</p>
+     * <p>If no headers or messages have been sent, a trailers-only
+     * response is sent, otherwise the status is sent in the trailers.</p>
+     *
+     * @param status   the status code, for example {@link #STATUS_OK}
+     * @param message  the status message, or null
+     * @param trailers additional trailer fields, or null
+     * @param callback the callback notified when the trailers have been written
+     */
+    public void finish(int status, String message, HttpFields trailers, Callback callback)
+    {
+        if (!finished.compareAndSet(false, true))
+        {
+            callback.failed(new IllegalStateException("finished"));
+            return;
+        }
+
+        HttpFields fields = trailers == null ? new HttpFields() : trailers;
+        fields.put(STATUS_HEADER, String.valueOf(status));
+        if (message != null)
+            fields.put(MESSAGE_HEADER, message);
+
+        MetaData metaData;
+        if (committed.compareAndSet(false, true))
+            metaData = newResponse(fields);
+        else
+            metaData = new MetaData(HttpVersion.HTTP_2, fields);
+        writer.write(new HeadersFrame(stream.getId(), metaData, null, true), null, callback);
+    }
+
+    /**
+     * <p>Resets the stream, aborting the exchange with the client.</p>
+     */
+    public void cancel()
+    {
+        stream.reset(new ResetFrame(stream.getId(), ErrorCode.CANCEL_STREAM_ERROR.code), Callback.NOOP);
+    }
+
+    /**
+     * <p>Terminates the response with the given status, then resets the stream
+     * so that the client stops sending DATA frames that would be discarded.</p>
+     * <p>The DATA frames already received or still in flight are consumed by
+     * the session, so their flow control credit is returned to the client.</p>
+     */
+    private void reject(int status, String message)
+    {
+        finish(status, message, null, new Callback()
+        {
+            @Override
+            public void succeeded()
+            {
+                cancel();
+            }
+
+            @Override
+            public void failed(Throwable x)
+            {
+                cancel();
+            }
+
+            @Override
+            public InvocationType getInvocationType()
+            {
+                return InvocationType.NON_BLOCKING;
+            }
+        });
+    }
+
+    private MetaData.Response newResponse(HttpFields fields)
+    {
+        if (fields == null)
+            fields = new HttpFields();
+        if (!fields.containsKey(HttpHeader.CONTENT_TYPE.asString()))
+            fields.put(HttpHeader.CONTENT_TYPE, CONTENT_TYPE);
+        return new MetaData.Response(HttpVersion.HTTP_2, HttpStatus.OK_200, fields);
+    }
+
+    public void onOpen()
+    {
+        try
+        {
+            handler.onOpen(this);
+        }
+        catch (Throwable x)
+        {
+            LOG.info("Failure while notifying handler " + handler, x);
+        }
+    }
+
+    @Override
+    public void onHeaders(Stream stream, HeadersFrame frame)
+    {
+        // Trailers sent by the client terminate the request.
+        if (frame.isEndStream())
+            parser.offer(new DataFrame(stream.getId(), BufferUtil.EMPTY_BUFFER, true), Callback.NOOP);
+    }
+
+    @Override
+    public Stream.Listener onPush(Stream stream, PushPromiseFrame frame)
+    {
+        return null;
+    }
+
+    @Override
+    public void onData(Stream stream, DataFrame frame, Callback callback)
+    {
+        parser.offer(frame, callback);
+    }
+
+    @Override
+    public void onReset(Stream stream, ResetFrame frame, Callback callback)
+    {
+        ErrorCode error = ErrorCode.from(frame.getError());
+        if (error == null)
+            error = ErrorCode.CANCEL_STREAM_ERROR;
+        EofException failure = new EofException("HTTP/2 " + error);
+        parser.abort(failure);
+        writer.abort(failure);
+        callback.succeeded();
+    }
+
+    @Override
+    public boolean onIdleTimeout(Stream stream, Throwable x)
+    {
+        parser.abort(x);
+        writer.abort(x);
+        return true;
+    }
+
+    private void notifyFailure(Throwable failure)
+    {
+        try
+        {
+            handler.onFailure(this, failure);
+        }
+        catch (Throwable x)
+        {
+            LOG.info("Failure while notifying handler " + handler, x);
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s@%x#%d{%s}", getClass().getSimpleName(), hashCode(), stream.getId(), request.getURI().getPath());
+    }
+
+    private static class Entry
+    {
+        private final Frame frame;
+        private final ByteBuffer buffer;
+        private final Callback callback;
+
+        private Entry(Frame frame, ByteBuffer buffer, Callback callback)
+        {
+            this.frame = frame;
+            this.buffer = buffer;
+            this.callback = callback;
+        }
+    }
+
+    /**
+     * <p>Splits the content of DATA frames into messages, delivering
+     * them to the handler one at a time.</p>
+     * <p>DATA frames are queued and their callbacks completed only when
+     * all the bytes they carry have been consumed, so that the flow
+     * control window is enlarged at the pace of the handler.</p>
+     */
+    private class MessageParser extends IteratingCallback
+    {
+        private final Queue<Entry> entries = new ArrayDeque<>();
+        private Throwable failure;
+        private int cursor;
+        private boolean compressed;
+        private int length;
+        private ByteBuffer aggregate;
+        private ByteBuffer delivered;
+
+        private void offer(DataFrame frame, Callback callback)
+        {
+            Throwable failure;
+            synchronized (this)
+            {
+                failure = this.failure;
+                if (failure == null)
+                    entries.offer(new Entry(frame, null, callback));
+            }
+            if (failure == null)
+                iterate();
+            else
+                callback.failed(failure);
+        }
+
+        private void abort(Throwable x)
+        {
+            synchronized (this)
+            {
+                if (failure != null)
+                    return;
+                failure = x;
+            }
+            notifyFailure(x);
+            iterate();
+        }
+
+        @Override
+        protected Action process() throws Throwable
+        {
+            while (true)
+            {
+                release();
+
+                Entry entry;
+                Throwable failure;
+                synchronized (this)
+                {
+                    failure = this.failure;
+                    entry = entries.peek();
+                }
+
+                if (failure != null)
+                {
+                    drain(failure);
+                    return Action.SUCCEEDED;
+                }
+
+                if (entry == null)
+                    return Action.IDLE;
+
+                DataFrame frame = (DataFrame)entry.frame;
+                ByteBuffer message = parse(frame.getData());
+                if (message != null)
+                {
+                    notifyMessage(message);
+                    return Action.SCHEDULED;
+                }
+
+                synchronized (this)
+                {
+                    entries.poll();
+                }
+                entry.callback.succeeded();
+
+                if (frame.isEndStream())
+                {
+                    if (cursor > 0)
+                        throw new IOException("Truncated message");
+                    notifyHalfClose();
+                    return Action.SUCCEEDED;
+                }
+            }
+        }
+
+        private ByteBuffer parse(ByteBuffer buffer) throws IOException
+        {
+            while (buffer.hasRemaining())
+            {
+                if (cursor < PREFIX_LENGTH)
+                {
+                    if (cursor == 0 && buffer.remaining() >= PREFIX_LENGTH)
+                    {
+                        compressed = buffer.get() != 0;
+                        length = buffer.getInt();
+                        cursor = PREFIX_LENGTH;
+                    }
+                    else
+                    {
+                        byte b = buffer.get();
+                        if (cursor == 0)
+                        {
+                            compressed = b != 0;
+                            length = 0;
+                        }
+                        else
+                        {
+                            length = (length << 8) + (b & 0xFF);
+                        }
+                        ++cursor;
+                    }
+
+                    if (cursor == PREFIX_LENGTH)
+                    {
+                        if (length < 0 || length > maxMessageSize)
+                        {
+                            reject(STATUS_RESOURCE_EXHAUSTED, "Message too large");
+                            throw new IOException("Message too large: " + Integer.toUnsignedString(length) + " > " + maxMessageSize);
+                        }
+                        if (length == 0)
+                        {
+                            cursor = 0;
+                            return BufferUtil.EMPTY_BUFFER;
+                        }
+                    }
+                }
+                else if (aggregate == null && buffer.remaining() >= length)
+                {
+                    ByteBuffer message = buffer.slice();
+                    message.limit(length);
+                    buffer.position(buffer.position() + length);
+                    cursor = 0;
+                    return message;
+                }
+                else
+                {
+                    if (aggregate == null)
+                    {
+                        aggregate = byteBufferPool.acquire(length, false);
+                        BufferUtil.clearToFill(aggregate);
+                    }
+                    int chunk = Math.min(length - aggregate.position(), buffer.remaining());
+                    int limit = buffer.limit();
+                    buffer.limit(buffer.position() + chunk);
+                    aggregate.put(buffer);
+                    buffer.limit(limit);
+                    if (aggregate.position() == length)
+                    {
+                        aggregate.flip();
+                        delivered = aggregate;
+                        aggregate = null;
+                        cursor = 0;
+                        return delivered;
+                    }
+                }
+            }
+            return null;
+        }
+
+        private void notifyMessage(ByteBuffer message)
+        {
+            try
+            {
+                handler.onMessage(MessageStream.this, compressed, message, this);
+            }
+            catch (Throwable x)
+            {
+                LOG.info("Failure while notifying handler " + handler, x);
+                failed(x);
+            }
+        }
+
+        private void notifyHalfClose()
+        {
+            try
+            {
+                handler.onHalfClose(MessageStream.this);
+            }
+            catch (Throwable x)
+            {
+                LOG.info("Failure while notifying handler " + handler, x);
+            }
+        }
+
+        private void release()
+        {
+            if (delivered != null)
+            {
+                byteBufferPool.release(delivered);
+                delivered = null;
+            }
+        }
+
+        private void drain(Throwable x)
+        {
+            release();
+            if (aggregate != null)
+            {
+                byteBufferPool.release(aggregate);
+                aggregate = null;
+            }
+            List<Entry> failed;
+            synchronized (this)
+            {
+                failed = new ArrayList<>(entries);
+                entries.clear();
+            }
+            failed.forEach(entry -> entry.callback.failed(x));
+        }
+
+        @Override
+        protected void onCompleteFailure(Throwable x)
+        {
+            boolean notify;
+            synchronized (this)
+            {
+                notify = failure == null;
+                if (notify)
+                    failure = x;
+            }
+            drain(x);
+            if (notify)
+            {
+                notifyFailure(x);
+                if (!finished.get())
+                    finish(STATUS_INTERNAL, null, null, Callback.NOOP);
+            }
+        }
+    }
+
+    /**
+     * <p>Writes frames one at a time, as required by {@link Stream}.</p>
+     */
+    private class MessageWriter extends IteratingCallback
+    {
+        private final Queue<Entry> entries = new ArrayDeque<>();
+        private Throwable failure;
+        private Entry active;
+
+        private void write(Frame frame, ByteBuffer buffer, Callback callback)
+        {
+            Throwable failure;
+            synchronized (this)
+            {
+                failure = this.failure;
+                if (failure == null)
+                    entries.offer(new Entry(frame, buffer, callback));
+            }
+            if (failure == null)
+            {
+                iterate();
+            }
+            else
+            {
+                if (buffer != null)
+                    byteBufferPool.release(buffer);
+                callback.failed(failure);
+            }
+        }
+
+        private void abort(Throwable x)
+        {
+            failed(x);
+            // Fail also writes queued while idle.
+            onCompleteFailure(x);
+        }
+
+        @Override
+        protected Action process() throws Throwable
+        {
+            Entry entry;
+            synchronized (this)
+            {
+                entry = active = entries.poll();
+            }
+            if (entry == null)
+                return Action.IDLE;
+
+            if (entry.frame instanceof HeadersFrame)
+                stream.headers((HeadersFrame)entry.frame, this);
+            else
+                stream.data((DataFrame)entry.frame, this);
+            return Action.SCHEDULED;
+        }
+
+        @Override
+        public void succeeded()
+        {
+            Entry entry;
+            synchronized (this)
+            {
+                entry = active;
+                active = null;
+            }
+            if (entry != null)
+            {
+                if (entry.buffer != null)
+                    byteBufferPool.release(entry.buffer);
+                entry.callback.succeeded();
+            }
+            super.succeeded();
+        }
+
+        @Override
+        protected void onCompleteFailure(Throwable x)
+        {
+            List<Entry> failed;
+            synchronized (this)
+            {
+                if (failure == null)
+                    failure = x;
+                failed = new ArrayList<>(entries.size() + 1);
+                if (active != null)
+                    failed.add(active);
+                active = null;
+                failed.addAll(entries);
+                entries.clear();
+            }
+            for (Entry entry : failed)
+            {
+                if (entry.buffer != null)
+                    byteBufferPool.release(entry.buffer);
+                entry.callback.failed(x);
+            }
+        }
+    }
+}
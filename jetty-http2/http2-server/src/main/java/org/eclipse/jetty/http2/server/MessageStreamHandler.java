@@ -0,0 +1,101 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2017 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.http2.server;
+
+import java.nio.ByteBuffer;
+
+import org.eclipse.jetty.util.Callback;
+
+/**
+ * <p>A handler for streams that carry length-prefixed messages, as used by gRPC.</p>
+ * <p>Implementations are registered on a {@link MessageHTTP2ServerConnectionFactory}
+ * and are notified of stream events directly from the HTTP/2 layer, without the
+ * servlet request/response machinery.</p>
+ * <p>Messages are delivered one at a time: the next message is not delivered until
+ * the callback passed to {@link #onMessage(MessageStream, boolean, ByteBuffer, Callback)}
+ * is completed; HTTP/2 flow control credit is returned to the client only when the
+ * bytes of the messages have been consumed, so that slow handlers apply backpressure
+ * to clients.</p>
+ */
+public interface MessageStreamHandler
+{
+    /**
+     * <p>Callback method invoked when a new stream is opened.</p>
+     * <p>The request metadata is available via {@link MessageStream#getRequest()}.</p>
+     *
+     * @param stream the message stream
+     */
+    public void onOpen(MessageStream stream);
+
+    /**
+     * <p>Callback method invoked when a message has been received.</p>
+     * <p>The {@code message} buffer is only valid until the {@code callback}
+     * is completed; applications that need the message bytes after that must
+     * copy them.</p>
+     *
+     * @param stream     the message stream
+     * @param compressed whether the message is flagged as compressed
+     * @param message    the message bytes, without the length prefix
+     * @param callback   the callback to complete when the message has been consumed
+     */
+    public void onMessage(MessageStream stream, boolean compressed, ByteBuffer message, Callback callback);
+
+    /**
+     * <p>Callback method invoked when the client has finished sending messages.</p>
+     *
+     * @param stream the message stream
+     */
+    public void onHalfClose(MessageStream stream);
+
+    /**
+     * <p>Callback method invoked when the stream failed, for example because
+     * it has been reset by the client or because it idle timed out.</p>
+     *
+     * @param stream  the message stream
+     * @param failure the failure
+     */
+    public void onFailure(MessageStream stream, Throwable failure);
+
+    /**
+     * <p>Empty implementation of {@link MessageStreamHandler}.</p>
+     */
+    public static class Adapter implements MessageStreamHandler
+    {
+        @Override
+        public void onOpen(MessageStream stream)
+        {
+        }
+
+        @Override
+        public void onMessage(MessageStream stream, boolean compressed, ByteBuffer message, Callback callback)
+        {
+            callback.succeeded();
+        }
+
+        @Override
+        public void onHalfClose(MessageStream stream)
+        {
+        }
+
+        @Override
+        public void onFailure(MessageStream stream, Throwable failure)
+        {
+        }
+    }
+}
@@ -25,6 +25,7 @@ import java.nio.channels.ClosedChannelException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 
 import javax.net.ssl.SSLEngine;
 import javax.net.ssl.SSLEngineResult;
@@ -88,12 +89,15 @@ public class SslConnection extends AbstractConnection
     private ByteBuffer _decryptedInput;
     private ByteBuffer _encryptedInput;
     private ByteBuffer _encryptedOutput;
+    private volatile int _bytesHeld;
     private final boolean _encryptedDirectBuffers = true;
     private final boolean _decryptedDirectBuffers = false;
     private boolean _renegotiationAllowed;
     private int _renegotiationLimit = -1;
     private boolean _closedOutbound;
     private boolean _allowMissingCloseMessage = true;
+    private SslHandshakeExecutor _handshakeExecutor;
+    private long _handshakeStarted;
 
     private abstract class RunnableTask  implements Runnable, Invocable
     {
@@ -232,6 +236,22 @@ public class SslConnection extends AbstractConnection
         _renegotiationLimit = renegotiationLimit;
     }
 
+    /**
+     * @return the executor of the handshake delegated tasks, or null if they are run by the filling or flushing thread
+     */
+    public SslHandshakeExecutor getHandshakeExecutor()
+    {
+        return _handshakeExecutor;
+    }
+
+    /**
+     * @param handshakeExecutor the executor of the handshake delegated tasks, or null to run them in the filling or flushing thread
+     */
+    public void setHandshakeExecutor(SslHandshakeExecutor handshakeExecutor)
+    {
+        _handshakeExecutor = handshakeExecutor;
+    }
+
     public boolean isAllowMissingCloseMessage()
     {
         return _allowMissingCloseMessage;
@@ -245,6 +265,7 @@ public class SslConnection extends AbstractConnection
     @Override
     public void onOpen()
     {
+        _handshakeStarted = System.nanoTime();
         super.onOpen();
         getDecryptedEndPoint().getConnection().onOpen();
     }
@@ -254,6 +275,7 @@ public class SslConnection extends AbstractConnection
     {
         _decryptedEndPoint.getConnection().onClose();
         super.onClose();
+        _decryptedEndPoint.releaseBuffers();
     }
 
     @Override
@@ -265,7 +287,36 @@ public class SslConnection extends AbstractConnection
     @Override
     public boolean onIdleExpired()
     {
-        return getDecryptedEndPoint().getConnection().onIdleExpired();
+        boolean expired = getDecryptedEndPoint().getConnection().onIdleExpired();
+        if (!expired)
+            _decryptedEndPoint.releaseEmptyBuffers();
+        return expired;
+    }
+
+    /**
+     * <p>Returns the capacity of the buffers held by this connection.</p>
+     * <p>Buffers are acquired from the {@link ByteBufferPool} when reading or writing,
+     * and are released as soon as they are empty, so that idle connections
+     * only hold buffers containing partial TLS records or pending decrypted data.</p>
+     *
+     * @return the number of bytes of the buffers held by this connection
+     */
+    public int getBytesHeld()
+    {
+        return _bytesHeld;
+    }
+
+    private ByteBuffer acquireBuffer(int capacity, boolean direct)
+    {
+        ByteBuffer buffer = _bufferPool.acquire(capacity, direct);
+        _bytesHeld += buffer.capacity();
+        return buffer;
+    }
+
+    private void releaseBuffer(ByteBuffer buffer)
+    {
+        _bytesHeld -= buffer.capacity();
+        _bufferPool.release(buffer);
     }
 
     @Override
@@ -429,8 +480,36 @@ public class SslConnection extends AbstractConnection
         private boolean _cannotAcceptMoreAppDataToFlush;
         private boolean _handshaken;
         private boolean _underFlown;
+        private boolean _delegating;
+        private boolean _delegated;
+        private boolean _flushRequiresTaskToProgress;
+        private boolean _fillRequiresTaskToProgress;
+        private long _delegatedTime;
 
         private final Callback _writeCallback = new WriteCallBack();
+        private final Runnable _runDelegatedTasks = new RunnableTask("runDelegatedTasks")
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    Runnable task;
+                    while ((task = _sslEngine.getDelegatedTask()) != null)
+                        task.run();
+                }
+                finally
+                {
+                    onDelegatedTasksCompleted();
+                }
+            }
+
+            @Override
+            public InvocationType getInvocationType()
+            {
+                return InvocationType.BLOCKING;
+            }
+        };
 
         public DecryptedEndPoint()
         {
@@ -496,6 +575,11 @@ public class SslConnection extends AbstractConnection
                     _cannotAcceptMoreAppDataToFlush = true;
                     write = true;
                 }
+                // If the handshake tasks are running, their completion will complete the write.
+                else if (_delegating)
+                {
+                    _flushRequiresTaskToProgress = true;
+                }
                 // If we are handshaking and need to read,
                 else if (_sslEngine.getHandshakeStatus() == HandshakeStatus.NEED_UNWRAP)
                 {
@@ -547,8 +631,15 @@ public class SslConnection extends AbstractConnection
             boolean write = false;
             synchronized (DecryptedEndPoint.this)
             {
+                // If the handshake tasks are running, their completion will wake up the fill interest.
+                if (_delegating)
+                {
+                    _fillRequiresTaskToProgress = true;
+                    return;
+                }
+
                 // Do we already have some app data, then app can fill now so return true
-                fillable = (BufferUtil.hasContent(_decryptedInput))
+                fillable = _delegated || (BufferUtil.hasContent(_decryptedInput))
                         // or if we have encryptedInput and have not underflowed yet, the it is worth trying a fill
                         || BufferUtil.hasContent(_encryptedInput) && !_underFlown;
 
@@ -618,9 +709,15 @@ public class SslConnection extends AbstractConnection
                         if (BufferUtil.hasContent(_decryptedInput))
                             return BufferUtil.append(buffer,_decryptedInput);
 
+                        // Cannot progress until the handshake tasks are completed.
+                        if (_delegating)
+                            return 0;
+                        boolean delegated = _delegated;
+                        _delegated = false;
+
                         // We will need a network buffer
                         if (_encryptedInput == null)
-                            _encryptedInput = _bufferPool.acquire(_sslEngine.getSession().getPacketBufferSize(), _encryptedDirectBuffers);
+                            _encryptedInput = acquireBuffer(_sslEngine.getSession().getPacketBufferSize(), _encryptedDirectBuffers);
                         else
                             BufferUtil.compact(_encryptedInput);
 
@@ -629,7 +726,7 @@ public class SslConnection extends AbstractConnection
                         if (BufferUtil.space(buffer) > _sslEngine.getSession().getApplicationBufferSize())
                             app_in = buffer;
                         else if (_decryptedInput == null)
-                            app_in = _decryptedInput = _bufferPool.acquire(_sslEngine.getSession().getApplicationBufferSize(), _decryptedDirectBuffers);
+                            app_in = _decryptedInput = acquireBuffer(_sslEngine.getSession().getApplicationBufferSize(), _decryptedDirectBuffers);
                         else
                             app_in = _decryptedInput;
 
@@ -675,8 +772,11 @@ public class SslConnection extends AbstractConnection
                                 {
                                     if (net_filled < 0 && _sslEngine.getUseClientMode())
                                         closeInbound();
-                                    if (net_filled <= 0)
+                                    // Without new bytes there is nothing to unwrap, unless the
+                                    // handshake needs to wrap after the delegated tasks completed.
+                                    if (net_filled < 0 || net_filled == 0 && !(delegated && handshakeStatus == HandshakeStatus.NEED_WRAP))
                                         return net_filled;
+                                    delegated = false;
                                 }
 
                                 switch (unwrapResultStatus)
@@ -692,8 +792,9 @@ public class SslConnection extends AbstractConnection
                                             }
                                             case NEED_TASK:
                                             {
-                                                _sslEngine.getDelegatedTask().run();
-                                                continue;
+                                                if (runDelegatedTasks())
+                                                    continue;
+                                                return 0;
                                             }
                                             case NEED_WRAP:
                                             {
@@ -744,8 +845,9 @@ public class SslConnection extends AbstractConnection
                                             }
                                             case NEED_TASK:
                                             {
-                                                _sslEngine.getDelegatedTask().run();
-                                                continue;
+                                                if (runDelegatedTasks())
+                                                    continue;
+                                                return 0;
                                             }
                                             case NEED_WRAP:
                                             {
@@ -821,16 +923,7 @@ public class SslConnection extends AbstractConnection
                             getExecutor().execute(failure == null ? _runCompleteWrite : new FailWrite(failure));
                         }
 
-                        if (_encryptedInput != null && !_encryptedInput.hasRemaining())
-                        {
-                            _bufferPool.release(_encryptedInput);
-                            _encryptedInput = null;
-                        }
-                        if (_decryptedInput != null && !_decryptedInput.hasRemaining())
-                        {
-                            _bufferPool.release(_decryptedInput);
-                            _decryptedInput = null;
-                        }
+                        releaseEmptyInputBuffers();
                     }
                 }
             }
@@ -841,6 +934,88 @@ public class SslConnection extends AbstractConnection
             }
         }
 
+        /**
+         * <p>Runs the handshake delegated tasks, either directly or via the
+         * {@link #getHandshakeExecutor() handshake executor}.</p>
+         * <p>If the handshake executor is full and does not shed the handshake,
+         * the tasks are run by a thread of the connection executor, so that
+         * they never run while holding the lock of this endpoint.</p>
+         *
+         * @return true if the tasks have been run and the handshake can proceed,
+         * false if the tasks are running and the handshake must wait for their completion
+         * @throws SSLHandshakeException if the handshake executor sheds the handshake
+         */
+        private boolean runDelegatedTasks() throws SSLHandshakeException
+        {
+            if (!Thread.holdsLock(DecryptedEndPoint.this))
+                throw new IllegalStateException();
+
+            SslHandshakeExecutor executor = _handshakeExecutor;
+            if (executor == null)
+            {
+                _sslEngine.getDelegatedTask().run();
+                return true;
+            }
+
+            if (!_delegating)
+            {
+                _delegating = true;
+                _delegatedTime = System.nanoTime();
+                if (LOG.isDebugEnabled())
+                    LOG.debug("Delegating handshake tasks {}", SslConnection.this);
+                if (!executor.execute(_runDelegatedTasks))
+                {
+                    if (executor.isShedding())
+                    {
+                        _delegating = false;
+                        executor.onHandshakeShed();
+                        throw new SSLHandshakeException("Handshake shed");
+                    }
+
+                    try
+                    {
+                        getExecutor().execute(_runDelegatedTasks);
+                    }
+                    catch (RejectedExecutionException x)
+                    {
+                        _delegating = false;
+                        SSLHandshakeException failure = new SSLHandshakeException("Handshake rejected");
+                        failure.initCause(x);
+                        throw failure;
+                    }
+                }
+            }
+
+            return false;
+        }
+
+        private void onDelegatedTasksCompleted()
+        {
+            boolean fillable;
+            boolean completeWrite;
+            synchronized (DecryptedEndPoint.this)
+            {
+                _delegating = false;
+                _delegated = true;
+                fillable = _fillRequiresTaskToProgress;
+                _fillRequiresTaskToProgress = false;
+                completeWrite = _flushRequiresTaskToProgress;
+                _flushRequiresTaskToProgress = false;
+                SslHandshakeExecutor executor = _handshakeExecutor;
+                if (executor != null)
+                    executor.onTasksCompleted(System.nanoTime() - _delegatedTime);
+            }
+
+            if (LOG.isDebugEnabled())
+                LOG.debug("Completed handshake tasks {} fillable={} completeWrite={}", SslConnection.this, fillable, completeWrite);
+
+            // Wake up whoever is waiting to fill or to flush so they can resume the handshake.
+            if (fillable)
+                getExecutor().execute(_runFillable);
+            if (completeWrite)
+                getExecutor().execute(_runCompleteWrite);
+        }
+
         private void handshakeFinished()
         {
             if (_handshaken)
@@ -858,6 +1033,9 @@ public class SslConnection extends AbstractConnection
                         _sslEngine.getUseClientMode() ? "client" : "resumed server",
                             _sslEngine.getSession().getProtocol(),_sslEngine.getSession().getCipherSuite(),
                             SslConnection.this);
+                SslHandshakeExecutor executor = _handshakeExecutor;
+                if (executor != null)
+                    executor.onHandshakeSucceeded(System.nanoTime() - _handshakeStarted);
                 notifyHandshakeSucceeded(_sslEngine);
             }
         }
@@ -943,9 +1121,13 @@ public class SslConnection extends AbstractConnection
                             return false;
                         }
 
+                        // Cannot progress until the handshake tasks are completed.
+                        if (_delegating)
+                            return false;
+
                         // We will need a network buffer
                         if (_encryptedOutput == null)
-                            _encryptedOutput = _bufferPool.acquire(_sslEngine.getSession().getPacketBufferSize(), _encryptedDirectBuffers);
+                            _encryptedOutput = acquireBuffer(_sslEngine.getSession().getPacketBufferSize(), _encryptedDirectBuffers);
 
                         while (true)
                         {
@@ -1037,8 +1219,9 @@ public class SslConnection extends AbstractConnection
 
                                         case NEED_TASK:
                                             // run the task and continue
-                                            _sslEngine.getDelegatedTask().run();
-                                            continue;
+                                            if (runDelegatedTasks())
+                                                continue;
+                                            return false;
 
                                         case NEED_WRAP:
                                             // Hey we just wrapped! Oh well who knows what the sslEngine is thinking, so continue and we will wrap again
@@ -1089,11 +1272,54 @@ public class SslConnection extends AbstractConnection
                 throw new IllegalStateException();
             if (_encryptedOutput != null && !_encryptedOutput.hasRemaining())
             {
-                _bufferPool.release(_encryptedOutput);
+                releaseBuffer(_encryptedOutput);
                 _encryptedOutput = null;
             }
         }
 
+        private void releaseEmptyInputBuffers()
+        {
+            if (!Thread.holdsLock(DecryptedEndPoint.this))
+                throw new IllegalStateException();
+            if (_encryptedInput != null && !_encryptedInput.hasRemaining())
+            {
+                releaseBuffer(_encryptedInput);
+                _encryptedInput = null;
+            }
+            if (_decryptedInput != null && !_decryptedInput.hasRemaining())
+            {
+                releaseBuffer(_decryptedInput);
+                _decryptedInput = null;
+            }
+        }
+
+        private synchronized void releaseEmptyBuffers()
+        {
+            releaseEmptyInputBuffers();
+            // The encrypted output may be empty but still being written.
+            if (!_cannotAcceptMoreAppDataToFlush)
+                releaseEncryptedOutputBuffer();
+        }
+
+        private synchronized void releaseBuffers()
+        {
+            // The connection is closed, so the input will never be read.
+            if (_encryptedInput != null)
+            {
+                releaseBuffer(_encryptedInput);
+                _encryptedInput = null;
+            }
+            if (_decryptedInput != null)
+            {
+                releaseBuffer(_decryptedInput);
+                _decryptedInput = null;
+            }
+            // A pending write of the encrypted output is failed by the close,
+            // and the write callback releases the buffer.
+            if (!_cannotAcceptMoreAppDataToFlush)
+                releaseEncryptedOutputBuffer();
+        }
+
         @Override
         public void doShutdownOutput()
         {
@@ -1191,6 +1417,10 @@ public class SslConnection extends AbstractConnection
 
         private void notifyHandshakeFailed(SSLEngine sslEngine, Throwable failure)
         {
+            SslHandshakeExecutor executor = _handshakeExecutor;
+            if (executor != null)
+                executor.onHandshakeFailed();
+
             SslHandshakeListener.Event event = null;
             for (SslHandshakeListener listener : handshakeListeners)
             {
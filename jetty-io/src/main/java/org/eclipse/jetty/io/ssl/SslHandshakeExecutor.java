@@ -0,0 +1,272 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2017 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.io.ssl;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.eclipse.jetty.util.BlockingArrayQueue;
+import org.eclipse.jetty.util.annotation.ManagedAttribute;
+import org.eclipse.jetty.util.annotation.ManagedObject;
+import org.eclipse.jetty.util.annotation.ManagedOperation;
+import org.eclipse.jetty.util.annotation.Name;
+import org.eclipse.jetty.util.component.ContainerLifeCycle;
+import org.eclipse.jetty.util.log.Log;
+import org.eclipse.jetty.util.log.Logger;
+import org.eclipse.jetty.util.statistic.RateStatistic;
+import org.eclipse.jetty.util.statistic.SampleStatistic;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+
+/**
+ * <p>A bounded executor for the {@link javax.net.ssl.SSLEngine#getDelegatedTask() delegated tasks}
+ * of TLS handshakes, where the expensive key exchange and certificate computations are performed.</p>
+ * <p>When an {@link SslConnection} is configured with a {@code SslHandshakeExecutor}, delegated
+ * tasks are not run by the thread that fills or flushes the connection but are offloaded to
+ * this executor, so that a burst of handshakes (for example when many clients reconnect after
+ * a failover) does not steal the threads that serve the already established connections.</p>
+ * <p>At most {@link #getMaxQueued() maxQueued} tasks are queued; when the queue is full the
+ * handshake is either failed, if {@link #isShedding() shedding} is enabled, or its tasks are
+ * run by a thread of the connection executor, as it happens for the other connection tasks.</p>
+ * <p>This class also keeps statistics about the handshakes of the connections that use it.</p>
+ */
+@ManagedObject("Executor of TLS handshake tasks")
+public class SslHandshakeExecutor extends ContainerLifeCycle
+{
+    private static final Logger LOG = Log.getLogger(SslHandshakeExecutor.class);
+
+    private final QueuedThreadPool _threadPool;
+    private final int _maxQueued;
+    private final AtomicInteger _pending = new AtomicInteger();
+    private final LongAdder _handshakesSucceeded = new LongAdder();
+    private final LongAdder _handshakesFailed = new LongAdder();
+    private final LongAdder _handshakesShed = new LongAdder();
+    private final RateStatistic _handshakesRate = new RateStatistic(1, TimeUnit.SECONDS);
+    private final SampleStatistic _handshakeTime = new SampleStatistic();
+    private final SampleStatistic _tasksTime = new SampleStatistic();
+    private boolean _shedding = true;
+
+    public SslHandshakeExecutor()
+    {
+        this(Math.max(1, Runtime.getRuntime().availableProcessors() / 2), 1024);
+    }
+
+    /**
+     * @param maxThreads the max number of threads running handshake tasks
+     * @param maxQueued the max number of handshake tasks waiting for a thread
+     */
+    public SslHandshakeExecutor(@Name("maxThreads") int maxThreads, @Name("maxQueued") int maxQueued)
+    {
+        _maxQueued = maxQueued;
+        // The queue also holds the tasks on their way to idle threads, so
+        // it is sized to never reject; the capacity is checked in execute().
+        int capacity = maxThreads + Math.max(0, maxQueued);
+        _threadPool = new QueuedThreadPool(maxThreads, 1, 60000, new BlockingArrayQueue<>(Math.min(capacity, 64), 64, capacity));
+        _threadPool.setName("ssl-handshake-" + hashCode());
+        addBean(_threadPool);
+        reset();
+    }
+
+    @ManagedAttribute("The max number of threads running handshake tasks")
+    public int getMaxThreads()
+    {
+        return _threadPool.getMaxThreads();
+    }
+
+    @ManagedAttribute("The max number of handshake tasks waiting for a thread")
+    public int getMaxQueued()
+    {
+        return _maxQueued;
+    }
+
+    @ManagedAttribute("The number of handshake tasks waiting for a thread")
+    public int getQueued()
+    {
+        return _threadPool.getQueueSize();
+    }
+
+    /**
+     * @return whether handshakes are failed when the queue is full,
+     * rather than having their tasks run by a thread of the connection executor
+     */
+    @ManagedAttribute("Whether handshakes are failed when the queue is full")
+    public boolean isShedding()
+    {
+        return _shedding;
+    }
+
+    /**
+     * @param shedding whether handshakes are failed when the queue is full,
+     * rather than having their tasks run by a thread of the connection executor
+     */
+    public void setShedding(boolean shedding)
+    {
+        _shedding = shedding;
+    }
+
+    /**
+     * <p>Executes the given handshake tasks, if this executor has not reached its capacity.</p>
+     * <p>The capacity is checked before submitting the tasks to the thread pool, so that
+     * a full queue does not cause the thread pool to log the rejection.</p>
+     *
+     * @param tasks the tasks to execute
+     * @return true if the tasks have been accepted by this executor, false if it is full
+     */
+    protected boolean execute(Runnable tasks)
+    {
+        int capacity = getMaxThreads() + Math.max(0, getMaxQueued());
+        while (true)
+        {
+            int pending = _pending.get();
+            if (pending >= capacity)
+                return false;
+            if (_pending.compareAndSet(pending, pending + 1))
+                break;
+        }
+
+        try
+        {
+            _threadPool.execute(() ->
+            {
+                try
+                {
+                    tasks.run();
+                }
+                finally
+                {
+                    _pending.decrementAndGet();
+                }
+            });
+            return true;
+        }
+        catch (RejectedExecutionException x)
+        {
+            // The thread pool is stopping.
+            _pending.decrementAndGet();
+            if (LOG.isDebugEnabled())
+                LOG.debug("Rejected handshake tasks {}", tasks, x);
+            return false;
+        }
+    }
+
+    /**
+     * <p>Invoked when a handshake is failed because this executor is full and {@link #isShedding() shedding} is enabled.</p>
+     */
+    protected void onHandshakeShed()
+    {
+        _handshakesShed.increment();
+        if (LOG.isDebugEnabled())
+            LOG.debug("Shedding handshake on {}", this);
+    }
+
+    /**
+     * @param nanos the time spent by a batch of handshake tasks, queue time included
+     */
+    protected void onTasksCompleted(long nanos)
+    {
+        _tasksTime.set(TimeUnit.NANOSECONDS.toMicros(nanos));
+    }
+
+    /**
+     * @param nanos the time from the opening of the connection to the completion of the handshake
+     */
+    protected void onHandshakeSucceeded(long nanos)
+    {
+        _handshakesSucceeded.increment();
+        _handshakesRate.record();
+        _handshakeTime.set(TimeUnit.NANOSECONDS.toMillis(nanos));
+    }
+
+    protected void onHandshakeFailed()
+    {
+        _handshakesFailed.increment();
+    }
+
+    @ManagedAttribute("The number of successful handshakes")
+    public long getHandshakesSucceeded()
+    {
+        return _handshakesSucceeded.sum();
+    }
+
+    @ManagedAttribute("The number of failed handshakes, shed handshakes included")
+    public long getHandshakesFailed()
+    {
+        return _handshakesFailed.sum();
+    }
+
+    @ManagedAttribute("The number of handshakes failed because the queue was full")
+    public long getHandshakesShed()
+    {
+        return _handshakesShed.sum();
+    }
+
+    @ManagedAttribute("The number of successful handshakes in the last second")
+    public long getHandshakesRate()
+    {
+        return _handshakesRate.getRate();
+    }
+
+    @ManagedAttribute("The mean time of a successful handshake in ms")
+    public double getHandshakeTimeMean()
+    {
+        return _handshakeTime.getMean();
+    }
+
+    @ManagedAttribute("The max time of a successful handshake in ms")
+    public long getHandshakeTimeMax()
+    {
+        return _handshakeTime.getMax();
+    }
+
+    @ManagedAttribute("The mean time of handshake tasks, queue time included, in us")
+    public double getTasksTimeMean()
+    {
+        return _tasksTime.getMean();
+    }
+
+    @ManagedAttribute("The max time of handshake tasks, queue time included, in us")
+    public long getTasksTimeMax()
+    {
+        return _tasksTime.getMax();
+    }
+
+    @ManagedOperation(value = "Resets the statistics", impact = "ACTION")
+    public void reset()
+    {
+        _handshakesSucceeded.reset();
+        _handshakesFailed.reset();
+        _handshakesShed.reset();
+        _handshakesRate.reset();
+        _handshakeTime.reset();
+        _tasksTime.reset();
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s@%x[threads=%d,queued=%d/%d,shedding=%b]",
+                getClass().getSimpleName(),
+                hashCode(),
+                getMaxThreads(),
+                getQueued(),
+                getMaxQueued(),
+                isShedding());
+    }
+}
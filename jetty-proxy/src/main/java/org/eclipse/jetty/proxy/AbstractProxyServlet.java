@@ -21,12 +21,15 @@ package org.eclipse.jetty.proxy;
 import java.net.InetAddress;
 import java.net.URI;
 import java.net.UnknownHostException;
+import java.nio.file.Paths;
 import java.util.Collections;
 import java.util.Enumeration;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.concurrent.Executor;
 import java.util.concurrent.TimeoutException;
 
@@ -41,6 +44,7 @@ import javax.servlet.http.HttpServletResponse;
 
 import org.eclipse.jetty.client.ContinueProtocolHandler;
 import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.client.HttpClientTransport;
 import org.eclipse.jetty.client.ProtocolHandlers;
 import org.eclipse.jetty.client.api.Request;
 import org.eclipse.jetty.client.api.Response;
@@ -49,6 +53,8 @@ import org.eclipse.jetty.http.HttpField;
 import org.eclipse.jetty.http.HttpHeader;
 import org.eclipse.jetty.http.HttpHeaderValue;
 import org.eclipse.jetty.http.HttpStatus;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.handler.ContextHandler;
 import org.eclipse.jetty.util.HttpCookieStore;
 import org.eclipse.jetty.util.log.Log;
 import org.eclipse.jetty.util.log.Logger;
@@ -71,7 +77,9 @@ import org.eclipse.jetty.util.thread.QueuedThreadPool;
  * <li>blackList - comma-separated list of forbidden proxy hosts</li>
  * </ul>
  * <p>In addition, see {@link #createHttpClient()} for init parameters
- * used to configure the {@link HttpClient} instance.</p>
+ * used to configure the {@link HttpClient} instance, {@link #getSharedHttpClient()}
+ * to share the {@link HttpClient} instance among proxy servlets, and {@link #createProxyCache()}
+ * for init parameters used to configure the {@link ProxyCache} instance.</p>
  * <p>NOTE: By default the Host header sent to the server by this proxy
  * servlet is the server's host name. However, this breaks redirects.
  * Set {@code preserveHost} to {@code true} to make redirects working,
@@ -83,6 +91,14 @@ import org.eclipse.jetty.util.thread.QueuedThreadPool;
 public abstract class AbstractProxyServlet extends HttpServlet
 {
     protected static final String CLIENT_REQUEST_ATTRIBUTE = "org.eclipse.jetty.proxy.clientRequest";
+    private static final String PROXY_SERVLET_ATTRIBUTE = "org.eclipse.jetty.proxy.proxyServlet";
+    /**
+     * The name of the {@link Server} attribute of the {@link HttpClient} shared by proxy servlets,
+     * see {@link #getSharedHttpClient()}.
+     */
+    public static final String SHARED_HTTP_CLIENT_ATTRIBUTE = "org.eclipse.jetty.proxy.sharedHttpClient";
+    private static final String SHARED_HTTP_CLIENT_CONFIG_ATTRIBUTE = SHARED_HTTP_CLIENT_ATTRIBUTE + ".config";
+    private static final String[] HTTP_CLIENT_PARAMETERS = {"maxThreads", "maxConnections", "idleTimeout", "requestBufferSize", "responseBufferSize", "selectors"};
     protected static final Set<String> HOP_HEADERS;
     static
     {
@@ -106,6 +122,8 @@ public abstract class AbstractProxyServlet extends HttpServlet
     private String _hostHeader;
     private String _viaHost;
     private HttpClient _client;
+    private boolean _sharedClient;
+    private ProxyCache _cache;
     private long _timeout;
 
     @Override
@@ -125,11 +143,16 @@ public abstract class AbstractProxyServlet extends HttpServlet
 
         try
         {
-            _client = createHttpClient();
+            _sharedClient = Boolean.parseBoolean(config.getInitParameter("sharedClient"));
+            _client = _sharedClient ? getSharedHttpClient() : createHttpClient();
 
             // Put the HttpClient in the context to leverage ContextHandler.MANAGED_ATTRIBUTES
             getServletContext().setAttribute(config.getServletName() + ".HttpClient", _client);
 
+            _cache = createProxyCache();
+            if (_cache != null)
+                getServletContext().setAttribute(config.getServletName() + ".ProxyCache", _cache);
+
             String whiteList = config.getInitParameter("whiteList");
             if (whiteList != null)
                 getWhiteListHosts().addAll(parseList(whiteList));
@@ -149,7 +172,11 @@ public abstract class AbstractProxyServlet extends HttpServlet
     {
         try
         {
-            _client.stop();
+            if (_cache != null)
+                _cache.stop();
+            // A shared client is stopped by the Server.
+            if (!_sharedClient)
+                _client.stop();
         }
         catch (Exception x)
         {
@@ -263,6 +290,12 @@ public abstract class AbstractProxyServlet extends HttpServlet
      * <td>cores / 2</td>
      * <td>The number of NIO selectors used by {@link HttpClient}</td>
      * </tr>
+     * <tr>
+     * <td>maxConnectionsPerBackend</td>
+     * <td></td>
+     * <td>Comma separated {@code host:port=maxConnections} entries that override {@code maxConnections}
+     * for specific backends, see {@link BackendConnectionPoolFactory}</td>
+     * </tr>
      * </tbody>
      * </table>
      * @see #newHttpClient()
@@ -325,18 +358,12 @@ public abstract class AbstractProxyServlet extends HttpServlet
         if (value != null)
             client.setResponseBufferSize(Integer.parseInt(value));
 
+        configureBackendConnections(client);
+
         try
         {
             client.start();
-
-            // Content must not be decoded, otherwise the client gets confused.
-            client.getContentDecoderFactories().clear();
-
-            // Pass traffic to the client, only intercept what's necessary.
-            ProtocolHandlers protocolHandlers = client.getProtocolHandlers();
-            protocolHandlers.clear();
-            protocolHandlers.put(new ProxyContinueProtocolHandler());
-
+            configureStartedHttpClient(client);
             return client;
         }
         catch (Exception x)
@@ -345,6 +372,152 @@ public abstract class AbstractProxyServlet extends HttpServlet
         }
     }
 
+    /**
+     * <p>Returns the {@link HttpClient} shared by all the proxy servlets of the
+     * {@link Server}, used when the {@code sharedClient} init parameter is {@code true}.</p>
+     * <p>The shared client is the {@link Server} attribute named {@value #SHARED_HTTP_CLIENT_ATTRIBUTE};
+     * if the {@link Server} has no such attribute, the client is created by the first servlet
+     * with {@link #createHttpClient()} and its init parameters, and stored in the attribute,
+     * and its lifecycle is managed by the {@link Server}.
+     * The {@link HttpClient} init parameters of the other servlets are ignored, and a warning
+     * is logged when they differ from those of the servlet that created the client.</p>
+     * <p>Sharing the client allows proxied requests to the same backend to share
+     * the same connection pool; with a multiplexed transport such as HTTP/2, many
+     * proxied requests share a few upstream connections.
+     * The transport of the shared client can be configured by setting the attribute
+     * on the {@link Server}, for example in a Jetty XML file:</p>
+     * <pre>
+     * &lt;Call name="setAttribute"&gt;
+     *   &lt;Arg&gt;org.eclipse.jetty.proxy.sharedHttpClient&lt;/Arg&gt;
+     *   &lt;Arg&gt;
+     *     &lt;New class="org.eclipse.jetty.client.HttpClient"&gt;
+     *       &lt;Arg&gt;
+     *         &lt;New class="org.eclipse.jetty.http2.client.http.HttpClientTransportOverHTTP2"&gt;
+     *           &lt;Arg&gt;&lt;New class="org.eclipse.jetty.http2.client.HTTP2Client"/&gt;&lt;/Arg&gt;
+     *         &lt;/New&gt;
+     *       &lt;/Arg&gt;
+     *       &lt;Arg/&gt;
+     *     &lt;/New&gt;
+     *   &lt;/Arg&gt;
+     * &lt;/Call&gt;
+     * </pre>
+     * <p>Such a client is dedicated to proxying: the servlets disable its redirects,
+     * cookies and content decoding.</p>
+     * <p>The {@code timeout} and {@code maxConnectionsPerBackend} init parameters
+     * are honored by each servlet also for the shared client.</p>
+     *
+     * @return the shared {@link HttpClient}
+     * @throws ServletException if the shared {@link HttpClient} cannot be created
+     */
+    protected HttpClient getSharedHttpClient() throws ServletException
+    {
+        ContextHandler context = ContextHandler.getContextHandler(getServletContext());
+        Server server = context == null ? null : context.getServer();
+        if (server == null)
+            throw new UnavailableException("No Server to share the HttpClient");
+
+        synchronized (server)
+        {
+            Map<String, String> config = getHttpClientParameters();
+            HttpClient client = (HttpClient)server.getAttribute(SHARED_HTTP_CLIENT_ATTRIBUTE);
+            if (client == null)
+            {
+                client = createHttpClient();
+                server.setAttribute(SHARED_HTTP_CLIENT_ATTRIBUTE, client);
+                server.setAttribute(SHARED_HTTP_CLIENT_CONFIG_ATTRIBUTE, config);
+                // The client is already started, so the Server must be told to manage it.
+                server.manage(client);
+                if (_log.isDebugEnabled())
+                    _log.debug("Created shared {}", client);
+                return client;
+            }
+
+            @SuppressWarnings("unchecked")
+            Map<String, String> sharedConfig = (Map<String, String>)server.getAttribute(SHARED_HTTP_CLIENT_CONFIG_ATTRIBUTE);
+            if (sharedConfig == null)
+            {
+                if (!config.isEmpty())
+                    _log.warn("Ignoring {} of {}, the shared HttpClient is configured by the Server", config, getServletConfig().getServletName());
+            }
+            else if (!sharedConfig.equals(config))
+            {
+                _log.warn("Ignoring {} of {}, the shared HttpClient is configured with {}", config, getServletConfig().getServletName(), sharedConfig);
+            }
+
+            String value = getServletConfig().getInitParameter("timeout");
+            _timeout = Long.parseLong(value == null ? "60000" : value);
+
+            configureBackendConnections(client);
+
+            // Redirects must be proxied as is, not followed.
+            client.setFollowRedirects(false);
+
+            // Must not store cookies, otherwise cookies of different clients will mix.
+            if (!(client.getCookieStore() instanceof HttpCookieStore.Empty))
+                client.setCookieStore(new HttpCookieStore.Empty());
+
+            try
+            {
+                if (!client.isStarted())
+                {
+                    client.start();
+                    server.manage(client);
+                }
+                configureStartedHttpClient(client);
+                if (_log.isDebugEnabled())
+                    _log.debug("Using shared {}", client);
+                return client;
+            }
+            catch (Exception x)
+            {
+                throw new ServletException(x);
+            }
+        }
+    }
+
+    private Map<String, String> getHttpClientParameters()
+    {
+        Map<String, String> result = new TreeMap<>();
+        for (String name : HTTP_CLIENT_PARAMETERS)
+        {
+            String value = getServletConfig().getInitParameter(name);
+            if (value != null)
+                result.put(name, value);
+        }
+        return Collections.unmodifiableMap(result);
+    }
+
+    private void configureBackendConnections(HttpClient client)
+    {
+        String value = getServletConfig().getInitParameter("maxConnectionsPerBackend");
+        if (value == null)
+            return;
+        HttpClientTransport transport = client.getTransport();
+        BackendConnectionPoolFactory factory;
+        if (transport.getConnectionPoolFactory() instanceof BackendConnectionPoolFactory)
+        {
+            factory = (BackendConnectionPoolFactory)transport.getConnectionPoolFactory();
+        }
+        else
+        {
+            factory = new BackendConnectionPoolFactory(transport.getConnectionPoolFactory());
+            transport.setConnectionPoolFactory(factory);
+        }
+        factory.setMaxConnections(value);
+    }
+
+    private void configureStartedHttpClient(HttpClient client)
+    {
+        // Content must not be decoded, otherwise the client gets confused.
+        client.getContentDecoderFactories().clear();
+
+        // Pass traffic to the client, only intercept what's necessary.
+        // When the client is shared, the handler dispatches to the servlet of each request.
+        ProtocolHandlers protocolHandlers = client.getProtocolHandlers();
+        protocolHandlers.clear();
+        protocolHandlers.put(new ProxyContinueProtocolHandler());
+    }
+
     /**
      * The servlet init parameter 'selectors' can be set for the number of
      * selector threads to be used by the HttpClient.
@@ -364,6 +537,97 @@ public abstract class AbstractProxyServlet extends HttpServlet
         return _client;
     }
 
+    /**
+     * <p>Creates a {@link ProxyCache} instance, configured with init parameters of this servlet.</p>
+     * <p>The cache stores its content in buffers of the {@link HttpClient#getByteBufferPool() HttpClient pool},
+     * so this method is called after {@link #createHttpClient()}.</p>
+     * <p>The init parameters used to configure the {@link ProxyCache} instance are:</p>
+     * <table>
+     * <caption>Init Parameters</caption>
+     * <thead>
+     * <tr>
+     * <th>init-param</th>
+     * <th>default</th>
+     * <th>description</th>
+     * </tr>
+     * </thead>
+     * <tbody>
+     * <tr>
+     * <td>cache</td>
+     * <td>false</td>
+     * <td>Whether upstream responses are cached</td>
+     * </tr>
+     * <tr>
+     * <td>cacheMaxMemorySize</td>
+     * <td>ProxyCache's default</td>
+     * <td>The max number of bytes of the responses stored in memory, see {@link ProxyCache#setMaxMemorySize(long)}</td>
+     * </tr>
+     * <tr>
+     * <td>cacheMaxEntrySize</td>
+     * <td>ProxyCache's default</td>
+     * <td>The max content size of a response to be cached, see {@link ProxyCache#setMaxEntrySize(int)}</td>
+     * </tr>
+     * <tr>
+     * <td>cacheDirectory</td>
+     * <td>none</td>
+     * <td>The directory where responses evicted from memory are stored, see {@link ProxyCache#setDiskDirectory(java.nio.file.Path)}</td>
+     * </tr>
+     * <tr>
+     * <td>cacheMaxDiskSize</td>
+     * <td>ProxyCache's default</td>
+     * <td>The max number of bytes of the responses stored on disk, see {@link ProxyCache#setMaxDiskSize(long)}</td>
+     * </tr>
+     * </tbody>
+     * </table>
+     *
+     * @return a {@link ProxyCache} configured from the {@link #getServletConfig() servlet configuration},
+     * or null if caching is not enabled
+     * @throws ServletException if the {@link ProxyCache} cannot be created
+     */
+    protected ProxyCache createProxyCache() throws ServletException
+    {
+        ServletConfig config = getServletConfig();
+        if (!Boolean.parseBoolean(config.getInitParameter("cache")))
+            return null;
+
+        HttpClient client = getHttpClient();
+        ProxyCache cache = new ProxyCache(client.getByteBufferPool(), client.getExecutor());
+
+        String value = config.getInitParameter("cacheMaxMemorySize");
+        if (value != null)
+            cache.setMaxMemorySize(Long.parseLong(value));
+
+        value = config.getInitParameter("cacheMaxEntrySize");
+        if (value != null)
+            cache.setMaxEntrySize(Integer.parseInt(value));
+
+        value = config.getInitParameter("cacheDirectory");
+        if (value != null)
+            cache.setDiskDirectory(Paths.get(value));
+
+        value = config.getInitParameter("cacheMaxDiskSize");
+        if (value != null)
+            cache.setMaxDiskSize(Long.parseLong(value));
+
+        try
+        {
+            cache.start();
+            return cache;
+        }
+        catch (Exception x)
+        {
+            throw new ServletException(x);
+        }
+    }
+
+    /**
+     * @return the cache of upstream responses, or null if caching is not enabled
+     */
+    protected ProxyCache getProxyCache()
+    {
+        return _cache;
+    }
+
     private Set<String> parseList(String list)
     {
         Set<String> result = new HashSet<>();
@@ -557,7 +821,15 @@ public abstract class AbstractProxyServlet extends HttpServlet
                     proxyRequest.getHeaders().toString().trim());
         }
 
-        proxyRequest.send(newProxyResponseListener(clientRequest, proxyResponse));
+        if (_sharedClient)
+            proxyRequest.attribute(PROXY_SERVLET_ATTRIBUTE, this);
+
+        Response.CompleteListener listener = newProxyResponseListener(clientRequest, proxyResponse);
+        ProxyCache cache = getProxyCache();
+        if (cache == null)
+            proxyRequest.send(listener);
+        else
+            cache.send(proxyRequest, listener);
     }
 
     protected abstract Response.CompleteListener newProxyResponseListener(HttpServletRequest clientRequest, HttpServletResponse proxyResponse);
@@ -766,7 +1038,10 @@ public abstract class AbstractProxyServlet extends HttpServlet
         protected void onContinue(Request request)
         {
             HttpServletRequest clientRequest = (HttpServletRequest)request.getAttributes().get(CLIENT_REQUEST_ATTRIBUTE);
-            AbstractProxyServlet.this.onContinue(clientRequest, request);
+            AbstractProxyServlet servlet = (AbstractProxyServlet)request.getAttributes().get(PROXY_SERVLET_ATTRIBUTE);
+            if (servlet == null)
+                servlet = AbstractProxyServlet.this;
+            servlet.onContinue(clientRequest, request);
         }
     }
 }
@@ -18,7 +18,6 @@
 
 package org.eclipse.jetty.proxy;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
@@ -39,7 +38,6 @@ import javax.servlet.WriteListener;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
-import org.eclipse.jetty.client.ContentDecoder;
 import org.eclipse.jetty.client.GZIPContentDecoder;
 import org.eclipse.jetty.client.api.Request;
 import org.eclipse.jetty.client.api.Response;
@@ -47,7 +45,9 @@ import org.eclipse.jetty.client.api.Result;
 import org.eclipse.jetty.client.util.DeferredContentProvider;
 import org.eclipse.jetty.http.HttpHeader;
 import org.eclipse.jetty.http.HttpVersion;
+import org.eclipse.jetty.io.ByteBufferPool;
 import org.eclipse.jetty.io.RuntimeIOException;
+import org.eclipse.jetty.server.HttpChannel;
 import org.eclipse.jetty.util.BufferUtil;
 import org.eclipse.jetty.util.Callback;
 import org.eclipse.jetty.util.CountingCallback;
@@ -170,6 +170,23 @@ public class AsyncMiddleManServlet extends AbstractProxyServlet
         return ContentTransformer.IDENTITY;
     }
 
+    /**
+     * <p>Returns the {@link ByteBufferPool} that content transformers should use
+     * to allocate their output buffers, typically passed to the constructor of
+     * {@link PooledContentTransformer} subclasses.</p>
+     * <p>This implementation returns the pool of the connector that received the
+     * client request, so that the buffers are shared with the server I/O.</p>
+     *
+     * @param clientRequest the client request
+     * @return the pool to allocate content transformer buffers from
+     */
+    protected ByteBufferPool getByteBufferPool(HttpServletRequest clientRequest)
+    {
+        org.eclipse.jetty.server.Request request = org.eclipse.jetty.server.Request.getBaseRequest(clientRequest);
+        HttpChannel channel = request == null ? null : request.getHttpChannel();
+        return channel == null ? getHttpClient().getByteBufferPool() : channel.getByteBufferPool();
+    }
+
     @Override
     protected void onContinue(HttpServletRequest clientRequest, Request proxyRequest)
     {
@@ -191,6 +208,34 @@ public class AsyncMiddleManServlet extends AbstractProxyServlet
         }
     }
 
+    /**
+     * @param transformer the transformer that produced the buffer
+     * @param buffer the transformed buffer
+     * @param callback the callback to complete when the buffer has been written
+     * @return a callback that also releases the buffer to the transformer
+     */
+    private static Callback release(ContentTransformer transformer, ByteBuffer buffer, Callback callback)
+    {
+        if (transformer == ContentTransformer.IDENTITY)
+            return callback;
+        return new Callback.Nested(callback)
+        {
+            @Override
+            public void succeeded()
+            {
+                transformer.release(buffer);
+                super.succeeded();
+            }
+
+            @Override
+            public void failed(Throwable x)
+            {
+                transformer.release(buffer);
+                super.failed(x);
+            }
+        };
+    }
+
     int readClientRequestContent(ServletInputStream input, byte[] buffer) throws IOException
     {
         return input.read(buffer);
@@ -208,7 +253,7 @@ public class AsyncMiddleManServlet extends AbstractProxyServlet
         byte[] buffer;
         if (content.hasArray())
         {
-            offset = content.arrayOffset();
+            offset = content.arrayOffset() + content.position();
             buffer = content.array();
         }
         else
@@ -374,7 +419,7 @@ public class AsyncMiddleManServlet extends AbstractProxyServlet
                 {
                     ByteBuffer buffer = buffers.get(i);
                     newContentBytes += buffer.remaining();
-                    provider.offer(buffer, counter);
+                    provider.offer(buffer, release(transformer, buffer, counter));
                 }
                 buffers.clear();
             }
@@ -480,7 +525,7 @@ public class AsyncMiddleManServlet extends AbstractProxyServlet
                     {
                         ByteBuffer buffer = buffers.get(i);
                         newContentBytes += buffer.remaining();
-                        proxyWriter.offer(buffer, counter);
+                        proxyWriter.offer(buffer, release(transformer, buffer, counter));
                     }
                     buffers.clear();
                 }
@@ -544,7 +589,7 @@ public class AsyncMiddleManServlet extends AbstractProxyServlet
                             {
                                 ByteBuffer buffer = buffers.get(i);
                                 newContentBytes += buffer.remaining();
-                                proxyWriter.offer(buffer, callback);
+                                proxyWriter.offer(buffer, release(transformer, buffer, callback));
                             }
                             buffers.clear();
                         }
@@ -708,9 +753,13 @@ public class AsyncMiddleManServlet extends AbstractProxyServlet
          * For example, a buffering transformer may buffer the input aside, and only
          * perform the transformation when the whole input is provided (by looking at the
          * {@code finished} flag).</p>
-         * <p>The input buffer will be cleared and reused after the call to this method.
-         * Implementations that want to buffer aside the input (or part of it) must copy
-         * the input bytes that they want to buffer.</p>
+         * <p>The input buffer will be cleared and reused after the output buffers produced
+         * from it have been written, so the output buffers may be slices of the input buffer.
+         * Implementations that want to buffer aside the input (or part of it) across calls
+         * to this method must copy the input bytes that they want to buffer.</p>
+         * <p>Output buffers may be allocated from a {@link ByteBufferPool} (see
+         * {@link PooledContentTransformer}) and returned to the pool when they are
+         * passed to {@link #release(ByteBuffer)}.</p>
          * <p>Typical implementations:</p>
          * <pre>
          * // Identity transformation (no transformation, the input is copied to the output)
@@ -746,6 +795,18 @@ public class AsyncMiddleManServlet extends AbstractProxyServlet
          * @throws IOException in case of transformation failures
          */
         public void transform(ByteBuffer input, boolean finished, List<ByteBuffer> output) throws IOException;
+
+        /**
+         * <p>Callback method invoked when an output buffer produced by
+         * {@link #transform(ByteBuffer, boolean, List)} has been written and may be reused.</p>
+         * <p>Implementations must only release buffers that they allocated; output buffers
+         * that are the input buffer, or slices of it, must be ignored.</p>
+         *
+         * @param output the output buffer to release
+         */
+        public default void release(ByteBuffer output)
+        {
+        }
     }
 
     private static class IdentityContentTransformer implements ContentTransformer
@@ -757,22 +818,35 @@ public class AsyncMiddleManServlet extends AbstractProxyServlet
         }
     }
 
-    public static class GZIPContentTransformer implements ContentTransformer
+    /**
+     * <p>A {@link ContentTransformer} that ungzips the content, passes it to another
+     * transformer, and gzips the result.</p>
+     * <p>When a {@link ByteBufferPool} is specified, the ungzipped and the gzipped
+     * buffers are allocated from the pool.</p>
+     */
+    public static class GZIPContentTransformer extends PooledContentTransformer
     {
         private static final Logger logger = Log.getLogger(GZIPContentTransformer.class);
 
         private final List<ByteBuffer> buffers = new ArrayList<>(2);
-        private final ContentDecoder decoder = new GZIPContentDecoder();
+        private final GZIPContentDecoder decoder;
         private final ContentTransformer transformer;
-        private final ByteArrayOutputStream out;
+        private final BufferOutputStream out;
         private final GZIPOutputStream gzipOut;
 
         public GZIPContentTransformer(ContentTransformer transformer)
         {
+            this(null, transformer);
+        }
+
+        public GZIPContentTransformer(ByteBufferPool byteBufferPool, ContentTransformer transformer)
+        {
+            super(byteBufferPool);
             try
             {
                 this.transformer = transformer;
-                this.out = new ByteArrayOutputStream();
+                this.decoder = new GZIPContentDecoder(byteBufferPool, 2048);
+                this.out = new BufferOutputStream();
                 this.gzipOut = new GZIPOutputStream(out);
             }
             catch (IOException x)
@@ -787,10 +861,11 @@ public class AsyncMiddleManServlet extends AbstractProxyServlet
             if (logger.isDebugEnabled())
                 logger.debug("Ungzipping {} bytes, finished={}", input.remaining(), finished);
 
+            boolean transformed = false;
             if (!input.hasRemaining())
             {
                 if (finished)
-                    transformer.transform(input, true, buffers);
+                    transformed = gzip(input, true);
             }
             else
             {
@@ -801,27 +876,85 @@ public class AsyncMiddleManServlet extends AbstractProxyServlet
                     if (logger.isDebugEnabled())
                         logger.debug("Ungzipped {} bytes, complete={}", decoded.remaining(), complete);
                     if (decoded.hasRemaining() || complete)
-                        transformer.transform(decoded, complete, buffers);
+                        transformed |= gzip(decoded, complete);
+                    decoder.release(decoded);
                 }
             }
 
-            if (!buffers.isEmpty() || finished)
+            if (transformed || finished)
             {
-                ByteBuffer result = gzip(buffers, finished);
-                buffers.clear();
-                output.add(result);
+                if (finished)
+                    gzipOut.close();
+                output.add(out.take());
             }
         }
 
-        private ByteBuffer gzip(List<ByteBuffer> buffers, boolean finished) throws IOException
+        private boolean gzip(ByteBuffer decoded, boolean finished) throws IOException
         {
+            transformer.transform(decoded, finished, buffers);
+            if (buffers.isEmpty())
+                return false;
+            // The buffers are gzipped synchronously, so they can be released immediately.
             for (ByteBuffer buffer : buffers)
+            {
                 write(gzipOut, buffer);
-            if (finished)
-                gzipOut.close();
-            byte[] gzipBytes = out.toByteArray();
-            out.reset();
-            return ByteBuffer.wrap(gzipBytes);
+                transformer.release(buffer);
+            }
+            buffers.clear();
+            return true;
+        }
+
+        @Override
+        public void destroy()
+        {
+            decoder.destroy();
+            if (transformer instanceof Destroyable)
+                ((Destroyable)transformer).destroy();
+            super.destroy();
+        }
+
+        /**
+         * <p>Collects the gzipped bytes into a buffer acquired from the pool.</p>
+         */
+        private class BufferOutputStream extends OutputStream
+        {
+            private ByteBuffer buffer;
+
+            @Override
+            public void write(int b) throws IOException
+            {
+                ensureSpace(1);
+                BufferUtil.append(buffer, (byte)b);
+            }
+
+            @Override
+            public void write(byte[] bytes, int offset, int length) throws IOException
+            {
+                ensureSpace(length);
+                BufferUtil.append(buffer, bytes, offset, length);
+            }
+
+            private void ensureSpace(int length)
+            {
+                if (buffer == null)
+                {
+                    buffer = acquire(Math.max(length, 4096));
+                }
+                else if (BufferUtil.space(buffer) < length)
+                {
+                    ByteBuffer bigger = acquire(Math.max(2 * buffer.capacity(), buffer.remaining() + length));
+                    BufferUtil.append(bigger, buffer);
+                    release(buffer);
+                    buffer = bigger;
+                }
+            }
+
+            private ByteBuffer take()
+            {
+                ByteBuffer result = buffer;
+                buffer = null;
+                return result == null ? BufferUtil.EMPTY_BUFFER : result;
+            }
         }
     }
 
@@ -0,0 +1,120 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2017 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.proxy;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.eclipse.jetty.client.ConnectionPool;
+import org.eclipse.jetty.client.HttpDestination;
+import org.eclipse.jetty.util.log.Log;
+import org.eclipse.jetty.util.log.Logger;
+
+/**
+ * <p>A {@link ConnectionPool.Factory} that limits the number of connections
+ * to specific backends, overriding {@link org.eclipse.jetty.client.HttpClient#getMaxConnectionsPerDestination()}.</p>
+ * <p>Connection pools are created by the transport's original factory, so that
+ * multiplexed transports such as HTTP/2 keep their multiplexed connection pools.
+ * For backends with a limit, the limit is passed to the original factory, which
+ * must therefore be a {@link ConnectionPool.MaxConnectionsFactory}, as the factories
+ * of the Jetty transports are; other factories cannot be limited.</p>
+ */
+public class BackendConnectionPoolFactory implements ConnectionPool.Factory
+{
+    private static final Logger LOG = Log.getLogger(BackendConnectionPoolFactory.class);
+
+    private final Map<String, Integer> limits = new ConcurrentHashMap<>();
+    private final ConnectionPool.Factory factory;
+
+    public BackendConnectionPoolFactory(ConnectionPool.Factory factory)
+    {
+        this.factory = factory;
+    }
+
+    /**
+     * <p>Sets the limits from a comma separated list of {@code host:port=maxConnections}
+     * entries, for example {@code backend1:8080=16,backend2:8080=4}.</p>
+     *
+     * @param limits the limits to parse
+     */
+    public void setMaxConnections(String limits)
+    {
+        for (String limit : limits.split(","))
+        {
+            limit = limit.trim();
+            if (limit.isEmpty())
+                continue;
+            int equals = limit.lastIndexOf('=');
+            int colon = limit.lastIndexOf(':', equals);
+            if (equals < 0 || colon < 0)
+                throw new IllegalArgumentException("Invalid backend connection limit " + limit);
+            String host = limit.substring(0, colon).trim();
+            int port = Integer.parseInt(limit.substring(colon + 1, equals).trim());
+            int maxConnections = Integer.parseInt(limit.substring(equals + 1).trim());
+            setMaxConnections(host, port, maxConnections);
+        }
+    }
+
+    /**
+     * @param host the backend host
+     * @param port the backend port
+     * @param maxConnections the max number of connections to the backend
+     */
+    public void setMaxConnections(String host, int port, int maxConnections)
+    {
+        Integer previous = limits.put(key(host, port), maxConnections);
+        if (previous != null && previous != maxConnections)
+            LOG.warn("Connection limit to {}:{} changed from {} to {}", host, port, previous, maxConnections);
+    }
+
+    /**
+     * @param host the backend host
+     * @param port the backend port
+     * @return the max number of connections to the backend, or -1 if there is no specific limit
+     */
+    public int getMaxConnections(String host, int port)
+    {
+        Integer maxConnections = limits.get(key(host, port));
+        return maxConnections == null ? -1 : maxConnections;
+    }
+
+    @Override
+    public ConnectionPool newConnectionPool(HttpDestination destination)
+    {
+        int maxConnections = getMaxConnections(destination.getHost(), destination.getPort());
+        if (maxConnections < 0)
+            return factory.newConnectionPool(destination);
+
+        if (!(factory instanceof ConnectionPool.MaxConnectionsFactory))
+        {
+            LOG.warn("Cannot limit connections to {} with {}", destination, factory);
+            return factory.newConnectionPool(destination);
+        }
+
+        if (LOG.isDebugEnabled())
+            LOG.debug("Limited connections to {} to {}", destination, maxConnections);
+        return ((ConnectionPool.MaxConnectionsFactory)factory).newConnectionPool(destination, maxConnections);
+    }
+
+    private static String key(String host, int port)
+    {
+        return host.toLowerCase(Locale.ENGLISH) + ":" + port;
+    }
+}
@@ -20,20 +20,60 @@ package org.eclipse.jetty.proxy;
 
 import java.net.URI;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Locale;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import javax.servlet.ServletException;
 import javax.servlet.UnavailableException;
 import javax.servlet.http.Cookie;
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 
 import org.eclipse.jetty.client.api.Response;
+import org.eclipse.jetty.http.HttpStatus;
 import org.eclipse.jetty.util.URIUtil;
-
+import org.eclipse.jetty.util.thread.Scheduler;
+
+/**
+ * <p>A {@link ProxyServlet} that balances requests among a set of members.</p>
+ * <p>Members are configured with init parameters in the form
+ * {@code balancerMember.<name>.proxyTo=<URI>}.
+ * Requests are sent to the members according to the {@code balancerPolicy} init parameter:</p>
+ * <ul>
+ * <li>{@code roundRobin} (the default) - each member in turn</li>
+ * <li>{@code leastRequests} - the member with the least outstanding requests</li>
+ * <li>{@code ewma} - the member with the least outstanding requests weighted by
+ * its peak exponentially weighted moving average latency, decaying over
+ * {@code ewmaDecay} milliseconds (default 10000); members without a latency sample,
+ * such as new members or members back from ejection, are given the median latency of
+ * the other members</li>
+ * </ul>
+ * <p>When {@code stickySessions} is true, requests with a session id that identifies
+ * a member are sent to that member, if it is available.</p>
+ * <p>When the {@code healthCheckPath} init parameter is set, members are actively
+ * probed with a {@code GET} request to that path every {@code healthCheckInterval}
+ * milliseconds (default 5000), with a timeout of {@code healthCheckTimeout} milliseconds
+ * (default 2000); a member becomes unhealthy after {@code unhealthyThreshold} (default 2)
+ * consecutive failed probes, and healthy again after {@code healthyThreshold} (default 2)
+ * consecutive successful probes.</p>
+ * <p>Members are also passively monitored: every {@code ejectionMinRequests} (default 20)
+ * requests to a member, the member is ejected when the ratio of requests that failed or
+ * returned a 5xx status is at least {@code ejectionErrorRate} (default 0.5), or, if
+ * {@code ejectionLatencyFactor} is positive, when its latency is more than that factor
+ * times the average latency of the other available members.
+ * Ejected members do not receive requests for {@code ejectionTime} milliseconds
+ * (default 30000) multiplied by the number of times they have been ejected (up to 10),
+ * and no more than {@code maxEjectionPercent} (default 50) percent of the members can be
+ * ejected at the same time.</p>
+ * <p>When no member is available, requests are balanced among all the members.</p>
+ */
 public class BalancerServlet extends ProxyServlet
 {
     private static final String BALANCER_MEMBER_PREFIX = "balancerMember.";
@@ -61,11 +101,27 @@ public class BalancerServlet extends ProxyServlet
 
     private static final String JSESSIONID = "jsessionid";
     private static final String JSESSIONID_URL_PREFIX = JSESSIONID + "=";
+    private static final String BALANCER_MEMBER_ATTRIBUTE = BalancerServlet.class.getName() + ".balancerMember";
+    private static final String REQUEST_TIME_ATTRIBUTE = BalancerServlet.class.getName() + ".requestTime";
 
     private final List<BalancerMember> _balancerMembers = new ArrayList<>();
     private final AtomicLong counter = new AtomicLong();
     private boolean _stickySessions;
     private boolean _proxyPassReverse;
+    private Policy _policy;
+    private long _ewmaDecay;
+    private String _healthCheckPath;
+    private long _healthCheckInterval;
+    private long _healthCheckTimeout;
+    private int _healthyThreshold;
+    private int _unhealthyThreshold;
+    private int _ejectionMinRequests;
+    private double _ejectionErrorRate;
+    private double _ejectionLatencyFactor;
+    private long _ejectionTime;
+    private int _maxEjectionPercent;
+    private volatile Scheduler.Task _healthCheckTask;
+    private volatile boolean _destroyed;
 
     @Override
     public void init() throws ServletException
@@ -75,6 +131,19 @@ public class BalancerServlet extends ProxyServlet
         initStickySessions();
         initBalancers();
         initProxyPassReverse();
+        initPolicy();
+        initOutlierEjection();
+        initHealthChecks();
+    }
+
+    @Override
+    public void destroy()
+    {
+        _destroyed = true;
+        Scheduler.Task task = _healthCheckTask;
+        if (task != null)
+            task.cancel();
+        super.destroy();
     }
 
     private void validateConfig() throws ServletException
@@ -112,6 +181,77 @@ public class BalancerServlet extends ProxyServlet
         _proxyPassReverse = Boolean.parseBoolean(getServletConfig().getInitParameter("proxyPassReverse"));
     }
 
+    private void initPolicy() throws ServletException
+    {
+        String policy = getServletConfig().getInitParameter("balancerPolicy");
+        try
+        {
+            _policy = policy == null ? Policy.ROUND_ROBIN : Policy.valueOf(policy.replaceAll("([a-z])([A-Z])", "$1_$2").toUpperCase(Locale.ENGLISH));
+        }
+        catch (IllegalArgumentException x)
+        {
+            throw new UnavailableException("Invalid balancerPolicy " + policy);
+        }
+        _ewmaDecay = TimeUnit.MILLISECONDS.toNanos(getLongInitParameter("ewmaDecay", 10000));
+    }
+
+    private void initOutlierEjection()
+    {
+        _ejectionMinRequests = (int)getLongInitParameter("ejectionMinRequests", 20);
+        _ejectionErrorRate = getDoubleInitParameter("ejectionErrorRate", 0.5);
+        _ejectionLatencyFactor = getDoubleInitParameter("ejectionLatencyFactor", 0);
+        _ejectionTime = TimeUnit.MILLISECONDS.toNanos(getLongInitParameter("ejectionTime", 30000));
+        _maxEjectionPercent = (int)getLongInitParameter("maxEjectionPercent", 50);
+    }
+
+    private void initHealthChecks()
+    {
+        _healthCheckPath = getServletConfig().getInitParameter("healthCheckPath");
+        _healthCheckInterval = getLongInitParameter("healthCheckInterval", 5000);
+        _healthCheckTimeout = getLongInitParameter("healthCheckTimeout", 2000);
+        _healthyThreshold = (int)getLongInitParameter("healthyThreshold", 2);
+        _unhealthyThreshold = (int)getLongInitParameter("unhealthyThreshold", 2);
+        if (_healthCheckPath != null)
+            scheduleHealthChecks();
+    }
+
+    private long getLongInitParameter(String name, long defaultValue)
+    {
+        String value = getServletConfig().getInitParameter(name);
+        return value == null ? defaultValue : Long.parseLong(value.trim());
+    }
+
+    private double getDoubleInitParameter(String name, double defaultValue)
+    {
+        String value = getServletConfig().getInitParameter(name);
+        return value == null ? defaultValue : Double.parseDouble(value.trim());
+    }
+
+    private void scheduleHealthChecks()
+    {
+        if (!_destroyed)
+            _healthCheckTask = getHttpClient().getScheduler().schedule(this::checkHealth, _healthCheckInterval, TimeUnit.MILLISECONDS);
+    }
+
+    private void checkHealth()
+    {
+        AtomicInteger pending = new AtomicInteger(_balancerMembers.size());
+        for (BalancerMember balancerMember : _balancerMembers)
+        {
+            String target = URI.create(balancerMember.getProxyTo() + "/" + _healthCheckPath).normalize().toString();
+            getHttpClient().newRequest(target)
+                    .timeout(_healthCheckTimeout, TimeUnit.MILLISECONDS)
+                    .send(result ->
+                    {
+                        boolean healthy = result.isSucceeded() && result.getResponse().getStatus() < HttpStatus.BAD_REQUEST_400;
+                        if (balancerMember.onHealthCheck(healthy) && _log.isDebugEnabled())
+                            _log.debug("{} is now {}", balancerMember, healthy ? "healthy" : "unhealthy");
+                        if (pending.decrementAndGet() == 0)
+                            scheduleHealthChecks();
+                    });
+        }
+    }
+
     private Set<String> getBalancerNames() throws ServletException
     {
         Set<String> names = new HashSet<>();
@@ -139,23 +279,160 @@ public class BalancerServlet extends ProxyServlet
         String query = request.getQueryString();
         if (query != null)
             path += "?" + query;
-        return URI.create(balancerMember.getProxyTo() + "/" + path).normalize().toString();
+        // Build the target first, so that an invalid URI
+        // does not leave an outstanding request behind.
+        String target = URI.create(balancerMember.getProxyTo() + "/" + path).normalize().toString();
+        balancerMember.onBegin();
+        request.setAttribute(BALANCER_MEMBER_ATTRIBUTE, balancerMember);
+        request.setAttribute(REQUEST_TIME_ATTRIBUTE, System.nanoTime());
+        return target;
     }
 
     private BalancerMember selectBalancerMember(HttpServletRequest request)
     {
+        long now = System.nanoTime();
+        List<BalancerMember> available = new ArrayList<>(_balancerMembers.size());
+        for (BalancerMember balancerMember : _balancerMembers)
+        {
+            if (balancerMember.isAvailable(now))
+                available.add(balancerMember);
+        }
+        // Fail open, rather than failing all requests.
+        if (available.isEmpty())
+            available = _balancerMembers;
+
         if (_stickySessions)
         {
             String name = getBalancerMemberNameFromSessionId(request);
             if (name != null)
             {
                 BalancerMember balancerMember = findBalancerMemberByName(name);
-                if (balancerMember != null)
+                if (balancerMember != null && available.contains(balancerMember))
                     return balancerMember;
             }
         }
-        int index = (int)(counter.getAndIncrement() % _balancerMembers.size());
-        return _balancerMembers.get(index);
+
+        int size = available.size();
+        int index = (int)(counter.getAndIncrement() % size);
+        if (_policy == Policy.ROUND_ROBIN)
+            return available.get(index);
+
+        double[] latencies = null;
+        if (_policy == Policy.EWMA)
+        {
+            latencies = new double[size];
+            for (int i = 0; i < size; ++i)
+                latencies[i] = available.get(i).getLatency(now);
+            // Members without a latency sample, either new or back from
+            // ejection, are assumed to be as fast as the median member,
+            // otherwise their zero cost would attract all the requests.
+            double median = median(latencies);
+            for (int i = 0; i < size; ++i)
+            {
+                if (latencies[i] < 0)
+                    latencies[i] = median;
+            }
+        }
+
+        // Scan from a rotating index, so that ties are broken in round robin.
+        BalancerMember result = null;
+        double minCost = Double.MAX_VALUE;
+        for (int i = 0; i < size; ++i)
+        {
+            int position = (index + i) % size;
+            BalancerMember balancerMember = available.get(position);
+            double cost = balancerMember.getOutstandingRequests() + 1;
+            if (latencies != null)
+                cost *= latencies[position];
+            if (cost < minCost)
+            {
+                minCost = cost;
+                result = balancerMember;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @param latencies the latencies, negative if unknown
+     * @return the median of the known latencies, or 1 if no latency is known
+     */
+    private static double median(double[] latencies)
+    {
+        double[] known = Arrays.stream(latencies).filter(latency -> latency >= 0).sorted().toArray();
+        int length = known.length;
+        if (length == 0)
+            return 1;
+        if (length % 2 == 1)
+            return known[length / 2];
+        return (known[length / 2 - 1] + known[length / 2]) / 2;
+    }
+
+    @Override
+    protected void onProxyResponseSuccess(HttpServletRequest clientRequest, HttpServletResponse proxyResponse, Response serverResponse)
+    {
+        onBalancerMemberComplete(clientRequest, serverResponse.getStatus() >= HttpStatus.INTERNAL_SERVER_ERROR_500);
+        super.onProxyResponseSuccess(clientRequest, proxyResponse, serverResponse);
+    }
+
+    @Override
+    protected void onProxyResponseFailure(HttpServletRequest clientRequest, HttpServletResponse proxyResponse, Response serverResponse, Throwable failure)
+    {
+        onBalancerMemberComplete(clientRequest, true);
+        super.onProxyResponseFailure(clientRequest, proxyResponse, serverResponse, failure);
+    }
+
+    private void onBalancerMemberComplete(HttpServletRequest request, boolean failed)
+    {
+        BalancerMember balancerMember = (BalancerMember)request.getAttribute(BALANCER_MEMBER_ATTRIBUTE);
+        if (balancerMember == null)
+            return;
+        request.removeAttribute(BALANCER_MEMBER_ATTRIBUTE);
+        long now = System.nanoTime();
+        long latency = now - (Long)request.getAttribute(REQUEST_TIME_ATTRIBUTE);
+        double errorRate = balancerMember.onComplete(now, latency, failed);
+        if (errorRate >= 0)
+            detectOutlier(balancerMember, now, errorRate);
+    }
+
+    private void detectOutlier(BalancerMember balancerMember, long now, double errorRate)
+    {
+        boolean outlier = _ejectionErrorRate > 0 && errorRate >= _ejectionErrorRate;
+        if (!outlier && _ejectionLatencyFactor > 0)
+        {
+            double latency = 0;
+            int count = 0;
+            for (BalancerMember other : _balancerMembers)
+            {
+                if (other != balancerMember && other.isAvailable(now))
+                {
+                    double otherLatency = other.getLatency(now);
+                    if (otherLatency >= 0)
+                    {
+                        latency += otherLatency;
+                        ++count;
+                    }
+                }
+            }
+            outlier = count > 0 && balancerMember.getLatency(now) > _ejectionLatencyFactor * latency / count;
+        }
+        if (!outlier)
+            return;
+
+        synchronized (_balancerMembers)
+        {
+            int ejected = 0;
+            for (BalancerMember member : _balancerMembers)
+            {
+                if (member.isEjected(now))
+                    ++ejected;
+            }
+            if ((ejected + 1) * 100 > _maxEjectionPercent * _balancerMembers.size())
+                return;
+            balancerMember.eject(now, _ejectionTime);
+        }
+        if (_log.isDebugEnabled())
+            _log.debug("Ejected {}, error rate {}", balancerMember, errorRate);
     }
 
     private BalancerMember findBalancerMemberByName(String name)
@@ -259,11 +536,27 @@ public class BalancerServlet extends ProxyServlet
         return true;
     }
 
-    private static class BalancerMember
+    private enum Policy
     {
+        ROUND_ROBIN, LEAST_REQUESTS, EWMA
+    }
+
+    private class BalancerMember
+    {
+        private final AtomicInteger _outstanding = new AtomicInteger();
         private final String _name;
         private final String _proxyTo;
         private final URI _backendURI;
+        private volatile boolean _healthy = true;
+        private int _healthChecks;
+        private boolean _ejected;
+        private long _ejectedUntil;
+        private int _ejections;
+        private boolean _sampled;
+        private double _latency;
+        private long _latencyTime;
+        private int _windowRequests;
+        private int _windowErrors;
 
         public BalancerMember(String name, String proxyTo)
         {
@@ -287,10 +580,107 @@ public class BalancerServlet extends ProxyServlet
             return _backendURI;
         }
 
+        public int getOutstandingRequests()
+        {
+            return _outstanding.get();
+        }
+
+        public boolean isAvailable(long now)
+        {
+            return _healthy && !isEjected(now);
+        }
+
+        public synchronized boolean isEjected(long now)
+        {
+            if (_ejected && now - _ejectedUntil >= 0)
+                _ejected = false;
+            return _ejected;
+        }
+
+        public synchronized void eject(long now, long time)
+        {
+            _ejections = Math.min(10, _ejections + 1);
+            _ejected = true;
+            _ejectedUntil = now + time * _ejections;
+            // The latency will be stale when the member is back.
+            _sampled = false;
+        }
+
+        /**
+         * @param now the current nano time
+         * @return the peak EWMA latency in nanoseconds, decayed since the last update,
+         * or -1 if there is no latency sample
+         */
+        public synchronized double getLatency(long now)
+        {
+            if (!_sampled)
+                return -1;
+            return _latency * Math.exp(-(double)(now - _latencyTime) / _ewmaDecay);
+        }
+
+        public void onBegin()
+        {
+            _outstanding.incrementAndGet();
+        }
+
+        /**
+         * @param now the current nano time
+         * @param latency the request latency, in nanoseconds
+         * @param failed whether the request failed
+         * @return the error rate if enough requests have been completed to evaluate it, or -1
+         */
+        public double onComplete(long now, long latency, boolean failed)
+        {
+            _outstanding.decrementAndGet();
+            synchronized (this)
+            {
+                double decayed = getLatency(now);
+                // Peak EWMA: react immediately to latency spikes, recover smoothly.
+                if (!_sampled || latency > decayed)
+                    _latency = latency;
+                else
+                    _latency = decayed + (latency - decayed) * (1 - Math.exp(-(double)(now - _latencyTime) / _ewmaDecay));
+                _latencyTime = now;
+                _sampled = true;
+
+                ++_windowRequests;
+                if (failed)
+                    ++_windowErrors;
+                if (_windowRequests < _ejectionMinRequests)
+                    return -1;
+                double errorRate = (double)_windowErrors / _windowRequests;
+                _windowRequests = 0;
+                _windowErrors = 0;
+                if (errorRate == 0)
+                    _ejections = 0;
+                return errorRate;
+            }
+        }
+
+        /**
+         * @param healthy whether the health check succeeded
+         * @return whether the health of this member changed
+         */
+        public synchronized boolean onHealthCheck(boolean healthy)
+        {
+            if (healthy == _healthy)
+            {
+                _healthChecks = 0;
+                return false;
+            }
+            if (++_healthChecks < (healthy ? _healthyThreshold : _unhealthyThreshold))
+                return false;
+            _healthChecks = 0;
+            _healthy = healthy;
+            if (!healthy)
+                _sampled = false;
+            return true;
+        }
+
         @Override
         public String toString()
         {
-            return String.format("%s[name=%s,proxyTo=%s]", getClass().getSimpleName(), _name, _proxyTo);
+            return String.format("%s[name=%s,proxyTo=%s,healthy=%b,outstanding=%d]", getClass().getSimpleName(), _name, _proxyTo, _healthy, getOutstandingRequests());
         }
 
         @Override
@@ -0,0 +1,239 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2017 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.proxy;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.jetty.util.BufferUtil;
+import org.eclipse.jetty.util.component.Destroyable;
+
+/**
+ * <p>A {@link AsyncMiddleManServlet.ContentTransformer} that pipes the content
+ * through a chain of transformers, the output of each being the input of the next.</p>
+ * <p>The buffers produced by the intermediate transformers are passed along without
+ * copies, and are only released when all the output buffers produced from them
+ * have been released, so that transformers may output slices of their input.</p>
+ */
+public class ChainedContentTransformer implements AsyncMiddleManServlet.ContentTransformer, Destroyable
+{
+    private final Map<ByteBuffer, Node> batches = new IdentityHashMap<>();
+    private final List<AsyncMiddleManServlet.ContentTransformer> transformers;
+    private List<ByteBuffer> input = new ArrayList<>();
+    private List<ByteBuffer> output = new ArrayList<>();
+
+    public ChainedContentTransformer(AsyncMiddleManServlet.ContentTransformer... transformers)
+    {
+        this(Arrays.asList(transformers));
+    }
+
+    public ChainedContentTransformer(List<AsyncMiddleManServlet.ContentTransformer> transformers)
+    {
+        if (transformers.isEmpty())
+            throw new IllegalArgumentException("No transformers");
+        this.transformers = new ArrayList<>(transformers);
+    }
+
+    public List<AsyncMiddleManServlet.ContentTransformer> getContentTransformers()
+    {
+        return transformers;
+    }
+
+    @Override
+    public void transform(ByteBuffer content, boolean finished, List<ByteBuffer> result) throws IOException
+    {
+        List<AsyncMiddleManServlet.ContentTransformer> held = null;
+        List<ByteBuffer> heldBuffers = null;
+
+        input.clear();
+        input.add(content);
+        for (int t = 0; t < transformers.size(); ++t)
+        {
+            AsyncMiddleManServlet.ContentTransformer transformer = transformers.get(t);
+            int size = input.size();
+            if (size == 0)
+            {
+                if (finished)
+                    transformer.transform(BufferUtil.EMPTY_BUFFER, true, output);
+            }
+            else
+            {
+                for (int i = 0; i < size; ++i)
+                    transformer.transform(input.get(i), finished && i == size - 1, output);
+            }
+
+            // The output of the previous transformer has been consumed,
+            // but it may be referenced by the output of this transformer.
+            if (t > 0 && size > 0)
+            {
+                if (held == null)
+                {
+                    held = new ArrayList<>();
+                    heldBuffers = new ArrayList<>();
+                }
+                AsyncMiddleManServlet.ContentTransformer previous = transformers.get(t - 1);
+                for (int i = 0; i < size; ++i)
+                {
+                    held.add(previous);
+                    heldBuffers.add(input.get(i));
+                }
+            }
+
+            List<ByteBuffer> swap = input;
+            input = output;
+            output = swap;
+            output.clear();
+        }
+
+        if (held == null)
+        {
+            result.addAll(input);
+        }
+        else
+        {
+            Batch batch = new Batch(held, heldBuffers);
+            synchronized (batches)
+            {
+                for (ByteBuffer buffer : input)
+                {
+                    if (buffer.hasRemaining())
+                    {
+                        batch.retain();
+                        Node node = new Node(batch);
+                        Node existing = batches.putIfAbsent(buffer, node);
+                        if (existing != null)
+                            existing.append(node);
+                    }
+                }
+            }
+            result.addAll(input);
+            // Release the reference taken on creation.
+            batch.release();
+        }
+        input.clear();
+    }
+
+    @Override
+    public void release(ByteBuffer buffer)
+    {
+        transformers.get(transformers.size() - 1).release(buffer);
+        Node node;
+        synchronized (batches)
+        {
+            node = batches.remove(buffer);
+            if (node != null && node.next != null)
+                batches.put(buffer, node.next);
+        }
+        if (node != null)
+            node.batch.release();
+    }
+
+    @Override
+    public void destroy()
+    {
+        List<Node> pending;
+        synchronized (batches)
+        {
+            pending = new ArrayList<>(batches.values());
+            batches.clear();
+        }
+        for (Node node : pending)
+        {
+            for (Node n = node; n != null; n = n.next)
+                n.batch.releaseAll();
+        }
+        for (AsyncMiddleManServlet.ContentTransformer transformer : transformers)
+        {
+            if (transformer instanceof Destroyable)
+                ((Destroyable)transformer).destroy();
+        }
+    }
+
+    /**
+     * <p>The intermediate buffers produced by one invocation of {@link #transform(ByteBuffer, boolean, List)},
+     * released when all the final buffers produced by that invocation have been released.</p>
+     */
+    private static class Batch
+    {
+        private final List<AsyncMiddleManServlet.ContentTransformer> transformers;
+        private final List<ByteBuffer> buffers;
+        private int references = 1;
+        private boolean released;
+
+        private Batch(List<AsyncMiddleManServlet.ContentTransformer> transformers, List<ByteBuffer> buffers)
+        {
+            this.transformers = transformers;
+            this.buffers = buffers;
+        }
+
+        private synchronized void retain()
+        {
+            ++references;
+        }
+
+        private void release()
+        {
+            synchronized (this)
+            {
+                if (--references > 0)
+                    return;
+            }
+            releaseAll();
+        }
+
+        private void releaseAll()
+        {
+            synchronized (this)
+            {
+                if (released)
+                    return;
+                released = true;
+            }
+            for (int i = 0; i < buffers.size(); ++i)
+                transformers.get(i).release(buffers.get(i));
+        }
+    }
+
+    /**
+     * <p>The batches referenced by an output buffer, in the order they output it.</p>
+     */
+    private static class Node
+    {
+        private final Batch batch;
+        private Node next;
+
+        private Node(Batch batch)
+        {
+            this.batch = batch;
+        }
+
+        private void append(Node node)
+        {
+            Node n = this;
+            while (n.next != null)
+                n = n.next;
+            n.next = node;
+        }
+    }
+}
@@ -30,6 +30,7 @@ import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.LongAdder;
 
 import javax.servlet.AsyncContext;
 import javax.servlet.ServletException;
@@ -47,6 +48,7 @@ import org.eclipse.jetty.io.MappedByteBufferPool;
 import org.eclipse.jetty.io.SelectChannelEndPoint;
 import org.eclipse.jetty.io.SelectorManager;
 import org.eclipse.jetty.io.SocketChannelEndPoint;
+import org.eclipse.jetty.server.Connector;
 import org.eclipse.jetty.server.Handler;
 import org.eclipse.jetty.server.HttpConnection;
 import org.eclipse.jetty.server.HttpTransport;
@@ -57,20 +59,34 @@ import org.eclipse.jetty.util.Callback;
 import org.eclipse.jetty.util.HostPort;
 import org.eclipse.jetty.util.Promise;
 import org.eclipse.jetty.util.TypeUtil;
+import org.eclipse.jetty.util.annotation.ManagedAttribute;
+import org.eclipse.jetty.util.annotation.ManagedObject;
+import org.eclipse.jetty.util.annotation.ManagedOperation;
 import org.eclipse.jetty.util.log.Log;
 import org.eclipse.jetty.util.log.Logger;
+import org.eclipse.jetty.util.statistic.CounterStatistic;
+import org.eclipse.jetty.util.statistic.SampleStatistic;
 import org.eclipse.jetty.util.thread.ScheduledExecutorScheduler;
 import org.eclipse.jetty.util.thread.Scheduler;
 
 /**
  * <p>Implementation of a {@link Handler} that supports HTTP CONNECT.</p>
+ * <p>Each tunnel forwards bytes in each direction using a single direct buffer,
+ * reused for the whole lifetime of the tunnel.
+ * Unless explicitly configured, the {@link Scheduler} and the {@link ByteBufferPool}
+ * are shared with the {@link org.eclipse.jetty.server.Server} or its connectors.</p>
  */
+@ManagedObject("HTTP CONNECT tunnelling handler")
 public class ConnectHandler extends HandlerWrapper
 {
     protected static final Logger LOG = Log.getLogger(ConnectHandler.class);
 
     private final Set<String> whiteList = new HashSet<>();
     private final Set<String> blackList = new HashSet<>();
+    private final CounterStatistic tunnelStats = new CounterStatistic();
+    private final SampleStatistic tunnelThroughputStats = new SampleStatistic();
+    private final LongAdder bytesUpstream = new LongAdder();
+    private final LongAdder bytesDownstream = new LongAdder();
     private Executor executor;
     private Scheduler scheduler;
     private ByteBufferPool bufferPool;
@@ -168,10 +184,18 @@ public class ConnectHandler extends HandlerWrapper
             executor = getServer().getThreadPool();
 
         if (scheduler == null)
-            addBean(scheduler = new ScheduledExecutorScheduler());
+        {
+            scheduler = findServerBean(Scheduler.class);
+            if (scheduler == null)
+                addBean(scheduler = new ScheduledExecutorScheduler());
+        }
 
         if (bufferPool == null)
-            addBean(bufferPool = new MappedByteBufferPool());
+        {
+            bufferPool = findServerBean(ByteBufferPool.class);
+            if (bufferPool == null)
+                addBean(bufferPool = new MappedByteBufferPool());
+        }
 
         addBean(selector = newSelectorManager());
         selector.setConnectTimeout(getConnectTimeout());
@@ -179,6 +203,20 @@ public class ConnectHandler extends HandlerWrapper
         super.doStart();
     }
 
+    private <T> T findServerBean(Class<T> type)
+    {
+        T bean = getServer().getBean(type);
+        if (bean != null)
+            return bean;
+        for (Connector connector : getServer().getConnectors())
+        {
+            bean = connector.getBean(type);
+            if (bean != null)
+                return bean;
+        }
+        return null;
+    }
+
     protected SelectorManager newSelectorManager()
     {
         return new ConnectManager(getExecutor(), getScheduler(), 1);
@@ -335,6 +373,7 @@ public class ConnectHandler extends HandlerWrapper
 
         upstreamConnection.setConnection(downstreamConnection);
         downstreamConnection.setConnection(upstreamConnection);
+        tunnelStats.increment();
         if (LOG.isDebugEnabled())
             LOG.debug("Connection setup completed: {}<->{}", downstreamConnection, upstreamConnection);
 
@@ -346,6 +385,26 @@ public class ConnectHandler extends HandlerWrapper
         connectContext.getAsyncContext().complete();
     }
 
+    /**
+     * <p>Callback method invoked when a tunnel is closed, to update the tunnel statistics.</p>
+     *
+     * @param upstreamConnection the connection to the remote server
+     */
+    protected void onTunnelClosed(UpstreamConnection upstreamConnection)
+    {
+        tunnelStats.decrement();
+        long upstream = upstreamConnection.getBytesOut();
+        long downstream = upstreamConnection.getBytesIn();
+        bytesUpstream.add(upstream);
+        bytesDownstream.add(downstream);
+        long elapsed = Math.max(1, System.currentTimeMillis() - upstreamConnection.getCreatedTimeStamp());
+        long throughput = (upstream + downstream) * 1000 / elapsed;
+        tunnelThroughputStats.set(throughput);
+        if (LOG.isDebugEnabled())
+            LOG.debug("Tunnel closed {}<->{}: {} bytes upstream, {} bytes downstream in {} ms ({} bytes/s)",
+                    upstreamConnection.getConnection(), upstreamConnection, upstream, downstream, elapsed, throughput);
+    }
+
     protected void onConnectFailure(HttpServletRequest request, HttpServletResponse response, AsyncContext asyncContext, Throwable failure)
     {
         if (LOG.isDebugEnabled())
@@ -486,6 +545,63 @@ public class ConnectHandler extends HandlerWrapper
         return true;
     }
 
+    @ManagedOperation(value = "resets the tunnel statistics", impact = "ACTION")
+    public void statsReset()
+    {
+        tunnelStats.reset();
+        tunnelThroughputStats.reset();
+        bytesUpstream.reset();
+        bytesDownstream.reset();
+    }
+
+    @ManagedAttribute("number of tunnels opened")
+    public long getTunnels()
+    {
+        return tunnelStats.getTotal();
+    }
+
+    @ManagedAttribute("number of tunnels currently open")
+    public long getTunnelsActive()
+    {
+        return tunnelStats.getCurrent();
+    }
+
+    @ManagedAttribute("maximum number of tunnels open at the same time")
+    public long getTunnelsActiveMax()
+    {
+        return tunnelStats.getMax();
+    }
+
+    /**
+     * @return the number of bytes forwarded from clients to remote servers by closed tunnels
+     */
+    @ManagedAttribute("bytes forwarded from clients to remote servers")
+    public long getBytesUpstream()
+    {
+        return bytesUpstream.longValue();
+    }
+
+    /**
+     * @return the number of bytes forwarded from remote servers to clients by closed tunnels
+     */
+    @ManagedAttribute("bytes forwarded from remote servers to clients")
+    public long getBytesDownstream()
+    {
+        return bytesDownstream.longValue();
+    }
+
+    @ManagedAttribute("mean throughput of closed tunnels (in bytes/s)")
+    public double getTunnelThroughputMean()
+    {
+        return tunnelThroughputStats.getMean();
+    }
+
+    @ManagedAttribute("maximum throughput of closed tunnels (in bytes/s)")
+    public long getTunnelThroughputMax()
+    {
+        return tunnelThroughputStats.getMax();
+    }
+
     @Override
     public void dump(Appendable out, String indent) throws IOException
     {
@@ -588,6 +704,14 @@ public class ConnectHandler extends HandlerWrapper
             fillInterested();
         }
 
+        @Override
+        public void onClose()
+        {
+            super.onClose();
+            if (getConnection() != null)
+                onTunnelClosed(this);
+        }
+
         @Override
         protected int read(EndPoint endPoint, ByteBuffer buffer) throws IOException
         {
@@ -0,0 +1,240 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2017 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.proxy;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import org.eclipse.jetty.io.ByteBufferPool;
+import org.eclipse.jetty.util.BufferUtil;
+
+/**
+ * <p>Base class for streaming content transformers that replace tokens of the content
+ * (for example JSON strings or HTML attribute values) while the content flows through.</p>
+ * <p>Subclasses scan the input bytes in {@link #rewrite(ByteBuffer, int, int)} and call
+ * {@link #beginCapture(int)} and {@link #endCapture(int, String)} around the tokens
+ * they may want to replace.
+ * The bytes outside of captured tokens, and the captured tokens that are not replaced,
+ * are added to the output as slices of the input, without copies.
+ * Only tokens that span multiple input buffers are copied, into a pooled buffer that
+ * grows up to {@link #getMaxCaptureSize()} bytes; such tokens, if longer, are not replaced.</p>
+ * <p>Output slices reference the input buffer, which {@link AsyncMiddleManServlet}
+ * does not reuse until the output has been written.</p>
+ */
+public abstract class ContentRewriter extends PooledContentTransformer
+{
+    private int maxCaptureSize = 64 * 1024;
+    private ByteBuffer input;
+    private List<ByteBuffer> output;
+    private int mark;
+    private boolean capturing;
+    private int captureStart;
+    private ByteBuffer capture;
+    private boolean overflow;
+
+    protected ContentRewriter(ByteBufferPool byteBufferPool)
+    {
+        super(byteBufferPool);
+    }
+
+    public int getMaxCaptureSize()
+    {
+        return maxCaptureSize;
+    }
+
+    public void setMaxCaptureSize(int maxCaptureSize)
+    {
+        this.maxCaptureSize = maxCaptureSize;
+    }
+
+    @Override
+    public void transform(ByteBuffer input, boolean finished, List<ByteBuffer> output) throws IOException
+    {
+        this.input = input;
+        this.output = output;
+        try
+        {
+            int position = input.position();
+            int limit = input.limit();
+            mark = position;
+            captureStart = position;
+
+            rewrite(input, position, limit);
+
+            if (capturing && !overflow)
+            {
+                accumulate(captureStart, limit);
+                if (!overflow)
+                    mark = limit;
+            }
+            emit(mark, limit);
+            input.position(limit);
+
+            if (finished && capturing)
+            {
+                // Unterminated token, output it as is.
+                capturing = false;
+                overflow = false;
+                emitCapture();
+            }
+        }
+        finally
+        {
+            this.input = null;
+            this.output = null;
+        }
+    }
+
+    /**
+     * <p>Scans the given input bytes.</p>
+     * <p>Implementations must not modify the position or the limit of the input buffer.
+     * The state of the scan must be retained across calls, as tokens may span
+     * multiple input buffers.</p>
+     *
+     * @param input the input buffer
+     * @param position the index of the first byte to scan
+     * @param limit the index after the last byte to scan
+     * @throws IOException if the input cannot be rewritten
+     */
+    protected abstract void rewrite(ByteBuffer input, int position, int limit) throws IOException;
+
+    /**
+     * @param index the index of the first byte of the token
+     */
+    protected void beginCapture(int index)
+    {
+        emit(mark, index);
+        mark = index;
+        captureStart = index;
+        capturing = true;
+        overflow = false;
+    }
+
+    /**
+     * @param end the index after the last byte of the token
+     * @return the captured token decoded as UTF-8, or null if the token is too long
+     */
+    protected String captured(int end)
+    {
+        if (overflow)
+            return null;
+        if (capture == null)
+            return BufferUtil.toString(input, captureStart, end - captureStart, StandardCharsets.UTF_8);
+        accumulate(captureStart, end);
+        if (overflow)
+            return null;
+        captureStart = end;
+        return BufferUtil.toString(capture, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @param end the index after the last byte of the token
+     * @param replacement the replacement of the token, or null to keep the token
+     */
+    protected void endCapture(int end, String replacement)
+    {
+        capturing = false;
+        if (overflow)
+        {
+            overflow = false;
+            return;
+        }
+
+        if (replacement == null)
+        {
+            if (capture != null)
+            {
+                accumulate(captureStart, end);
+                if (!overflow)
+                {
+                    emitCapture();
+                    mark = end;
+                }
+                overflow = false;
+            }
+            // Otherwise the token is within the input, and it is output with the bytes that follow.
+        }
+        else
+        {
+            if (capture != null)
+            {
+                release(capture);
+                capture = null;
+            }
+            if (!replacement.isEmpty())
+                output.add(acquire(replacement));
+            mark = end;
+        }
+    }
+
+    private void accumulate(int from, int to)
+    {
+        int length = to - from;
+        if (length <= 0)
+            return;
+
+        int size = capture == null ? 0 : capture.remaining();
+        if (size + length > getMaxCaptureSize())
+        {
+            // Too long to be replaced, output it as it arrives.
+            emitCapture();
+            mark = captureStart;
+            overflow = true;
+            return;
+        }
+
+        if (capture == null)
+        {
+            capture = acquire(Math.max(length, 1024));
+        }
+        else if (BufferUtil.space(capture) < length)
+        {
+            ByteBuffer bigger = acquire(Math.max(2 * capture.capacity(), size + length));
+            BufferUtil.append(bigger, capture);
+            release(capture);
+            capture = bigger;
+        }
+        BufferUtil.append(capture, slice(from, to));
+    }
+
+    private void emitCapture()
+    {
+        if (capture != null)
+        {
+            output.add(capture);
+            capture = null;
+        }
+    }
+
+    private void emit(int from, int to)
+    {
+        if (to > from)
+            output.add(slice(from, to));
+    }
+
+    private ByteBuffer slice(int from, int to)
+    {
+        ByteBuffer slice = input.duplicate();
+        slice.limit(to);
+        slice.position(from);
+        return slice.slice();
+    }
+}
@@ -0,0 +1,338 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2017 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.proxy;
+
+import java.nio.ByteBuffer;
+
+import org.eclipse.jetty.io.ByteBufferPool;
+
+/**
+ * <p>A streaming {@link ContentRewriter} for HTML documents, that allows
+ * to replace attribute values, for example to rewrite the URLs of
+ * {@code <a href>} or {@code <img src>} elements.</p>
+ * <p>The document is scanned as it arrives, skipping comments, declarations and the
+ * content of {@code <script>} and {@code <style>} elements.
+ * Element and attribute names are passed to the rewrite methods in lower case;
+ * attribute values are passed, and returned, in their raw form, with character
+ * references not decoded. Replacements of unquoted values must not contain
+ * whitespace or the {@code >} character.</p>
+ */
+public abstract class HTMLContentRewriter extends ContentRewriter
+{
+    private final StringBuilder elementBuilder = new StringBuilder();
+    private final StringBuilder attributeBuilder = new StringBuilder();
+    private State state = State.TEXT;
+    private boolean closing;
+    private String element;
+    private String attribute;
+    private boolean rewritable;
+    private byte quote;
+    private int dashes;
+    private String rawEnd;
+    private int rawMatch;
+
+    protected HTMLContentRewriter(ByteBufferPool byteBufferPool)
+    {
+        super(byteBufferPool);
+    }
+
+    @Override
+    protected void rewrite(ByteBuffer input, int position, int limit)
+    {
+        for (int i = position; i < limit; ++i)
+        {
+            byte b = input.get(i);
+            switch (state)
+            {
+                case TEXT:
+                {
+                    if (b == '<')
+                        state = State.TAG_OPEN;
+                    break;
+                }
+                case RAW_TEXT:
+                {
+                    // Look for the end tag of <script> or <style>.
+                    if (lowerCase(b) == rawEnd.charAt(rawMatch))
+                    {
+                        if (++rawMatch == rawEnd.length())
+                        {
+                            closing = true;
+                            element = null;
+                            state = State.IN_TAG;
+                        }
+                    }
+                    else
+                    {
+                        rawMatch = b == '<' ? 1 : 0;
+                    }
+                    break;
+                }
+                case TAG_OPEN:
+                {
+                    if (b == '!')
+                    {
+                        state = State.BANG;
+                    }
+                    else if (b == '?')
+                    {
+                        state = State.DECLARATION;
+                    }
+                    else if (b == '/' || isLetter(b))
+                    {
+                        closing = b == '/';
+                        elementBuilder.setLength(0);
+                        if (!closing)
+                            elementBuilder.append(lowerCase(b));
+                        state = State.TAG_NAME;
+                    }
+                    else
+                    {
+                        state = b == '<' ? State.TAG_OPEN : State.TEXT;
+                    }
+                    break;
+                }
+                case BANG:
+                {
+                    state = b == '-' ? State.BANG_DASH : b == '>' ? State.TEXT : State.DECLARATION;
+                    break;
+                }
+                case BANG_DASH:
+                {
+                    if (b == '-')
+                    {
+                        dashes = 0;
+                        state = State.COMMENT;
+                    }
+                    else
+                    {
+                        state = b == '>' ? State.TEXT : State.DECLARATION;
+                    }
+                    break;
+                }
+                case COMMENT:
+                {
+                    if (b == '-')
+                        ++dashes;
+                    else if (b == '>' && dashes >= 2)
+                        state = State.TEXT;
+                    else
+                        dashes = 0;
+                    break;
+                }
+                case DECLARATION:
+                {
+                    if (b == '>')
+                        state = State.TEXT;
+                    break;
+                }
+                case TAG_NAME:
+                {
+                    if (isWhitespace(b) || b == '/' || b == '>')
+                    {
+                        element = elementBuilder.toString();
+                        if (b == '>')
+                            endTag();
+                        else
+                            state = State.IN_TAG;
+                    }
+                    else
+                    {
+                        elementBuilder.append(lowerCase(b));
+                    }
+                    break;
+                }
+                case IN_TAG:
+                {
+                    if (b == '>')
+                        endTag();
+                    else if (!isWhitespace(b) && b != '/')
+                        beginAttribute(b);
+                    break;
+                }
+                case ATTRIBUTE_NAME:
+                {
+                    if (b == '=')
+                    {
+                        endAttribute();
+                        state = State.BEFORE_VALUE;
+                    }
+                    else if (isWhitespace(b))
+                    {
+                        endAttribute();
+                        state = State.AFTER_ATTRIBUTE_NAME;
+                    }
+                    else if (b == '>')
+                    {
+                        endTag();
+                    }
+                    else if (b == '/')
+                    {
+                        state = State.IN_TAG;
+                    }
+                    else
+                    {
+                        attributeBuilder.append(lowerCase(b));
+                    }
+                    break;
+                }
+                case AFTER_ATTRIBUTE_NAME:
+                {
+                    if (b == '=')
+                        state = State.BEFORE_VALUE;
+                    else if (b == '>')
+                        endTag();
+                    else if (b == '/')
+                        state = State.IN_TAG;
+                    else if (!isWhitespace(b))
+                        beginAttribute(b);
+                    break;
+                }
+                case BEFORE_VALUE:
+                {
+                    if (b == '"' || b == '\'')
+                    {
+                        quote = b;
+                        beginValue(i + 1, State.QUOTED_VALUE);
+                    }
+                    else if (b == '>')
+                    {
+                        endTag();
+                    }
+                    else if (!isWhitespace(b))
+                    {
+                        beginValue(i, State.UNQUOTED_VALUE);
+                    }
+                    break;
+                }
+                case QUOTED_VALUE:
+                {
+                    if (b == quote)
+                    {
+                        endValue(i);
+                        state = State.IN_TAG;
+                    }
+                    break;
+                }
+                case UNQUOTED_VALUE:
+                {
+                    if (isWhitespace(b))
+                    {
+                        endValue(i);
+                        state = State.IN_TAG;
+                    }
+                    else if (b == '>')
+                    {
+                        endValue(i);
+                        endTag();
+                    }
+                    break;
+                }
+                default:
+                {
+                    throw new IllegalStateException();
+                }
+            }
+        }
+    }
+
+    private void beginAttribute(byte b)
+    {
+        attributeBuilder.setLength(0);
+        attributeBuilder.append(lowerCase(b));
+        state = State.ATTRIBUTE_NAME;
+    }
+
+    private void endAttribute()
+    {
+        attribute = attributeBuilder.toString();
+    }
+
+    private void beginValue(int index, State state)
+    {
+        this.state = state;
+        rewritable = !closing && element != null && isRewritable(element, attribute);
+        if (rewritable)
+            beginCapture(index);
+    }
+
+    private void endValue(int index)
+    {
+        if (!rewritable)
+            return;
+        String value = captured(index);
+        endCapture(index, value == null ? null : rewriteAttribute(element, attribute, value));
+    }
+
+    private void endTag()
+    {
+        if (!closing && ("script".equals(element) || "style".equals(element)))
+        {
+            rawEnd = "</" + element;
+            rawMatch = 0;
+            state = State.RAW_TEXT;
+        }
+        else
+        {
+            state = State.TEXT;
+        }
+    }
+
+    private static boolean isLetter(byte b)
+    {
+        return (b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z');
+    }
+
+    private static boolean isWhitespace(byte b)
+    {
+        return b == ' ' || b == '\t' || b == '\n' || b == '\r' || b == '\f';
+    }
+
+    private static char lowerCase(byte b)
+    {
+        return (char)(b >= 'A' && b <= 'Z' ? b + ('a' - 'A') : b & 0xFF);
+    }
+
+    /**
+     * <p>Returns whether the values of the given attribute may be rewritten;
+     * values that are not rewritable are not captured nor decoded.</p>
+     *
+     * @param element the lower case element name
+     * @param attribute the lower case attribute name
+     * @return whether the values of the given attribute may be rewritten
+     */
+    protected boolean isRewritable(String element, String attribute)
+    {
+        return true;
+    }
+
+    /**
+     * @param element the lower case element name
+     * @param attribute the lower case attribute name
+     * @param value the raw attribute value
+     * @return the replacement raw value, or null to keep the value
+     */
+    protected abstract String rewriteAttribute(String element, String attribute, String value);
+
+    private enum State
+    {
+        TEXT, RAW_TEXT, TAG_OPEN, BANG, BANG_DASH, COMMENT, DECLARATION, TAG_NAME,
+        IN_TAG, ATTRIBUTE_NAME, AFTER_ATTRIBUTE_NAME, BEFORE_VALUE, QUOTED_VALUE, UNQUOTED_VALUE
+    }
+}
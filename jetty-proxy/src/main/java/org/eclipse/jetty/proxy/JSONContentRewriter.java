@@ -0,0 +1,191 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2017 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.proxy;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+import org.eclipse.jetty.io.ByteBufferPool;
+
+/**
+ * <p>A streaming {@link ContentRewriter} for JSON documents, that allows
+ * to replace object member names and string values.</p>
+ * <p>The document is scanned as it arrives and is never parsed into objects,
+ * so documents of any size can be rewritten with bounded memory.
+ * Strings are passed to, and returned by, the rewrite methods in their raw
+ * form, as they appear between the quotes, with escape sequences not decoded.</p>
+ * <p>Typical usage is to rename fields or to rewrite URLs:</p>
+ * <pre>
+ * new JSONContentRewriter(getByteBufferPool(clientRequest))
+ * {
+ *     &#64;Override
+ *     protected boolean isRewritable(String name)
+ *     {
+ *         return "href".equals(name);
+ *     }
+ *
+ *     &#64;Override
+ *     protected String rewriteValue(String name, String value)
+ *     {
+ *         return value.replace("http://backend/", "https://frontend/");
+ *     }
+ * };
+ * </pre>
+ */
+public abstract class JSONContentRewriter extends ContentRewriter
+{
+    private final BitSet objects = new BitSet();
+    private final List<String> names = new ArrayList<>();
+    private int depth;
+    private boolean expectName;
+    private boolean inString;
+    private boolean escape;
+    private boolean inName;
+    private boolean rewritable;
+    private String name;
+
+    protected JSONContentRewriter(ByteBufferPool byteBufferPool)
+    {
+        super(byteBufferPool);
+    }
+
+    @Override
+    protected void rewrite(ByteBuffer input, int position, int limit)
+    {
+        for (int i = position; i < limit; ++i)
+        {
+            byte b = input.get(i);
+            if (inString)
+            {
+                if (escape)
+                    escape = false;
+                else if (b == '\\')
+                    escape = true;
+                else if (b == '"')
+                    endString(i);
+                continue;
+            }
+
+            switch (b)
+            {
+                case '{':
+                    push(true);
+                    name = null;
+                    expectName = true;
+                    break;
+                case '[':
+                    push(false);
+                    expectName = false;
+                    break;
+                case '}':
+                case ']':
+                    pop();
+                    expectName = false;
+                    break;
+                case ':':
+                    expectName = false;
+                    break;
+                case ',':
+                    expectName = depth > 0 && objects.get(depth - 1);
+                    break;
+                case '"':
+                    beginString(i + 1);
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    private void beginString(int index)
+    {
+        inString = true;
+        inName = expectName;
+        rewritable = inName || isRewritable(name);
+        if (rewritable)
+            beginCapture(index);
+    }
+
+    private void endString(int index)
+    {
+        inString = false;
+        if (!rewritable)
+            return;
+        String text = captured(index);
+        String replacement = null;
+        if (inName)
+        {
+            name = text;
+            if (text != null)
+                replacement = rewriteName(text);
+        }
+        else if (text != null)
+        {
+            replacement = rewriteValue(name, text);
+        }
+        endCapture(index, replacement);
+    }
+
+    private void push(boolean object)
+    {
+        objects.set(depth, object);
+        names.add(name);
+        ++depth;
+    }
+
+    private void pop()
+    {
+        if (depth == 0)
+            return;
+        --depth;
+        name = names.remove(depth);
+    }
+
+    /**
+     * @param name the raw name of the object member
+     * @return the replacement raw name, or null to keep the name
+     */
+    protected String rewriteName(String name)
+    {
+        return null;
+    }
+
+    /**
+     * <p>Returns whether string values of the given member may be rewritten;
+     * values that are not rewritable are not captured nor decoded.</p>
+     *
+     * @param name the raw name of the innermost object member whose value is being scanned,
+     * or null if the value is not within an object member
+     * @return whether the string values of the given member may be rewritten
+     */
+    protected boolean isRewritable(String name)
+    {
+        return true;
+    }
+
+    /**
+     * @param name the raw name of the innermost object member whose value is being scanned,
+     * or null if the value is not within an object member
+     * @param value the raw string value
+     * @return the replacement raw value, or null to keep the value
+     */
+    protected abstract String rewriteValue(String name, String value);
+}
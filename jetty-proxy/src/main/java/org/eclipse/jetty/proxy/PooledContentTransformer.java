@@ -0,0 +1,116 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2017 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.proxy;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+import org.eclipse.jetty.io.ByteBufferPool;
+import org.eclipse.jetty.util.BufferUtil;
+import org.eclipse.jetty.util.component.Destroyable;
+
+/**
+ * <p>Base class for {@link AsyncMiddleManServlet.ContentTransformer}s that
+ * produce their output in buffers acquired from a {@link ByteBufferPool}.</p>
+ * <p>Buffers obtained via {@link #acquire(int)} are tracked, and returned to the
+ * pool when {@link #release(ByteBuffer)} is invoked with the same buffer instance,
+ * typically by {@link AsyncMiddleManServlet} once the buffer has been written.
+ * Buffers not yet released are returned to the pool by {@link #destroy()}.</p>
+ * <p>Subclasses must add to the output the acquired buffer instances, not slices
+ * or duplicates of them, otherwise they cannot be released.</p>
+ *
+ * @see AsyncMiddleManServlet#getByteBufferPool(javax.servlet.http.HttpServletRequest)
+ */
+public abstract class PooledContentTransformer implements AsyncMiddleManServlet.ContentTransformer, Destroyable
+{
+    private final Set<ByteBuffer> buffers = Collections.newSetFromMap(new IdentityHashMap<>());
+    private final ByteBufferPool byteBufferPool;
+
+    /**
+     * @param byteBufferPool the pool to acquire buffers from, or null to allocate buffers
+     */
+    protected PooledContentTransformer(ByteBufferPool byteBufferPool)
+    {
+        this.byteBufferPool = byteBufferPool;
+    }
+
+    public ByteBufferPool getByteBufferPool()
+    {
+        return byteBufferPool;
+    }
+
+    /**
+     * @param capacity the minimum capacity of the buffer
+     * @return an empty heap buffer, in flush mode
+     */
+    protected ByteBuffer acquire(int capacity)
+    {
+        ByteBuffer buffer = byteBufferPool == null ? BufferUtil.allocate(capacity) : byteBufferPool.acquire(capacity, false);
+        synchronized (buffers)
+        {
+            buffers.add(buffer);
+        }
+        return buffer;
+    }
+
+    /**
+     * @param text the text to encode
+     * @return a buffer acquired via {@link #acquire(int)} containing the UTF-8 bytes of the given text
+     */
+    protected ByteBuffer acquire(String text)
+    {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buffer = acquire(bytes.length);
+        BufferUtil.append(buffer, bytes, 0, bytes.length);
+        return buffer;
+    }
+
+    @Override
+    public void release(ByteBuffer buffer)
+    {
+        boolean removed;
+        synchronized (buffers)
+        {
+            removed = buffers.remove(buffer);
+        }
+        if (removed && byteBufferPool != null)
+            byteBufferPool.release(buffer);
+    }
+
+    @Override
+    public void destroy()
+    {
+        List<ByteBuffer> leftovers;
+        synchronized (buffers)
+        {
+            leftovers = new ArrayList<>(buffers);
+            buffers.clear();
+        }
+        if (byteBufferPool != null)
+        {
+            for (ByteBuffer buffer : leftovers)
+                byteBufferPool.release(buffer);
+        }
+    }
+}
@@ -0,0 +1,1023 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2017 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.proxy;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.eclipse.jetty.client.HttpCacheRules;
+import org.eclipse.jetty.client.HttpCacheRules.CacheControl;
+import org.eclipse.jetty.client.HttpCacheRules.Resource;
+import org.eclipse.jetty.client.HttpResponse;
+import org.eclipse.jetty.client.ResponseNotifier;
+import org.eclipse.jetty.client.api.Request;
+import org.eclipse.jetty.client.api.Response;
+import org.eclipse.jetty.client.api.Result;
+import org.eclipse.jetty.http.HttpField;
+import org.eclipse.jetty.http.HttpFields;
+import org.eclipse.jetty.http.HttpHeader;
+import org.eclipse.jetty.http.HttpMethod;
+import org.eclipse.jetty.http.HttpStatus;
+import org.eclipse.jetty.http.HttpVersion;
+import org.eclipse.jetty.io.ByteBufferPool;
+import org.eclipse.jetty.util.BufferUtil;
+import org.eclipse.jetty.util.IO;
+import org.eclipse.jetty.util.IteratingCallback;
+import org.eclipse.jetty.util.annotation.ManagedAttribute;
+import org.eclipse.jetty.util.annotation.ManagedObject;
+import org.eclipse.jetty.util.annotation.ManagedOperation;
+import org.eclipse.jetty.util.component.ContainerLifeCycle;
+import org.eclipse.jetty.util.log.Log;
+import org.eclipse.jetty.util.log.Logger;
+
+/**
+ * <p>A shared cache of upstream responses for proxy servlets, as specified by RFC 7234.</p>
+ * <p>A {@code ProxyCache} is enabled on a proxy servlet with the {@code cache} init parameter,
+ * see {@link AbstractProxyServlet#createProxyCache()}.
+ * Cacheable {@code GET} responses are stored according to their {@code Cache-Control},
+ * {@code Expires} and {@code Vary} headers; {@code GET} and {@code HEAD} requests that find
+ * a fresh response in the cache are not sent upstream: the cached response is replayed
+ * to the proxy servlet response listener, so that header filtering and content transformation
+ * apply to cached responses as they do to upstream responses.
+ * Conditional and range requests bypass the cache, and only complete {@code 2xx} responses,
+ * other than {@code 206}, are stored.
+ * Unsafe requests such as {@code POST} invalidate the cached responses for their URI.</p>
+ * <p>Concurrent cache misses for the same resource are collapsed: only the first one is
+ * sent upstream, while the others wait for its response and are served from the cache if
+ * the response is cacheable, or are sent upstream otherwise.</p>
+ * <p>The cached response content is stored in buffers taken from a {@link ByteBufferPool}
+ * and is passed to the response listener without copies.
+ * Cached responses are stored in memory up to {@link #getMaxMemorySize()} bytes.
+ * The memory size of a response is the capacity of its pooled buffer.
+ * When this size is exceeded, the least recently used responses are evicted, and moved
+ * by the executor to the {@link #getDiskDirectory() disk directory}, if configured, up to
+ * {@link #getMaxDiskSize()} bytes; responses on disk are replayed reading their content
+ * in chunks into a pooled buffer.
+ * The disk directory is not persistent: its files are deleted when the cache is stopped.</p>
+ * <p>Cached responses can be purged with {@link #purge(String)} or {@link #clear()},
+ * via JMX or via {@link ProxyCachePurgeServlet}.</p>
+ */
+@ManagedObject("The reverse proxy response cache")
+public class ProxyCache extends ContainerLifeCycle
+{
+    private static final Logger LOG = Log.getLogger(ProxyCache.class);
+
+    private final Map<String, Resource> resources = new HashMap<>();
+    private final Map<String, Entry> memory = new LinkedHashMap<>(64, 0.75F, true);
+    private final Map<String, Entry> disk = new LinkedHashMap<>(64, 0.75F, true);
+    private final ConcurrentMap<String, Fetch> fetches = new ConcurrentHashMap<>();
+    private final AtomicLong diskIds = new AtomicLong();
+    private final ResponseNotifier notifier = new ResponseNotifier();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder collapsed = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final ByteBufferPool byteBufferPool;
+    private final Executor executor;
+    private long memorySize;
+    private long diskSize;
+    private long maxMemorySize = 64 * 1024 * 1024;
+    private int maxEntrySize = 1024 * 1024;
+    private Path diskDirectory;
+    private long maxDiskSize = 256 * 1024 * 1024;
+    private int bufferSize = 16 * 1024;
+
+    /**
+     * @param byteBufferPool the pool of the buffers that store the cached content
+     * @param executor the executor used to replay cached responses to collapsed requests,
+     * and to move evicted responses to disk
+     */
+    public ProxyCache(ByteBufferPool byteBufferPool, Executor executor)
+    {
+        this.byteBufferPool = byteBufferPool;
+        this.executor = executor;
+    }
+
+    /**
+     * @return the max number of bytes of the responses stored in memory
+     */
+    @ManagedAttribute("The max number of bytes of the responses stored in memory")
+    public long getMaxMemorySize()
+    {
+        return maxMemorySize;
+    }
+
+    public void setMaxMemorySize(long maxMemorySize)
+    {
+        this.maxMemorySize = maxMemorySize;
+        evict();
+    }
+
+    /**
+     * @return the max content size of a response to be cached
+     */
+    @ManagedAttribute("The max content size of a response to be cached")
+    public int getMaxEntrySize()
+    {
+        return maxEntrySize;
+    }
+
+    public void setMaxEntrySize(int maxEntrySize)
+    {
+        this.maxEntrySize = maxEntrySize;
+    }
+
+    /**
+     * @return the directory where responses evicted from memory are stored,
+     * or null if evicted responses are discarded
+     */
+    @ManagedAttribute("The directory where responses evicted from memory are stored")
+    public Path getDiskDirectory()
+    {
+        return diskDirectory;
+    }
+
+    public void setDiskDirectory(Path diskDirectory)
+    {
+        this.diskDirectory = diskDirectory;
+    }
+
+    /**
+     * @return the max number of bytes of the responses stored on disk
+     */
+    @ManagedAttribute("The max number of bytes of the responses stored on disk")
+    public long getMaxDiskSize()
+    {
+        return maxDiskSize;
+    }
+
+    public void setMaxDiskSize(long maxDiskSize)
+    {
+        this.maxDiskSize = maxDiskSize;
+    }
+
+    /**
+     * @return the size of the buffers used to read the content of responses stored on disk
+     */
+    @ManagedAttribute("The size of the buffers used to read responses stored on disk")
+    public int getBufferSize()
+    {
+        return bufferSize;
+    }
+
+    public void setBufferSize(int bufferSize)
+    {
+        this.bufferSize = bufferSize;
+    }
+
+    @ManagedAttribute("The number of requests served from the cache")
+    public long getHits()
+    {
+        return hits.longValue();
+    }
+
+    @ManagedAttribute("The number of requests not served from the cache")
+    public long getMisses()
+    {
+        return misses.longValue();
+    }
+
+    @ManagedAttribute("The number of requests that waited for a concurrent identical request")
+    public long getCollapsed()
+    {
+        return collapsed.longValue();
+    }
+
+    @ManagedAttribute("The number of responses evicted from memory")
+    public long getEvictions()
+    {
+        return evictions.longValue();
+    }
+
+    @ManagedAttribute("The number of responses stored in memory")
+    public int getMemoryEntries()
+    {
+        synchronized (this)
+        {
+            return memory.size();
+        }
+    }
+
+    @ManagedAttribute("The number of bytes of the responses stored in memory")
+    public long getMemorySize()
+    {
+        synchronized (this)
+        {
+            return memorySize;
+        }
+    }
+
+    @ManagedAttribute("The number of responses stored on disk")
+    public int getDiskEntries()
+    {
+        synchronized (this)
+        {
+            return disk.size();
+        }
+    }
+
+    @ManagedAttribute("The number of bytes of the responses stored on disk")
+    public long getDiskSize()
+    {
+        synchronized (this)
+        {
+            return diskSize;
+        }
+    }
+
+    @ManagedOperation(value = "Resets the statistics", impact = "ACTION")
+    public void resetStatistics()
+    {
+        hits.reset();
+        misses.reset();
+        collapsed.reset();
+        evictions.reset();
+    }
+
+    @Override
+    protected void doStart() throws Exception
+    {
+        if (diskDirectory != null)
+            Files.createDirectories(diskDirectory);
+        super.doStart();
+    }
+
+    @Override
+    protected void doStop() throws Exception
+    {
+        clear();
+        super.doStop();
+    }
+
+    /**
+     * <p>Removes all the responses from the cache.</p>
+     */
+    @ManagedOperation(value = "Removes all the responses from the cache", impact = "ACTION")
+    public void clear()
+    {
+        purge("");
+    }
+
+    /**
+     * <p>Removes from the cache the responses whose upstream URI starts with the given prefix.</p>
+     *
+     * @param uriPrefix the prefix of the upstream URIs to purge, or the empty string to purge all URIs
+     * @return the number of responses removed
+     */
+    @ManagedOperation(value = "Removes the responses whose upstream URI starts with the given prefix", impact = "ACTION")
+    public int purge(String uriPrefix)
+    {
+        List<Entry> removed = new ArrayList<>();
+        synchronized (this)
+        {
+            for (Iterator<Map.Entry<String, Resource>> iterator = resources.entrySet().iterator(); iterator.hasNext();)
+            {
+                Map.Entry<String, Resource> resource = iterator.next();
+                if (!resource.getKey().startsWith(uriPrefix))
+                    continue;
+                iterator.remove();
+                for (String key : resource.getValue().getKeys())
+                    remove(key, removed);
+            }
+        }
+        removed.forEach(Entry::release);
+        if (LOG.isDebugEnabled())
+            LOG.debug("Purged {} responses for {}*", removed.size(), uriPrefix);
+        return removed.size();
+    }
+
+    private void invalidate(String uri)
+    {
+        List<Entry> removed = new ArrayList<>();
+        synchronized (this)
+        {
+            Resource resource = resources.remove(uri);
+            if (resource != null)
+            {
+                for (String key : resource.getKeys())
+                    remove(key, removed);
+            }
+        }
+        removed.forEach(Entry::release);
+    }
+
+    private void remove(String key, List<Entry> removed)
+    {
+        Entry entry = memory.remove(key);
+        if (entry != null)
+        {
+            memorySize -= entry.size;
+            removed.add(entry);
+        }
+        entry = disk.remove(key);
+        if (entry != null)
+        {
+            diskSize -= entry.size;
+            removed.add(entry);
+        }
+    }
+
+    /**
+     * <p>Sends the given proxy request, unless a fresh response is found in the cache,
+     * in which case the cached response is notified to the given listener.</p>
+     *
+     * @param proxyRequest the request to the upstream server
+     * @param listener the listener of the upstream response
+     */
+    public void send(Request proxyRequest, Response.CompleteListener listener)
+    {
+        String method = proxyRequest.getMethod();
+        String uri = proxyRequest.getURI().toString();
+        boolean head = HttpMethod.HEAD.is(method);
+        if (!head && !HttpMethod.GET.is(method))
+        {
+            if (!isSafe(method))
+            {
+                // RFC 7234, section 4.4.
+                proxyRequest.onResponseSuccess(response ->
+                {
+                    if (response.getStatus() < HttpStatus.BAD_REQUEST_400)
+                        invalidate(uri);
+                });
+            }
+            proxyRequest.send(listener);
+            return;
+        }
+
+        HttpFields headers = proxyRequest.getHeaders();
+        if (HttpCacheRules.isConditional(headers))
+        {
+            // The response may be a 304 or a 206, that must not be
+            // stored nor served to unconditional requests.
+            misses.increment();
+            proxyRequest.send(listener);
+            return;
+        }
+
+        CacheControl control = new CacheControl(headers);
+        if (!control.isNoCache() && serve(uri, proxyRequest, listener, control, head))
+            return;
+
+        misses.increment();
+        if (head || control.isNoStore())
+        {
+            proxyRequest.send(listener);
+            return;
+        }
+
+        String key = key(uri, headers);
+        Fetch fetch = new Fetch(key);
+        if (!control.isNoCache())
+        {
+            while (true)
+            {
+                Fetch existing = fetches.putIfAbsent(key, fetch);
+                if (existing == null)
+                    break;
+                if (existing.await(() -> retry(uri, proxyRequest, listener)))
+                {
+                    collapsed.increment();
+                    if (LOG.isDebugEnabled())
+                        LOG.debug("Collapsed {} with {}", proxyRequest, existing);
+                    return;
+                }
+                // The existing fetch just completed, take over.
+                if (fetches.replace(key, existing, fetch))
+                    break;
+            }
+        }
+
+        Capture capture = new Capture(uri, headers, fetch);
+        proxyRequest.onResponseHeaders(capture)
+                .onResponseContent(capture)
+                .onComplete(capture);
+        proxyRequest.send(listener);
+    }
+
+    private boolean serve(String uri, Request proxyRequest, Response.CompleteListener listener, CacheControl control, boolean head)
+    {
+        Entry entry = lookup(uri, proxyRequest.getHeaders());
+        if (entry == null)
+            return false;
+        long age = entry.age(System.currentTimeMillis());
+        if (!entry.isFresh(age, control))
+        {
+            entry.release();
+            return false;
+        }
+        hits.increment();
+        if (LOG.isDebugEnabled())
+            LOG.debug("Serving {} from {}", proxyRequest, entry);
+        new Replay(entry, age, proxyRequest, listener, head).start();
+        return true;
+    }
+
+    private void retry(String uri, Request proxyRequest, Response.CompleteListener listener)
+    {
+        executor.execute(() ->
+        {
+            if (!serve(uri, proxyRequest, listener, new CacheControl(proxyRequest.getHeaders()), false))
+                proxyRequest.send(listener);
+        });
+    }
+
+    private Entry lookup(String uri, HttpFields headers)
+    {
+        synchronized (this)
+        {
+            Resource resource = resources.get(uri);
+            if (resource == null)
+                return null;
+            String key = HttpCacheRules.key(uri, resource.getVary(), headers);
+            Entry entry = memory.get(key);
+            if (entry == null)
+                entry = disk.get(key);
+            return entry != null && entry.retain() ? entry : null;
+        }
+    }
+
+    private String key(String uri, HttpFields headers)
+    {
+        synchronized (this)
+        {
+            Resource resource = resources.get(uri);
+            return resource == null ? uri : HttpCacheRules.key(uri, resource.getVary(), headers);
+        }
+    }
+
+    private boolean isSafe(String method)
+    {
+        return HttpMethod.GET.is(method) ||
+                HttpMethod.HEAD.is(method) ||
+                HttpMethod.OPTIONS.is(method) ||
+                HttpMethod.TRACE.is(method);
+    }
+
+    /**
+     * @return the vary header names of the response, or null if the response cannot be stored
+     */
+    private List<String> storable(HttpFields requestHeaders, Response response)
+    {
+        HttpFields headers = response.getHeaders();
+        int status = response.getStatus();
+        // Only complete representations are stored.
+        if (!HttpStatus.isSuccess(status) || status == HttpStatus.PARTIAL_CONTENT_206)
+            return null;
+        if (!HttpCacheRules.isStorable(requestHeaders, headers, status, true))
+            return null;
+        // Responses that set cookies are specific to a user.
+        if (headers.contains(HttpHeader.SET_COOKIE) || headers.contains(HttpHeader.SET_COOKIE2))
+            return null;
+
+        long length = headers.getLongField(HttpHeader.CONTENT_LENGTH.asString());
+        if (length > maxEntrySize)
+            return null;
+
+        return HttpCacheRules.getVary(headers);
+    }
+
+    private void store(Entry entry)
+    {
+        if (entry.lifetime <= 0)
+        {
+            entry.release();
+            return;
+        }
+
+        if (LOG.isDebugEnabled())
+            LOG.debug("Storing {}", entry);
+
+        List<Entry> removed = new ArrayList<>();
+        synchronized (this)
+        {
+            Resource resource = resources.get(entry.uri);
+            if (resource != null && !resource.getVary().equals(entry.vary))
+            {
+                // The variants have changed, discard the old ones.
+                resources.remove(entry.uri);
+                for (String key : resource.getKeys())
+                    remove(key, removed);
+                resource = null;
+            }
+            if (resource == null)
+            {
+                resource = new Resource(entry.vary);
+                resources.put(entry.uri, resource);
+            }
+            resource.getKeys().add(entry.key);
+            remove(entry.key, removed);
+            memory.put(entry.key, entry);
+            memorySize += entry.size;
+        }
+        removed.forEach(Entry::release);
+        evict();
+    }
+
+    private void evict()
+    {
+        List<Entry> evicted = new ArrayList<>();
+        synchronized (this)
+        {
+            for (Iterator<Entry> iterator = memory.values().iterator(); memorySize > maxMemorySize && iterator.hasNext();)
+            {
+                Entry entry = iterator.next();
+                iterator.remove();
+                memorySize -= entry.size;
+                evicted.add(entry);
+            }
+        }
+
+        List<Entry> spills = new ArrayList<>();
+        for (Entry entry : evicted)
+        {
+            evictions.increment();
+            if (LOG.isDebugEnabled())
+                LOG.debug("Evicted {}", entry);
+            if (diskDirectory != null && entry.length <= maxDiskSize)
+                spills.add(entry);
+            else
+                entry.release();
+        }
+
+        if (spills.isEmpty())
+            return;
+        // Do not block the thread that stored the response with disk I/O.
+        executor.execute(() ->
+        {
+            for (Entry entry : spills)
+            {
+                spill(entry);
+                entry.release();
+            }
+        });
+    }
+
+    private void spill(Entry entry)
+    {
+        Path path = diskDirectory.resolve("entry-" + diskIds.incrementAndGet());
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE))
+        {
+            ByteBuffer content = entry.content.slice();
+            while (content.hasRemaining())
+                channel.write(content);
+        }
+        catch (IOException x)
+        {
+            LOG.warn("Could not store {} to {}", entry, path, x);
+            delete(path);
+            return;
+        }
+
+        Entry spilled = new Entry(entry, path);
+        List<Entry> removed = new ArrayList<>();
+        synchronized (this)
+        {
+            Resource resource = resources.get(entry.uri);
+            if (resource == null || !resource.getKeys().contains(entry.key) || memory.containsKey(entry.key))
+            {
+                // Purged or replaced while it was being written.
+                removed.add(spilled);
+            }
+            else
+            {
+                Entry previous = disk.put(spilled.key, spilled);
+                if (previous != null)
+                {
+                    diskSize -= previous.size;
+                    removed.add(previous);
+                }
+                diskSize += spilled.size;
+                for (Iterator<Entry> iterator = disk.values().iterator(); diskSize > maxDiskSize && iterator.hasNext();)
+                {
+                    Entry eldest = iterator.next();
+                    iterator.remove();
+                    diskSize -= eldest.size;
+                    removed.add(eldest);
+                }
+            }
+        }
+        removed.forEach(Entry::release);
+    }
+
+    private void delete(Path path)
+    {
+        try
+        {
+            Files.deleteIfExists(path);
+        }
+        catch (IOException x)
+        {
+            LOG.ignore(x);
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s@%x[hits=%d,misses=%d,collapsed=%d,memory=%d/%d,disk=%d/%d]",
+                getClass().getSimpleName(),
+                hashCode(),
+                getHits(),
+                getMisses(),
+                getCollapsed(),
+                getMemorySize(),
+                getMaxMemorySize(),
+                getDiskSize(),
+                getMaxDiskSize());
+    }
+
+    /**
+     * <p>A cached response, stored either in a pooled buffer or in a file.</p>
+     * <p>Entries are reference counted: the cache holds one reference, and each
+     * replay holds another, so that the buffer is returned to the pool, or the
+     * file is deleted, only when the entry has been removed from the cache and
+     * all its replays are complete.</p>
+     */
+    private class Entry
+    {
+        private final AtomicInteger references = new AtomicInteger(1);
+        private final String uri;
+        private final List<String> vary;
+        private final String key;
+        private final int status;
+        private final String reason;
+        private final HttpFields headers;
+        private final ByteBuffer content;
+        private final Path path;
+        private final long length;
+        private final long size;
+        private final long responseTime;
+        private final long correctedInitialAge;
+        private final long lifetime;
+        private final boolean mustRevalidate;
+
+        private Entry(String uri, List<String> vary, String key, Response response, ByteBuffer content, long requestTime, long responseTime)
+        {
+            this.uri = uri;
+            this.vary = vary;
+            this.key = key;
+            this.status = response.getStatus();
+            this.reason = response.getReason();
+            this.content = content;
+            this.path = null;
+            this.length = content.remaining();
+            // The pooled buffer is retained whole.
+            this.size = content.capacity();
+            this.responseTime = responseTime;
+
+            HttpFields headers = new HttpFields(response.getHeaders().size());
+            for (HttpField field : response.getHeaders())
+            {
+                if (field.getHeader() != HttpHeader.AGE)
+                    headers.add(field);
+            }
+            this.headers = headers;
+
+            HttpFields fields = response.getHeaders();
+            this.correctedInitialAge = HttpCacheRules.getCorrectedInitialAge(fields, requestTime, responseTime);
+            this.lifetime = Math.max(0, HttpCacheRules.getFreshnessLifetime(fields, responseTime, true));
+            CacheControl control = new CacheControl(fields);
+            this.mustRevalidate = control.isMustRevalidate() || control.isNoCache();
+        }
+
+        private Entry(Entry entry, Path path)
+        {
+            this.uri = entry.uri;
+            this.vary = entry.vary;
+            this.key = entry.key;
+            this.status = entry.status;
+            this.reason = entry.reason;
+            this.headers = entry.headers;
+            this.content = null;
+            this.path = path;
+            this.length = entry.length;
+            this.size = entry.length;
+            this.responseTime = entry.responseTime;
+            this.correctedInitialAge = entry.correctedInitialAge;
+            this.lifetime = entry.lifetime;
+            this.mustRevalidate = entry.mustRevalidate;
+        }
+
+        private long age(long now)
+        {
+            return correctedInitialAge + Math.max(0, now - responseTime);
+        }
+
+        private boolean isFresh(long age, CacheControl request)
+        {
+            if (mustRevalidate)
+                return false;
+            if (request.getMaxAge() >= 0 && age > request.getMaxAge())
+                return false;
+            return age < lifetime;
+        }
+
+        private boolean retain()
+        {
+            while (true)
+            {
+                int references = this.references.get();
+                if (references == 0)
+                    return false;
+                if (this.references.compareAndSet(references, references + 1))
+                    return true;
+            }
+        }
+
+        private void release()
+        {
+            if (references.decrementAndGet() == 0)
+            {
+                if (content != null)
+                    byteBufferPool.release(content);
+                if (path != null)
+                    delete(path);
+            }
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format("%s@%x[%s,%d,lifetime=%dms,%d bytes,%s]",
+                    getClass().getSimpleName(),
+                    hashCode(),
+                    key.replace('\n', ' '),
+                    status,
+                    lifetime,
+                    length,
+                    path == null ? "memory" : path);
+        }
+    }
+
+    /**
+     * <p>An upstream request in progress for a cache miss, that other requests
+     * for the same resource can wait for.</p>
+     */
+    private class Fetch
+    {
+        private final List<Runnable> waiters = new ArrayList<>();
+        private final String key;
+        private boolean complete;
+
+        private Fetch(String key)
+        {
+            this.key = key;
+        }
+
+        private boolean await(Runnable waiter)
+        {
+            synchronized (this)
+            {
+                if (complete)
+                    return false;
+                waiters.add(waiter);
+                return true;
+            }
+        }
+
+        private void complete()
+        {
+            List<Runnable> waiters;
+            synchronized (this)
+            {
+                complete = true;
+                waiters = new ArrayList<>(this.waiters);
+                this.waiters.clear();
+            }
+            fetches.remove(key, this);
+            waiters.forEach(Runnable::run);
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format("%s@%x[%s]", getClass().getSimpleName(), hashCode(), key.replace('\n', ' '));
+        }
+    }
+
+    /**
+     * <p>Copies the upstream response content into a pooled buffer,
+     * storing the response in the cache when it is complete.</p>
+     */
+    private class Capture implements Response.HeadersListener, Response.ContentListener, Response.CompleteListener
+    {
+        private final long requestTime = System.currentTimeMillis();
+        private final String uri;
+        private final HttpFields requestHeaders;
+        private final Fetch fetch;
+        private List<String> vary;
+        private ByteBuffer buffer;
+
+        private Capture(String uri, HttpFields requestHeaders, Fetch fetch)
+        {
+            this.uri = uri;
+            this.requestHeaders = requestHeaders;
+            this.fetch = fetch;
+        }
+
+        @Override
+        public void onHeaders(Response response)
+        {
+            vary = storable(requestHeaders, response);
+            if (vary != null)
+            {
+                long length = response.getHeaders().getLongField(HttpHeader.CONTENT_LENGTH.asString());
+                buffer = byteBufferPool.acquire(length >= 0 ? (int)length : getBufferSize(), false);
+                BufferUtil.clear(buffer);
+            }
+        }
+
+        @Override
+        public void onContent(Response response, ByteBuffer content)
+        {
+            if (buffer == null)
+                return;
+            int length = content.remaining();
+            if (BufferUtil.space(buffer) < length)
+            {
+                int size = buffer.remaining() + length;
+                if (size > getMaxEntrySize())
+                {
+                    // Too large to be cached.
+                    byteBufferPool.release(buffer);
+                    buffer = null;
+                    return;
+                }
+                ByteBuffer larger = byteBufferPool.acquire(Math.min(getMaxEntrySize(), Math.max(size, 2 * buffer.capacity())), false);
+                BufferUtil.clear(larger);
+                BufferUtil.append(larger, buffer);
+                byteBufferPool.release(buffer);
+                buffer = larger;
+            }
+            // Do not consume the content, the proxy servlet needs it.
+            BufferUtil.append(buffer, content.slice());
+        }
+
+        @Override
+        public void onComplete(Result result)
+        {
+            try
+            {
+                ByteBuffer content = buffer;
+                buffer = null;
+                if (content == null)
+                    return;
+                long length = result.getResponse().getHeaders().getLongField(HttpHeader.CONTENT_LENGTH.asString());
+                if (result.isFailed() || (length >= 0 && length != content.remaining()))
+                {
+                    byteBufferPool.release(content);
+                    return;
+                }
+                String key = HttpCacheRules.key(uri, vary, requestHeaders);
+                store(new Entry(uri, vary, key, result.getResponse(), content, requestTime, System.currentTimeMillis()));
+            }
+            finally
+            {
+                fetch.complete();
+            }
+        }
+    }
+
+    /**
+     * <p>Notifies a cached response to a response listener,
+     * without copying the cached content.</p>
+     */
+    private class Replay extends IteratingCallback
+    {
+        private final Entry entry;
+        private final long age;
+        private final Request request;
+        private final List<Response.ResponseListener> listeners;
+        private final HttpResponse response;
+        private final boolean head;
+        private volatile Throwable failure;
+        private boolean notified;
+        private FileChannel channel;
+        private ByteBuffer chunk;
+
+        private Replay(Entry entry, long age, Request request, Response.CompleteListener listener, boolean head)
+        {
+            this.entry = entry;
+            this.age = age;
+            this.request = request;
+            this.listeners = Collections.singletonList(listener);
+            this.response = new HttpResponse(request, listeners)
+            {
+                @Override
+                public boolean abort(Throwable cause)
+                {
+                    if (failure != null)
+                        return false;
+                    failure = cause;
+                    failed(cause);
+                    return true;
+                }
+            };
+            this.head = head;
+        }
+
+        private void start()
+        {
+            response.version(HttpVersion.HTTP_1_1).status(entry.status).reason(entry.reason);
+            HttpFields headers = response.getHeaders();
+            headers.addAll(entry.headers);
+            headers.put(HttpHeader.AGE, String.valueOf(TimeUnit.MILLISECONDS.toSeconds(age)));
+            notifier.notifyBegin(listeners, response);
+            notifier.notifyHeaders(listeners, response);
+            iterate();
+        }
+
+        @Override
+        protected Action process() throws Throwable
+        {
+            Throwable failure = this.failure;
+            if (failure != null)
+                throw failure;
+
+            if (head || entry.length == 0)
+                return Action.SUCCEEDED;
+
+            if (entry.content != null)
+            {
+                if (notified)
+                    return Action.SUCCEEDED;
+                notified = true;
+                notifier.notifyContent(listeners, response, entry.content.slice(), this);
+                return Action.SCHEDULED;
+            }
+
+            if (channel == null)
+            {
+                channel = FileChannel.open(entry.path, StandardOpenOption.READ);
+                chunk = byteBufferPool.acquire(getBufferSize(), false);
+            }
+            BufferUtil.clearToFill(chunk);
+            int read = channel.read(chunk);
+            BufferUtil.flipToFlush(chunk, 0);
+            if (read < 0)
+                return Action.SUCCEEDED;
+            notifier.notifyContent(listeners, response, chunk, this);
+            return Action.SCHEDULED;
+        }
+
+        @Override
+        protected void onCompleteSuccess()
+        {
+            release();
+            notifier.notifySuccess(listeners, response);
+            notifier.notifyComplete(listeners, new Result(request, response));
+        }
+
+        @Override
+        protected void onCompleteFailure(Throwable failure)
+        {
+            if (LOG.isDebugEnabled())
+                LOG.debug("Could not serve " + entry, failure);
+            release();
+            notifier.notifyFailure(listeners, response, failure);
+            notifier.notifyComplete(listeners, new Result(request, null, response, failure));
+        }
+
+        private void release()
+        {
+            IO.close(channel);
+            if (chunk != null)
+                byteBufferPool.release(chunk);
+            entry.release();
+        }
+    }
+}
@@ -0,0 +1,101 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2017 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.proxy;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+
+import javax.servlet.ServletException;
+import javax.servlet.UnavailableException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * <p>Administrative servlet to inspect and purge a {@link ProxyCache}.</p>
+ * <p>The cache is looked up as a {@code ServletContext} attribute whose name is
+ * specified by the mandatory {@code cacheAttribute} init parameter; proxy servlets
+ * store their cache in the attribute named {@code <servletName>.ProxyCache}.</p>
+ * <p>A {@code GET} request returns the cache statistics.
+ * A {@code POST} or {@code DELETE} request purges the cached responses whose upstream
+ * URI starts with the {@code uri} request parameter, or all the cached responses if the
+ * parameter is missing, and returns the number of responses purged.</p>
+ * <p>This servlet must be mapped to a path that is protected from unauthorized access.</p>
+ */
+public class ProxyCachePurgeServlet extends HttpServlet
+{
+    private String cacheAttribute;
+
+    @Override
+    public void init() throws ServletException
+    {
+        cacheAttribute = getServletConfig().getInitParameter("cacheAttribute");
+        if (cacheAttribute == null)
+            throw new UnavailableException("Init parameter 'cacheAttribute' is required.");
+    }
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException
+    {
+        ProxyCache cache = getProxyCache(response);
+        if (cache == null)
+            return;
+        response.setContentType("text/plain;charset=utf-8");
+        PrintWriter writer = response.getWriter();
+        writer.printf("hits=%d%n", cache.getHits());
+        writer.printf("misses=%d%n", cache.getMisses());
+        writer.printf("collapsed=%d%n", cache.getCollapsed());
+        writer.printf("evictions=%d%n", cache.getEvictions());
+        writer.printf("memoryEntries=%d%n", cache.getMemoryEntries());
+        writer.printf("memorySize=%d%n", cache.getMemorySize());
+        writer.printf("diskEntries=%d%n", cache.getDiskEntries());
+        writer.printf("diskSize=%d%n", cache.getDiskSize());
+    }
+
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException
+    {
+        purge(request, response);
+    }
+
+    @Override
+    protected void doDelete(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException
+    {
+        purge(request, response);
+    }
+
+    private void purge(HttpServletRequest request, HttpServletResponse response) throws IOException
+    {
+        ProxyCache cache = getProxyCache(response);
+        if (cache == null)
+            return;
+        String uri = request.getParameter("uri");
+        int purged = cache.purge(uri == null ? "" : uri);
+        response.setContentType("text/plain;charset=utf-8");
+        response.getWriter().printf("purged=%d%n", purged);
+    }
+
+    private ProxyCache getProxyCache(HttpServletResponse response) throws IOException
+    {
+        ProxyCache cache = (ProxyCache)getServletContext().getAttribute(cacheAttribute);
+        if (cache == null)
+            response.sendError(HttpServletResponse.SC_NOT_FOUND, "No cache " + cacheAttribute);
+        return cache;
+    }
+}
@@ -22,11 +22,13 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.LongAdder;
 
 import org.eclipse.jetty.io.AbstractConnection;
 import org.eclipse.jetty.io.ByteBufferPool;
 import org.eclipse.jetty.io.Connection;
 import org.eclipse.jetty.io.EndPoint;
+import org.eclipse.jetty.util.BufferUtil;
 import org.eclipse.jetty.util.Callback;
 import org.eclipse.jetty.util.IteratingCallback;
 import org.eclipse.jetty.util.log.Logger;
@@ -34,7 +36,8 @@ import org.eclipse.jetty.util.log.Logger;
 public abstract class ProxyConnection extends AbstractConnection
 {
     protected static final Logger LOG = ConnectHandler.LOG;
-    private final IteratingCallback pipe = new ProxyIteratingCallback();
+    private final ProxyIteratingCallback pipe = new ProxyIteratingCallback();
+    private final LongAdder bytesIn = new LongAdder();
     private final ByteBufferPool bufferPool;
     private final ConcurrentMap<String, Object> context;
     private Connection connection;
@@ -72,6 +75,34 @@ public abstract class ProxyConnection extends AbstractConnection
         pipe.iterate();
     }
 
+    @Override
+    public void onClose()
+    {
+        // The buffer is not released here: a write from
+        // it to the other side of the tunnel may be pending.
+        pipe.close();
+        super.onClose();
+    }
+
+    /**
+     * @return the number of bytes read from this connection's endpoint and forwarded to the other side of the tunnel
+     */
+    @Override
+    public long getBytesIn()
+    {
+        return bytesIn.longValue();
+    }
+
+    /**
+     * @return the number of bytes read from the other side of the tunnel and written to this connection's endpoint
+     */
+    @Override
+    public long getBytesOut()
+    {
+        Connection connection = this.connection;
+        return connection == null ? 0 : connection.getBytesIn();
+    }
+
     protected abstract int read(EndPoint endPoint, ByteBuffer buffer) throws IOException;
 
     protected abstract void write(EndPoint endPoint, ByteBuffer buffer, Callback callback);
@@ -86,34 +117,46 @@ public abstract class ProxyConnection extends AbstractConnection
             getEndPoint().getRemoteAddress().getPort());
     }
 
+    /**
+     * <p>Forwards the bytes read from this connection's endpoint to the other side of the tunnel.</p>
+     * <p>A single direct buffer is acquired the first time data is read and it is reused for every
+     * read/write cycle in this direction; it is returned to the {@link ByteBufferPool} only when
+     * this callback has completed and no read into it, or write from it, is still in progress.</p>
+     */
     private class ProxyIteratingCallback extends IteratingCallback
     {
         private ByteBuffer buffer;
+        private boolean busy;
+        private boolean complete;
         private int filled;
 
         @Override
         protected Action process() throws Exception
         {
-            buffer = bufferPool.acquire(getInputBufferSize(), true);
+            ByteBuffer buffer = acquire();
+            if (buffer == null)
+                return Action.SUCCEEDED;
             try
             {
+                BufferUtil.clear(buffer);
                 int filled = this.filled = read(getEndPoint(), buffer);
                 if (LOG.isDebugEnabled())
                     LOG.debug("{} filled {} bytes", ProxyConnection.this, filled);
                 if (filled > 0)
                 {
+                    bytesIn.add(filled);
                     write(connection.getEndPoint(), buffer, this);
                     return Action.SCHEDULED;
                 }
                 else if (filled == 0)
                 {
-                    bufferPool.release(buffer);
+                    idle();
                     fillInterested();
                     return Action.IDLE;
                 }
                 else
                 {
-                    bufferPool.release(buffer);
+                    idle();
                     connection.getEndPoint().shutdownOutput();
                     return Action.SUCCEEDED;
                 }
@@ -122,7 +165,7 @@ public abstract class ProxyConnection extends AbstractConnection
             {
                 if (LOG.isDebugEnabled())
                     LOG.debug(ProxyConnection.this + " could not fill", x);
-                bufferPool.release(buffer);
+                idle();
                 disconnect();
                 return Action.SUCCEEDED;
             }
@@ -133,13 +176,21 @@ public abstract class ProxyConnection extends AbstractConnection
         {
             if (LOG.isDebugEnabled())
                 LOG.debug("{} wrote {} bytes", ProxyConnection.this, filled);
-            bufferPool.release(buffer);
+            idle();
             super.succeeded();
         }
 
+        @Override
+        public void failed(Throwable x)
+        {
+            idle();
+            super.failed(x);
+        }
+
         @Override
         protected void onCompleteSuccess()
         {
+            complete();
         }
 
         @Override
@@ -148,11 +199,65 @@ public abstract class ProxyConnection extends AbstractConnection
             if (LOG.isDebugEnabled())
                 LOG.debug(ProxyConnection.this + " failed to write " + filled + " bytes", x);
             disconnect();
+            complete();
+        }
+
+        @Override
+        public void close()
+        {
+            super.close();
+            complete();
+        }
+
+        private synchronized ByteBuffer acquire()
+        {
+            if (complete)
+                return null;
+            busy = true;
+            if (buffer == null)
+                buffer = bufferPool.acquire(getInputBufferSize(), true);
+            return buffer;
+        }
+
+        private void idle()
+        {
+            ByteBuffer buffer;
+            synchronized (this)
+            {
+                busy = false;
+                buffer = complete ? take() : null;
+            }
+            release(buffer);
+        }
+
+        private void complete()
+        {
+            // When closed or failed while the buffer is used, typically
+            // by a pending write, the buffer is released by idle().
+            ByteBuffer buffer;
+            synchronized (this)
+            {
+                complete = true;
+                buffer = busy ? null : take();
+            }
+            release(buffer);
+        }
+
+        private ByteBuffer take()
+        {
+            ByteBuffer buffer = this.buffer;
+            this.buffer = null;
+            return buffer;
+        }
+
+        private void release(ByteBuffer buffer)
+        {
+            if (buffer != null)
+                bufferPool.release(buffer);
         }
 
         private void disconnect()
         {
-            bufferPool.release(buffer);
             ProxyConnection.this.close();
             connection.close();
         }
@@ -62,6 +62,7 @@ import org.eclipse.jetty.client.util.FutureResponseListener;
 import org.eclipse.jetty.http.HttpHeader;
 import org.eclipse.jetty.http.HttpHeaderValue;
 import org.eclipse.jetty.http.HttpStatus;
+import org.eclipse.jetty.io.ByteBufferPool;
 import org.eclipse.jetty.io.RuntimeIOException;
 import org.eclipse.jetty.server.HttpChannel;
 import org.eclipse.jetty.server.HttpConfiguration;
@@ -307,6 +308,132 @@ public class AsyncMiddleManServletTest
         Assert.assertArrayEquals(bytes, response.getContent());
     }
 
+    @Test
+    public void testChainedRewritersWithPooledBuffers() throws Exception
+    {
+        String html = "<html><!-- <a href=\"http://backend/comment\"> --><a href=\"http://backend/a\">A</a>" +
+                "<img src=\"http://backend/i.png\"><script>var a = '<a href=\"http://backend/s\">';</script></html>";
+        startServer(new HttpServlet()
+        {
+            @Override
+            protected void service(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException
+            {
+                response.setHeader(HttpHeader.CONTENT_ENCODING.asString(), "gzip");
+                byte[] gzipped = gzip(html.getBytes(StandardCharsets.UTF_8));
+                ServletOutputStream output = response.getOutputStream();
+                // Write small chunks so that tokens span multiple buffers.
+                for (int i = 0; i < gzipped.length; i += 7)
+                {
+                    output.write(gzipped, i, Math.min(7, gzipped.length - i));
+                    output.flush();
+                }
+            }
+        });
+        startProxy(new AsyncMiddleManServlet()
+        {
+            @Override
+            protected ContentTransformer newServerResponseContentTransformer(HttpServletRequest clientRequest, HttpServletResponse proxyResponse, Response serverResponse)
+            {
+                ByteBufferPool byteBufferPool = getByteBufferPool(clientRequest);
+                ContentTransformer hrefs = new HTMLContentRewriter(byteBufferPool)
+                {
+                    @Override
+                    protected boolean isRewritable(String element, String attribute)
+                    {
+                        return "a".equals(element) && "href".equals(attribute);
+                    }
+
+                    @Override
+                    protected String rewriteAttribute(String element, String attribute, String value)
+                    {
+                        return value.replace("http://backend/", "http://proxy/");
+                    }
+                };
+                ContentTransformer images = new HTMLContentRewriter(byteBufferPool)
+                {
+                    @Override
+                    protected boolean isRewritable(String element, String attribute)
+                    {
+                        return "img".equals(element) && "src".equals(attribute);
+                    }
+
+                    @Override
+                    protected String rewriteAttribute(String element, String attribute, String value)
+                    {
+                        return value.replace("http://backend/", "http://images/");
+                    }
+                };
+                return new GZIPContentTransformer(byteBufferPool, new ChainedContentTransformer(hrefs, images));
+            }
+        });
+        startClient();
+
+        ContentResponse response = client.newRequest("localhost", serverConnector.getLocalPort())
+                .timeout(5, TimeUnit.SECONDS)
+                .send();
+
+        Assert.assertEquals(200, response.getStatus());
+        String expected = html.replace("href=\"http://backend/a\"", "href=\"http://proxy/a\"")
+                .replace("http://backend/i.png", "http://images/i.png");
+        Assert.assertEquals(expected, response.getContentAsString());
+    }
+
+    @Test
+    public void testJSONContentRewriter() throws Exception
+    {
+        String json = "{\"id\":1,\"href\":\"http://backend/1\",\"items\":[{\"href\":\"http://backend/2\",\"title\":\"http://backend/\"}]}";
+        startServer(new HttpServlet()
+        {
+            @Override
+            protected void service(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException
+            {
+                byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+                ServletOutputStream output = response.getOutputStream();
+                for (int i = 0; i < bytes.length; i += 5)
+                {
+                    output.write(bytes, i, Math.min(5, bytes.length - i));
+                    output.flush();
+                }
+            }
+        });
+        startProxy(new AsyncMiddleManServlet()
+        {
+            @Override
+            protected ContentTransformer newServerResponseContentTransformer(HttpServletRequest clientRequest, HttpServletResponse proxyResponse, Response serverResponse)
+            {
+                return new JSONContentRewriter(getByteBufferPool(clientRequest))
+                {
+                    @Override
+                    protected String rewriteName(String name)
+                    {
+                        return "href".equals(name) ? "link" : null;
+                    }
+
+                    @Override
+                    protected boolean isRewritable(String name)
+                    {
+                        return "href".equals(name);
+                    }
+
+                    @Override
+                    protected String rewriteValue(String name, String value)
+                    {
+                        return value.replace("http://backend/", "http://proxy/");
+                    }
+                };
+            }
+        });
+        startClient();
+
+        ContentResponse response = client.newRequest("localhost", serverConnector.getLocalPort())
+                .timeout(5, TimeUnit.SECONDS)
+                .send();
+
+        Assert.assertEquals(200, response.getStatus());
+        String expected = "{\"id\":1,\"link\":\"http://proxy/1\",\"items\":[{\"link\":\"http://proxy/2\",\"title\":\"http://backend/\"}]}";
+        Assert.assertEquals(expected, response.getContentAsString());
+    }
+
     @Test
     public void testTransformGzippedHead() throws Exception
     {
@@ -22,6 +22,8 @@ import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -32,6 +34,7 @@ import javax.servlet.http.HttpServletResponse;
 
 import org.eclipse.jetty.client.HttpClient;
 import org.eclipse.jetty.client.api.ContentResponse;
+import org.eclipse.jetty.http.HttpStatus;
 import org.eclipse.jetty.server.Server;
 import org.eclipse.jetty.server.ServerConnector;
 import org.eclipse.jetty.server.session.DefaultSessionIdManager;
@@ -47,6 +50,7 @@ public class BalancerServletTest
     private static final String CONTEXT_PATH = "/context";
     private static final String SERVLET_PATH = "/mapping";
 
+    private final Map<String, String> initParams = new HashMap<>();
     private boolean stickySessions;
     private Server server1;
     private Server server2;
@@ -82,6 +86,7 @@ public class BalancerServletTest
         balancerServletHolder.setInitParameter("proxyPassReverse", "true");
         balancerServletHolder.setInitParameter("balancerMember." + "node1" + ".proxyTo", "http://localhost:" + getServerPort(server1));
         balancerServletHolder.setInitParameter("balancerMember." + "node2" + ".proxyTo", "http://localhost:" + getServerPort(server2));
+        initParams.forEach(balancerServletHolder::setInitParameter);
 
         balancer = createServer(balancerServletHolder, null);
         balancer.start();
@@ -113,11 +118,15 @@ public class BalancerServletTest
 
     protected byte[] sendRequestToBalancer(String path) throws Exception
     {
-        ContentResponse response = client.newRequest("localhost", getServerPort(balancer))
+        return sendToBalancer(path).getContent();
+    }
+
+    private ContentResponse sendToBalancer(String path) throws Exception
+    {
+        return client.newRequest("localhost", getServerPort(balancer))
                 .path(CONTEXT_PATH + SERVLET_PATH + path)
                 .timeout(5, TimeUnit.SECONDS)
                 .send();
-        return response.getContent();
     }
 
     @Test
@@ -160,6 +169,76 @@ public class BalancerServletTest
         Assert.assertEquals("success", msg);
     }
 
+    @Test
+    public void testLeastRequestsBalancer() throws Exception
+    {
+        stickySessions = false;
+        initParams.put("balancerPolicy", "leastRequests");
+        startBalancer(CounterServlet.class);
+        for (int i = 0; i < 10; i++)
+        {
+            byte[] responseBytes = sendRequestToBalancer("/leastRequests");
+            String returnedCounter = readFirstLine(responseBytes);
+            // With no outstanding requests, ties are broken in round robin
+            String expectedCounter = String.valueOf(i / 2);
+            Assert.assertEquals(expectedCounter, returnedCounter);
+        }
+    }
+
+    @Test
+    public void testUnhealthyMemberIsSkipped() throws Exception
+    {
+        stickySessions = false;
+        initParams.put("healthCheckPath", CONTEXT_PATH + SERVLET_PATH + "/health");
+        initParams.put("healthCheckInterval", "100");
+        initParams.put("unhealthyThreshold", "1");
+        startBalancer(CounterServlet.class);
+        server2.stop();
+
+        // Wait for the health checks to detect the stopped member,
+        // after which all the requests go to the healthy member.
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        int successes = 0;
+        while (successes < 2)
+        {
+            Assert.assertTrue(System.nanoTime() < deadline);
+            if (sendToBalancer("/skipped").getStatus() == HttpStatus.OK_200)
+                ++successes;
+            else
+                successes = 0;
+        }
+
+        int first = Integer.parseInt(readFirstLine(sendRequestToBalancer("/skipped")));
+        for (int i = 1; i < 10; i++)
+        {
+            ContentResponse response = sendToBalancer("/skipped");
+            Assert.assertEquals(HttpStatus.OK_200, response.getStatus());
+            // Counter should increment every request
+            Assert.assertEquals(String.valueOf(first + i), readFirstLine(response.getContent()));
+        }
+    }
+
+    @Test
+    public void testFailingMemberIsEjected() throws Exception
+    {
+        stickySessions = false;
+        initParams.put("ejectionMinRequests", "2");
+        startBalancer(CounterServlet.class);
+        server2.stop();
+
+        // Two requests fail on the stopped member, which is then ejected.
+        for (int i = 0; i < 4; i++)
+            sendToBalancer("/ejection");
+
+        for (int i = 0; i < 10; i++)
+        {
+            ContentResponse response = sendToBalancer("/ejection");
+            Assert.assertEquals(HttpStatus.OK_200, response.getStatus());
+            // Counter should increment every request
+            Assert.assertEquals(String.valueOf(2 + i), readFirstLine(response.getContent()));
+        }
+    }
+
     private String readFirstLine(byte[] responseBytes) throws IOException
     {
         BufferedReader reader = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(responseBytes)));
@@ -173,9 +252,12 @@ public class BalancerServletTest
         @Override
         protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException
         {
+            resp.setContentType("text/plain");
+            // Health checks do not count.
+            if (req.getRequestURI().endsWith("/health"))
+                return;
             // Force session creation
             req.getSession();
-            resp.setContentType("text/plain");
             resp.getWriter().print(counter.getAndIncrement());
         }
     }
@@ -23,13 +23,21 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.UnknownHostException;
 import java.nio.ByteBuffer;
 import java.nio.channels.SocketChannel;
 import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.Locale;
+import java.util.Set;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.servlet.ServletException;
 import javax.servlet.ServletOutputStream;
@@ -39,6 +47,7 @@ import javax.servlet.http.HttpServletResponse;
 import org.eclipse.jetty.http.HttpStatus;
 import org.eclipse.jetty.http.HttpTester;
 import org.eclipse.jetty.io.EndPoint;
+import org.eclipse.jetty.io.MappedByteBufferPool;
 import org.eclipse.jetty.server.Request;
 import org.eclipse.jetty.server.Server;
 import org.eclipse.jetty.server.ServerConnector;
@@ -805,6 +814,179 @@ public class ConnectHandlerTest extends AbstractConnectHandlerTest
         }
     }
 
+    @Test
+    public void testCONNECTSharesServerBeansAndRecordsTunnelStatistics() throws Exception
+    {
+        Assert.assertSame(proxyConnector.getScheduler(), connectHandler.getScheduler());
+        Assert.assertSame(proxyConnector.getByteBufferPool(), connectHandler.getByteBufferPool());
+
+        String hostPort = "localhost:" + serverConnector.getLocalPort();
+        String request = "" +
+                "CONNECT " + hostPort + " HTTP/1.1\r\n" +
+                "Host: " + hostPort + "\r\n" +
+                "\r\n";
+        String echo = "" +
+                "GET /echo" + " HTTP/1.1\r\n" +
+                "Host: " + hostPort + "\r\n" +
+                "\r\n";
+        try (Socket socket = newSocket())
+        {
+            OutputStream output = socket.getOutputStream();
+            InputStream input = socket.getInputStream();
+
+            output.write(request.getBytes(StandardCharsets.UTF_8));
+            output.flush();
+
+            HttpTester.Input in = HttpTester.from(input);
+            HttpTester.Response response = HttpTester.parseResponse(in);
+            Assert.assertEquals(HttpStatus.OK_200, response.getStatus());
+            Assert.assertEquals(1, connectHandler.getTunnelsActive());
+
+            // Reuse the tunnel buffers for several exchanges.
+            for (int i = 0; i < 3; ++i)
+            {
+                output.write(echo.getBytes(StandardCharsets.UTF_8));
+                output.flush();
+                response = HttpTester.parseResponse(in);
+                Assert.assertEquals(HttpStatus.OK_200, response.getStatus());
+                Assert.assertEquals("GET /echo", response.getContent());
+            }
+        }
+
+        long timeout = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (connectHandler.getTunnelsActive() > 0 && System.nanoTime() < timeout)
+            Thread.sleep(10);
+
+        Assert.assertEquals(0, connectHandler.getTunnelsActive());
+        Assert.assertEquals(1, connectHandler.getTunnels());
+        Assert.assertEquals(3 * echo.length(), connectHandler.getBytesUpstream());
+        Assert.assertTrue(connectHandler.getBytesDownstream() > 0);
+        Assert.assertTrue(connectHandler.getTunnelThroughputMax() > 0);
+    }
+
+    @Test
+    public void testCONNECTDoesNotReleaseBufferWhileWriteIsPending() throws Exception
+    {
+        Set<ByteBuffer> writing = Collections.synchronizedSet(Collections.newSetFromMap(new IdentityHashMap<>()));
+        AtomicInteger releasedWhileWriting = new AtomicInteger();
+        AtomicInteger released = new AtomicInteger();
+        AtomicReference<ConnectHandler.UpstreamConnection> upstreamRef = new AtomicReference<>();
+        disposeProxy();
+        ConnectHandler connectHandler = new ConnectHandler()
+        {
+            @Override
+            protected UpstreamConnection newUpstreamConnection(EndPoint endPoint, ConnectContext connectContext)
+            {
+                UpstreamConnection connection = super.newUpstreamConnection(endPoint, connectContext);
+                upstreamRef.set(connection);
+                return connection;
+            }
+
+            @Override
+            protected void write(EndPoint endPoint, ByteBuffer buffer, Callback callback, ConcurrentMap<String, Object> context)
+            {
+                writing.add(buffer);
+                super.write(endPoint, buffer, new Callback.Nested(callback)
+                {
+                    @Override
+                    public void succeeded()
+                    {
+                        writing.remove(buffer);
+                        super.succeeded();
+                    }
+
+                    @Override
+                    public void failed(Throwable x)
+                    {
+                        writing.remove(buffer);
+                        super.failed(x);
+                    }
+                }, context);
+            }
+        };
+        connectHandler.setByteBufferPool(new MappedByteBufferPool()
+        {
+            @Override
+            public void release(ByteBuffer buffer)
+            {
+                if (writing.contains(buffer))
+                    releasedWhileWriting.incrementAndGet();
+                released.incrementAndGet();
+                super.release(buffer);
+            }
+        });
+        proxy.setHandler(connectHandler);
+        proxy.start();
+
+        try (ServerSocket upstream = new ServerSocket(0))
+        {
+            String hostPort = "localhost:" + upstream.getLocalPort();
+            String request = "" +
+                    "CONNECT " + hostPort + " HTTP/1.1\r\n" +
+                    "Host: " + hostPort + "\r\n" +
+                    "\r\n";
+            try (Socket socket = new Socket())
+            {
+                // The client does not read, so that the proxy cannot complete its writes.
+                socket.setReceiveBufferSize(1024);
+                socket.connect(new InetSocketAddress("localhost", proxyConnector.getLocalPort()));
+                socket.setSoTimeout(5000);
+                OutputStream output = socket.getOutputStream();
+                output.write(request.getBytes(StandardCharsets.UTF_8));
+                output.flush();
+
+                try (Socket server = upstream.accept())
+                {
+                    InputStream input = socket.getInputStream();
+                    HttpTester.Response response = HttpTester.parseResponse(HttpTester.from(input));
+                    Assert.assertEquals(HttpStatus.OK_200, response.getStatus());
+
+                    new Thread(() ->
+                    {
+                        try
+                        {
+                            // Write until the proxy closes the upstream side.
+                            OutputStream serverOutput = server.getOutputStream();
+                            byte[] chunk = new byte[16 * 1024];
+                            while (true)
+                                serverOutput.write(chunk);
+                        }
+                        catch (IOException ignored)
+                        {
+                        }
+                    }).start();
+
+                    long timeout = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+                    while (writing.isEmpty() && System.nanoTime() < timeout)
+                        Thread.sleep(10);
+                    Assert.assertFalse(writing.isEmpty());
+
+                    // Close the upstream side while a write to the client is pending.
+                    upstreamRef.get().close();
+                    timeout = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+                    while (connectHandler.getTunnelsActive() > 0 && System.nanoTime() < timeout)
+                        Thread.sleep(10);
+                    Assert.assertEquals(0, connectHandler.getTunnelsActive());
+
+                    // Drain the client until the tunnel buffer is released.
+                    byte[] bytes = new byte[1024];
+                    timeout = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+                    while (!writing.isEmpty() && System.nanoTime() < timeout)
+                    {
+                        if (input.read(bytes) < 0)
+                            break;
+                    }
+                    timeout = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+                    while (released.get() == 0 && System.nanoTime() < timeout)
+                        Thread.sleep(10);
+
+                    Assert.assertTrue(released.get() > 0);
+                    Assert.assertEquals(0, releasedWhileWriting.get());
+                }
+            }
+        }
+    }
+
     private static class ServerHandler extends AbstractHandler
     {
         public void handle(String target, Request request, HttpServletRequest httpRequest, HttpServletResponse httpResponse) throws IOException, ServletException
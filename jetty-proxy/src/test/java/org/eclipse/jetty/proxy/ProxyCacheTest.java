@@ -0,0 +1,340 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2017 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.proxy;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.client.HttpProxy;
+import org.eclipse.jetty.client.api.ContentResponse;
+import org.eclipse.jetty.client.api.Result;
+import org.eclipse.jetty.client.util.BufferingResponseListener;
+import org.eclipse.jetty.http.HttpHeader;
+import org.eclipse.jetty.http.HttpMethod;
+import org.eclipse.jetty.http.HttpStatus;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.eclipse.jetty.toolchain.test.TestTracker;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+@RunWith(Parameterized.class)
+public class ProxyCacheTest
+{
+    @Parameterized.Parameters(name = "{0}")
+    public static Iterable<Object[]> data()
+    {
+        return Arrays.asList(new Object[][]{
+                {ProxyServlet.class},
+                {AsyncProxyServlet.class},
+                {AsyncMiddleManServlet.class}
+        });
+    }
+
+    private static final String ETAG = "\"v\"";
+
+    @Rule
+    public final TestTracker tracker = new TestTracker();
+    private final AtomicInteger requests = new AtomicInteger();
+    private final AbstractProxyServlet proxyServlet;
+    private HttpClient client;
+    private Server proxy;
+    private ServerConnector proxyConnector;
+    private ServletContextHandler proxyContext;
+    private Server server;
+    private ServerConnector serverConnector;
+
+    public ProxyCacheTest(Class<?> proxyServletClass) throws Exception
+    {
+        this.proxyServlet = (AbstractProxyServlet)proxyServletClass.newInstance();
+    }
+
+    private void start(long delay) throws Exception
+    {
+        server = new Server();
+        serverConnector = new ServerConnector(server);
+        server.addConnector(serverConnector);
+        ServletContextHandler appContext = new ServletContextHandler(server, "/");
+        appContext.addServlet(new ServletHolder(new HttpServlet()
+        {
+            @Override
+            protected void service(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException
+            {
+                int count = requests.incrementAndGet();
+                if (HttpMethod.POST.is(request.getMethod()))
+                    return;
+                sleep(delay);
+                String cacheControl = request.getParameter("cc");
+                response.setHeader(HttpHeader.CACHE_CONTROL.asString(), cacheControl == null ? "max-age=60" : cacheControl);
+                response.setHeader(HttpHeader.ETAG.asString(), ETAG);
+                if (ETAG.equals(request.getHeader(HttpHeader.IF_NONE_MATCH.asString())))
+                {
+                    response.setStatus(HttpStatus.NOT_MODIFIED_304);
+                    return;
+                }
+                String content = request.getRequestURI() + count;
+                if (request.getHeader(HttpHeader.RANGE.asString()) != null)
+                {
+                    // Always the first byte.
+                    response.setStatus(HttpStatus.PARTIAL_CONTENT_206);
+                    response.setHeader(HttpHeader.CONTENT_RANGE.asString(), "bytes 0-0/" + content.length());
+                    content = content.substring(0, 1);
+                }
+                response.getWriter().print(content);
+            }
+        }), "/*");
+        server.start();
+
+        proxy = new Server();
+        proxyConnector = new ServerConnector(proxy);
+        proxy.addConnector(proxyConnector);
+        proxyContext = new ServletContextHandler(proxy, "/");
+        Map<String, String> initParams = new HashMap<>();
+        initParams.put("cache", "true");
+        ServletHolder proxyServletHolder = new ServletHolder("proxy", proxyServlet);
+        proxyServletHolder.setInitParameters(initParams);
+        proxyContext.addServlet(proxyServletHolder, "/*");
+        ServletHolder purgeServletHolder = new ServletHolder(ProxyCachePurgeServlet.class);
+        purgeServletHolder.setInitParameter("cacheAttribute", "proxy.ProxyCache");
+        proxyContext.addServlet(purgeServletHolder, "/purge");
+        proxy.start();
+
+        client = new HttpClient();
+        client.getProxyConfiguration().getProxies().add(new HttpProxy("localhost", proxyConnector.getLocalPort()));
+        client.start();
+    }
+
+    @After
+    public void dispose() throws Exception
+    {
+        if (client != null)
+            client.stop();
+        if (proxy != null)
+            proxy.stop();
+        if (server != null)
+            server.stop();
+    }
+
+    private ContentResponse send(String path) throws Exception
+    {
+        return client.newRequest("localhost", serverConnector.getLocalPort())
+                .path(path)
+                .timeout(5, TimeUnit.SECONDS)
+                .send();
+    }
+
+    @Test
+    public void testFreshResponseIsServedFromCache() throws Exception
+    {
+        start(0);
+
+        for (int i = 0; i < 3; ++i)
+        {
+            ContentResponse response = send("/fresh");
+            Assert.assertEquals(HttpStatus.OK_200, response.getStatus());
+            Assert.assertEquals("/fresh1", response.getContentAsString());
+        }
+
+        Assert.assertEquals(1, requests.get());
+        Assert.assertEquals(2, proxyServlet.getProxyCache().getHits());
+    }
+
+    @Test
+    public void testConditionalRequestIsNotCached() throws Exception
+    {
+        start(0);
+
+        ContentResponse response = client.newRequest("localhost", serverConnector.getLocalPort())
+                .path("/conditional")
+                .header(HttpHeader.IF_NONE_MATCH, ETAG)
+                .timeout(5, TimeUnit.SECONDS)
+                .send();
+        Assert.assertEquals(HttpStatus.NOT_MODIFIED_304, response.getStatus());
+        Assert.assertEquals(0, proxyServlet.getProxyCache().getMemoryEntries());
+
+        response = send("/conditional");
+        Assert.assertEquals(HttpStatus.OK_200, response.getStatus());
+        Assert.assertEquals("/conditional2", response.getContentAsString());
+        Assert.assertEquals(2, requests.get());
+    }
+
+    @Test
+    public void testRangeRequestIsNotCached() throws Exception
+    {
+        start(0);
+
+        ContentResponse response = client.newRequest("localhost", serverConnector.getLocalPort())
+                .path("/range")
+                .header(HttpHeader.RANGE, "bytes=0-0")
+                .timeout(5, TimeUnit.SECONDS)
+                .send();
+        Assert.assertEquals(HttpStatus.PARTIAL_CONTENT_206, response.getStatus());
+        Assert.assertEquals("/", response.getContentAsString());
+        Assert.assertEquals(0, proxyServlet.getProxyCache().getMemoryEntries());
+
+        response = send("/range");
+        Assert.assertEquals(HttpStatus.OK_200, response.getStatus());
+        Assert.assertEquals("/range2", response.getContentAsString());
+        Assert.assertEquals(2, requests.get());
+    }
+
+    @Test
+    public void testEvictedResponseIsServedFromDisk() throws Exception
+    {
+        start(0);
+        ProxyCache cache = proxyServlet.getProxyCache();
+        cache.setDiskDirectory(Files.createTempDirectory("proxy-cache"));
+        cache.setMaxMemorySize(1);
+
+        Assert.assertEquals("/evicted1", send("/evicted").getContentAsString());
+
+        // The response is moved to disk asynchronously.
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (cache.getDiskEntries() == 0)
+        {
+            Assert.assertTrue(System.nanoTime() < deadline);
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(0, cache.getMemoryEntries());
+
+        Assert.assertEquals("/evicted1", send("/evicted").getContentAsString());
+        Assert.assertEquals(1, requests.get());
+    }
+
+    @Test
+    public void testNoStoreResponseIsNotCached() throws Exception
+    {
+        start(0);
+
+        Assert.assertEquals("/none1", send("/none?cc=no-store").getContentAsString());
+        Assert.assertEquals("/none2", send("/none?cc=no-store").getContentAsString());
+        Assert.assertEquals(0, proxyServlet.getProxyCache().getMemoryEntries());
+    }
+
+    @Test
+    public void testConcurrentMissesAreCollapsed() throws Exception
+    {
+        start(1000);
+
+        int count = 8;
+        List<CompletableFuture<String>> results = new ArrayList<>();
+        for (int i = 0; i < count; ++i)
+        {
+            CompletableFuture<String> result = new CompletableFuture<>();
+            results.add(result);
+            client.newRequest("localhost", serverConnector.getLocalPort())
+                    .path("/slow")
+                    .timeout(5, TimeUnit.SECONDS)
+                    .send(new BufferingResponseListener()
+                    {
+                        @Override
+                        public void onComplete(Result r)
+                        {
+                            if (r.isFailed())
+                                result.completeExceptionally(r.getFailure());
+                            else
+                                result.complete(getContentAsString());
+                        }
+                    });
+        }
+
+        for (CompletableFuture<String> result : results)
+            Assert.assertEquals("/slow1", result.get(5, TimeUnit.SECONDS));
+        Assert.assertEquals(1, requests.get());
+        Assert.assertEquals(count - 1, proxyServlet.getProxyCache().getCollapsed());
+    }
+
+    @Test
+    public void testUnsafeRequestInvalidatesCachedResponse() throws Exception
+    {
+        start(0);
+
+        Assert.assertEquals("/resource1", send("/resource").getContentAsString());
+        client.newRequest("localhost", serverConnector.getLocalPort())
+                .method(HttpMethod.POST)
+                .path("/resource")
+                .timeout(5, TimeUnit.SECONDS)
+                .send();
+        Assert.assertEquals("/resource3", send("/resource").getContentAsString());
+    }
+
+    @Test
+    public void testPurge() throws Exception
+    {
+        start(0);
+
+        Assert.assertEquals("/a1", send("/a").getContentAsString());
+        Assert.assertEquals("/b2", send("/b").getContentAsString());
+
+        // Purge via the admin servlet, directly on the proxy.
+        HttpClient admin = new HttpClient();
+        admin.start();
+        try
+        {
+            ContentResponse response = admin.newRequest("localhost", proxyConnector.getLocalPort())
+                    .method(HttpMethod.POST)
+                    .path("/purge")
+                    .param("uri", "http://localhost:" + serverConnector.getLocalPort() + "/a")
+                    .timeout(5, TimeUnit.SECONDS)
+                    .send();
+            Assert.assertEquals(HttpStatus.OK_200, response.getStatus());
+            Assert.assertEquals("purged=1", response.getContentAsString().trim());
+        }
+        finally
+        {
+            admin.stop();
+        }
+
+        Assert.assertEquals("/a3", send("/a").getContentAsString());
+        Assert.assertEquals("/b2", send("/b").getContentAsString());
+    }
+
+    private static void sleep(long time) throws IOException
+    {
+        try
+        {
+            Thread.sleep(time);
+        }
+        catch (InterruptedException x)
+        {
+            throw new InterruptedIOException();
+        }
+    }
+}
@@ -62,10 +62,14 @@ import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import org.eclipse.jetty.client.ConnectionPool;
 import org.eclipse.jetty.client.DuplexConnectionPool;
 import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.client.HttpClientTransport;
 import org.eclipse.jetty.client.HttpContentResponse;
+import org.eclipse.jetty.client.HttpDestination;
 import org.eclipse.jetty.client.HttpProxy;
+import org.eclipse.jetty.client.RoundRobinConnectionPool;
 import org.eclipse.jetty.client.api.ContentResponse;
 import org.eclipse.jetty.client.api.Request;
 import org.eclipse.jetty.client.api.Response;
@@ -1475,4 +1479,103 @@ public class ProxyServletTest
         Assert.assertFalse(contentLatch.await(1, TimeUnit.SECONDS));
         Assert.assertTrue(clientLatch.await(5, TimeUnit.SECONDS));
     }
+
+    @Test
+    public void testSharedClientWithBackendConnectionLimit() throws Exception
+    {
+        startServer(new EmptyHttpServlet());
+
+        proxy = new Server();
+        proxyConnector = new ServerConnector(proxy);
+        proxy.addConnector(proxyConnector);
+        proxyContext = new ServletContextHandler(proxy, "/", true, false);
+        ServletHolder proxyServletHolder = new ServletHolder(proxyServlet);
+        proxyServletHolder.setInitParameter("sharedClient", "true");
+        proxyServletHolder.setInitParameter("maxConnectionsPerBackend", "localhost:" + serverConnector.getLocalPort() + "=2");
+        proxyServletHolder.setInitOrder(1);
+        proxyContext.addServlet(proxyServletHolder, "/*");
+        // Another proxy servlet on the same Server.
+        AbstractProxyServlet otherServlet = proxyServlet.getClass().newInstance();
+        ServletHolder otherServletHolder = new ServletHolder(otherServlet);
+        otherServletHolder.setInitParameter("sharedClient", "true");
+        otherServletHolder.setInitOrder(1);
+        proxyContext.addServlet(otherServletHolder, "/other/*");
+        proxy.start();
+        startClient();
+
+        HttpClient sharedClient = proxyServlet.getHttpClient();
+        Assert.assertSame(sharedClient, otherServlet.getHttpClient());
+        Assert.assertSame(sharedClient, proxy.getAttribute(AbstractProxyServlet.SHARED_HTTP_CLIENT_ATTRIBUTE));
+
+        ContentResponse response = client.newRequest("localhost", serverConnector.getLocalPort())
+                .timeout(5, TimeUnit.SECONDS)
+                .send();
+        Assert.assertEquals(200, response.getStatus());
+
+        HttpDestinationOverHTTP destination = (HttpDestinationOverHTTP)sharedClient.getDestination("http", "localhost", serverConnector.getLocalPort());
+        DuplexConnectionPool connectionPool = (DuplexConnectionPool)destination.getConnectionPool();
+        Assert.assertEquals(2, connectionPool.getMaxConnectionCount());
+
+        // The shared client is stopped by the Server, not by the servlets.
+        proxyContext.stop();
+        Assert.assertTrue(sharedClient.isRunning());
+        proxy.stop();
+        Assert.assertTrue(sharedClient.isStopped());
+    }
+
+    @Test
+    public void testSharedClientDoesNotReconfigureOtherHttpClients() throws Exception
+    {
+        startServer(new EmptyHttpServlet());
+
+        proxy = new Server();
+        proxyConnector = new ServerConnector(proxy);
+        proxy.addConnector(proxyConnector);
+        // An HttpClient used by the application, not for proxying.
+        HttpClient applicationClient = new HttpClient();
+        proxy.addBean(applicationClient);
+        proxyContext = new ServletContextHandler(proxy, "/", true, false);
+        ServletHolder proxyServletHolder = new ServletHolder(proxyServlet);
+        proxyServletHolder.setInitParameter("sharedClient", "true");
+        proxyServletHolder.setInitOrder(1);
+        proxyContext.addServlet(proxyServletHolder, "/*");
+        proxy.start();
+        startClient();
+
+        Assert.assertNotSame(applicationClient, proxyServlet.getHttpClient());
+        Assert.assertTrue(applicationClient.isFollowRedirects());
+        Assert.assertFalse(applicationClient.getContentDecoderFactories().isEmpty());
+
+        ContentResponse response = client.newRequest("localhost", serverConnector.getLocalPort())
+                .timeout(5, TimeUnit.SECONDS)
+                .send();
+        Assert.assertEquals(200, response.getStatus());
+    }
+
+    @Test
+    public void testBackendConnectionLimitKeepsConnectionPoolType() throws Exception
+    {
+        HttpClient httpClient = new HttpClient();
+        HttpClientTransport transport = httpClient.getTransport();
+        transport.setConnectionPoolFactory((ConnectionPool.MaxConnectionsFactory)(destination, maxConnections) ->
+                new RoundRobinConnectionPool(destination, maxConnections, destination));
+        BackendConnectionPoolFactory factory = new BackendConnectionPoolFactory(transport.getConnectionPoolFactory());
+        factory.setMaxConnections("localhost:8080=3");
+        transport.setConnectionPoolFactory(factory);
+        httpClient.start();
+        try
+        {
+            HttpDestination limited = (HttpDestination)httpClient.getDestination("http", "localhost", 8080);
+            RoundRobinConnectionPool pool = (RoundRobinConnectionPool)limited.getConnectionPool();
+            Assert.assertEquals(3, pool.getMaxConnectionCount());
+
+            HttpDestination other = (HttpDestination)httpClient.getDestination("http", "localhost", 8081);
+            pool = (RoundRobinConnectionPool)other.getConnectionPool();
+            Assert.assertEquals(httpClient.getMaxConnectionsPerDestination(), pool.getMaxConnectionCount());
+        }
+        finally
+        {
+            httpClient.stop();
+        }
+    }
 }
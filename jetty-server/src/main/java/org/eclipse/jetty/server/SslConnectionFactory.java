@@ -19,6 +19,8 @@
 
 package org.eclipse.jetty.server;
 
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.net.ssl.SSLEngine;
 import javax.net.ssl.SSLSession;
@@ -28,15 +30,22 @@ import org.eclipse.jetty.io.AbstractConnection;
 import org.eclipse.jetty.io.Connection;
 import org.eclipse.jetty.io.EndPoint;
 import org.eclipse.jetty.io.ssl.SslConnection;
+import org.eclipse.jetty.io.ssl.SslHandshakeExecutor;
 import org.eclipse.jetty.io.ssl.SslHandshakeListener;
+import org.eclipse.jetty.util.annotation.ManagedAttribute;
+import org.eclipse.jetty.util.annotation.ManagedObject;
 import org.eclipse.jetty.util.annotation.Name;
 import org.eclipse.jetty.util.component.ContainerLifeCycle;
 import org.eclipse.jetty.util.ssl.SslContextFactory;
 
+@ManagedObject
 public class SslConnectionFactory extends AbstractConnectionFactory
 {
+    private final Set<SslConnection> _connections = ConcurrentHashMap.newKeySet();
+    private final Connection.Listener _connectionListener = new ConnectionListener();
     private final SslContextFactory _sslContextFactory;
     private final String _nextProtocol;
+    private SslHandshakeExecutor _handshakeExecutor;
 
     public SslConnectionFactory()
     {
@@ -66,6 +75,52 @@ public class SslConnectionFactory extends AbstractConnectionFactory
         return _nextProtocol;
     }
 
+    /**
+     * @return the executor of the TLS handshake delegated tasks, or null if they are run by the I/O threads
+     */
+    public SslHandshakeExecutor getHandshakeExecutor()
+    {
+        return _handshakeExecutor;
+    }
+
+    /**
+     * <p>Sets the executor of the TLS handshake delegated tasks, so that the expensive
+     * handshake computations do not compete with established connections for threads.</p>
+     *
+     * @param handshakeExecutor the executor of the TLS handshake delegated tasks,
+     * or null to run them in the I/O threads
+     */
+    public void setHandshakeExecutor(SslHandshakeExecutor handshakeExecutor)
+    {
+        updateBean(_handshakeExecutor, handshakeExecutor);
+        _handshakeExecutor = handshakeExecutor;
+    }
+
+    /**
+     * @return the number of bytes of the buffers held by the open TLS connections
+     * @see SslConnection#getBytesHeld()
+     */
+    @ManagedAttribute("The number of bytes of the buffers held by TLS connections")
+    public long getBytesHeld()
+    {
+        long result = 0;
+        for (SslConnection connection : _connections)
+            result += connection.getBytesHeld();
+        return result;
+    }
+
+    @ManagedAttribute("The number of TLS connections holding buffers")
+    public int getConnectionsHoldingBuffers()
+    {
+        int result = 0;
+        for (SslConnection connection : _connections)
+        {
+            if (connection.getBytesHeld() > 0)
+                ++result;
+        }
+        return result;
+    }
+
     @Override
     protected void doStart() throws Exception
     {
@@ -88,6 +143,8 @@ public class SslConnectionFactory extends AbstractConnectionFactory
         SslConnection sslConnection = newSslConnection(connector, endPoint, engine);
         sslConnection.setRenegotiationAllowed(_sslContextFactory.isRenegotiationAllowed());
         sslConnection.setRenegotiationLimit(_sslContextFactory.getRenegotiationLimit());
+        sslConnection.setHandshakeExecutor(_handshakeExecutor);
+        sslConnection.addListener(_connectionListener);
         configure(sslConnection, connector, endPoint);
 
         ConnectionFactory next = connector.getConnectionFactory(_nextProtocol);
@@ -125,4 +182,19 @@ public class SslConnectionFactory extends AbstractConnectionFactory
         return String.format("%s@%x{%s->%s}",this.getClass().getSimpleName(),hashCode(),getProtocol(),_nextProtocol);
     }
 
+    private class ConnectionListener implements Connection.Listener
+    {
+        @Override
+        public void onOpened(Connection connection)
+        {
+            _connections.add((SslConnection)connection);
+        }
+
+        @Override
+        public void onClosed(Connection connection)
+        {
+            _connections.remove(connection);
+        }
+    }
+
 }
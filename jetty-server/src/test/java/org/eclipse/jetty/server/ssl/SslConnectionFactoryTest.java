@@ -21,6 +21,7 @@ package org.eclipse.jetty.server.ssl;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.Socket;
 import java.nio.charset.StandardCharsets;
@@ -29,6 +30,7 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Queue;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 import javax.net.ssl.SNIHostName;
 import javax.net.ssl.SNIServerName;
@@ -41,6 +43,7 @@ import javax.servlet.http.HttpServletResponse;
 
 import org.eclipse.jetty.http.HttpVersion;
 import org.eclipse.jetty.io.Connection;
+import org.eclipse.jetty.io.ssl.SslHandshakeExecutor;
 import org.eclipse.jetty.server.HttpConfiguration;
 import org.eclipse.jetty.server.HttpConnectionFactory;
 import org.eclipse.jetty.server.Request;
@@ -187,6 +190,122 @@ public class SslConnectionFactoryTest
         Assert.assertEquals(0, history.size());
     }
 
+    @Test
+    public void testHandshakeExecutor() throws Exception
+    {
+        SslHandshakeExecutor executor = new SslHandshakeExecutor(2, 16);
+        _server.stop();
+        _connector.getBean(SslConnectionFactory.class).setHandshakeExecutor(executor);
+        _server.start();
+        _port = _connector.getLocalPort();
+
+        int connections = 10;
+        for (int i = 0; i < connections; ++i)
+        {
+            String response = getResponse("127.0.0.1", null);
+            Assert.assertThat(response, Matchers.containsString("host=127.0.0.1"));
+        }
+
+        Assert.assertEquals(connections, executor.getHandshakesSucceeded());
+        Assert.assertEquals(0, executor.getHandshakesFailed());
+    }
+
+    @Test
+    public void testHandshakeExecutorSheddingFailsHandshake() throws Exception
+    {
+        SslHandshakeExecutor executor = new SslHandshakeExecutor(1, 1)
+        {
+            @Override
+            protected boolean execute(Runnable tasks)
+            {
+                // Simulate a full queue.
+                return false;
+            }
+        };
+        _server.stop();
+        _connector.getBean(SslConnectionFactory.class).setHandshakeExecutor(executor);
+        _server.start();
+        _port = _connector.getLocalPort();
+
+        try
+        {
+            getResponse("127.0.0.1", null);
+            Assert.fail();
+        }
+        catch (IOException expected)
+        {
+            // Expected
+        }
+
+        Assert.assertEquals(0, executor.getHandshakesSucceeded());
+        Assert.assertThat(executor.getHandshakesFailed(), Matchers.greaterThan(0L));
+    }
+
+    @Test
+    public void testIdleConnectionReleasesBuffers() throws Exception
+    {
+        SslConnectionFactory sslConnectionFactory = _connector.getBean(SslConnectionFactory.class);
+
+        SslContextFactory clientContextFactory = new SslContextFactory(true);
+        clientContextFactory.start();
+        try (SSLSocket sslSocket = (SSLSocket)clientContextFactory.getSslContext().getSocketFactory().createSocket("127.0.0.1", _port))
+        {
+            for (int i = 0; i < 2; ++i)
+            {
+                OutputStream output = sslSocket.getOutputStream();
+                output.write(("GET /ctx/path HTTP/1.1\r\nHost: localhost\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1));
+                output.flush();
+
+                // Read the chunked response until its terminal chunk.
+                InputStream input = sslSocket.getInputStream();
+                StringBuilder response = new StringBuilder();
+                while (!response.toString().endsWith("\r\n0\r\n\r\n"))
+                {
+                    int read = input.read();
+                    Assert.assertThat(read, Matchers.greaterThanOrEqualTo(0));
+                    response.append((char)read);
+                }
+                Assert.assertThat(response.toString(), Matchers.startsWith("HTTP/1.1 200 OK"));
+
+                // The connection is idle, so it must not hold buffers.
+                long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+                while (sslConnectionFactory.getBytesHeld() > 0 && System.nanoTime() < end)
+                    Thread.sleep(10);
+                Assert.assertEquals(0, sslConnectionFactory.getBytesHeld());
+                Assert.assertEquals(0, sslConnectionFactory.getConnectionsHoldingBuffers());
+            }
+        }
+        finally
+        {
+            clientContextFactory.stop();
+        }
+    }
+
+    @Test
+    public void testHandshakeExecutorFullWithoutSheddingRunsTasksInConnectionExecutor() throws Exception
+    {
+        SslHandshakeExecutor executor = new SslHandshakeExecutor(1, 0)
+        {
+            @Override
+            protected boolean execute(Runnable tasks)
+            {
+                // Simulate a full queue.
+                return false;
+            }
+        };
+        executor.setShedding(false);
+        _server.stop();
+        _connector.getBean(SslConnectionFactory.class).setHandshakeExecutor(executor);
+        _server.start();
+        _port = _connector.getLocalPort();
+
+        String response = getResponse("127.0.0.1", null);
+        Assert.assertThat(response, Matchers.containsString("host=127.0.0.1"));
+
+        Assert.assertEquals(1, executor.getHandshakesSucceeded());
+        Assert.assertEquals(0, executor.getHandshakesShed());
+    }
+
     @Test(expected = IllegalStateException.class)
     public void testServerWithoutHttpConnectionFactory() throws Exception
     {
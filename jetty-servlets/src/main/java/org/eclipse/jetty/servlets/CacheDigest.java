@@ -0,0 +1,258 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2017 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.servlets;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Base64;
+
+/**
+ * <p>A compact, probabilistic set of URLs, encoded as a Golomb-coded set
+ * as described by the HTTP Cache Digests draft (draft-ietf-httpbis-cache-digest).</p>
+ * <p>A cache digest is sent by clients (for example in the {@code Cache-Digest}
+ * header, or in a cookie set by the server) to describe which resources they
+ * have in their cache, so that the server avoids pushing them again.</p>
+ * <p>Membership tests may return false positives with probability {@code 1/P},
+ * but never false negatives.</p>
+ * <p>Instances of this class are not thread-safe.</p>
+ */
+public class CacheDigest
+{
+    private static final long[] EMPTY = new long[0];
+
+    private final int log2N;
+    private final int log2P;
+    private long[] hashes = EMPTY;
+    private int size;
+
+    /**
+     * @param log2N the base 2 logarithm of the maximum number of URLs
+     * @param log2P the base 2 logarithm of the inverse of the false positive probability
+     */
+    public CacheDigest(int log2N, int log2P)
+    {
+        if (log2N < 0 || log2N > 31 || log2P < 0 || log2P > 31 || log2N + log2P > 62)
+            throw new IllegalArgumentException("Invalid digest parameters: N=2^" + log2N + " P=2^" + log2P);
+        this.log2N = log2N;
+        this.log2P = log2P;
+    }
+
+    public int getLog2N()
+    {
+        return log2N;
+    }
+
+    public int getLog2P()
+    {
+        return log2P;
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * @param url the URL to add to this digest
+     * @return whether the URL hash was not already present in this digest
+     */
+    public boolean add(String url)
+    {
+        long hash = hash(url);
+        int index = Arrays.binarySearch(hashes, 0, size, hash);
+        if (index >= 0)
+            return false;
+        index = -index - 1;
+        if (size == hashes.length)
+            hashes = Arrays.copyOf(hashes, Math.max(8, size * 2));
+        System.arraycopy(hashes, index, hashes, index + 1, size - index);
+        hashes[index] = hash;
+        ++size;
+        return true;
+    }
+
+    /**
+     * @param url the URL to test
+     * @return whether the URL is (probably) present in this digest
+     */
+    public boolean contains(String url)
+    {
+        return Arrays.binarySearch(hashes, 0, size, hash(url)) >= 0;
+    }
+
+    private long hash(String url)
+    {
+        byte[] digest = sha256(url.getBytes(StandardCharsets.UTF_8));
+        long value = 0;
+        for (int i = 0; i < 8; ++i)
+            value = (value << 8) | (digest[i] & 0xFF);
+        int bits = log2N + log2P;
+        return bits == 0 ? 0 : value >>> (64 - bits);
+    }
+
+    private static byte[] sha256(byte[] bytes)
+    {
+        try
+        {
+            return MessageDigest.getInstance("SHA-256").digest(bytes);
+        }
+        catch (NoSuchAlgorithmException x)
+        {
+            throw new IllegalStateException(x);
+        }
+    }
+
+    /**
+     * @return the base64url encoding of the Golomb-coded set
+     */
+    public String encode()
+    {
+        BitWriter writer = new BitWriter(2 + size * (log2P + 2) / 8);
+        writer.write(log2N, 5);
+        writer.write(log2P, 5);
+        long previous = 0;
+        for (int i = 0; i < size; ++i)
+        {
+            long delta = hashes[i] - previous;
+            previous = hashes[i];
+            long quotient = delta >>> log2P;
+            for (long q = 0; q < quotient; ++q)
+                writer.write(0, 1);
+            writer.write(1, 1);
+            writer.write(delta & ((1L << log2P) - 1), log2P);
+        }
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(writer.toByteArray());
+    }
+
+    /**
+     * @param value the base64url encoding of a Golomb-coded set, optionally followed by parameters
+     * @return the cache digest, or null if the value cannot be decoded
+     */
+    public static CacheDigest decode(String value)
+    {
+        try
+        {
+            int semicolon = value.indexOf(';');
+            if (semicolon >= 0)
+                value = value.substring(0, semicolon);
+            BitReader reader = new BitReader(Base64.getUrlDecoder().decode(value.trim()));
+            int log2N = (int)reader.read(5);
+            int log2P = (int)reader.read(5);
+            if (log2N < 0 || log2P < 0)
+                return null;
+            CacheDigest digest = new CacheDigest(log2N, log2P);
+            long previous = 0;
+            while (true)
+            {
+                long quotient = 0;
+                while (true)
+                {
+                    int bit = (int)reader.read(1);
+                    if (bit < 0)
+                        return digest;
+                    if (bit == 1)
+                        break;
+                    ++quotient;
+                }
+                long remainder = reader.read(digest.log2P);
+                if (remainder < 0)
+                    return digest;
+                long hash = previous + ((quotient << digest.log2P) | remainder);
+                digest.append(hash);
+                previous = hash;
+            }
+        }
+        catch (IllegalArgumentException x)
+        {
+            return null;
+        }
+    }
+
+    private void append(long hash)
+    {
+        if (size == hashes.length)
+            hashes = Arrays.copyOf(hashes, Math.max(8, size * 2));
+        hashes[size++] = hash;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s@%x{N=2^%d,P=2^%d,size=%d}", getClass().getSimpleName(), hashCode(), log2N, log2P, size);
+    }
+
+    private static class BitWriter
+    {
+        private byte[] bytes;
+        private long bits;
+
+        private BitWriter(int capacity)
+        {
+            bytes = new byte[Math.max(capacity, 2)];
+        }
+
+        private void write(long value, int count)
+        {
+            for (int i = count - 1; i >= 0; --i)
+            {
+                int index = (int)(bits >>> 3);
+                if (index == bytes.length)
+                    bytes = Arrays.copyOf(bytes, bytes.length * 2);
+                if (((value >>> i) & 1) != 0)
+                    bytes[index] |= 0x80 >>> (bits & 7);
+                ++bits;
+            }
+        }
+
+        private byte[] toByteArray()
+        {
+            return Arrays.copyOf(bytes, (int)((bits + 7) >>> 3));
+        }
+    }
+
+    private static class BitReader
+    {
+        private final byte[] bytes;
+        private long bits;
+
+        private BitReader(byte[] bytes)
+        {
+            this.bytes = bytes;
+        }
+
+        /**
+         * @return the value read, or -1 if there are not enough bits left
+         */
+        private long read(int count)
+        {
+            if (bits + count > bytes.length * 8L)
+                return -1;
+            long value = 0;
+            for (int i = 0; i < count; ++i)
+            {
+                int bit = (bytes[(int)(bits >>> 3)] >>> (7 - (bits & 7))) & 1;
+                value = (value << 1) | bit;
+                ++bits;
+            }
+            return value;
+        }
+    }
+}
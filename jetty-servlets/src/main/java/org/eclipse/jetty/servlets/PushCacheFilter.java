@@ -20,9 +20,11 @@ package org.eclipse.jetty.servlets;
 
 import java.io.IOException;
 import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Queue;
 import java.util.Set;
@@ -38,18 +40,26 @@ import javax.servlet.FilterConfig;
 import javax.servlet.ServletException;
 import javax.servlet.ServletRequest;
 import javax.servlet.ServletResponse;
+import javax.servlet.http.Cookie;
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 
 import org.eclipse.jetty.http.HttpField;
 import org.eclipse.jetty.http.HttpFields;
 import org.eclipse.jetty.http.HttpHeader;
 import org.eclipse.jetty.http.HttpMethod;
 import org.eclipse.jetty.http.HttpScheme;
+import org.eclipse.jetty.http.HttpStatus;
 import org.eclipse.jetty.http.HttpURI;
 import org.eclipse.jetty.http.HttpVersion;
+import org.eclipse.jetty.http.MimeTypes;
+import org.eclipse.jetty.io.Connection;
+import org.eclipse.jetty.io.EndPoint;
 import org.eclipse.jetty.server.PushBuilder;
 import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Response;
 import org.eclipse.jetty.util.StringUtil;
+import org.eclipse.jetty.util.URIUtil;
 import org.eclipse.jetty.util.annotation.ManagedAttribute;
 import org.eclipse.jetty.util.annotation.ManagedObject;
 import org.eclipse.jetty.util.annotation.ManagedOperation;
@@ -74,19 +84,44 @@ import org.eclipse.jetty.util.log.Logger;
  * cache.</p>
  * <p>If the init param useQueryInKey is set, then the query string is used as
  * as part of the key to identify a resource</p>
+ * <p>If the init param learnFromTiming is set, secondary resources requested
+ * without a {@code Referer} header are associated to the last primary resource
+ * (a resource requested with an {@code Accept} header that includes
+ * {@code text/html}) requested on the same connection within the associate
+ * period. Associated resources are pushed in the order they were first
+ * requested after the primary resource.</p>
+ * <p>Resources that the client declares to have in its cache via a
+ * {@link CacheDigest} sent in the {@code Cache-Digest} header are not pushed.
+ * If the init param cacheDigestCookie is set, the filter also records the
+ * resources it pushes in a cache digest stored in a cookie with that name,
+ * so that they are not pushed again on repeat visits.</p>
+ * <p>If the init param maxPushBytes is set, the filter stops pushing on a
+ * connection once the sizes of the resources pushed on that connection,
+ * as previously observed in {@code 200} responses, exceed that value.
+ * Resources whose size has not been observed yet are not pushed.</p>
  */
 @ManagedObject("Push cache based on the HTTP 'Referer' header")
 public class PushCacheFilter implements Filter
 {
     private static final Logger LOG = Log.getLogger(PushCacheFilter.class);
+    private static final String CACHE_DIGEST = "Cache-Digest";
+    private static final int DIGEST_LOG2_N = 7;
+    private static final int DIGEST_LOG2_P = 7;
 
     private final Set<Integer> _ports = new HashSet<>();
     private final Set<String> _hosts = new HashSet<>();
     private final ConcurrentMap<String, PrimaryResource> _cache = new ConcurrentHashMap<>();
+    private final ConcurrentMap<EndPoint, ConnectionState> _connections = new ConcurrentHashMap<>();
+    private final AtomicLong _pushed = new AtomicLong();
+    private final AtomicLong _skippedCached = new AtomicLong();
+    private final AtomicLong _skippedBudget = new AtomicLong();
     private long _associatePeriod = 4000L;
     private int _maxAssociations = 16;
     private long _renew = System.nanoTime();
     private boolean _useQueryInKey;
+    private boolean _learnFromTiming;
+    private long _maxPushBytes;
+    private String _cacheDigestCookie;
 
     @Override
     public void init(FilterConfig config) throws ServletException
@@ -109,12 +144,21 @@ public class PushCacheFilter implements Filter
                 _ports.add(Integer.parseInt(p));
 
         _useQueryInKey = Boolean.parseBoolean(config.getInitParameter("useQueryInKey"));
-        
+
+        _learnFromTiming = Boolean.parseBoolean(config.getInitParameter("learnFromTiming"));
+
+        String maxPushBytes = config.getInitParameter("maxPushBytes");
+        if (maxPushBytes != null)
+            _maxPushBytes = Long.parseLong(maxPushBytes);
+
+        _cacheDigestCookie = config.getInitParameter("cacheDigestCookie");
+
         // Expose for JMX.
         config.getServletContext().setAttribute(config.getFilterName(), this);
 
         if (LOG.isDebugEnabled())
-            LOG.debug("period={} max={} hosts={} ports={}", _associatePeriod, _maxAssociations, _hosts, _ports);
+            LOG.debug("period={} max={} hosts={} ports={} timing={} maxPushBytes={} digestCookie={}",
+                    _associatePeriod, _maxAssociations, _hosts, _ports, _learnFromTiming, _maxPushBytes, _cacheDigestCookie);
     }
 
     @Override
@@ -136,14 +180,19 @@ public class PushCacheFilter implements Filter
         // Iterating over fields is more efficient than multiple gets
         HttpFields fields = jettyRequest.getHttpFields();
         boolean conditional = false;
+        boolean html = false;
         String referrer = null;
-        loop:
+        String cacheDigest = null;
         for (int i = 0; i < fields.size(); i++)
         {
             HttpField field = fields.getField(i);
             HttpHeader header = field.getHeader();
             if (header == null)
+            {
+                if (CACHE_DIGEST.equalsIgnoreCase(field.getName()))
+                    cacheDigest = field.getValue();
                 continue;
+            }
 
             switch (header)
             {
@@ -152,12 +201,16 @@ public class PushCacheFilter implements Filter
                 case IF_NONE_MATCH:
                 case IF_UNMODIFIED_SINCE:
                     conditional = true;
-                    break loop;
+                    break;
 
                 case REFERER:
                     referrer = field.getValue();
                     break;
 
+                case ACCEPT:
+                    html = field.contains(MimeTypes.Type.TEXT_HTML.asString());
+                    break;
+
                 default:
                     break;
             }
@@ -196,45 +249,7 @@ public class PushCacheFilter implements Filter
                         referrerPath = "/";
                     if (referrerPath.startsWith(request.getContextPath() + "/"))
                     {
-                        if (!referrerPath.equals(path))
-                        {
-                            PrimaryResource primaryResource = _cache.get(referrerPath);
-                            if (primaryResource != null)
-                            {
-                                long primaryTimestamp = primaryResource._timestamp.get();
-                                if (primaryTimestamp != 0)
-                                {
-                                    if (now - primaryTimestamp < TimeUnit.MILLISECONDS.toNanos(_associatePeriod))
-                                    {
-                                        Set<String> associated = primaryResource._associated;
-                                        // Not strictly concurrent-safe, just best effort to limit associations.
-                                        if (associated.size() <= _maxAssociations)
-                                        {
-                                            if (associated.add(path))
-                                            {
-                                                if (LOG.isDebugEnabled())
-                                                    LOG.debug("Associated {} to {}", path, referrerPath);
-                                            }
-                                        }
-                                        else
-                                        {
-                                            if (LOG.isDebugEnabled())
-                                                LOG.debug("Not associated {} to {}, exceeded max associations of {}", path, referrerPath, _maxAssociations);
-                                        }
-                                    }
-                                    else
-                                    {
-                                        if (LOG.isDebugEnabled())
-                                            LOG.debug("Not associated {} to {}, outside associate period of {}ms", path, referrerPath, _associatePeriod);
-                                    }
-                                }
-                            }
-                        }
-                        else
-                        {
-                            if (LOG.isDebugEnabled())
-                                LOG.debug("Not associated {} to {}, referring to self", path, referrerPath);
-                        }
+                        associate(referrerPath, path, now);
                     }
                     else
                     {
@@ -250,6 +265,30 @@ public class PushCacheFilter implements Filter
             }
         }
 
+        ConnectionState connectionState = null;
+        if (_learnFromTiming || _maxPushBytes > 0)
+        {
+            EndPoint endPoint = jettyRequest.getHttpChannel().getEndPoint();
+            connectionState = _connections.get(endPoint);
+            if (connectionState == null)
+                connectionState = newConnectionState(endPoint);
+            if (_learnFromTiming)
+            {
+                if (html)
+                {
+                    connectionState._primaryPath = path;
+                    connectionState._primaryTimestamp = now;
+                }
+                else if (referrer == null)
+                {
+                    String primaryPath = connectionState._primaryPath;
+                    if (primaryPath != null &&
+                            now - connectionState._primaryTimestamp < TimeUnit.MILLISECONDS.toNanos(_associatePeriod))
+                        associate(primaryPath, path, now);
+                }
+            }
+        }
+
         PrimaryResource primaryResource = _cache.get(path);
         if (primaryResource == null)
         {
@@ -274,28 +313,171 @@ public class PushCacheFilter implements Filter
         // Push associated resources.
         if (!conditional && !primaryResource._associated.isEmpty())
         {
+            // Clients compute the digest URIs without the default ports.
+            StringBuilder builder = new StringBuilder();
+            URIUtil.appendSchemeHostPort(builder, request.getScheme(), request.getServerName(), request.getServerPort());
+            String origin = builder.toString();
+            CacheDigest digest = cacheDigest == null ? null : CacheDigest.decode(cacheDigest);
+            CacheDigest cookieDigest = _cacheDigestCookie == null ? null : getCookieDigest(request);
+            boolean pushedAny = false;
+
             PushBuilder pushBuilder = jettyRequest.getPushBuilder();
 
             // Breadth-first push of associated resources.
             Queue<PrimaryResource> queue = new ArrayDeque<>();
             queue.offer(primaryResource);
+            push:
             while (!queue.isEmpty())
             {
                 PrimaryResource parent = queue.poll();
-                for (String childPath : parent._associated)
+                for (String childPath : parent.getAssociated())
                 {
                     PrimaryResource child = _cache.get(childPath);
                     if (child != null)
                         queue.offer(child);
 
+                    String childURI = origin + childPath;
+                    if ((digest != null && digest.contains(childURI)) || (cookieDigest != null && cookieDigest.contains(childURI)))
+                    {
+                        _skippedCached.incrementAndGet();
+                        if (LOG.isDebugEnabled())
+                            LOG.debug("Not pushing {} for {}, in client cache digest", childPath, path);
+                        continue;
+                    }
+
+                    if (_maxPushBytes > 0)
+                    {
+                        long length = child == null ? -1 : child._length;
+                        if (length < 0)
+                        {
+                            // The size is learnt when the client requests the resource itself.
+                            _skippedBudget.incrementAndGet();
+                            if (LOG.isDebugEnabled())
+                                LOG.debug("Not pushing {} for {}, unknown size", childPath, path);
+                            continue;
+                        }
+                        if (connectionState._pushedBytes.addAndGet(length) > _maxPushBytes)
+                        {
+                            _skippedBudget.incrementAndGet();
+                            if (LOG.isDebugEnabled())
+                                LOG.debug("Not pushing {} for {}, exceeded max push bytes of {}", childPath, path, _maxPushBytes);
+                            break push;
+                        }
+                    }
+
                     if (LOG.isDebugEnabled())
                         LOG.debug("Pushing {} for {}", childPath, path);
                     pushBuilder.path(childPath).push();
+                    _pushed.incrementAndGet();
+
+                    if (_cacheDigestCookie != null)
+                    {
+                        if (cookieDigest == null)
+                            cookieDigest = new CacheDigest(DIGEST_LOG2_N, DIGEST_LOG2_P);
+                        pushedAny |= cookieDigest.size() < (1 << cookieDigest.getLog2N()) && cookieDigest.add(childURI);
+                    }
                 }
             }
+
+            if (pushedAny)
+            {
+                Cookie cookie = new Cookie(_cacheDigestCookie, cookieDigest.encode());
+                String contextPath = request.getContextPath();
+                cookie.setPath(contextPath.isEmpty() ? "/" : contextPath);
+                cookie.setHttpOnly(true);
+                ((HttpServletResponse)resp).addCookie(cookie);
+            }
         }
 
         chain.doFilter(request, resp);
+
+        // Remember the resource size to account for it when pushed;
+        // other responses, such as 304 or 206, do not carry the whole resource.
+        Response jettyResponse = jettyRequest.getResponse();
+        if (!request.isAsyncStarted() && jettyResponse.getStatus() == HttpStatus.OK_200)
+            primaryResource._length = jettyResponse.getHttpOutput().getWritten();
+    }
+
+    private void associate(String primaryPath, String path, long now)
+    {
+        if (primaryPath.equals(path))
+        {
+            if (LOG.isDebugEnabled())
+                LOG.debug("Not associated {} to {}, referring to self", path, primaryPath);
+            return;
+        }
+
+        PrimaryResource primaryResource = _cache.get(primaryPath);
+        if (primaryResource != null)
+        {
+            long primaryTimestamp = primaryResource._timestamp.get();
+            if (primaryTimestamp != 0)
+            {
+                long elapsed = now - primaryTimestamp;
+                if (elapsed < TimeUnit.MILLISECONDS.toNanos(_associatePeriod))
+                {
+                    Map<String, Long> associated = primaryResource._associated;
+                    // Not strictly concurrent-safe, just best effort to limit associations.
+                    if (associated.size() <= _maxAssociations)
+                    {
+                        if (associated.putIfAbsent(path, elapsed) == null)
+                        {
+                            if (LOG.isDebugEnabled())
+                                LOG.debug("Associated {} to {}", path, primaryPath);
+                        }
+                    }
+                    else
+                    {
+                        if (LOG.isDebugEnabled())
+                            LOG.debug("Not associated {} to {}, exceeded max associations of {}", path, primaryPath, _maxAssociations);
+                    }
+                }
+                else
+                {
+                    if (LOG.isDebugEnabled())
+                        LOG.debug("Not associated {} to {}, outside associate period of {}ms", path, primaryPath, _associatePeriod);
+                }
+            }
+        }
+    }
+
+    private ConnectionState newConnectionState(EndPoint endPoint)
+    {
+        ConnectionState state = new ConnectionState();
+        ConnectionState existing = _connections.putIfAbsent(endPoint, state);
+        if (existing != null)
+            return existing;
+
+        Connection connection = endPoint.getConnection();
+        if (connection != null)
+        {
+            connection.addListener(new Connection.Listener.Adapter()
+            {
+                @Override
+                public void onClosed(Connection connection)
+                {
+                    _connections.remove(endPoint);
+                }
+            });
+        }
+        // The connection may have been closed before the listener was added.
+        if (connection == null || !endPoint.isOpen())
+            _connections.remove(endPoint);
+        return state;
+    }
+
+    private CacheDigest getCookieDigest(HttpServletRequest request)
+    {
+        Cookie[] cookies = request.getCookies();
+        if (cookies != null)
+        {
+            for (Cookie cookie : cookies)
+            {
+                if (_cacheDigestCookie.equals(cookie.getName()))
+                    return CacheDigest.decode(cookie.getValue());
+            }
+        }
+        return null;
     }
 
     @Override
@@ -311,12 +493,30 @@ public class PushCacheFilter implements Filter
         for (Map.Entry<String, PrimaryResource> entry : _cache.entrySet())
         {
             PrimaryResource resource = entry.getValue();
-            String value = String.format("size=%d: %s", resource._associated.size(), new TreeSet<>(resource._associated));
+            String value = String.format("size=%d: %s", resource._associated.size(), new TreeSet<>(resource._associated.keySet()));
             result.put(entry.getKey(), value);
         }
         return result;
     }
 
+    @ManagedAttribute("The number of resources pushed")
+    public long getPushedCount()
+    {
+        return _pushed.get();
+    }
+
+    @ManagedAttribute("The number of pushes skipped because the resource was in the client cache digest")
+    public long getSkippedCachedCount()
+    {
+        return _skippedCached.get();
+    }
+
+    @ManagedAttribute("The number of pushes skipped because the connection push budget was exceeded")
+    public long getSkippedBudgetCount()
+    {
+        return _skippedBudget.get();
+    }
+
     @ManagedOperation(value = "Renews the push cache contents", impact = "ACTION")
     public void renewPushCache()
     {
@@ -331,7 +531,26 @@ public class PushCacheFilter implements Filter
 
     private static class PrimaryResource
     {
-        private final Set<String> _associated = Collections.newSetFromMap(new ConcurrentHashMap<>());
+        // Associated resource path -> nanoseconds elapsed since the primary request.
+        private final ConcurrentMap<String, Long> _associated = new ConcurrentHashMap<>();
         private final AtomicLong _timestamp = new AtomicLong();
+        private volatile long _length = -1;
+
+        private List<String> getAssociated()
+        {
+            List<Map.Entry<String, Long>> entries = new ArrayList<>(_associated.entrySet());
+            entries.sort(Map.Entry.comparingByValue());
+            List<String> result = new ArrayList<>(entries.size());
+            for (Map.Entry<String, Long> entry : entries)
+                result.add(entry.getKey());
+            return result;
+        }
+    }
+
+    private static class ConnectionState
+    {
+        private final AtomicLong _pushedBytes = new AtomicLong();
+        private volatile String _primaryPath;
+        private volatile long _primaryTimestamp;
     }
 }
@@ -0,0 +1,71 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2017 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.servlets;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CacheDigestTest
+{
+    @Test
+    public void testEncodeDecode() throws Exception
+    {
+        CacheDigest digest = new CacheDigest(5, 8);
+        for (int i = 0; i < 20; ++i)
+            Assert.assertTrue(digest.add("https://localhost:8443/resource" + i + ".css"));
+        Assert.assertFalse(digest.add("https://localhost:8443/resource0.css"));
+        Assert.assertEquals(20, digest.size());
+
+        CacheDigest decoded = CacheDigest.decode(digest.encode());
+        Assert.assertNotNull(decoded);
+        Assert.assertEquals(5, decoded.getLog2N());
+        Assert.assertEquals(8, decoded.getLog2P());
+        Assert.assertEquals(20, decoded.size());
+        for (int i = 0; i < 20; ++i)
+            Assert.assertTrue(decoded.contains("https://localhost:8443/resource" + i + ".css"));
+        Assert.assertFalse(decoded.contains("https://localhost:8443/other.css"));
+    }
+
+    @Test
+    public void testDecodeWithParameters() throws Exception
+    {
+        CacheDigest digest = new CacheDigest(1, 7);
+        digest.add("https://localhost/a.js");
+
+        CacheDigest decoded = CacheDigest.decode(digest.encode() + "; complete");
+        Assert.assertNotNull(decoded);
+        Assert.assertTrue(decoded.contains("https://localhost/a.js"));
+    }
+
+    @Test
+    public void testEmptyDigest() throws Exception
+    {
+        CacheDigest decoded = CacheDigest.decode(new CacheDigest(0, 7).encode());
+        Assert.assertNotNull(decoded);
+        Assert.assertEquals(0, decoded.size());
+        Assert.assertFalse(decoded.contains("https://localhost/a.js"));
+    }
+
+    @Test
+    public void testInvalidDigest() throws Exception
+    {
+        Assert.assertNull(CacheDigest.decode("!!!"));
+        Assert.assertNull(CacheDigest.decode(""));
+    }
+}
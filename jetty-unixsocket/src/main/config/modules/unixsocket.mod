@@ -50,8 +50,11 @@ http://www.apache.org/licenses/LICENSE-2.0.html
 ## Connector idle timeout in milliseconds
 # jetty.unixsocket.idleTimeout=30000
 
-## Number of selectors (-1 picks default 1)
+## Number of selectors (-1 picks default)
 # jetty.unixsocket.selectors=-1
 
-## ServerSocketChannel backlog (0 picks platform default)
-# jetty.unixsocket.acceptorQueueSize=0
+## ServerSocketChannel backlog (0 picks platform maximum)
+# jetty.unixsocket.acceptQueueSize=0
+
+## Whether to delete a stale socket file, on which no server is listening, before binding
+# jetty.unixsocket.reuseAddress=true
@@ -18,15 +18,16 @@
 
 package org.eclipse.jetty.unixsocket;
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
 import java.net.ServerSocket;
-import java.net.SocketAddress;
 import java.nio.channels.SelectableChannel;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.eclipse.jetty.io.ByteBufferPool;
 import org.eclipse.jetty.io.Connection;
@@ -47,6 +48,7 @@ import org.eclipse.jetty.util.log.Logger;
 import org.eclipse.jetty.util.ssl.SslContextFactory;
 import org.eclipse.jetty.util.thread.Scheduler;
 
+import jnr.constants.platform.Errno;
 import jnr.enxio.channels.NativeSelectorProvider;
 import jnr.unixsocket.UnixServerSocketChannel;
 import jnr.unixsocket.UnixSocketAddress;
@@ -59,8 +61,11 @@ import jnr.unixsocket.UnixSocketChannel;
 public class UnixSocketConnector extends AbstractConnector
 {
     private static final Logger LOG = Log.getLogger(UnixSocketConnector.class);
-    
+    // The kernel caps the backlog to its own maximum (somaxconn).
+    private static final int DEFAULT_ACCEPT_QUEUE_SIZE = Integer.MAX_VALUE;
+
     private final SelectorManager _manager;
+    private final AtomicReference<Closeable> _acceptor = new AtomicReference<>();
     private String _unixSocket = "/tmp/jetty.sock";
     private volatile UnixServerSocketChannel _acceptChannel;
     private volatile int _acceptQueueSize = 0;
@@ -177,7 +182,7 @@ public class UnixSocketConnector extends AbstractConnector
      * @param bufferPool
      *          A ByteBuffer pool used to allocate buffers.  If null then create a private pool with default configuration.
      * @param selectors
-     *          the number of selector threads, or &lt;=0 for a default value(1). Selectors notice and schedule established connection that can make IO progress.
+     *          the number of selector threads, or &lt;=0 for a default value. Selectors notice and schedule established connection that can make IO progress.
      * @param factories 
      *          Zero or more {@link ConnectionFactory} instances used to create and configure connections.
      */
@@ -190,8 +195,7 @@ public class UnixSocketConnector extends AbstractConnector
         @Name("factories") ConnectionFactory... factories)
     {
         super(server,executor,scheduler,bufferPool,0,factories);
-        _manager = newSelectorManager(getExecutor(), getScheduler(),
-            selectors>0?selectors:1);
+        _manager = newSelectorManager(getExecutor(), getScheduler(), selectors);
         addBean(_manager, true);
         setAcceptorPriorityDelta(-2);
     }
@@ -219,7 +223,7 @@ public class UnixSocketConnector extends AbstractConnector
         super.doStart();
         
         if (getAcceptors()==0)
-            _manager.acceptor(_acceptChannel);
+            _acceptor.set(_manager.acceptor(_acceptChannel));
     }
     
     @Override
@@ -241,12 +245,17 @@ public class UnixSocketConnector extends AbstractConnector
         if (_acceptChannel == null)
         {
             File file = new File(_unixSocket);
-            file.deleteOnExit();
-            SocketAddress bindAddress = new UnixSocketAddress(file);
+            UnixSocketAddress bindAddress = new UnixSocketAddress(file);
+            // A socket file left behind by a previous process prevents the bind,
+            // but the socket file of a live server must not be deleted.
+            if (getReuseAddress() && file.exists() && isStale(bindAddress) && !file.delete())
+                LOG.warn("Could not delete stale socket file {}", file);
             UnixServerSocketChannel serverChannel = UnixServerSocketChannel.open();
 
             serverChannel.configureBlocking(getAcceptors()>0);
-            serverChannel.socket().bind(bindAddress, getAcceptQueueSize());
+            int acceptQueueSize = getAcceptQueueSize();
+            serverChannel.socket().bind(bindAddress, acceptQueueSize > 0 ? acceptQueueSize : DEFAULT_ACCEPT_QUEUE_SIZE);
+            file.deleteOnExit();
             addBean(serverChannel);
 
             LOG.debug("opened {}",serverChannel);
@@ -254,6 +263,24 @@ public class UnixSocketConnector extends AbstractConnector
         }
     }
 
+    /**
+     * @param address the address of an existing socket file
+     * @return whether connecting to the socket file is refused, so that no server is listening on it
+     */
+    private boolean isStale(UnixSocketAddress address)
+    {
+        try (UnixSocketChannel channel = UnixSocketChannel.open(address))
+        {
+            LOG.debug("socket file {} in use by {}", address, channel);
+            return false;
+        }
+        catch (IOException x)
+        {
+            LOG.debug(x);
+            return Errno.ECONNREFUSED.description().equals(x.getMessage());
+        }
+    }
+
     @Override
     public Future<Void> shutdown()
     {
@@ -307,6 +334,7 @@ public class UnixSocketConnector extends AbstractConnector
         _manager.accept(channel);
     }
 
+    @ManagedAttribute("The Selector Manager")
     public SelectorManager getSelectorManager()
     {
         return _manager;
@@ -334,7 +362,8 @@ public class UnixSocketConnector extends AbstractConnector
     }
 
     /**
-     * @param acceptQueueSize the accept queue size (also known as accept backlog)
+     * @param acceptQueueSize the accept queue size (also known as accept backlog),
+     * or &lt;=0 for the maximum allowed by the platform
      */
     public void setAcceptQueueSize(int acceptQueueSize)
     {
@@ -342,16 +371,17 @@ public class UnixSocketConnector extends AbstractConnector
     }
 
     /**
-     * @return whether the server socket reuses addresses
+     * @return whether a stale socket file, on which no server is listening, is deleted before binding
      * @see ServerSocket#getReuseAddress()
      */
+    @ManagedAttribute("Whether a stale socket file is deleted before binding")
     public boolean getReuseAddress()
     {
         return _reuseAddress;
     }
 
     /**
-     * @param reuseAddress whether the server socket reuses addresses
+     * @param reuseAddress whether a stale socket file, on which no server is listening, is deleted before binding
      * @see ServerSocket#setReuseAddress(boolean)
      */
     public void setReuseAddress(boolean reuseAddress)
@@ -359,6 +389,36 @@ public class UnixSocketConnector extends AbstractConnector
         _reuseAddress = reuseAddress;
     }
 
+    @Override
+    public void setAccepting(boolean accepting)
+    {
+        super.setAccepting(accepting);
+        if (getAcceptors()>0)
+            return;
+
+        try
+        {
+            if (accepting)
+            {
+                if (_acceptor.get()==null)
+                {
+                    Closeable acceptor = _manager.acceptor(_acceptChannel);
+                    if (!_acceptor.compareAndSet(null,acceptor))
+                        acceptor.close();
+                }
+            }
+            else
+            {
+                Closeable acceptor = _acceptor.get();
+                if (acceptor!=null && _acceptor.compareAndSet(acceptor,null))
+                    acceptor.close();
+            }
+        }
+        catch (IOException e)
+        {
+            throw new RuntimeException(e);
+        }
+    }
 
     @Override
     public String toString()
@@ -435,5 +495,11 @@ public class UnixSocketConnector extends AbstractConnector
             LOG.debug("accepted async {}",channel);
             return channel;
         }
+
+        @Override
+        public String toString()
+        {
+            return String.format("SelectorManager@%s",UnixSocketConnector.this);
+        }
     }
 }
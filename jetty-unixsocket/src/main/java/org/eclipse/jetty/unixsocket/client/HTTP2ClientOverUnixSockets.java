@@ -0,0 +1,143 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2017 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.unixsocket.client;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+import org.eclipse.jetty.http2.api.Session;
+import org.eclipse.jetty.http2.client.HTTP2Client;
+import org.eclipse.jetty.io.EndPoint;
+import org.eclipse.jetty.io.ManagedSelector;
+import org.eclipse.jetty.io.SelectorManager;
+import org.eclipse.jetty.unixsocket.UnixSocketEndPoint;
+import org.eclipse.jetty.util.Promise;
+import org.eclipse.jetty.util.annotation.ManagedAttribute;
+import org.eclipse.jetty.util.annotation.ManagedObject;
+import org.eclipse.jetty.util.log.Log;
+import org.eclipse.jetty.util.log.Logger;
+import org.eclipse.jetty.util.ssl.SslContextFactory;
+import org.eclipse.jetty.util.thread.Scheduler;
+
+import jnr.enxio.channels.NativeSelectorProvider;
+import jnr.unixsocket.UnixSocketAddress;
+import jnr.unixsocket.UnixSocketChannel;
+
+/**
+ * <p>A {@link HTTP2Client} that connects to a Unix-Domain socket, for example the one
+ * of a {@link org.eclipse.jetty.unixsocket.UnixSocketConnector} configured with the
+ * {@code h2c} protocol.</p>
+ * <p>All the sessions are opened to the configured socket file, whatever the address
+ * passed to the {@code connect(...)} methods.
+ * It can be used directly, or as the transport of {@link org.eclipse.jetty.client.HttpClient}:</p>
+ * <pre>
+ * HTTP2Client http2Client = new HTTP2ClientOverUnixSockets("/tmp/jetty.sock");
+ * HttpClient httpClient = new HttpClient(new HttpClientTransportOverHTTP2(http2Client), null);
+ * httpClient.start();
+ * </pre>
+ */
+@ManagedObject("The HTTP/2 client over Unix-Domain sockets")
+public class HTTP2ClientOverUnixSockets extends HTTP2Client
+{
+    private static final Logger LOG = Log.getLogger(HTTP2ClientOverUnixSockets.class);
+
+    private final String unixSocket;
+
+    public HTTP2ClientOverUnixSockets(String unixSocket)
+    {
+        if (unixSocket == null)
+            throw new IllegalArgumentException("Unix socket file cannot be null");
+        this.unixSocket = unixSocket;
+    }
+
+    @ManagedAttribute(value = "The Unix-Domain socket file", readonly = true)
+    public String getUnixSocket()
+    {
+        return unixSocket;
+    }
+
+    @Override
+    protected SelectorManager newSelectorManager()
+    {
+        return new UnixSocketSelectorManager(getExecutor(), getScheduler(), getSelectors());
+    }
+
+    @Override
+    public void connect(SslContextFactory sslContextFactory, InetSocketAddress address, Session.Listener listener, Promise<Session> promise, Map<String, Object> context)
+    {
+        UnixSocketChannel channel = null;
+        try
+        {
+            context = contextFrom(sslContextFactory, address, listener, promise, context);
+            // Connecting to a local socket completes or fails immediately.
+            channel = UnixSocketChannel.open(new UnixSocketAddress(unixSocket));
+            channel.configureBlocking(false);
+            getSelectorManager().accept(channel, context);
+        }
+        catch (Throwable x)
+        {
+            try
+            {
+                if (channel != null)
+                    channel.close();
+            }
+            catch (IOException xx)
+            {
+                LOG.ignore(xx);
+            }
+            finally
+            {
+                promise.failed(new IOException("Could not connect to " + unixSocket, x));
+            }
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s{%s}", super.toString(), unixSocket);
+    }
+
+    protected class UnixSocketSelectorManager extends ClientSelectorManager
+    {
+        protected UnixSocketSelectorManager(Executor executor, Scheduler scheduler, int selectors)
+        {
+            super(executor, scheduler, selectors);
+        }
+
+        @Override
+        protected Selector newSelector() throws IOException
+        {
+            return NativeSelectorProvider.getInstance().openSelector();
+        }
+
+        @Override
+        protected EndPoint newEndPoint(SelectableChannel channel, ManagedSelector selector, SelectionKey selectionKey)
+        {
+            UnixSocketEndPoint endp = new UnixSocketEndPoint((UnixSocketChannel)channel, selector, selectionKey, getScheduler());
+            endp.setIdleTimeout(getIdleTimeout());
+            return endp;
+        }
+    }
+}
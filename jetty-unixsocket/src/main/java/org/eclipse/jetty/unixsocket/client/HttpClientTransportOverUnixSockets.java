@@ -0,0 +1,152 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2017 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.unixsocket.client;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Map;
+
+import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.client.HttpDestination;
+import org.eclipse.jetty.client.http.HttpClientTransportOverHTTP;
+import org.eclipse.jetty.io.EndPoint;
+import org.eclipse.jetty.io.ManagedSelector;
+import org.eclipse.jetty.io.SelectorManager;
+import org.eclipse.jetty.io.ssl.SslClientConnectionFactory;
+import org.eclipse.jetty.unixsocket.UnixSocketEndPoint;
+import org.eclipse.jetty.util.annotation.ManagedAttribute;
+import org.eclipse.jetty.util.annotation.ManagedObject;
+import org.eclipse.jetty.util.log.Log;
+import org.eclipse.jetty.util.log.Logger;
+
+import jnr.enxio.channels.NativeSelectorProvider;
+import jnr.unixsocket.UnixSocketAddress;
+import jnr.unixsocket.UnixSocketChannel;
+
+/**
+ * <p>A HTTP/1.1 client transport that connects to a Unix-Domain socket,
+ * for example the one of a {@link org.eclipse.jetty.unixsocket.UnixSocketConnector},
+ * so that requests to a server on the same host skip the TCP stack.</p>
+ * <p>All the connections are opened to the configured socket file, whatever the
+ * host and port of the request; the request host is only used for the
+ * {@code Host} header and to group connections into destinations.</p>
+ * <pre>
+ * HttpClient httpClient = new HttpClient(new HttpClientTransportOverUnixSockets("/tmp/jetty.sock"), null);
+ * httpClient.start();
+ * ContentResponse response = httpClient.GET("http://localhost/path");
+ * </pre>
+ */
+@ManagedObject("The HTTP/1.1 client transport over Unix-Domain sockets")
+public class HttpClientTransportOverUnixSockets extends HttpClientTransportOverHTTP
+{
+    private static final Logger LOG = Log.getLogger(HttpClientTransportOverUnixSockets.class);
+
+    private final String unixSocket;
+
+    public HttpClientTransportOverUnixSockets(String unixSocket)
+    {
+        this(unixSocket, 1);
+    }
+
+    public HttpClientTransportOverUnixSockets(String unixSocket, int selectors)
+    {
+        super(selectors);
+        if (unixSocket == null)
+            throw new IllegalArgumentException("Unix socket file cannot be null");
+        this.unixSocket = unixSocket;
+    }
+
+    @ManagedAttribute(value = "The Unix-Domain socket file", readonly = true)
+    public String getUnixSocket()
+    {
+        return unixSocket;
+    }
+
+    @Override
+    protected SelectorManager newSelectorManager(HttpClient client)
+    {
+        return new UnixSocketSelectorManager(client, getSelectors());
+    }
+
+    @Override
+    public void connect(InetSocketAddress address, Map<String, Object> context)
+    {
+        UnixSocketChannel channel = null;
+        try
+        {
+            HttpDestination destination = (HttpDestination)context.get(HTTP_DESTINATION_CONTEXT_KEY);
+            context.put(SslClientConnectionFactory.SSL_PEER_HOST_CONTEXT_KEY, destination.getHost());
+            context.put(SslClientConnectionFactory.SSL_PEER_PORT_CONTEXT_KEY, destination.getPort());
+
+            // Connecting to a local socket completes or fails immediately.
+            channel = UnixSocketChannel.open(new UnixSocketAddress(unixSocket));
+            channel.configureBlocking(false);
+            getSelectorManager().accept(channel, context);
+        }
+        // Must catch all exceptions, since some like
+        // UnresolvedAddressException are not IOExceptions.
+        catch (Throwable x)
+        {
+            try
+            {
+                if (channel != null)
+                    channel.close();
+            }
+            catch (IOException xx)
+            {
+                LOG.ignore(xx);
+            }
+            finally
+            {
+                connectFailed(context, new IOException("Could not connect to " + unixSocket, x));
+            }
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s{%s}", super.toString(), unixSocket);
+    }
+
+    protected class UnixSocketSelectorManager extends ClientSelectorManager
+    {
+        protected UnixSocketSelectorManager(HttpClient client, int selectors)
+        {
+            super(client, selectors);
+        }
+
+        @Override
+        protected Selector newSelector() throws IOException
+        {
+            return NativeSelectorProvider.getInstance().openSelector();
+        }
+
+        @Override
+        protected EndPoint newEndPoint(SelectableChannel channel, ManagedSelector selector, SelectionKey key)
+        {
+            UnixSocketEndPoint endp = new UnixSocketEndPoint((UnixSocketChannel)channel, selector, key, getScheduler());
+            endp.setIdleTimeout(getHttpClient().getIdleTimeout());
+            return endp;
+        }
+    }
+}
@@ -0,0 +1,152 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2017 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.unixsocket;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.client.HttpClientTransport;
+import org.eclipse.jetty.client.http.HttpClientTransportOverHTTP;
+import org.eclipse.jetty.io.ConnectionStatistics;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.eclipse.jetty.unixsocket.client.HttpClientTransportOverUnixSockets;
+
+/**
+ * <p>Compares the throughput and latency of HTTP/1.1 requests sent to a
+ * {@link ServerConnector} over TCP loopback and to a {@link UnixSocketConnector}.</p>
+ * <p>Arguments are the number of requests (default 100000), the number of
+ * concurrent requests (default 64) and the response content size (default 1024).</p>
+ */
+public class UnixSocketBenchmark
+{
+    public static void main(String... args) throws Exception
+    {
+        int requests = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        int concurrency = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+        int contentSize = args.length > 2 ? Integer.parseInt(args[2]) : 1024;
+
+        Path socket = Files.createTempFile("jetty", ".sock");
+        Files.delete(socket);
+
+        Server server = new Server();
+        ServerConnector tcpConnector = new ServerConnector(server);
+        tcpConnector.setHost("127.0.0.1");
+        ConnectionStatistics tcpStats = new ConnectionStatistics();
+        tcpConnector.addBean(tcpStats);
+        server.addConnector(tcpConnector);
+        UnixSocketConnector unixConnector = new UnixSocketConnector(server);
+        unixConnector.setUnixSocket(socket.toString());
+        ConnectionStatistics unixStats = new ConnectionStatistics();
+        unixConnector.addBean(unixStats);
+        server.addConnector(unixConnector);
+
+        byte[] content = new byte[contentSize];
+        server.setHandler(new AbstractHandler()
+        {
+            @Override
+            public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response) throws IOException, ServletException
+            {
+                baseRequest.setHandled(true);
+                response.setContentLength(content.length);
+                response.getOutputStream().write(content);
+            }
+        });
+        server.start();
+
+        try
+        {
+            for (int run = 0; run < 2; ++run)
+            {
+                // The first run warms up the JIT.
+                boolean warmup = run == 0;
+                run("tcp", new HttpClientTransportOverHTTP(1), tcpConnector.getLocalPort(), requests, concurrency, warmup);
+                run("unix", new HttpClientTransportOverUnixSockets(socket.toString()), 8080, requests, concurrency, warmup);
+            }
+            System.err.println(tcpStats.dump());
+            System.err.println(unixStats.dump());
+        }
+        finally
+        {
+            server.stop();
+        }
+    }
+
+    private static void run(String name, HttpClientTransport transport, int port, int requests, int concurrency, boolean warmup) throws Exception
+    {
+        HttpClient client = new HttpClient(transport, null);
+        client.setMaxConnectionsPerDestination(concurrency);
+        client.setMaxRequestsQueuedPerDestination(requests);
+        client.start();
+        try
+        {
+            Semaphore permits = new Semaphore(concurrency);
+            CountDownLatch latch = new CountDownLatch(requests);
+            AtomicInteger failures = new AtomicInteger();
+            long[] latencies = new long[requests];
+            long begin = System.nanoTime();
+            for (int i = 0; i < requests; ++i)
+            {
+                permits.acquire();
+                int index = i;
+                long start = System.nanoTime();
+                client.newRequest("localhost", port)
+                        .send(result ->
+                        {
+                            latencies[index] = System.nanoTime() - start;
+                            if (result.isFailed() || result.getResponse().getStatus() != 200)
+                                failures.incrementAndGet();
+                            permits.release();
+                            latch.countDown();
+                        });
+            }
+            latch.await();
+            long elapsed = System.nanoTime() - begin;
+
+            if (!warmup)
+            {
+                long total = 0;
+                for (long latency : latencies)
+                    total += latency;
+                System.err.printf("%-4s %d requests, %d failures, %d req/s, avg latency %d us%n",
+                        name,
+                        requests,
+                        failures.get(),
+                        requests * TimeUnit.SECONDS.toNanos(1) / elapsed,
+                        TimeUnit.NANOSECONDS.toMicros(total / requests));
+            }
+        }
+        finally
+        {
+            client.stop();
+        }
+    }
+}
@@ -0,0 +1,209 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2017 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.unixsocket;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.client.DuplexConnectionPool;
+import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.client.HttpClientTransport;
+import org.eclipse.jetty.client.HttpDestination;
+import org.eclipse.jetty.client.api.ContentResponse;
+import org.eclipse.jetty.client.util.StringContentProvider;
+import org.eclipse.jetty.http.HttpMethod;
+import org.eclipse.jetty.http2.client.http.HttpClientTransportOverHTTP2;
+import org.eclipse.jetty.http2.server.HTTP2CServerConnectionFactory;
+import org.eclipse.jetty.server.HttpConfiguration;
+import org.eclipse.jetty.server.HttpConnectionFactory;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.eclipse.jetty.toolchain.test.OS;
+import org.eclipse.jetty.unixsocket.client.HTTP2ClientOverUnixSockets;
+import org.eclipse.jetty.unixsocket.client.HttpClientTransportOverUnixSockets;
+import org.eclipse.jetty.util.IO;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import jnr.unixsocket.UnixServerSocketChannel;
+import jnr.unixsocket.UnixSocketAddress;
+
+public class UnixSocketClientTransportTest
+{
+    private Path socket;
+    private Server server;
+    private HttpClient client;
+
+    @Before
+    public void prepare() throws Exception
+    {
+        Assume.assumeTrue(!OS.IS_WINDOWS);
+        socket = Files.createTempFile("jetty", ".sock");
+        Files.delete(socket);
+    }
+
+    private void start(HttpClientTransport transport) throws Exception
+    {
+        server = new Server();
+        HttpConfiguration config = new HttpConfiguration();
+        UnixSocketConnector connector = new UnixSocketConnector(server, new HttpConnectionFactory(config), new HTTP2CServerConnectionFactory(config));
+        connector.setUnixSocket(socket.toString());
+        server.addConnector(connector);
+        server.setHandler(new AbstractHandler()
+        {
+            @Override
+            public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response) throws IOException, ServletException
+            {
+                baseRequest.setHandled(true);
+                String content = IO.toString(request.getInputStream());
+                response.getWriter().print(request.getProtocol() + " " + request.getMethod() + " " + target + " " + content);
+            }
+        });
+        server.start();
+
+        QueuedThreadPool clientThreads = new QueuedThreadPool();
+        clientThreads.setName("client");
+        client = new HttpClient(transport, null);
+        client.setExecutor(clientThreads);
+        client.start();
+    }
+
+    @After
+    public void dispose() throws Exception
+    {
+        if (client != null)
+            client.stop();
+        if (server != null)
+            server.stop();
+        if (socket != null)
+            Files.deleteIfExists(socket);
+    }
+
+    @Test
+    public void testHTTP11() throws Exception
+    {
+        start(new HttpClientTransportOverUnixSockets(socket.toString()));
+
+        for (int i = 0; i < 3; ++i)
+        {
+            ContentResponse response = client.newRequest("localhost", 8080)
+                    .method(HttpMethod.POST)
+                    .path("/path")
+                    .content(new StringContentProvider("hello" + i))
+                    .timeout(5, TimeUnit.SECONDS)
+                    .send();
+            Assert.assertEquals(200, response.getStatus());
+            Assert.assertEquals("HTTP/1.1 POST /path hello" + i, response.getContentAsString());
+        }
+
+        // Requests reuse the same connection.
+        HttpDestination destination = (HttpDestination)client.getDestinations().get(0);
+        DuplexConnectionPool connectionPool = (DuplexConnectionPool)destination.getConnectionPool();
+        Assert.assertEquals(1, connectionPool.getConnectionCount());
+    }
+
+    @Test
+    public void testHTTP2() throws Exception
+    {
+        start(new HttpClientTransportOverHTTP2(new HTTP2ClientOverUnixSockets(socket.toString())));
+
+        ContentResponse response = client.newRequest("localhost", 8080)
+                .path("/path")
+                .timeout(5, TimeUnit.SECONDS)
+                .send();
+        Assert.assertEquals(200, response.getStatus());
+        Assert.assertEquals("HTTP/2.0 GET /path ", response.getContentAsString());
+    }
+
+    @Test
+    public void testConnectFailure() throws Exception
+    {
+        start(new HttpClientTransportOverUnixSockets(socket.toString() + ".missing"));
+
+        try
+        {
+            client.newRequest("localhost", 8080)
+                    .timeout(5, TimeUnit.SECONDS)
+                    .send();
+            Assert.fail();
+        }
+        catch (ExecutionException x)
+        {
+            Assert.assertTrue(x.getCause() instanceof IOException);
+        }
+    }
+
+    @Test
+    public void testStaleSocketFileIsDeleted() throws Exception
+    {
+        // Closing the channel does not delete the socket file.
+        UnixServerSocketChannel stale = UnixServerSocketChannel.open();
+        stale.socket().bind(new UnixSocketAddress(socket.toFile()));
+        stale.close();
+        Assert.assertTrue(Files.exists(socket));
+
+        start(new HttpClientTransportOverUnixSockets(socket.toString()));
+
+        ContentResponse response = client.newRequest("localhost", 8080)
+                .path("/path")
+                .timeout(5, TimeUnit.SECONDS)
+                .send();
+        Assert.assertEquals(200, response.getStatus());
+    }
+
+    @Test
+    public void testLiveSocketFileIsNotDeleted() throws Exception
+    {
+        start(new HttpClientTransportOverUnixSockets(socket.toString()));
+
+        UnixSocketConnector connector = new UnixSocketConnector(server, new HttpConnectionFactory());
+        connector.setUnixSocket(socket.toString());
+        try
+        {
+            connector.open();
+            Assert.fail();
+        }
+        catch (IOException x)
+        {
+            // Expected, the socket file is in use.
+        }
+        finally
+        {
+            connector.close();
+        }
+
+        ContentResponse response = client.newRequest("localhost", 8080)
+                .path("/path")
+                .timeout(5, TimeUnit.SECONDS)
+                .send();
+        Assert.assertEquals(200, response.getStatus());
+    }
+}
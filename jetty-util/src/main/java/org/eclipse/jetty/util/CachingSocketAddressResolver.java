@@ -0,0 +1,475 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2017 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.util;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.security.Security;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.eclipse.jetty.util.annotation.ManagedAttribute;
+import org.eclipse.jetty.util.annotation.ManagedObject;
+import org.eclipse.jetty.util.annotation.ManagedOperation;
+import org.eclipse.jetty.util.annotation.Name;
+import org.eclipse.jetty.util.component.ContainerLifeCycle;
+import org.eclipse.jetty.util.component.Dumpable;
+import org.eclipse.jetty.util.log.Log;
+import org.eclipse.jetty.util.log.Logger;
+
+/**
+ * <p>A {@link SocketAddressResolver} that caches the addresses resolved by another
+ * {@link SocketAddressResolver}.</p>
+ * <p>Resolved addresses are cached for {@link #getTimeToLive()} milliseconds, and
+ * resolution failures for {@link #getNegativeTimeToLive()} milliseconds.
+ * Their default values are those of the {@code networkaddress.cache.ttl} and
+ * {@code networkaddress.cache.negative.ttl} security properties, if set.</p>
+ * <p>Concurrent resolutions of the same host are coalesced into a single resolution
+ * by the nested resolver.
+ * When a cached entry is used after {@link #getRefreshRatio() a fraction} of its
+ * time to live, it is refreshed in the background while the cached addresses are
+ * still returned, so that hosts in use never wait for the nested resolver.</p>
+ * <p>Example usage:</p>
+ * <pre>
+ * HttpClient httpClient = new HttpClient();
+ * httpClient.setSocketAddressResolver(new CachingSocketAddressResolver(new SocketAddressResolver.Async(executor, scheduler, timeout)));
+ * </pre>
+ */
+@ManagedObject("The caching address resolver")
+public class CachingSocketAddressResolver implements SocketAddressResolver, Dumpable
+{
+    private static final Logger LOG = Log.getLogger(CachingSocketAddressResolver.class);
+
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final SocketAddressResolver resolver;
+    private long timeToLive = securityProperty("networkaddress.cache.ttl", 30);
+    private long negativeTimeToLive = securityProperty("networkaddress.cache.negative.ttl", 10);
+    private double refreshRatio = 0.75;
+    private int maxEntries = 1024;
+
+    /**
+     * @param resolver the resolver to delegate resolutions to
+     */
+    public CachingSocketAddressResolver(@Name("resolver") SocketAddressResolver resolver)
+    {
+        this.resolver = resolver;
+    }
+
+    private static long securityProperty(String name, long defaultSeconds)
+    {
+        try
+        {
+            String value = Security.getProperty(name);
+            if (value != null)
+            {
+                long seconds = Long.parseLong(value.trim());
+                // A negative value means "cache forever" for the JVM.
+                return TimeUnit.SECONDS.toMillis(seconds < 0 ? Integer.MAX_VALUE : seconds);
+            }
+        }
+        catch (Throwable x)
+        {
+            LOG.ignore(x);
+        }
+        return TimeUnit.SECONDS.toMillis(defaultSeconds);
+    }
+
+    /**
+     * @return the resolver resolutions are delegated to
+     */
+    public SocketAddressResolver getSocketAddressResolver()
+    {
+        return resolver;
+    }
+
+    /**
+     * @return the time, in milliseconds, resolved addresses are cached for
+     */
+    @ManagedAttribute("The time, in milliseconds, resolved addresses are cached for")
+    public long getTimeToLive()
+    {
+        return timeToLive;
+    }
+
+    /**
+     * @param timeToLive the time, in milliseconds, resolved addresses are cached for
+     */
+    public void setTimeToLive(long timeToLive)
+    {
+        this.timeToLive = timeToLive;
+    }
+
+    /**
+     * @return the time, in milliseconds, resolution failures are cached for
+     */
+    @ManagedAttribute("The time, in milliseconds, resolution failures are cached for")
+    public long getNegativeTimeToLive()
+    {
+        return negativeTimeToLive;
+    }
+
+    /**
+     * @param negativeTimeToLive the time, in milliseconds, resolution failures are cached for
+     */
+    public void setNegativeTimeToLive(long negativeTimeToLive)
+    {
+        this.negativeTimeToLive = negativeTimeToLive;
+    }
+
+    /**
+     * @return the fraction of the time to live after which a cached entry is refreshed when used
+     */
+    @ManagedAttribute("The fraction of the time to live after which a used entry is refreshed")
+    public double getRefreshRatio()
+    {
+        return refreshRatio;
+    }
+
+    /**
+     * <p>Sets the fraction of the time to live after which a cached entry that is
+     * used is refreshed in the background.</p>
+     * <p>A value of {@code 1} or greater disables background refreshes, so that
+     * entries are resolved again only after they expired.</p>
+     *
+     * @param refreshRatio the fraction of the time to live after which a cached entry is refreshed when used
+     */
+    public void setRefreshRatio(double refreshRatio)
+    {
+        if (refreshRatio <= 0)
+            throw new IllegalArgumentException("Invalid refresh ratio " + refreshRatio);
+        this.refreshRatio = refreshRatio;
+    }
+
+    /**
+     * @return the max number of hosts cached
+     */
+    @ManagedAttribute("The max number of hosts cached")
+    public int getMaxEntries()
+    {
+        return maxEntries;
+    }
+
+    /**
+     * @param maxEntries the max number of hosts cached
+     */
+    public void setMaxEntries(int maxEntries)
+    {
+        this.maxEntries = maxEntries;
+    }
+
+    @ManagedAttribute("The number of hosts cached")
+    public int getEntries()
+    {
+        return entries.size();
+    }
+
+    @ManagedAttribute("The number of resolutions served from the cache")
+    public long getHits()
+    {
+        return hits.sum();
+    }
+
+    @ManagedAttribute("The number of resolutions that waited for the nested resolver")
+    public long getMisses()
+    {
+        return misses.sum();
+    }
+
+    @ManagedAttribute("The number of resolutions of the nested resolver that failed")
+    public long getFailures()
+    {
+        return failures.sum();
+    }
+
+    @ManagedOperation(value = "Resets the statistics", impact = "ACTION")
+    public void resetStatistics()
+    {
+        hits.reset();
+        misses.reset();
+        failures.reset();
+        entries.values().forEach(Entry::resetStatistics);
+    }
+
+    /**
+     * <p>Removes all the cached entries.</p>
+     */
+    @ManagedOperation(value = "Removes all the cached entries", impact = "ACTION")
+    public void clear()
+    {
+        entries.clear();
+    }
+
+    /**
+     * @param host the host to remove from the cache
+     * @return whether the host was cached
+     */
+    @ManagedOperation(value = "Removes the cached entry of a host", impact = "ACTION")
+    public boolean evict(@Name("host") String host)
+    {
+        return entries.remove(host) != null;
+    }
+
+    @Override
+    public void resolve(String host, int port, Promise<List<InetSocketAddress>> promise)
+    {
+        Entry entry = entries.get(host);
+        if (entry == null)
+        {
+            if (entries.size() >= getMaxEntries())
+                sweep();
+            entry = entries.computeIfAbsent(host, Entry::new);
+        }
+        entry.resolve(port, promise);
+    }
+
+    private void sweep()
+    {
+        long now = System.nanoTime();
+        entries.values().removeIf(entry -> entry.isEvictable(now));
+        if (entries.size() >= getMaxEntries())
+        {
+            // Still too many hosts, make room by removing an arbitrary one.
+            entries.keySet().stream().findAny().ifPresent(entries::remove);
+        }
+    }
+
+    @Override
+    public String dump()
+    {
+        return ContainerLifeCycle.dump(this);
+    }
+
+    @Override
+    public void dump(Appendable out, String indent) throws IOException
+    {
+        ContainerLifeCycle.dumpObject(out, this);
+        ContainerLifeCycle.dump(out, indent, new ArrayList<>(entries.values()));
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s@%x[hosts=%d,hits=%d,misses=%d,failures=%d]",
+                getClass().getSimpleName(),
+                hashCode(),
+                getEntries(),
+                getHits(),
+                getMisses(),
+                getFailures());
+    }
+
+    private class Entry
+    {
+        private final String host;
+        private List<Waiter> waiters = new ArrayList<>();
+        private List<InetAddress> addresses;
+        private Throwable failure;
+        private long refreshNanoTime;
+        private long expireNanoTime;
+        private boolean resolving;
+        private long hostHits;
+        private long hostMisses;
+        private long hostFailures;
+        private long resolveNanos;
+
+        private Entry(String host)
+        {
+            this.host = host;
+        }
+
+        private void resolve(int port, Promise<List<InetSocketAddress>> promise)
+        {
+            List<InetAddress> cached = null;
+            Throwable cachedFailure = null;
+            boolean start = false;
+            synchronized (this)
+            {
+                long now = System.nanoTime();
+                if (!isExpired(now))
+                {
+                    ++hostHits;
+                    hits.increment();
+                    if (addresses != null)
+                    {
+                        cached = addresses;
+                        if (!resolving && now - refreshNanoTime >= 0)
+                            start = resolving = true;
+                    }
+                    else
+                    {
+                        cachedFailure = failure;
+                    }
+                }
+                else
+                {
+                    ++hostMisses;
+                    misses.increment();
+                    waiters.add(new Waiter(port, promise));
+                    if (!resolving)
+                        start = resolving = true;
+                }
+            }
+
+            if (start)
+            {
+                if (LOG.isDebugEnabled())
+                    LOG.debug("{} {}", cached == null ? "Resolving" : "Refreshing", host);
+                resolve();
+            }
+
+            if (cached != null)
+                promise.succeeded(toSocketAddresses(cached, port));
+            else if (cachedFailure != null)
+                promise.failed(cachedFailure);
+        }
+
+        private void resolve()
+        {
+            long start = System.nanoTime();
+            resolver.resolve(host, 0, new Promise<List<InetSocketAddress>>()
+            {
+                @Override
+                public void succeeded(List<InetSocketAddress> result)
+                {
+                    List<InetAddress> resolved = new ArrayList<>(result.size());
+                    for (InetSocketAddress socketAddress : result)
+                        resolved.add(socketAddress.getAddress());
+                    onResolved(start, Collections.unmodifiableList(resolved));
+                }
+
+                @Override
+                public void failed(Throwable x)
+                {
+                    onFailed(start, x);
+                }
+            });
+        }
+
+        private void onResolved(long start, List<InetAddress> resolved)
+        {
+            List<Waiter> waiting;
+            synchronized (this)
+            {
+                long now = System.nanoTime();
+                resolveNanos = now - start;
+                long ttl = TimeUnit.MILLISECONDS.toNanos(getTimeToLive());
+                addresses = resolved;
+                failure = null;
+                expireNanoTime = now + ttl;
+                refreshNanoTime = now + (long)(ttl * Math.min(1, getRefreshRatio()));
+                resolving = false;
+                waiting = waiters;
+                waiters = new ArrayList<>();
+            }
+
+            if (LOG.isDebugEnabled())
+                LOG.debug("Resolved {} to {} in {} ms", host, resolved, TimeUnit.NANOSECONDS.toMillis(resolveNanos));
+
+            for (Waiter waiter : waiting)
+                waiter.promise.succeeded(toSocketAddresses(resolved, waiter.port));
+        }
+
+        private void onFailed(long start, Throwable x)
+        {
+            if (LOG.isDebugEnabled())
+                LOG.debug("Could not resolve " + host, x);
+            failures.increment();
+            List<Waiter> waiting;
+            synchronized (this)
+            {
+                long now = System.nanoTime();
+                resolveNanos = now - start;
+                ++hostFailures;
+                // A failed background refresh keeps the
+                // addresses that are not expired yet.
+                if (addresses == null || now - expireNanoTime >= 0)
+                {
+                    addresses = null;
+                    failure = x;
+                    expireNanoTime = now + TimeUnit.MILLISECONDS.toNanos(getNegativeTimeToLive());
+                }
+                resolving = false;
+                waiting = waiters;
+                waiters = new ArrayList<>();
+            }
+
+            for (Waiter waiter : waiting)
+                waiter.promise.failed(x);
+        }
+
+        private List<InetSocketAddress> toSocketAddresses(List<InetAddress> addresses, int port)
+        {
+            List<InetSocketAddress> result = new ArrayList<>(addresses.size());
+            for (InetAddress address : addresses)
+                result.add(new InetSocketAddress(address, port));
+            return result;
+        }
+
+        private synchronized boolean isExpired(long now)
+        {
+            return (addresses == null && failure == null) || now - expireNanoTime >= 0;
+        }
+
+        private synchronized boolean isEvictable(long now)
+        {
+            return !resolving && isExpired(now);
+        }
+
+        private synchronized void resetStatistics()
+        {
+            hostHits = 0;
+            hostMisses = 0;
+            hostFailures = 0;
+        }
+
+        @Override
+        public synchronized String toString()
+        {
+            return String.format("%s[addresses=%s,failure=%s,hits=%d,misses=%d,failures=%d,resolve=%dms]",
+                    host,
+                    addresses,
+                    failure,
+                    hostHits,
+                    hostMisses,
+                    hostFailures,
+                    TimeUnit.NANOSECONDS.toMillis(resolveNanos));
+        }
+    }
+
+    private static class Waiter
+    {
+        private final int port;
+        private final Promise<List<InetSocketAddress>> promise;
+
+        private Waiter(int port, Promise<List<InetSocketAddress>> promise)
+        {
+            this.port = port;
+            this.promise = promise;
+        }
+    }
+}
@@ -0,0 +1,461 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2017 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.util.ssl;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.SignatureException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+
+/**
+ * <p>Minimal DER codec for OCSP (RFC 6960) requests and responses.</p>
+ * <p>Only what is needed to staple OCSP responses is supported: encoding of single
+ * certificate requests, verification of the response signature, made either by the
+ * issuer of the certificate or by a responder that the issuer has delegated, and
+ * decoding of the status and validity period of the response for that certificate.</p>
+ */
+class OcspCodec
+{
+    static final int SEQUENCE = 0x30;
+    static final int OCTET_STRING = 0x04;
+    static final int INTEGER = 0x02;
+    static final int ENUMERATED = 0x0A;
+    static final int OID = 0x06;
+    static final int NULL = 0x05;
+    static final int BIT_STRING = 0x03;
+    static final int GENERALIZED_TIME = 0x18;
+
+    private static final byte[] SHA1_OID = {0x2B, 0x0E, 0x03, 0x02, 0x1A};
+    private static final byte[] OCSP_ACCESS_METHOD_OID = {0x2B, 0x06, 0x01, 0x05, 0x05, 0x07, 0x30, 0x01};
+    private static final byte[] OCSP_BASIC_OID = {0x2B, 0x06, 0x01, 0x05, 0x05, 0x07, 0x30, 0x01, 0x01};
+    private static final String AUTHORITY_INFO_ACCESS_OID = "1.3.6.1.5.5.7.1.1";
+    private static final String OCSP_SIGNING_OID = "1.3.6.1.5.5.7.3.9";
+    private static final Map<String, String> SIGNATURE_ALGORITHMS = new HashMap<>();
+
+    static
+    {
+        SIGNATURE_ALGORITHMS.put("1.2.840.113549.1.1.5", "SHA1withRSA");
+        SIGNATURE_ALGORITHMS.put("1.2.840.113549.1.1.11", "SHA256withRSA");
+        SIGNATURE_ALGORITHMS.put("1.2.840.113549.1.1.12", "SHA384withRSA");
+        SIGNATURE_ALGORITHMS.put("1.2.840.113549.1.1.13", "SHA512withRSA");
+        SIGNATURE_ALGORITHMS.put("1.2.840.10045.4.1", "SHA1withECDSA");
+        SIGNATURE_ALGORITHMS.put("1.2.840.10045.4.3.2", "SHA256withECDSA");
+        SIGNATURE_ALGORITHMS.put("1.2.840.10045.4.3.3", "SHA384withECDSA");
+        SIGNATURE_ALGORITHMS.put("1.2.840.10045.4.3.4", "SHA512withECDSA");
+        SIGNATURE_ALGORITHMS.put("1.2.840.10040.4.3", "SHA1withDSA");
+        SIGNATURE_ALGORITHMS.put("2.16.840.1.101.3.4.3.2", "SHA256withDSA");
+    }
+
+    enum CertStatus
+    {
+        GOOD, REVOKED, UNKNOWN
+    }
+
+    /**
+     * <p>The information of an OCSP response relevant to a certificate.</p>
+     */
+    static class Response
+    {
+        final CertStatus status;
+        final long thisUpdate;
+        final long nextUpdate;
+
+        Response(CertStatus status, long thisUpdate, long nextUpdate)
+        {
+            this.status = status;
+            this.thisUpdate = thisUpdate;
+            this.nextUpdate = nextUpdate;
+        }
+    }
+
+    private OcspCodec()
+    {
+    }
+
+    /**
+     * @param certificate the certificate
+     * @return the OCSP responder URI from the certificate Authority Information Access extension, or null
+     */
+    static String responderURI(X509Certificate certificate)
+    {
+        byte[] extension = certificate.getExtensionValue(AUTHORITY_INFO_ACCESS_OID);
+        if (extension == null)
+            return null;
+        // The extension value is wrapped in an OCTET STRING.
+        Element accessDescriptions = Element.decode(Element.decode(extension).content());
+        for (Element accessDescription : accessDescriptions.children())
+        {
+            List<Element> fields = accessDescription.children();
+            if (fields.size() == 2 && Arrays.equals(OCSP_ACCESS_METHOD_OID, fields.get(0).content()))
+            {
+                Element location = fields.get(1);
+                // GeneralName uniformResourceIdentifier is [6] IMPLICIT IA5String.
+                if (location.tag == 0x86)
+                    return new String(location.content(), StandardCharsets.US_ASCII);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param certificate the certificate to request the status of
+     * @param issuer the issuer of the certificate
+     * @return the DER encoded OCSP request
+     */
+    static byte[] encodeRequest(X509Certificate certificate, X509Certificate issuer) throws Exception
+    {
+        byte[] certID = encodeCertID(certificate, issuer);
+        byte[] request = encode(SEQUENCE, certID);
+        byte[] requestList = encode(SEQUENCE, request);
+        byte[] tbsRequest = encode(SEQUENCE, requestList);
+        return encode(SEQUENCE, tbsRequest);
+    }
+
+    static byte[] encodeCertID(X509Certificate certificate, X509Certificate issuer) throws Exception
+    {
+        MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+        byte[] issuerNameHash = sha1.digest(issuer.getSubjectX500Principal().getEncoded());
+        // SubjectPublicKeyInfo ::= SEQUENCE { algorithm, subjectPublicKey BIT STRING }
+        Element publicKeyInfo = Element.decode(issuer.getPublicKey().getEncoded());
+        byte[] publicKeyBits = publicKeyInfo.children().get(1).content();
+        // Skip the unused bits byte of the BIT STRING.
+        sha1.update(publicKeyBits, 1, publicKeyBits.length - 1);
+        byte[] issuerKeyHash = sha1.digest();
+
+        byte[] hashAlgorithm = encode(SEQUENCE, encode(OID, SHA1_OID), encode(NULL));
+        return encode(SEQUENCE,
+                hashAlgorithm,
+                encode(OCTET_STRING, issuerNameHash),
+                encode(OCTET_STRING, issuerKeyHash),
+                encode(INTEGER, certificate.getSerialNumber().toByteArray()));
+    }
+
+    /**
+     * @param bytes the DER encoded OCSP response
+     * @param certificate the certificate
+     * @param issuer the issuer of the certificate
+     * @return the information of the response relevant to the certificate
+     * @throws IllegalArgumentException if the response is not successful or does not contain the certificate status
+     * @throws GeneralSecurityException if the response is not signed by the issuer or by a responder it delegated
+     */
+    static Response decodeResponse(byte[] bytes, X509Certificate certificate, X509Certificate issuer) throws GeneralSecurityException
+    {
+        Element basicResponse = decodeBasicResponse(bytes);
+        verifySignature(basicResponse, issuer);
+        return decodeStatus(basicResponse, certificate.getSerialNumber());
+    }
+
+    private static Element decodeBasicResponse(byte[] bytes)
+    {
+        List<Element> ocspResponse = Element.decode(bytes).children();
+        int responseStatus = ocspResponse.get(0).expect(ENUMERATED).content()[0];
+        if (responseStatus != 0)
+            throw new IllegalArgumentException("OCSP response status " + responseStatus);
+        if (ocspResponse.size() < 2)
+            throw new IllegalArgumentException("OCSP response without response bytes");
+
+        // responseBytes [0] EXPLICIT SEQUENCE { responseType OID, response OCTET STRING }
+        List<Element> responseBytes = ocspResponse.get(1).expect(0xA0).children().get(0).children();
+        if (!Arrays.equals(OCSP_BASIC_OID, responseBytes.get(0).expect(OID).content()))
+            throw new IllegalArgumentException("Unsupported OCSP response type");
+
+        // BasicOCSPResponse ::= SEQUENCE { tbsResponseData, signatureAlgorithm, signature, certs }
+        return Element.decode(responseBytes.get(1).expect(OCTET_STRING).content());
+    }
+
+    private static void verifySignature(Element basicResponse, X509Certificate issuer) throws GeneralSecurityException
+    {
+        List<Element> fields = basicResponse.expect(SEQUENCE).children();
+        if (fields.size() < 3)
+            throw new IllegalArgumentException("OCSP response without signature");
+        String oid = decodeOID(fields.get(1).expect(SEQUENCE).children().get(0).expect(OID).content());
+        String algorithm = SIGNATURE_ALGORITHMS.get(oid);
+        if (algorithm == null)
+            throw new SignatureException("Unsupported OCSP response signature algorithm " + oid);
+        byte[] signature = fields.get(2).expect(BIT_STRING).content();
+        byte[] signed = fields.get(0).encoded();
+
+        // The response is signed either by the issuer itself...
+        if (verify(algorithm, issuer.getPublicKey(), signed, signature))
+            return;
+
+        // ...or by a responder whose certificate, included in the response, is issued for OCSP signing by the issuer.
+        if (fields.size() > 3 && fields.get(3).tag == 0xA0)
+        {
+            CertificateFactory factory = CertificateFactory.getInstance("X.509");
+            for (Element element : fields.get(3).children().get(0).expect(SEQUENCE).children())
+            {
+                X509Certificate responder = (X509Certificate)factory.generateCertificate(new ByteArrayInputStream(element.encoded()));
+                if (!isDelegatedResponder(responder, issuer))
+                    continue;
+                if (verify(algorithm, responder.getPublicKey(), signed, signature))
+                    return;
+            }
+        }
+        throw new SignatureException("OCSP response not signed by " + issuer.getSubjectX500Principal() + " nor by a delegated responder");
+    }
+
+    private static boolean isDelegatedResponder(X509Certificate responder, X509Certificate issuer)
+    {
+        try
+        {
+            if (!responder.getIssuerX500Principal().equals(issuer.getSubjectX500Principal()))
+                return false;
+            List<String> usages = responder.getExtendedKeyUsage();
+            if (usages == null || !usages.contains(OCSP_SIGNING_OID))
+                return false;
+            responder.checkValidity();
+            responder.verify(issuer.getPublicKey());
+            return true;
+        }
+        catch (GeneralSecurityException x)
+        {
+            return false;
+        }
+    }
+
+    private static boolean verify(String algorithm, PublicKey key, byte[] signed, byte[] signature) throws GeneralSecurityException
+    {
+        try
+        {
+            Signature verifier = Signature.getInstance(algorithm);
+            verifier.initVerify(key);
+            verifier.update(signed);
+            // Skip the unused bits byte of the BIT STRING.
+            return verifier.verify(signature, 1, signature.length - 1);
+        }
+        catch (SignatureException | InvalidKeyException x)
+        {
+            // Wrong key type or malformed signature.
+            return false;
+        }
+    }
+
+    /**
+     * @param bytes the content of a DER encoded OBJECT IDENTIFIER
+     * @return the OID in dotted notation
+     */
+    static String decodeOID(byte[] bytes)
+    {
+        StringBuilder builder = new StringBuilder();
+        long value = 0;
+        for (int i = 0; i < bytes.length; ++i)
+        {
+            value = (value << 7) | (bytes[i] & 0x7F);
+            if ((bytes[i] & 0x80) != 0)
+                continue;
+            if (builder.length() == 0)
+            {
+                int first = (int)Math.min(2, value / 40);
+                builder.append(first).append('.').append(value - 40 * first);
+            }
+            else
+            {
+                builder.append('.').append(value);
+            }
+            value = 0;
+        }
+        return builder.toString();
+    }
+
+    private static Response decodeStatus(Element basicResponse, BigInteger serialNumber)
+    {
+        List<Element> responseData = basicResponse.children().get(0).children();
+        for (Element field : responseData)
+        {
+            // The responses SEQUENCE is the only SEQUENCE field of ResponseData.
+            if (field.tag != SEQUENCE)
+                continue;
+            for (Element singleResponse : field.children())
+            {
+                List<Element> fields = singleResponse.children();
+                List<Element> certID = fields.get(0).children();
+                if (!serialNumber.equals(new BigInteger(certID.get(3).expect(INTEGER).content())))
+                    continue;
+
+                CertStatus status;
+                switch (fields.get(1).tag)
+                {
+                    case 0x80:
+                        status = CertStatus.GOOD;
+                        break;
+                    case 0xA1:
+                        status = CertStatus.REVOKED;
+                        break;
+                    default:
+                        status = CertStatus.UNKNOWN;
+                        break;
+                }
+                long thisUpdate = decodeTime(fields.get(2).expect(GENERALIZED_TIME));
+                long nextUpdate = -1;
+                if (fields.size() > 3 && fields.get(3).tag == 0xA0)
+                    nextUpdate = decodeTime(fields.get(3).children().get(0).expect(GENERALIZED_TIME));
+                if (nextUpdate >= 0 && nextUpdate < thisUpdate)
+                    throw new IllegalArgumentException("OCSP response nextUpdate before thisUpdate");
+                return new Response(status, thisUpdate, nextUpdate);
+            }
+        }
+        throw new IllegalArgumentException("No status in OCSP response for certificate " + serialNumber);
+    }
+
+    private static long decodeTime(Element element)
+    {
+        // YYYYMMDDHHMMSS[.fff]Z
+        String time = new String(element.content(), StandardCharsets.US_ASCII);
+        try
+        {
+            SimpleDateFormat format = new SimpleDateFormat("yyyyMMddHHmmss", Locale.ENGLISH);
+            format.setTimeZone(TimeZone.getTimeZone("UTC"));
+            return format.parse(time.substring(0, 14)).getTime();
+        }
+        catch (ParseException | IndexOutOfBoundsException x)
+        {
+            throw new IllegalArgumentException("Invalid time " + time, x);
+        }
+    }
+
+    static byte[] encodeTime(long time)
+    {
+        SimpleDateFormat format = new SimpleDateFormat("yyyyMMddHHmmss'Z'", Locale.ENGLISH);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return encode(GENERALIZED_TIME, format.format(time).getBytes(StandardCharsets.US_ASCII));
+    }
+
+    static byte[] encode(int tag, byte[]... contents)
+    {
+        int length = 0;
+        for (byte[] content : contents)
+            length += content.length;
+        ByteArrayOutputStream output = new ByteArrayOutputStream(length + 6);
+        output.write(tag);
+        if (length < 0x80)
+        {
+            output.write(length);
+        }
+        else
+        {
+            int bytes = (32 - Integer.numberOfLeadingZeros(length) + 7) / 8;
+            output.write(0x80 | bytes);
+            for (int i = bytes - 1; i >= 0; --i)
+                output.write(length >>> (8 * i));
+        }
+        for (byte[] content : contents)
+            output.write(content, 0, content.length);
+        return output.toByteArray();
+    }
+
+    /**
+     * <p>A decoded DER element, referencing its content in the original bytes.</p>
+     */
+    static class Element
+    {
+        final int tag;
+        private final byte[] bytes;
+        private final int start;
+        private final int offset;
+        private final int length;
+        private final int end;
+
+        private Element(int tag, byte[] bytes, int start, int offset, int length)
+        {
+            this.tag = tag;
+            this.bytes = bytes;
+            this.start = start;
+            this.offset = offset;
+            this.length = length;
+            this.end = offset + length;
+        }
+
+        static Element decode(byte[] bytes)
+        {
+            return decode(bytes, 0, bytes.length);
+        }
+
+        private static Element decode(byte[] bytes, int offset, int limit)
+        {
+            if (limit - offset < 2)
+                throw new IllegalArgumentException("Truncated DER element");
+            int start = offset;
+            int tag = bytes[offset++] & 0xFF;
+            int length = bytes[offset++] & 0xFF;
+            if (length > 0x7F)
+            {
+                int count = length & 0x7F;
+                if (count == 0 || count > 3 || limit - offset < count)
+                    throw new IllegalArgumentException("Invalid DER length");
+                length = 0;
+                for (int i = 0; i < count; ++i)
+                    length = (length << 8) | (bytes[offset++] & 0xFF);
+            }
+            if (length > limit - offset)
+                throw new IllegalArgumentException("Truncated DER element");
+            return new Element(tag, bytes, start, offset, length);
+        }
+
+        Element expect(int expected)
+        {
+            if (tag != expected)
+                throw new IllegalArgumentException(String.format("Expected DER tag 0x%02X, found 0x%02X", expected, tag));
+            return this;
+        }
+
+        byte[] content()
+        {
+            return Arrays.copyOfRange(bytes, offset, end);
+        }
+
+        /**
+         * @return the whole element, tag and length included
+         */
+        byte[] encoded()
+        {
+            return Arrays.copyOfRange(bytes, start, end);
+        }
+
+        List<Element> children()
+        {
+            List<Element> result = new ArrayList<>();
+            int position = offset;
+            while (position < end)
+            {
+                Element child = decode(bytes, position, end);
+                result.add(child);
+                position = child.end;
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,461 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2017 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.util.ssl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.security.cert.X509Certificate;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.jetty.util.annotation.ManagedAttribute;
+import org.eclipse.jetty.util.annotation.ManagedObject;
+import org.eclipse.jetty.util.annotation.ManagedOperation;
+import org.eclipse.jetty.util.component.ContainerLifeCycle;
+import org.eclipse.jetty.util.log.Log;
+import org.eclipse.jetty.util.log.Logger;
+import org.eclipse.jetty.util.thread.ScheduledExecutorScheduler;
+import org.eclipse.jetty.util.thread.Scheduler;
+
+/**
+ * <p>A cache of OCSP responses for server certificates, to be stapled to TLS handshakes.</p>
+ * <p>OCSP responses are fetched from the OCSP responder of each certificate (or from the
+ * {@link #getResponderURL() configured responder}) when the certificate is added, and then
+ * refreshed in background, halfway through their validity period, so that handshakes are
+ * served OCSP responses from memory, never waiting for the responder.</p>
+ * <p>Refreshes are timed by a {@link Scheduler}; the blocking fetches run on the
+ * {@link #setExecutor(Executor) configured executor} or, if none is configured,
+ * directly on the scheduler thread, so the scheduler should then be a dedicated one
+ * (which is the default).</p>
+ * <p>Fetched responses are only cached if they are signed by the issuer of the
+ * certificate, or by a responder it delegated, and are currently valid.</p>
+ * <p>When a refresh fails, the previous response is retained until it expires, and the refresh
+ * is retried with an exponential backoff starting at {@link #getRetryInterval() the retry interval}.</p>
+ */
+@ManagedObject("OCSP stapling cache")
+public class OcspStaplingCache extends ContainerLifeCycle
+{
+    private static final Logger LOG = Log.getLogger(OcspStaplingCache.class);
+    private static final int MAX_RESPONSE_LENGTH = 64 * 1024;
+    private static final long MAX_CLOCK_SKEW = TimeUnit.MINUTES.toMillis(5);
+
+    private final Map<X509Certificate, Entry> entries = new ConcurrentHashMap<>();
+    private final AtomicLong fetches = new AtomicLong();
+    private final AtomicLong fetchFailures = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private String responderURL;
+    private long timeout = TimeUnit.SECONDS.toMillis(10);
+    private long minRefreshInterval = TimeUnit.MINUTES.toMillis(1);
+    private long defaultValidity = TimeUnit.HOURS.toMillis(1);
+    private long retryInterval = TimeUnit.SECONDS.toMillis(30);
+    private Scheduler scheduler;
+    private Executor executor;
+    private boolean ownScheduler;
+
+    @ManagedAttribute("The OCSP responder URL, overriding the one in certificates")
+    public String getResponderURL()
+    {
+        return responderURL;
+    }
+
+    /**
+     * @param responderURL the OCSP responder URL, or null to use the one in the Authority Information Access extension of certificates
+     */
+    public void setResponderURL(String responderURL)
+    {
+        this.responderURL = responderURL;
+    }
+
+    @ManagedAttribute("The timeout in ms to fetch OCSP responses")
+    public long getTimeout()
+    {
+        return timeout;
+    }
+
+    public void setTimeout(long timeout)
+    {
+        this.timeout = timeout;
+    }
+
+    @ManagedAttribute("The min interval in ms between refreshes of an OCSP response")
+    public long getMinRefreshInterval()
+    {
+        return minRefreshInterval;
+    }
+
+    public void setMinRefreshInterval(long minRefreshInterval)
+    {
+        this.minRefreshInterval = minRefreshInterval;
+    }
+
+    @ManagedAttribute("The validity in ms of OCSP responses without next update time")
+    public long getDefaultValidity()
+    {
+        return defaultValidity;
+    }
+
+    public void setDefaultValidity(long defaultValidity)
+    {
+        this.defaultValidity = defaultValidity;
+    }
+
+    @ManagedAttribute("The initial interval in ms to retry failed fetches of OCSP responses")
+    public long getRetryInterval()
+    {
+        return retryInterval;
+    }
+
+    public void setRetryInterval(long retryInterval)
+    {
+        this.retryInterval = retryInterval;
+    }
+
+    public Scheduler getScheduler()
+    {
+        return scheduler;
+    }
+
+    public void setScheduler(Scheduler scheduler)
+    {
+        updateBean(this.scheduler, scheduler);
+        this.scheduler = scheduler;
+    }
+
+    public Executor getExecutor()
+    {
+        return executor;
+    }
+
+    /**
+     * @param executor the executor to fetch OCSP responses, which blocks its threads for up to {@link #getTimeout() the timeout},
+     * or null to fetch OCSP responses on the scheduler thread
+     */
+    public void setExecutor(Executor executor)
+    {
+        updateBean(this.executor, executor);
+        this.executor = executor;
+    }
+
+    @Override
+    protected void doStart() throws Exception
+    {
+        if (scheduler == null)
+        {
+            scheduler = new ScheduledExecutorScheduler(String.format("OcspStaplingCache@%x-scheduler", hashCode()), false);
+            addManaged(scheduler);
+            ownScheduler = true;
+        }
+        else if (executor == null && !ownScheduler)
+        {
+            LOG.warn("No executor for {}, OCSP responses will be fetched on the shared scheduler {}", this, scheduler);
+        }
+        super.doStart();
+        for (Entry entry : entries.values())
+            entry.schedule(0);
+    }
+
+    @Override
+    protected void doStop() throws Exception
+    {
+        for (Entry entry : entries.values())
+            entry.cancel();
+        super.doStop();
+    }
+
+    /**
+     * <p>Adds a certificate to this cache; its OCSP response is fetched immediately if this cache is started.</p>
+     *
+     * @param certificate the certificate to staple OCSP responses for
+     * @param issuer the issuer of the certificate
+     */
+    public void addCertificate(X509Certificate certificate, X509Certificate issuer)
+    {
+        Entry entry = new Entry(certificate, issuer);
+        Entry existing = entries.putIfAbsent(certificate, entry);
+        if (existing == null && isRunning())
+            entry.schedule(0);
+    }
+
+    /**
+     * @param certificate the certificate to remove from this cache
+     * @return whether the certificate was removed
+     */
+    public boolean removeCertificate(X509Certificate certificate)
+    {
+        Entry entry = entries.remove(certificate);
+        if (entry == null)
+            return false;
+        entry.cancel();
+        return true;
+    }
+
+    /**
+     * @param certificate the certificate
+     * @return the DER encoded OCSP response to staple for the certificate,
+     * or null if there is no valid OCSP response for the certificate
+     */
+    public byte[] getResponse(X509Certificate certificate)
+    {
+        Entry entry = entries.get(certificate);
+        byte[] response = entry == null ? null : entry.getResponse();
+        if (response == null)
+            misses.incrementAndGet();
+        else
+            hits.incrementAndGet();
+        return response;
+    }
+
+    /**
+     * <p>Refreshes the OCSP responses of all certificates now, in background.</p>
+     */
+    @ManagedOperation(value = "Refreshes the OCSP responses", impact = "ACTION")
+    public void refresh()
+    {
+        for (Entry entry : entries.values())
+            entry.schedule(0);
+    }
+
+    @ManagedAttribute("The number of certificates")
+    public int getCertificateCount()
+    {
+        return entries.size();
+    }
+
+    @ManagedAttribute("The number of OCSP responses fetched")
+    public long getFetches()
+    {
+        return fetches.get();
+    }
+
+    @ManagedAttribute("The number of failed fetches of OCSP responses")
+    public long getFetchFailures()
+    {
+        return fetchFailures.get();
+    }
+
+    @ManagedAttribute("The number of handshakes with a stapled OCSP response")
+    public long getHits()
+    {
+        return hits.get();
+    }
+
+    @ManagedAttribute("The number of handshakes without a stapled OCSP response")
+    public long getMisses()
+    {
+        return misses.get();
+    }
+
+    @ManagedOperation(value = "Resets the statistics", impact = "ACTION")
+    public void reset()
+    {
+        fetches.set(0);
+        fetchFailures.set(0);
+        hits.set(0);
+        misses.set(0);
+    }
+
+    /**
+     * <p>Fetches an OCSP response from the given OCSP responder using HTTP POST.</p>
+     *
+     * @param responderURL the OCSP responder URL
+     * @param request the DER encoded OCSP request
+     * @return the DER encoded OCSP response
+     * @throws IOException if the OCSP response cannot be fetched
+     */
+    protected byte[] fetch(String responderURL, byte[] request) throws IOException
+    {
+        HttpURLConnection connection = (HttpURLConnection)new URL(responderURL).openConnection();
+        try
+        {
+            connection.setConnectTimeout((int)getTimeout());
+            connection.setReadTimeout((int)getTimeout());
+            connection.setDoOutput(true);
+            connection.setRequestMethod("POST");
+            connection.setRequestProperty("Content-Type", "application/ocsp-request");
+            connection.setRequestProperty("Accept", "application/ocsp-response");
+            connection.setFixedLengthStreamingMode(request.length);
+            try (OutputStream output = connection.getOutputStream())
+            {
+                output.write(request);
+            }
+            int status = connection.getResponseCode();
+            if (status != HttpURLConnection.HTTP_OK)
+                throw new IOException("Unexpected OCSP responder status " + status + " from " + responderURL);
+            try (InputStream input = connection.getInputStream())
+            {
+                ByteArrayOutputStream output = new ByteArrayOutputStream();
+                byte[] buffer = new byte[4096];
+                int read;
+                while ((read = input.read(buffer)) >= 0)
+                {
+                    output.write(buffer, 0, read);
+                    if (output.size() > MAX_RESPONSE_LENGTH)
+                        throw new IOException("OCSP response too large from " + responderURL);
+                }
+                return output.toByteArray();
+            }
+        }
+        finally
+        {
+            connection.disconnect();
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s@%x[certificates=%d,hits=%d,misses=%d]",
+                getClass().getSimpleName(),
+                hashCode(),
+                getCertificateCount(),
+                getHits(),
+                getMisses());
+    }
+
+    private class Entry
+    {
+        private final X509Certificate certificate;
+        private final X509Certificate issuer;
+        private volatile byte[] response;
+        private volatile long expiration;
+        private Scheduler.Task task;
+        private int failures;
+
+        private Entry(X509Certificate certificate, X509Certificate issuer)
+        {
+            this.certificate = certificate;
+            this.issuer = issuer;
+        }
+
+        private byte[] getResponse()
+        {
+            byte[] response = this.response;
+            if (response == null || System.currentTimeMillis() >= expiration)
+                return null;
+            return response;
+        }
+
+        private synchronized void schedule(long delay)
+        {
+            if (task != null)
+                task.cancel();
+            task = null;
+            if (isRunning() && entries.get(certificate) == this)
+                task = scheduler.schedule(this::submit, delay, TimeUnit.MILLISECONDS);
+        }
+
+        private void submit()
+        {
+            Executor executor = getExecutor();
+            if (executor == null)
+            {
+                refresh();
+                return;
+            }
+            try
+            {
+                executor.execute(this::refresh);
+            }
+            catch (RejectedExecutionException x)
+            {
+                if (LOG.isDebugEnabled())
+                    LOG.debug("Could not fetch OCSP response for " + certificate.getSubjectX500Principal(), x);
+                schedule(getRetryInterval());
+            }
+        }
+
+        private synchronized void cancel()
+        {
+            if (task != null)
+                task.cancel();
+            task = null;
+        }
+
+        private void refresh()
+        {
+            String url = getResponderURL();
+            if (url == null)
+                url = OcspCodec.responderURI(certificate);
+            if (url == null)
+            {
+                LOG.warn("No OCSP responder for {}", certificate.getSubjectX500Principal());
+                return;
+            }
+
+            try
+            {
+                fetches.incrementAndGet();
+                byte[] bytes = fetch(url, OcspCodec.encodeRequest(certificate, issuer));
+                OcspCodec.Response ocspResponse = OcspCodec.decodeResponse(bytes, certificate, issuer);
+                long now = System.currentTimeMillis();
+                if (ocspResponse.thisUpdate > now + MAX_CLOCK_SKEW)
+                    throw new IllegalArgumentException("OCSP response not yet valid");
+                long nextUpdate = ocspResponse.nextUpdate;
+                if (nextUpdate < 0)
+                    nextUpdate = Math.max(now, ocspResponse.thisUpdate) + getDefaultValidity();
+                if (nextUpdate <= now)
+                    throw new IllegalArgumentException("Expired OCSP response");
+
+                if (ocspResponse.status == OcspCodec.CertStatus.UNKNOWN)
+                {
+                    LOG.warn("OCSP responder {} does not know {}", url, certificate.getSubjectX500Principal());
+                    response = null;
+                }
+                else
+                {
+                    if (ocspResponse.status == OcspCodec.CertStatus.REVOKED)
+                        LOG.warn("OCSP responder {} reports revoked {}", url, certificate.getSubjectX500Principal());
+                    expiration = nextUpdate;
+                    response = bytes;
+                }
+
+                long delay = Math.max(getMinRefreshInterval(), (nextUpdate - now) / 2);
+                synchronized (this)
+                {
+                    failures = 0;
+                }
+                if (LOG.isDebugEnabled())
+                    LOG.debug("Fetched OCSP response {} for {}, refresh in {} ms", ocspResponse.status, certificate.getSubjectX500Principal(), delay);
+                schedule(delay);
+            }
+            catch (Throwable x)
+            {
+                fetchFailures.incrementAndGet();
+                long delay;
+                synchronized (this)
+                {
+                    delay = getRetryInterval() << Math.min(failures++, 6);
+                }
+                LOG.warn("Could not fetch OCSP response from {} for {}, retrying in {} ms: {}", url, certificate.getSubjectX500Principal(), delay, x.toString());
+                if (LOG.isDebugEnabled())
+                    LOG.debug(x);
+                schedule(delay);
+            }
+        }
+    }
+}
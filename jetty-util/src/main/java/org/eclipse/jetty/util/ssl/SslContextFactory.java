@@ -20,6 +20,7 @@ package org.eclipse.jetty.util.ssl;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.lang.reflect.Method;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.security.KeyStore;
@@ -45,7 +46,9 @@ import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Consumer;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -173,6 +176,10 @@ public class SslContextFactory extends AbstractLifeCycle implements Dumpable
     private int _renegotiationLimit = 5;
     private Factory _factory;
     private PKIXCertPathChecker _pkixCertPathChecker;
+    private OcspStaplingCache _ocspStaplingCache;
+    private boolean _ocspStaplingCacheStarted;
+    private final List<X509Certificate> _ocspStapledCertificates = new ArrayList<>();
+    private final Map<Class<?>, Optional<Method>> _ocspStaplingMethods = new ConcurrentHashMap<>();
 
     /**
      * Construct an instance of SslContextFactory
@@ -225,6 +232,28 @@ public class SslContextFactory extends AbstractLifeCycle implements Dumpable
         {
             load();
         }
+
+        OcspStaplingCache ocspStaplingCache = getOcspStaplingCache();
+        if (ocspStaplingCache != null)
+        {
+            SSLEngine sslEngine;
+            synchronized (this)
+            {
+                sslEngine = _factory._context.createSSLEngine();
+            }
+            if (!isOcspStaplingSupported(sslEngine))
+                throw new IllegalStateException("OCSP stapling not supported by " + sslEngine.getClass().getName() +
+                        ", for the JDK TLS provider remove the OcspStaplingCache and use -Djdk.tls.server.enableStatusRequestExtension=true instead");
+            synchronized (this)
+            {
+                addOcspStapledCertificates(ocspStaplingCache);
+            }
+            if (!ocspStaplingCache.isStarted())
+            {
+                ocspStaplingCache.start();
+                _ocspStaplingCacheStarted = true;
+            }
+        }
     }
 
     private void load() throws Exception
@@ -383,6 +412,17 @@ public class SslContextFactory extends AbstractLifeCycle implements Dumpable
     @Override
     protected void doStop() throws Exception
     {
+        OcspStaplingCache ocspStaplingCache = getOcspStaplingCache();
+        if (ocspStaplingCache != null)
+        {
+            if (_ocspStaplingCacheStarted)
+                ocspStaplingCache.stop();
+            _ocspStaplingCacheStarted = false;
+            synchronized (this)
+            {
+                removeOcspStapledCertificates(ocspStaplingCache);
+            }
+        }
         synchronized (this)
         {
             unload();
@@ -1522,6 +1562,27 @@ public class SslContextFactory extends AbstractLifeCycle implements Dumpable
         _sslSessionTimeout = sslSessionTimeout;
     }
 
+    /**
+     * @return the cache of OCSP responses stapled to handshakes, or null if OCSP responses are not stapled
+     */
+    public OcspStaplingCache getOcspStaplingCache()
+    {
+        return _ocspStaplingCache;
+    }
+
+    /**
+     * <p>Sets the cache of OCSP responses for the certificates of the key store,
+     * to be stapled to server handshakes.</p>
+     * <p>The TLS provider must support application provided OCSP responses,
+     * see {@link #isOcspStaplingSupported(SSLEngine)}, otherwise this factory fails to start.</p>
+     *
+     * @param ocspStaplingCache the cache of OCSP responses, or null to not staple OCSP responses
+     */
+    public void setOcspStaplingCache(OcspStaplingCache ocspStaplingCache)
+    {
+        _ocspStaplingCache = ocspStaplingCache;
+    }
+
     /**
      * Returns the password object for the given realm.
      *
@@ -1641,7 +1702,128 @@ public class SslContextFactory extends AbstractLifeCycle implements Dumpable
         if (LOG.isDebugEnabled())
             LOG.debug("Customize {}", sslEngine);
 
-        sslEngine.setSSLParameters(customize(sslEngine.getSSLParameters()));
+        SSLParameters sslParams = customize(sslEngine.getSSLParameters());
+
+        OcspStaplingCache ocspStaplingCache = getOcspStaplingCache();
+        X509 x509 = ocspStaplingCache == null ? null : getOcspStapledX509();
+        if (ocspStaplingCache != null && x509 == null && sslParams.getSNIMatchers() != null && !sslParams.getSNIMatchers().isEmpty())
+        {
+            // The certificate depends on SNI, so staple when the SNI is matched during the handshake.
+            sslParams.setSNIMatchers(Collections.singletonList(new OcspStaplingSNIMatcher(sslEngine, ocspStaplingCache)));
+        }
+
+        sslEngine.setSSLParameters(sslParams);
+
+        if (x509 != null)
+            stapleOcspResponse(sslEngine, ocspStaplingCache, x509);
+    }
+
+    private void stapleOcspResponse(SSLEngine sslEngine, OcspStaplingCache ocspStaplingCache, X509 x509)
+    {
+        byte[] response = ocspStaplingCache.getResponse(x509.getCertificate());
+        if (response != null)
+            stapleOcspResponse(sslEngine, response);
+    }
+
+    /**
+     * <p>Returns whether the TLS provider of the given {@link SSLEngine} supports
+     * application provided OCSP responses.</p>
+     * <p>The JDK TLS provider does not (it can only fetch OCSP responses itself, see the
+     * {@code jdk.tls.server.enableStatusRequestExtension} system property);
+     * OpenSSL based TLS providers typically expose a {@code setOcspResponse(byte[])}
+     * method on their engines, which this implementation looks for.
+     * Subclasses overriding {@link #stapleOcspResponse(SSLEngine, byte[])} to support
+     * other TLS providers must override this method too.</p>
+     *
+     * @param sslEngine a server SSLEngine
+     * @return whether OCSP responses can be stapled to the handshakes of the SSLEngine
+     */
+    protected boolean isOcspStaplingSupported(SSLEngine sslEngine)
+    {
+        return _ocspStaplingMethods.computeIfAbsent(sslEngine.getClass(), SslContextFactory::findOcspStaplingMethod).isPresent();
+    }
+
+    /**
+     * <p>Staples the given OCSP response to the handshakes of the given {@link SSLEngine},
+     * invoking its {@code setOcspResponse(byte[])} method.</p>
+     *
+     * @param sslEngine the server SSLEngine
+     * @param response the DER encoded OCSP response
+     * @return whether the OCSP response has been stapled
+     */
+    protected boolean stapleOcspResponse(SSLEngine sslEngine, byte[] response)
+    {
+        Optional<Method> method = _ocspStaplingMethods.computeIfAbsent(sslEngine.getClass(), SslContextFactory::findOcspStaplingMethod);
+        if (!method.isPresent())
+            return false;
+        try
+        {
+            method.get().invoke(sslEngine, (Object)response);
+            return true;
+        }
+        catch (Throwable x)
+        {
+            LOG.warn("Could not staple OCSP response to " + sslEngine, x);
+            return false;
+        }
+    }
+
+    private static Optional<Method> findOcspStaplingMethod(Class<?> sslEngineClass)
+    {
+        try
+        {
+            return Optional.of(sslEngineClass.getMethod("setOcspResponse", byte[].class));
+        }
+        catch (NoSuchMethodException x)
+        {
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * @return the certificate to staple OCSP responses for, that is the certificate
+     * with the {@link #getCertAlias() configured alias}, or the only certificate of the key store,
+     * or null if the certificate is chosen by SNI during the handshake
+     */
+    private X509 getOcspStapledX509()
+    {
+        String alias = getCertAlias();
+        if (alias != null)
+            return _aliasX509.get(alias);
+        Collection<X509> x509s = _aliasX509.values();
+        return x509s.size() == 1 ? x509s.iterator().next() : null;
+    }
+
+    private void addOcspStapledCertificates(OcspStaplingCache ocspStaplingCache)
+    {
+        Factory factory = _factory;
+        if (factory == null || factory._keyStore == null)
+            return;
+        try
+        {
+            for (X509 x509 : _aliasX509.values())
+            {
+                X509Certificate certificate = x509.getCertificate();
+                // The issuer is the next certificate in the chain, or the certificate itself if it is self-signed.
+                X509Certificate issuer = certificate;
+                Certificate[] chain = factory._keyStore.getCertificateChain(x509.getAlias());
+                if (chain != null && chain.length > 1 && chain[1] instanceof X509Certificate)
+                    issuer = (X509Certificate)chain[1];
+                ocspStaplingCache.addCertificate(certificate, issuer);
+                _ocspStapledCertificates.add(certificate);
+            }
+        }
+        catch (Exception x)
+        {
+            LOG.warn("Could not add certificates to " + ocspStaplingCache, x);
+        }
+    }
+
+    private void removeOcspStapledCertificates(OcspStaplingCache ocspStaplingCache)
+    {
+        for (X509Certificate certificate : _ocspStapledCertificates)
+            ocspStaplingCache.removeCertificate(certificate);
+        _ocspStapledCertificates.clear();
     }
 
     /**
@@ -1674,6 +1856,12 @@ public class SslContextFactory extends AbstractLifeCycle implements Dumpable
             consumer.accept(this);
             unload();
             load();
+            OcspStaplingCache ocspStaplingCache = getOcspStaplingCache();
+            if (ocspStaplingCache != null && isRunning())
+            {
+                removeOcspStapledCertificates(ocspStaplingCache);
+                addOcspStapledCertificates(ocspStaplingCache);
+            }
         }
     }
 
@@ -1852,4 +2040,27 @@ public class SslContextFactory extends AbstractLifeCycle implements Dumpable
             return _x509;
         }
     }
+
+    private class OcspStaplingSNIMatcher extends AliasSNIMatcher
+    {
+        private final SSLEngine _sslEngine;
+        private final OcspStaplingCache _ocspStaplingCache;
+
+        private OcspStaplingSNIMatcher(SSLEngine sslEngine, OcspStaplingCache ocspStaplingCache)
+        {
+            _sslEngine = sslEngine;
+            _ocspStaplingCache = ocspStaplingCache;
+        }
+
+        @Override
+        public boolean matches(SNIServerName serverName)
+        {
+            boolean matches = super.matches(serverName);
+            // Without a matched certificate the key manager picks one, so staple nothing rather than the wrong response.
+            X509 x509 = getX509();
+            if (x509 != null)
+                stapleOcspResponse(_sslEngine, _ocspStaplingCache, x509);
+            return matches;
+        }
+    }
 }
@@ -0,0 +1,159 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2017 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.util.statistic;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Statistics on the rate of an event.</p>
+ * <p>The rate is the number of events recorded over the last period, a sliding
+ * window of fixed length, so reading it does not modify the statistic, and
+ * concurrent readers see the same value.</p>
+ */
+public class RateStatistic
+{
+    private final Deque<Long> _samples = new ArrayDeque<>();
+    private final long _nanoPeriod;
+    private final TimeUnit _units;
+    private long _max;
+    private long _count;
+
+    public RateStatistic(long period, TimeUnit units)
+    {
+        _nanoPeriod = TimeUnit.NANOSECONDS.convert(period, units);
+        _units = units;
+    }
+
+    public long getPeriod()
+    {
+        return _units.convert(_nanoPeriod, TimeUnit.NANOSECONDS);
+    }
+
+    public TimeUnit getUnits()
+    {
+        return _units;
+    }
+
+    public void reset()
+    {
+        synchronized (this)
+        {
+            _samples.clear();
+            _max = 0;
+            _count = 0;
+        }
+    }
+
+    /**
+     * <p>Moves the recorded events back in time, so that tests
+     * can verify the rate without waiting for the period to elapse.</p>
+     *
+     * @param period the amount of time to age the events by
+     * @param units the units of the period
+     */
+    protected void age(long period, TimeUnit units)
+    {
+        long increment = TimeUnit.NANOSECONDS.convert(period, units);
+        synchronized (this)
+        {
+            int size = _samples.size();
+            for (int i = 0; i < size; i++)
+                _samples.addLast(_samples.removeFirst() - increment);
+            update(System.nanoTime());
+        }
+    }
+
+    /**
+     * <p>Records an event.</p>
+     *
+     * @return the rate, including the event just recorded
+     */
+    public int record()
+    {
+        long now = System.nanoTime();
+        synchronized (this)
+        {
+            _count++;
+            _samples.add(now);
+            update(now);
+            int rate = _samples.size();
+            if (rate > _max)
+                _max = rate;
+            return rate;
+        }
+    }
+
+    private void update(long now)
+    {
+        long expire = now - _nanoPeriod;
+        Long head = _samples.peekFirst();
+        while (head != null && head < expire)
+        {
+            _samples.removeFirst();
+            head = _samples.peekFirst();
+        }
+    }
+
+    /**
+     * @return the number of events recorded over the last period
+     */
+    public int getRate()
+    {
+        synchronized (this)
+        {
+            update(System.nanoTime());
+            return _samples.size();
+        }
+    }
+
+    /**
+     * @return the max rate observed since the last reset
+     */
+    public long getMax()
+    {
+        synchronized (this)
+        {
+            return _max;
+        }
+    }
+
+    /**
+     * @return the number of events recorded since the last reset
+     */
+    public long getCount()
+    {
+        synchronized (this)
+        {
+            return _count;
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        synchronized (this)
+        {
+            update(System.nanoTime());
+            return String.format("%s@%x{count=%d,max=%d,rate=%d per %d %s}",
+                    getClass().getSimpleName(), hashCode(), _count, _max, _samples.size(), getPeriod(), _units);
+        }
+    }
+}
@@ -0,0 +1,176 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2017 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.util;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CachingSocketAddressResolverTest
+{
+    private final List<Promise<List<InetSocketAddress>>> pending = new CopyOnWriteArrayList<>();
+    private final SocketAddressResolver nested = (host, port, promise) -> pending.add(promise);
+
+    private void complete() throws Exception
+    {
+        InetSocketAddress address = new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 0);
+        for (Promise<List<InetSocketAddress>> promise : pending)
+        {
+            pending.remove(promise);
+            promise.succeeded(Collections.singletonList(address));
+        }
+    }
+
+    @Test
+    public void testConcurrentResolutionsAreCoalesced() throws Exception
+    {
+        CachingSocketAddressResolver resolver = new CachingSocketAddressResolver(nested);
+
+        FuturePromise<List<InetSocketAddress>> promise1 = new FuturePromise<>();
+        resolver.resolve("localhost", 8080, promise1);
+        FuturePromise<List<InetSocketAddress>> promise2 = new FuturePromise<>();
+        resolver.resolve("localhost", 8443, promise2);
+
+        Assert.assertEquals(1, pending.size());
+        Assert.assertFalse(promise1.isDone());
+        complete();
+
+        Assert.assertEquals(8080, promise1.get(5, TimeUnit.SECONDS).get(0).getPort());
+        Assert.assertEquals(8443, promise2.get(5, TimeUnit.SECONDS).get(0).getPort());
+        Assert.assertEquals(2, resolver.getMisses());
+    }
+
+    @Test
+    public void testResolvedAddressesAreCached() throws Exception
+    {
+        CachingSocketAddressResolver resolver = new CachingSocketAddressResolver(nested);
+
+        FuturePromise<List<InetSocketAddress>> promise1 = new FuturePromise<>();
+        resolver.resolve("localhost", 8080, promise1);
+        complete();
+        promise1.get(5, TimeUnit.SECONDS);
+
+        FuturePromise<List<InetSocketAddress>> promise2 = new FuturePromise<>();
+        resolver.resolve("localhost", 8080, promise2);
+
+        Assert.assertTrue(promise2.isDone());
+        Assert.assertTrue(pending.isEmpty());
+        Assert.assertEquals(1, resolver.getHits());
+        Assert.assertEquals(1, resolver.getMisses());
+    }
+
+    @Test
+    public void testExpiredEntryIsResolvedAgain() throws Exception
+    {
+        CachingSocketAddressResolver resolver = new CachingSocketAddressResolver(nested);
+        resolver.setTimeToLive(100);
+        resolver.setRefreshRatio(1);
+
+        FuturePromise<List<InetSocketAddress>> promise1 = new FuturePromise<>();
+        resolver.resolve("localhost", 8080, promise1);
+        complete();
+        promise1.get(5, TimeUnit.SECONDS);
+
+        Thread.sleep(2 * resolver.getTimeToLive());
+
+        FuturePromise<List<InetSocketAddress>> promise2 = new FuturePromise<>();
+        resolver.resolve("localhost", 8080, promise2);
+        Assert.assertFalse(promise2.isDone());
+        Assert.assertEquals(1, pending.size());
+        complete();
+        promise2.get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void testEntryIsRefreshedInBackground() throws Exception
+    {
+        CachingSocketAddressResolver resolver = new CachingSocketAddressResolver(nested);
+        resolver.setTimeToLive(10000);
+        resolver.setRefreshRatio(0.01);
+
+        FuturePromise<List<InetSocketAddress>> promise1 = new FuturePromise<>();
+        resolver.resolve("localhost", 8080, promise1);
+        complete();
+        promise1.get(5, TimeUnit.SECONDS);
+
+        Thread.sleep(200);
+
+        // The cached addresses are returned and a refresh is started.
+        FuturePromise<List<InetSocketAddress>> promise2 = new FuturePromise<>();
+        resolver.resolve("localhost", 8080, promise2);
+        Assert.assertTrue(promise2.isDone());
+        Assert.assertEquals(1, pending.size());
+
+        // A failed refresh keeps the cached addresses.
+        pending.remove(0).failed(new UnknownHostException());
+        FuturePromise<List<InetSocketAddress>> promise3 = new FuturePromise<>();
+        resolver.resolve("localhost", 8080, promise3);
+        Assert.assertEquals(8080, promise3.get(5, TimeUnit.SECONDS).get(0).getPort());
+        Assert.assertEquals(1, resolver.getFailures());
+    }
+
+    @Test
+    public void testFailuresAreCached() throws Exception
+    {
+        CachingSocketAddressResolver resolver = new CachingSocketAddressResolver(nested);
+        resolver.setNegativeTimeToLive(10000);
+
+        FuturePromise<List<InetSocketAddress>> promise1 = new FuturePromise<>();
+        resolver.resolve("unknown", 8080, promise1);
+        UnknownHostException failure = new UnknownHostException();
+        pending.remove(0).failed(failure);
+        Assert.assertTrue(promise1.isDone());
+
+        FuturePromise<List<InetSocketAddress>> promise2 = new FuturePromise<>();
+        resolver.resolve("unknown", 8080, promise2);
+        Assert.assertTrue(promise2.isDone());
+        Assert.assertTrue(pending.isEmpty());
+        try
+        {
+            promise2.get();
+            Assert.fail();
+        }
+        catch (Exception x)
+        {
+            Assert.assertSame(failure, x.getCause());
+        }
+    }
+
+    @Test
+    public void testMaxEntries() throws Exception
+    {
+        CachingSocketAddressResolver resolver = new CachingSocketAddressResolver(nested);
+        resolver.setMaxEntries(2);
+
+        for (int i = 0; i < 4; ++i)
+        {
+            resolver.resolve("host" + i, 8080, new FuturePromise<>());
+            complete();
+        }
+
+        Assert.assertEquals(2, resolver.getEntries());
+    }
+}
@@ -0,0 +1,415 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2017 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.util.ssl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.net.InetSocketAddress;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.Signature;
+import java.security.cert.X509Certificate;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BooleanSupplier;
+
+import javax.net.ssl.SNIHostName;
+import javax.net.ssl.SNIMatcher;
+import javax.net.ssl.SSLEngine;
+
+import com.sun.net.httpserver.HttpServer;
+import org.eclipse.jetty.util.IO;
+import org.eclipse.jetty.util.resource.Resource;
+import org.hamcrest.Matchers;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class OcspStaplingCacheTest
+{
+    private final AtomicInteger requests = new AtomicInteger();
+    private volatile int status = 200;
+    private volatile OcspCodec.CertStatus certStatus = OcspCodec.CertStatus.GOOD;
+    private volatile long validity = TimeUnit.HOURS.toMillis(1);
+    private volatile PrivateKey signingKey;
+    private final Map<BigInteger, PrivateKey> privateKeys = new ConcurrentHashMap<>();
+    private HttpServer responder;
+    private String responderURL;
+    private X509Certificate certificate;
+    private OcspStaplingCache cache;
+
+    @Before
+    public void prepare() throws Exception
+    {
+        KeyStore keyStore = loadKeyStore("/keystore");
+        certificate = (X509Certificate)keyStore.getCertificate("mykey");
+        // The certificates are self-signed, so they are their own issuers.
+        loadPrivateKeys(keyStore);
+        loadPrivateKeys(loadKeyStore("/snikeystore"));
+
+        // A stand-in OCSP responder.
+        responder = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        responder.createContext("/ocsp", exchange ->
+        {
+            requests.incrementAndGet();
+            byte[] request = IO.readBytes(exchange.getRequestBody());
+            int code = status;
+            byte[] response;
+            try
+            {
+                response = code == 200 ? newOcspResponse(request) : new byte[0];
+            }
+            catch (GeneralSecurityException x)
+            {
+                throw new IOException(x);
+            }
+            exchange.getResponseHeaders().set("Content-Type", "application/ocsp-response");
+            exchange.sendResponseHeaders(code, response.length == 0 ? -1 : response.length);
+            try (OutputStream output = exchange.getResponseBody())
+            {
+                output.write(response);
+            }
+        });
+        responder.start();
+        responderURL = "http://localhost:" + responder.getAddress().getPort() + "/ocsp";
+
+        cache = new OcspStaplingCache();
+        cache.setResponderURL(responderURL);
+    }
+
+    @After
+    public void dispose() throws Exception
+    {
+        if (cache != null)
+            cache.stop();
+        responder.stop(0);
+    }
+
+    private KeyStore loadKeyStore(String name) throws Exception
+    {
+        KeyStore keyStore = KeyStore.getInstance("JKS");
+        try (InputStream input = getClass().getResourceAsStream(name))
+        {
+            keyStore.load(input, "storepwd".toCharArray());
+        }
+        return keyStore;
+    }
+
+    private void loadPrivateKeys(KeyStore keyStore) throws Exception
+    {
+        for (String alias : Collections.list(keyStore.aliases()))
+        {
+            if (keyStore.isKeyEntry(alias))
+            {
+                X509Certificate x509 = (X509Certificate)keyStore.getCertificate(alias);
+                privateKeys.put(x509.getSerialNumber(), (PrivateKey)keyStore.getKey(alias, "keypwd".toCharArray()));
+            }
+        }
+    }
+
+    private byte[] newOcspResponse(byte[] request) throws GeneralSecurityException
+    {
+        // OCSPRequest -> TBSRequest -> requestList -> Request -> CertID
+        OcspCodec.Element certID = OcspCodec.Element.decode(request)
+                .children().get(0).children().get(0).children().get(0).children().get(0);
+        BigInteger serialNumber = new BigInteger(certID.children().get(3).content());
+        byte[] certIDBytes = OcspCodec.encode(OcspCodec.SEQUENCE, certID.children().stream()
+                .map(element -> OcspCodec.encode(element.tag, element.content()))
+                .toArray(byte[][]::new));
+
+        long now = System.currentTimeMillis();
+        byte[] statusBytes;
+        switch (certStatus)
+        {
+            case GOOD:
+                statusBytes = OcspCodec.encode(0x80);
+                break;
+            case REVOKED:
+                statusBytes = OcspCodec.encode(0xA1, OcspCodec.encodeTime(now));
+                break;
+            default:
+                statusBytes = OcspCodec.encode(0x82);
+                break;
+        }
+        byte[] singleResponse = OcspCodec.encode(OcspCodec.SEQUENCE,
+                certIDBytes,
+                statusBytes,
+                OcspCodec.encodeTime(now),
+                OcspCodec.encode(0xA0, OcspCodec.encodeTime(now + validity)));
+        byte[] responseData = OcspCodec.encode(OcspCodec.SEQUENCE,
+                OcspCodec.encode(0xA2, OcspCodec.encode(OcspCodec.OCTET_STRING, new byte[20])),
+                OcspCodec.encodeTime(now),
+                OcspCodec.encode(OcspCodec.SEQUENCE, singleResponse));
+        PrivateKey key = signingKey;
+        if (key == null)
+            key = privateKeys.get(serialNumber);
+        boolean rsa = "RSA".equals(key.getAlgorithm());
+        Signature signer = Signature.getInstance(rsa ? "SHA256withRSA" : "SHA1withDSA");
+        signer.initSign(key);
+        signer.update(responseData);
+        byte[] signature = signer.sign();
+        byte[] signatureBits = new byte[signature.length + 1];
+        System.arraycopy(signature, 0, signatureBits, 1, signature.length);
+        byte[] algorithm = rsa
+                ? OcspCodec.encode(OcspCodec.SEQUENCE, OcspCodec.encode(OcspCodec.OID, new byte[]{0x2A, (byte)0x86, 0x48, (byte)0x86, (byte)0xF7, 0x0D, 0x01, 0x01, 0x0B}), OcspCodec.encode(OcspCodec.NULL))
+                : OcspCodec.encode(OcspCodec.SEQUENCE, OcspCodec.encode(OcspCodec.OID, new byte[]{0x2A, (byte)0x86, 0x48, (byte)0xCE, 0x38, 0x04, 0x03}));
+        byte[] basicResponse = OcspCodec.encode(OcspCodec.SEQUENCE,
+                responseData,
+                algorithm,
+                OcspCodec.encode(OcspCodec.BIT_STRING, signatureBits));
+        byte[] responseBytes = OcspCodec.encode(OcspCodec.SEQUENCE,
+                OcspCodec.encode(OcspCodec.OID, new byte[]{0x2B, 0x06, 0x01, 0x05, 0x05, 0x07, 0x30, 0x01, 0x01}),
+                OcspCodec.encode(OcspCodec.OCTET_STRING, basicResponse));
+        return OcspCodec.encode(OcspCodec.SEQUENCE,
+                OcspCodec.encode(OcspCodec.ENUMERATED, new byte[]{0}),
+                OcspCodec.encode(0xA0, responseBytes));
+    }
+
+    private void await(long timeout, BooleanSupplier condition) throws Exception
+    {
+        long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+        while (!condition.getAsBoolean())
+        {
+            if (System.nanoTime() > end)
+                Assert.fail();
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    public void testResponseFetchedOnStart() throws Exception
+    {
+        Assert.assertNull(cache.getResponse(certificate));
+
+        cache.addCertificate(certificate, certificate);
+        cache.start();
+
+        await(5000, () -> cache.getResponse(certificate) != null);
+        byte[] response = cache.getResponse(certificate);
+        OcspCodec.Response ocspResponse = OcspCodec.decodeResponse(response, certificate, certificate);
+        Assert.assertEquals(OcspCodec.CertStatus.GOOD, ocspResponse.status);
+        Assert.assertEquals(1, requests.get());
+        Assert.assertEquals(1, cache.getFetches());
+        Assert.assertEquals(0, cache.getFetchFailures());
+        Assert.assertThat(cache.getHits(), Matchers.greaterThan(0L));
+        Assert.assertThat(cache.getMisses(), Matchers.greaterThan(0L));
+    }
+
+    @Test
+    public void testResponseRefreshedInBackground() throws Exception
+    {
+        // Responses valid for 4 seconds are refreshed halfway.
+        validity = TimeUnit.SECONDS.toMillis(4);
+        cache.setMinRefreshInterval(0);
+        cache.addCertificate(certificate, certificate);
+        cache.start();
+
+        await(5000, () -> cache.getResponse(certificate) != null);
+        await(5000, () -> requests.get() >= 2);
+        Assert.assertNotNull(cache.getResponse(certificate));
+        Assert.assertEquals(0, cache.getFetchFailures());
+    }
+
+    @Test
+    public void testFailedRefreshRetainsResponse() throws Exception
+    {
+        validity = TimeUnit.SECONDS.toMillis(4);
+        cache.setMinRefreshInterval(0);
+        cache.setRetryInterval(100);
+        cache.addCertificate(certificate, certificate);
+        cache.start();
+
+        await(5000, () -> cache.getResponse(certificate) != null);
+        byte[] response = cache.getResponse(certificate);
+
+        status = 503;
+        cache.refresh();
+
+        await(5000, () -> cache.getFetchFailures() > 0);
+        Assert.assertArrayEquals(response, cache.getResponse(certificate));
+
+        // The refresh is retried until the responder recovers.
+        status = 200;
+        await(5000, () -> cache.getFetches() > cache.getFetchFailures() + 1);
+        Assert.assertNotNull(cache.getResponse(certificate));
+    }
+
+    @Test
+    public void testUnknownCertificateNotStapled() throws Exception
+    {
+        certStatus = OcspCodec.CertStatus.UNKNOWN;
+        cache.addCertificate(certificate, certificate);
+        cache.start();
+
+        await(5000, () -> cache.getFetches() == 1 && requests.get() == 1);
+        Thread.sleep(100);
+        Assert.assertNull(cache.getResponse(certificate));
+    }
+
+    @Test
+    public void testForgedResponseNotCached() throws Exception
+    {
+        // Signed with the key of another certificate.
+        KeyStore sniKeyStore = loadKeyStore("/snikeystore");
+        signingKey = privateKeys.get(((X509Certificate)sniKeyStore.getCertificate("other")).getSerialNumber());
+        cache.addCertificate(certificate, certificate);
+        cache.start();
+
+        await(5000, () -> cache.getFetchFailures() == 1);
+        Assert.assertNull(cache.getResponse(certificate));
+    }
+
+    @Test
+    public void testExpiredResponseNotCached() throws Exception
+    {
+        validity = -TimeUnit.MINUTES.toMillis(1);
+        cache.addCertificate(certificate, certificate);
+        cache.start();
+
+        await(5000, () -> cache.getFetchFailures() == 1);
+        Assert.assertNull(cache.getResponse(certificate));
+    }
+
+    @Test
+    public void testSslContextFactoryFailsToStartWithoutStaplingSupport() throws Exception
+    {
+        // The JDK TLS provider does not support application provided OCSP responses.
+        SslContextFactory sslContextFactory = new SslContextFactory();
+        sslContextFactory.setKeyStoreResource(Resource.newSystemResource("keystore"));
+        sslContextFactory.setKeyStorePassword("storepwd");
+        sslContextFactory.setKeyManagerPassword("keypwd");
+        sslContextFactory.setOcspStaplingCache(cache);
+        try
+        {
+            sslContextFactory.start();
+            Assert.fail();
+        }
+        catch (IllegalStateException x)
+        {
+            Assert.assertThat(x.getMessage(), Matchers.containsString("jdk.tls.server.enableStatusRequestExtension"));
+        }
+        finally
+        {
+            sslContextFactory.stop();
+        }
+        Assert.assertFalse(cache.isStarted());
+    }
+
+    @Test
+    public void testSslContextFactoryStaplesResponse() throws Exception
+    {
+        AtomicReference<byte[]> stapled = new AtomicReference<>();
+        SslContextFactory sslContextFactory = new SslContextFactory()
+        {
+            @Override
+            protected boolean isOcspStaplingSupported(SSLEngine sslEngine)
+            {
+                return true;
+            }
+
+            @Override
+            protected boolean stapleOcspResponse(SSLEngine sslEngine, byte[] response)
+            {
+                stapled.set(response);
+                return true;
+            }
+        };
+        sslContextFactory.setKeyStoreResource(Resource.newSystemResource("keystore"));
+        sslContextFactory.setKeyStorePassword("storepwd");
+        sslContextFactory.setKeyManagerPassword("keypwd");
+        sslContextFactory.setOcspStaplingCache(cache);
+        sslContextFactory.start();
+        try
+        {
+            Assert.assertTrue(cache.isStarted());
+            Assert.assertEquals(1, cache.getCertificateCount());
+            await(5000, () -> cache.getResponse(certificate) != null);
+
+            sslContextFactory.newSSLEngine();
+            Assert.assertNotNull(stapled.get());
+            Assert.assertEquals(OcspCodec.CertStatus.GOOD, OcspCodec.decodeResponse(stapled.get(), certificate, certificate).status);
+        }
+        finally
+        {
+            sslContextFactory.stop();
+        }
+        Assert.assertFalse(cache.isStarted());
+        Assert.assertEquals(0, cache.getCertificateCount());
+    }
+
+    @Test
+    public void testSslContextFactoryStaplesResponseOfSNICertificate() throws Exception
+    {
+        AtomicReference<byte[]> stapled = new AtomicReference<>();
+        SslContextFactory sslContextFactory = new SslContextFactory()
+        {
+            @Override
+            protected boolean isOcspStaplingSupported(SSLEngine sslEngine)
+            {
+                return true;
+            }
+
+            @Override
+            protected boolean stapleOcspResponse(SSLEngine sslEngine, byte[] response)
+            {
+                stapled.set(response);
+                return true;
+            }
+        };
+        sslContextFactory.setKeyStoreResource(Resource.newSystemResource("snikeystore"));
+        sslContextFactory.setKeyStorePassword("storepwd");
+        sslContextFactory.setKeyManagerPassword("keypwd");
+        sslContextFactory.setOcspStaplingCache(cache);
+        sslContextFactory.start();
+        try
+        {
+            X509Certificate jetty = sslContextFactory.getX509("jetty").getCertificate();
+            X509Certificate other = sslContextFactory.getX509("other").getCertificate();
+            await(5000, () -> cache.getResponse(jetty) != null && cache.getResponse(other) != null);
+
+            // The certificate is only known when the SNI is matched during the handshake.
+            SSLEngine sslEngine = sslContextFactory.newSSLEngine();
+            Assert.assertNull(stapled.get());
+
+            SNIMatcher matcher = sslEngine.getSSLParameters().getSNIMatchers().iterator().next();
+            Assert.assertTrue(matcher.matches(new SNIHostName("www.example.com")));
+            Assert.assertNotNull(stapled.get());
+            Assert.assertEquals(OcspCodec.CertStatus.GOOD, OcspCodec.decodeResponse(stapled.get(), other, other).status);
+
+            // No response is stapled for an unknown host, rather than the response of another certificate.
+            stapled.set(null);
+            sslEngine = sslContextFactory.newSSLEngine();
+            matcher = sslEngine.getSSLParameters().getSNIMatchers().iterator().next();
+            Assert.assertTrue(matcher.matches(new SNIHostName("unknown.com")));
+            Assert.assertNull(stapled.get());
+        }
+        finally
+        {
+            sslContextFactory.stop();
+        }
+    }
+}
@@ -0,0 +1,66 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2017 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.util.statistic;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class RateStatisticTest
+{
+    @Test
+    public void testRate()
+    {
+        RateStatistic rate = new RateStatistic(1, TimeUnit.HOURS);
+        assertThat(rate.getRate(), equalTo(0));
+        assertThat(rate.getMax(), equalTo(0L));
+        assertThat(rate.getCount(), equalTo(0L));
+
+        rate.record();
+        rate.record();
+        rate.record();
+        assertThat(rate.getRate(), equalTo(3));
+        // Reading the rate does not change it.
+        assertThat(rate.getRate(), equalTo(3));
+
+        rate.age(40, TimeUnit.MINUTES);
+        rate.record();
+        rate.record();
+        assertThat(rate.getRate(), equalTo(5));
+        assertThat(rate.getMax(), equalTo(5L));
+
+        // The first three events fall out of the window.
+        rate.age(30, TimeUnit.MINUTES);
+        assertThat(rate.getRate(), equalTo(2));
+        assertThat(rate.getMax(), equalTo(5L));
+        assertThat(rate.getCount(), equalTo(5L));
+
+        rate.age(31, TimeUnit.MINUTES);
+        assertThat(rate.getRate(), equalTo(0));
+
+        rate.record();
+        rate.reset();
+        assertThat(rate.getRate(), equalTo(0));
+        assertThat(rate.getMax(), equalTo(0L));
+        assertThat(rate.getCount(), equalTo(0L));
+    }
+}